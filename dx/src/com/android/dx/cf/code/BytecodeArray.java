@@ -38,6 +38,18 @@ public final class BytecodeArray {
     /** convenient no-op implementation of {@link Visitor} */
     public static final Visitor EMPTY_VISITOR = new BaseVisitor();
 
+    /**
+     * whether the constant leading elements of a partly constant array
+     * are filled in as a table, on the current thread
+     */
+    private static final ThreadLocal<Boolean> fillConstantPrefix =
+        new ThreadLocal<Boolean>() {
+            @Override
+            protected Boolean initialValue() {
+                return false;
+            }
+        };
+
     /** {@code non-null;} underlying bytes */
     private final ByteArray bytes;
 
@@ -64,6 +76,34 @@ public final class BytecodeArray {
         this.pool = pool;
     }
 
+    /**
+     * Sets whether {@code newarray} is parsed along with the stores of
+     * the constant leading elements of an array whose other elements
+     * aren't constant, on the current thread. Otherwise only arrays
+     * whose elements are all constant are parsed that way.
+     *
+     * @param enable true to fill in the constant prefix of partly
+     * constant arrays
+     */
+    public static void setFillConstantPrefix(boolean enable) {
+        fillConstantPrefix.set(enable);
+    }
+
+    /**
+     * @return true if the constant prefix of partly constant arrays is
+     * filled in
+     */
+    public static boolean getFillConstantPrefix() {
+        return fillConstantPrefix.get();
+    }
+
+    /**
+     * Clears the settings made for the current thread.
+     */
+    public static void clearSettings() {
+        fillConstantPrefix.remove();
+    }
+
     /**
      * Gets the underlying byte array.
      *
@@ -1048,9 +1088,12 @@ public final class BytecodeArray {
 
         /*
          * For singleton arrays it is still more economical to
-         * generate the aput.
+         * generate the aput. If only some leading elements are
+         * constant, those are filled in, when asked for, and the
+         * rest of the initialization is parsed as usual.
          */
-        if (nInit < 2 || nInit != arrayLength) {
+        if (nInit < 2 || nInit > arrayLength
+                || (nInit < arrayLength && !fillConstantPrefix.get())) {
             visitor.visitNewarray(offset, 2, type, null);
             return 2;
         } else {
@@ -1263,7 +1306,7 @@ public final class BytecodeArray {
         /** offset of the previously parsed bytecode */
         private int previousOffset;
 
-        BaseVisitor() {
+        public BaseVisitor() {
             previousOffset = -1;
         }
 
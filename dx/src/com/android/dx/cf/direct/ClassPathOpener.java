@@ -46,6 +46,17 @@ public class ClassPathOpener {
      * package.
      */
     private final boolean sort;
+    /** {@code non-null;} which files to read and pass to the consumer */
+    private final FileNameFilter filter;
+
+    /**
+     * An instance of {@link FileNameFilter} which accepts every file.
+     */
+    public static final FileNameFilter acceptAll = new FileNameFilter() {
+        public boolean accept(String path) {
+            return true;
+        }
+    };
 
     /**
      * Callback interface for {@code ClassOpener}.
@@ -82,7 +93,23 @@ public class ClassPathOpener {
     }
 
     /**
-     * Constructs an instance.
+     * Filter interface for {@code ClassOpener}.
+     */
+    public interface FileNameFilter {
+
+        /**
+         * Tells whether to read a file and pass it to the consumer.
+         * Archives are always opened, and their entries filtered.
+         *
+         * @param path {@code non-null;} filename of element. May not be a
+         * valid filesystem path.
+         * @return whether to pass the file on
+         */
+        boolean accept(String path);
+    }
+
+    /**
+     * Constructs an instance which passes every file on.
      *
      * @param pathname {@code non-null;} path element to process
      * @param sort if true, sort such that classes appear before their inner
@@ -91,8 +118,25 @@ public class ClassPathOpener {
      * @param consumer {@code non-null;} callback interface
      */
     public ClassPathOpener(String pathname, boolean sort, Consumer consumer) {
+        this(pathname, sort, acceptAll, consumer);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param pathname {@code non-null;} path element to process
+     * @param sort if true, sort such that classes appear before their inner
+     * classes and "package-info" occurs before all other classes in that
+     * package.
+     * @param filter {@code non-null;} which files to read and pass on;
+     * the others are skipped without being read
+     * @param consumer {@code non-null;} callback interface
+     */
+    public ClassPathOpener(String pathname, boolean sort,
+            FileNameFilter filter, Consumer consumer) {
         this.pathname = pathname;
         this.sort = sort;
+        this.filter = filter;
         this.consumer = consumer;
     }
 
@@ -130,6 +174,10 @@ public class ClassPathOpener {
                 return processArchive(file);
             }
 
+            if (!filter.accept(path)) {
+                return false;
+            }
+
             byte[] bytes = FileUtils.readFile(file);
             return consumer.processFileBytes(path, bytes);
         } catch (Exception ex) {
@@ -226,6 +274,11 @@ public class ClassPathOpener {
             }
 
             String path = one.getName();
+
+            if (!filter.accept(path)) {
+                continue;
+            }
+
             InputStream in = zip.getInputStream(one);
 
             baos.reset();
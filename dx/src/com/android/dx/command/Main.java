@@ -35,20 +35,67 @@ public class Main {
         "[--dump-width=<n>]\n" +
         "  [--dump-method=<name>[*]] [--verbose-dump] [--no-files] " +
         "[--core-library]\n" +
+        "  [--dominators=<algorithm>] [--pruned-ssa] [--escape-analysis]\n" +
+        "  [--value-numbering] [--loop-invariant-motion]\n" +
+        "  [--inline] [--inline-threshold=<n>] [--block-layout=<style>]\n" +
+        "  [--peephole] [--static-values] [--tree-shake=<file>]\n" +
+        "  [--fold-constants=<mode>] [--startup-profile=<file>] " +
+        "[--dedupe-code]\n" +
+        "  [--dedupe-debug-info] [--compact-debug-info] " +
+        "[--num-threads=<n>]\n" +
+        "  [--low-memory]\n" +
         "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
         "    Convert a set of classfiles into a dex file, optionally " +
         "embedded in a\n" +
         "    jar/zip. Output name must end with one of: .dex .jar " +
         ".zip .apk. Positions\n" +
-        "    options: none, important, lines.\n" +
+        "    options: none, important, lines. Dominators options:\n" +
+        "    lengauer-tarjan, iterative, check.\n" +
+        "    Inline threshold: largest callee to inline, in rop insns " +
+        "(default 10).\n" +
+        "    Block layout options: trace, frequency.\n" +
+        "    Tree shake file: what to keep, one class or member per line;\n" +
+        "    unreachable classes and members are left out.\n" +
+        "    Fold constants options: attributes, initializers.\n" +
+        "    Startup profile: the classes and methods used at startup, " +
+        "one per line\n" +
+        "    in the order first used; they are laid out together.\n" +
+        "    Dedupe code: methods whose code is the same share one " +
+        "code item.\n" +
+        "    Dedupe debug info: methods whose debug info is the same " +
+        "share it.\n" +
+        "    Compact debug info: positions that cover no code and the " +
+        "prologue end\n" +
+        "    marker are left out.\n" +
+        "    Num threads: how many threads write the output (default 1).\n" +
+        "    Low memory: translated code is kept in a temporary file " +
+        "until it is\n" +
+        "    written.\n" +
         "  dx --annotool --annotation=<class> [--element=<element types>]\n" +
-        "  [--print=<print types>]\n" +
+        "  [--print=<print types>] [--num-threads=<n>] " +
+        "[--index=<file>]\n" +
+        "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
+        "    List the classes or packages with the given annotation. " +
+        "Num threads:\n" +
+        "    how many threads parse the classes (default 1). Index " +
+        "file: where to\n" +
+        "    keep the annotations of archives, so that unchanged ones " +
+        "aren't\n" +
+        "    parsed again.\n" +
         "  dx --dump [--debug] [--strict] [--bytes] [--optimize]\n" +
         "  [--basic-blocks | --rop-blocks | --ssa-blocks | --dot] " +
         "[--ssa-step=<step>]\n" +
-        "  [--width=<n>] [<file>.class | <file>.txt] ...\n" +
+        "  [--pruned-ssa] [--escape-analysis] [--value-numbering] " +
+        "[--width=<n>]\n" +
+        "  [--loop-invariant-motion] [--method=<name>[*]]\n" +
+        "  [--timing] [<file>.class | <file>.txt] ...\n" +
         "    Dump classfiles, or transformations thereof, in a " +
         "human-oriented format.\n" +
+        "  dx --dump --output-dir=<dir> [--num-threads=<n>] " +
+        "[<dump options>]\n" +
+        "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
+        "    Dump each class found to a file of its own in <dir>, " +
+        "on <n> threads.\n" +
         "  dx --junit [-wait] <TestClass>\n" +
         "    Run the indicated unit test.\n" +
         "  dx -J<option> ... <arguments, in one of the above " +
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.annotool;
+
+import com.android.dx.util.Hex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of the annotations on the classes in archives, kept in a file
+ * from one run of {@link AnnotationLister} to the next, so that
+ * archives that haven't changed needn't be parsed again. Archives are
+ * known by the SHA-1 hash of their contents, and for each one, the
+ * index has the {@link ClassAnnotations} of all its classes, in the
+ * order they are processed. Since that is all there is to know about
+ * the classes, the index can answer any query, whatever annotation or
+ * elements it is for.
+ *
+ * <p>The file is text. Its first line is {@link #HEADER}. Each archive
+ * then starts with a line {@code archive <hash> <day>}, where the day
+ * is the one the archive was last looked up or added on, counted from
+ * the epoch. A line per class follows, with the class name and the
+ * annotation types separated by tabs. A file with any other first line
+ * is ignored, and is overwritten when the index is written.</p>
+ *
+ * <p>So that archives which are gone or have changed don't pile up,
+ * the file keeps at most {@link #MAX_ARCHIVES} archives, dropping the
+ * ones least recently used. Runs over different archives can share
+ * one file without dropping each other's archives, as long as there
+ * are no more than that in all.</p>
+ */
+final class AnnotationIndex {
+    /** {@code non-null;} first line of an index file */
+    private static final String HEADER = "dx annotation index 2";
+
+    /** {@code non-null;} start of the line that starts an archive */
+    private static final String ARCHIVE = "archive ";
+
+    /** maximum number of archives kept in the file */
+    private static final int MAX_ARCHIVES = 1000;
+
+    /** number of milliseconds in a day */
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    /** {@code non-null;} name of the file */
+    private final String filename;
+
+    /** {@code non-null;} the classes of each archive, by hash */
+    private final HashMap<String, List<ClassAnnotations>> archives;
+
+    /**
+     * {@code non-null;} the day each archive was last looked up or
+     * added on, by hash
+     */
+    private final HashMap<String, Long> lastUsed;
+
+    /** the current day, counted from the epoch */
+    private final long today;
+
+    /**
+     * whether archives have been added, or used on a later day, since
+     * the file was read
+     */
+    private boolean changed;
+
+    /**
+     * Reads the index in a file. If there is no such file, the index
+     * starts out empty.
+     *
+     * @param filename {@code non-null;} name of the file
+     * @return {@code non-null;} the index
+     */
+    static AnnotationIndex read(String filename) {
+        AnnotationIndex result = new AnnotationIndex(filename);
+
+        try {
+            FileReader fr = new FileReader(filename);
+            BufferedReader bfr = new BufferedReader(fr);
+
+            try {
+                if (HEADER.equals(bfr.readLine())) {
+                    result.readArchives(bfr);
+                }
+            } finally {
+                fr.close();
+            }
+        } catch (FileNotFoundException ex) {
+            // There is no index yet.
+        } catch (IOException ex) {
+            // Let the exception percolate up as a RuntimeException.
+            throw new RuntimeException("Error with annotation index: " +
+                    filename, ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Constructs an empty instance.
+     *
+     * @param filename {@code non-null;} name of the file
+     */
+    private AnnotationIndex(String filename) {
+        this.filename = filename;
+        this.archives = new HashMap<String, List<ClassAnnotations>>();
+        this.lastUsed = new HashMap<String, Long>();
+        this.today = System.currentTimeMillis() / DAY_MILLIS;
+        this.changed = false;
+    }
+
+    /**
+     * Reads the archives that follow the header of an index file.
+     *
+     * @param in {@code non-null;} where to read from
+     */
+    private void readArchives(BufferedReader in) throws IOException {
+        ArrayList<ClassAnnotations> classes = null;
+        String line;
+
+        while (null != (line = in.readLine())) {
+            if (line.startsWith(ARCHIVE)) {
+                String[] parts = line.substring(ARCHIVE.length()).split(" ");
+
+                if (parts.length != 2) {
+                    throw new IOException("bad archive line: " + line);
+                }
+
+                classes = new ArrayList<ClassAnnotations>();
+                archives.put(parts[0], classes);
+
+                try {
+                    lastUsed.put(parts[0], Long.parseLong(parts[1]));
+                } catch (NumberFormatException ex) {
+                    throw new IOException("bad archive line: " + line);
+                }
+            } else if (classes != null) {
+                String[] parts = line.split("\t");
+                String[] types = new String[parts.length - 1];
+
+                System.arraycopy(parts, 1, types, 0, types.length);
+                classes.add(new ClassAnnotations(parts[0], types));
+            } else {
+                throw new IOException("class outside of any archive");
+            }
+        }
+    }
+
+    /**
+     * Gets the classes of the archive with the given hash.
+     *
+     * @param hash {@code non-null;} the hash, as from {@link #hash}
+     * @return {@code null-ok;} the classes, in the order they are
+     * processed, or {@code null} if the archive isn't in the index
+     */
+    List<ClassAnnotations> get(String hash) {
+        List<ClassAnnotations> result = archives.get(hash);
+
+        if (result != null) {
+            markUsed(hash);
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the classes of an archive to the index.
+     *
+     * @param hash {@code non-null;} the archive's hash, as from
+     * {@link #hash}
+     * @param classes {@code non-null;} the classes, in the order they
+     * are processed
+     */
+    void put(String hash, List<ClassAnnotations> classes) {
+        archives.put(hash, classes);
+        markUsed(hash);
+        changed = true;
+    }
+
+    /**
+     * Records that an archive was used today.
+     *
+     * @param hash {@code non-null;} the archive's hash
+     */
+    private void markUsed(String hash) {
+        Long day = lastUsed.get(hash);
+
+        if ((day == null) || (day != today)) {
+            lastUsed.put(hash, today);
+            changed = true;
+        }
+    }
+
+    /**
+     * Gets the hashes of the archives in the index, the most recently
+     * used first, and otherwise in order of their hashes.
+     *
+     * @return {@code non-null;} the hashes
+     */
+    private ArrayList<String> sortedHashes() {
+        ArrayList<String> result = new ArrayList<String>(archives.keySet());
+
+        Collections.sort(result, new Comparator<String>() {
+            public int compare(String a, String b) {
+                long dayA = lastUsed.get(a);
+                long dayB = lastUsed.get(b);
+
+                if (dayA != dayB) {
+                    return (dayA > dayB) ? -1 : 1;
+                }
+
+                return a.compareTo(b);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Writes the index back to its file, if archives have been added
+     * to it or used on a later day. Only the {@link #MAX_ARCHIVES} most
+     * recently used archives are kept. The file is replaced only once
+     * the new one is complete, and the old one is kept until then.
+     */
+    void write() {
+        if (!changed) {
+            return;
+        }
+
+        ArrayList<String> hashes = sortedHashes();
+
+        while (hashes.size() > MAX_ARCHIVES) {
+            String hash = hashes.remove(hashes.size() - 1);
+
+            archives.remove(hash);
+            lastUsed.remove(hash);
+        }
+
+        File file = new File(filename);
+        File temp = new File(filename + ".tmp");
+
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(temp));
+
+            try {
+                out.println(HEADER);
+
+                for (String hash : hashes) {
+                    out.println(ARCHIVE + hash + ' ' + lastUsed.get(hash));
+
+                    for (ClassAnnotations one : archives.get(hash)) {
+                        out.print(one.getClassName());
+
+                        for (String type : one.getAnnotationTypes()) {
+                            out.print('\t');
+                            out.print(type);
+                        }
+
+                        out.println();
+                    }
+                }
+            } finally {
+                out.close();
+            }
+
+            if (out.checkError()) {
+                throw new IOException("trouble writing " + temp);
+            }
+
+            if (!temp.renameTo(file)) {
+                replace(file, temp);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Error with annotation index: " +
+                    filename, ex);
+        }
+
+        changed = false;
+    }
+
+    /**
+     * Replaces a file with another, where renaming one over the other
+     * isn't possible. The file being replaced is moved aside first, and
+     * put back if the other can't take its place.
+     *
+     * @param file {@code non-null;} the file to replace
+     * @param temp {@code non-null;} the file to replace it with
+     */
+    private static void replace(File file, File temp) throws IOException {
+        File old = new File(file.getPath() + ".old");
+
+        old.delete();
+
+        if (!file.renameTo(old)) {
+            throw new IOException("trouble renaming " + file);
+        }
+
+        if (!temp.renameTo(file)) {
+            old.renameTo(file);
+            throw new IOException("trouble renaming " + temp);
+        }
+
+        old.delete();
+    }
+
+    /**
+     * Computes the hash an archive is known by in the index.
+     *
+     * @param file {@code non-null;} the archive
+     * @return {@code non-null;} the hash, in hex
+     */
+    static String hash(File file) {
+        MessageDigest md;
+
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        try {
+            InputStream in = new FileInputStream(file);
+
+            try {
+                byte[] buf = new byte[65536];
+                int count;
+
+                while ((count = in.read(buf)) > 0) {
+                    md.update(buf, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Error reading " + file, ex);
+        }
+
+        StringBuilder sb = new StringBuilder(40);
+
+        for (byte b : md.digest()) {
+            sb.append(Hex.u1(b & 0xff));
+        }
+
+        return sb.toString();
+    }
+}
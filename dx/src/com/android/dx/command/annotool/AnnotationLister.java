@@ -17,24 +17,31 @@
 package com.android.dx.command.annotool;
 
 import com.android.dx.cf.direct.ClassPathOpener;
-import com.android.dx.cf.direct.DirectClassFile;
-import com.android.dx.cf.direct.StdAttributeFactory;
-import com.android.dx.cf.iface.AttributeList;
-import com.android.dx.cf.iface.Attribute;
-import com.android.dx.cf.attrib.AttRuntimeInvisibleAnnotations;
-import com.android.dx.cf.attrib.BaseAnnotations;
-import com.android.dx.cf.attrib.AttRuntimeVisibleAnnotations;
-import com.android.dx.util.ByteArray;
-import com.android.dx.rop.annotation.Annotation;
 
 import java.io.File;
 import java.lang.annotation.ElementType;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Greps annotations on a set of class files and prints matching elements
  * to stdout. What counts as a match and what should be printed is controlled
  * by the {@code Main.Arguments} instance.
+ *
+ * <p>Classes are parsed, in parallel if so configured, to find the
+ * annotations on them, and are then matched one after another in the
+ * order they were found, since whether a class matches can depend on
+ * the classes before it. If there is an {@link AnnotationIndex}, the
+ * archives in it aren't parsed again.</p>
  */
 class AnnotationLister {
     /**
@@ -58,117 +65,218 @@ class AnnotationLister {
 
     /** Processes based on configuration specified in constructor. */
     void process() {
-        for (String path : args.files) {
-            ClassPathOpener opener;
-
-            opener = new ClassPathOpener(path, true,
-                    new ClassPathOpener.Consumer() {
-                public boolean processFileBytes(String name, byte[] bytes) {
-                    if (!name.endsWith(".class")) {
-                        return true;
-                    }
+        AnnotationIndex index = null;
+        ExecutorService executor = null;
 
-                    ByteArray ba = new ByteArray(bytes);
-                    DirectClassFile cf
-                        = new DirectClassFile(ba, name, true);
+        if (args.indexFile != null) {
+            index = AnnotationIndex.read(args.indexFile);
+        }
 
-                    cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
-                    AttributeList attributes = cf.getAttributes();
-                    Attribute att;
+        if (args.numThreads > 1) {
+            /*
+             * Once the queue is full, the reading thread parses classes
+             * itself, so that not too many are read ahead.
+             */
+            executor = new ThreadPoolExecutor(args.numThreads,
+                    args.numThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(args.numThreads * 4),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
 
-                    String cfClassName
-                            = cf.getThisClass().getClassType().getClassName();
+        try {
+            int count = args.files.length;
+            String[] hashes = new String[count];
+            ArrayList<List<ClassAnnotations>> indexed =
+                new ArrayList<List<ClassAnnotations>>(count);
+            ArrayList<List<Future<ClassAnnotations>>> parsed =
+                new ArrayList<List<Future<ClassAnnotations>>>(count);
+
+            for (int i = 0; i < count; i++) {
+                File file = new File(args.files[i]);
+                List<ClassAnnotations> classes = null;
+
+                if ((index != null) && file.isFile()) {
+                    hashes[i] = AnnotationIndex.hash(file);
+                    classes = index.get(hashes[i]);
+                }
 
-                    if (cfClassName.endsWith(PACKAGE_INFO)) {
-                        att = attributes.findFirst(
-                                AttRuntimeInvisibleAnnotations.ATTRIBUTE_NAME);
+                indexed.add(classes);
+                parsed.add((classes != null) ? null :
+                        parse(args.files[i], executor));
+            }
 
-                        for (;att != null; att = attributes.findNext(att)) {
-                            BaseAnnotations ann = (BaseAnnotations)att;
-                            visitPackageAnnotation(cf, ann);
-                        }
+            for (int i = 0; i < count; i++) {
+                List<ClassAnnotations> classes = indexed.get(i);
 
-                        att = attributes.findFirst(
-                                AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME);
+                if (classes != null) {
+                    for (ClassAnnotations ca : classes) {
+                        visitClass(ca);
+                    }
 
-                        for (;att != null; att = attributes.findNext(att)) {
-                            BaseAnnotations ann = (BaseAnnotations)att;
-                            visitPackageAnnotation(cf, ann);
-                        }
-                    } else if (isMatchingInnerClass(cfClassName)
-                            || isMatchingPackage(cfClassName)) {
-                        printMatch(cf);
-                    } else {
-                        att = attributes.findFirst(
-                                AttRuntimeInvisibleAnnotations.ATTRIBUTE_NAME);
-
-                        for (;att != null; att = attributes.findNext(att)) {
-                            BaseAnnotations ann = (BaseAnnotations)att;
-                            visitClassAnnotation(cf, ann);
-                        }
+                    continue;
+                }
 
-                        att = attributes.findFirst(
-                                AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME);
+                classes = new ArrayList<ClassAnnotations>();
 
-                        for (;att != null; att = attributes.findNext(att)) {
-                            BaseAnnotations ann = (BaseAnnotations)att;
-                            visitClassAnnotation(cf, ann);
-                        }
-                    }
+                for (Future<ClassAnnotations> one : parsed.get(i)) {
+                    ClassAnnotations ca = get(one);
 
-                    return true;
+                    visitClass(ca);
+                    classes.add(ca);
                 }
 
-                public void onException(Exception ex) {
-                    throw new RuntimeException(ex);
+                if (hashes[i] != null) {
+                    index.put(hashes[i], classes);
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        if (index != null) {
+            index.write();
+        }
+    }
+
+    /**
+     * Starts parsing the classes in a path element.
+     *
+     * @param path {@code non-null;} the path element
+     * @param executor {@code null-ok;} what to parse the classes with, or
+     * {@code null} to parse them right away
+     * @return {@code non-null;} the classes, in the order found
+     */
+    private List<Future<ClassAnnotations>> parse(String path,
+            final ExecutorService executor) {
+        final ArrayList<Future<ClassAnnotations>> result =
+            new ArrayList<Future<ClassAnnotations>>();
+
+        ClassPathOpener opener = new ClassPathOpener(path, true,
+                new ClassPathOpener.Consumer() {
+            public boolean processFileBytes(final String name,
+                    final byte[] bytes) {
+                if (!name.endsWith(".class")) {
+                    return true;
                 }
 
-                public void onProcessArchiveStart(File file) {
+                Callable<ClassAnnotations> task =
+                    new Callable<ClassAnnotations>() {
+                        public ClassAnnotations call() {
+                            return ClassAnnotations.parse(name, bytes);
+                        }
+                    };
 
+                if (executor != null) {
+                    result.add(executor.submit(task));
+                    return true;
                 }
 
-            });
+                /*
+                 * Parse the class right away, so that trouble with it
+                 * stops processing right away, too.
+                 */
+                FutureTask<ClassAnnotations> future =
+                    new FutureTask<ClassAnnotations>(task);
 
-            opener.process();
+                future.run();
+                get(future);
+                result.add(future);
+                return true;
+            }
+
+            public void onException(Exception ex) {
+                throw new RuntimeException(ex);
+            }
+
+            public void onProcessArchiveStart(File file) {
+
+            }
+
+        });
+
+        opener.process();
+        return result;
+    }
+
+    /**
+     * Waits for a class to be parsed, rethrowing whatever went wrong
+     * parsing it.
+     *
+     * @param future {@code non-null;} the class being parsed
+     * @return {@code non-null;} the class
+     */
+    private static ClassAnnotations get(Future<ClassAnnotations> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Matches a class, in turn.
+     *
+     * @param ca {@code non-null;} the class
+     */
+    private void visitClass(ClassAnnotations ca) {
+        String cfClassName = ca.getClassName();
+
+        if (cfClassName.endsWith(PACKAGE_INFO)) {
+            for (String annClassName : ca.getAnnotationTypes()) {
+                visitPackageAnnotation(ca, annClassName);
+            }
+        } else if (isMatchingInnerClass(cfClassName)
+                || isMatchingPackage(cfClassName)) {
+            printMatch(ca);
+        } else {
+            for (String annClassName : ca.getAnnotationTypes()) {
+                visitClassAnnotation(ca, annClassName);
+            }
         }
     }
 
     /**
      * Inspects a class annotation.
      *
-     * @param cf {@code non-null;} class file
-     * @param ann {@code non-null;} annotation
+     * @param ca {@code non-null;} class
+     * @param annClassName {@code non-null;} class name of the annotation
      */
-    private void visitClassAnnotation(DirectClassFile cf,
-            BaseAnnotations ann) {
+    private void visitClassAnnotation(ClassAnnotations ca,
+            String annClassName) {
 
         if (!args.eTypes.contains(ElementType.TYPE)) {
             return;
         }
 
-        for (Annotation anAnn : ann.getAnnotations().getAnnotations()) {
-            String annClassName
-                    = anAnn.getType().getClassType().getClassName();
-            if (args.aclass.equals(annClassName)) {
-                printMatch(cf);
-            }
+        if (args.aclass.equals(annClassName)) {
+            printMatch(ca);
         }
     }
 
     /**
      * Inspects a package annotation
      *
-     * @param cf {@code non-null;} class file of "package-info" pseudo-class
-     * @param ann {@code non-null;} annotation
+     * @param ca {@code non-null;} "package-info" pseudo-class
+     * @param annClassName {@code non-null;} class name of the annotation
      */
     private void visitPackageAnnotation(
-            DirectClassFile cf, BaseAnnotations ann) {
+            ClassAnnotations ca, String annClassName) {
 
         if (!args.eTypes.contains(ElementType.PACKAGE)) {
             return;
         }
 
-        String packageName = cf.getThisClass().getClassType().getClassName();
+        String packageName = ca.getClassName();
 
         int slashIndex = packageName.lastIndexOf('/');
 
@@ -180,12 +288,8 @@ class AnnotationLister {
         }
 
 
-        for (Annotation anAnn : ann.getAnnotations().getAnnotations()) {
-            String annClassName
-                    = anAnn.getType().getClassType().getClassName();
-            if (args.aclass.equals(annClassName)) {
-                printMatchPackage(packageName);
-            }
+        if (args.aclass.equals(annClassName)) {
+            printMatchPackage(packageName);
         }
     }
 
@@ -215,21 +319,19 @@ class AnnotationLister {
      * Prints, or schedules for printing, elements related to a matching
      * class.
      *
-     * @param cf {@code non-null;} matching class
+     * @param ca {@code non-null;} matching class
      */
-    private void printMatch(DirectClassFile cf) {
+    private void printMatch(ClassAnnotations ca) {
         for (Main.PrintType pt : args.printTypes) {
             switch (pt) {
                 case CLASS:
                     String classname;
-                    classname =
-                        cf.getThisClass().getClassType().getClassName();
+                    classname = ca.getClassName();
                     classname = classname.replace('/','.');
                     System.out.println(classname);
                     break;
                 case INNERCLASS:
-                    matchInnerClassesOf.add(
-                            cf.getThisClass().getClassType().getClassName());
+                    matchInnerClassesOf.add(ca.getClassName());
                     break;
                 case METHOD:
                     //TODO
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.annotool;
+
+import com.android.dx.cf.attrib.AttRuntimeInvisibleAnnotations;
+import com.android.dx.cf.attrib.AttRuntimeVisibleAnnotations;
+import com.android.dx.cf.attrib.BaseAnnotations;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Attribute;
+import com.android.dx.cf.iface.AttributeList;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.util.ByteArray;
+
+import java.util.ArrayList;
+
+/**
+ * What {@link AnnotationLister} needs to know about a class: its name,
+ * and the types of the annotations on it. Parsing a class to find
+ * these out is the expensive part of listing annotations, and doesn't
+ * depend on any other class, so it can be done in parallel, or once
+ * and for all for an archive that doesn't change.
+ */
+final class ClassAnnotations {
+    /** {@code non-null;} empty array of annotation types */
+    private static final String[] NO_TYPES = new String[0];
+
+    /** {@code non-null;} name of the class, with slashes */
+    private final String className;
+
+    /**
+     * {@code non-null;} names of the classes of the annotations on the
+     * class, with slashes; the invisible ones come first
+     */
+    private final String[] annotationTypes;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param className {@code non-null;} name of the class, with slashes
+     * @param annotationTypes {@code non-null;} names of the classes of
+     * the annotations on the class, with slashes; the invisible ones
+     * come first
+     */
+    ClassAnnotations(String className, String[] annotationTypes) {
+        if (className == null) {
+            throw new NullPointerException("className == null");
+        }
+
+        if (annotationTypes == null) {
+            throw new NullPointerException("annotationTypes == null");
+        }
+
+        this.className = className;
+        this.annotationTypes = annotationTypes;
+    }
+
+    /**
+     * Parses the given class file to find out what there is to know
+     * about it.
+     *
+     * @param name {@code non-null;} name of the class file
+     * @param bytes {@code non-null;} contents of the class file
+     * @return {@code non-null;} the class's annotations
+     */
+    static ClassAnnotations parse(String name, byte[] bytes) {
+        DirectClassFile cf =
+            new DirectClassFile(new ByteArray(bytes), name, true);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        AttributeList attributes = cf.getAttributes();
+        ArrayList<String> types = new ArrayList<String>();
+
+        addTypes(types, attributes,
+                AttRuntimeInvisibleAnnotations.ATTRIBUTE_NAME);
+        addTypes(types, attributes,
+                AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME);
+
+        String className = cf.getThisClass().getClassType().getClassName();
+
+        if (types.isEmpty()) {
+            return new ClassAnnotations(className, NO_TYPES);
+        }
+
+        return new ClassAnnotations(className,
+                types.toArray(new String[types.size()]));
+    }
+
+    /**
+     * Adds the types of the annotations in all the attributes with the
+     * given name to the given list.
+     *
+     * @param types {@code non-null;} where to add the types
+     * @param attributes {@code non-null;} the attributes to look in
+     * @param attributeName {@code non-null;} name of the annotation
+     * attributes to look at
+     */
+    private static void addTypes(ArrayList<String> types,
+            AttributeList attributes, String attributeName) {
+        Attribute att = attributes.findFirst(attributeName);
+
+        for (; att != null; att = attributes.findNext(att)) {
+            BaseAnnotations ann = (BaseAnnotations) att;
+
+            for (Annotation anAnn : ann.getAnnotations().getAnnotations()) {
+                types.add(anAnn.getType().getClassType().getClassName());
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the class.
+     *
+     * @return {@code non-null;} the name, with slashes
+     */
+    String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the names of the classes of the annotations on the class.
+     *
+     * @return {@code non-null;} the names, with slashes; the invisible
+     * ones come first
+     */
+    String[] getAnnotationTypes() {
+        return annotationTypes;
+    }
+}
@@ -66,6 +66,15 @@ public class Main {
         /** from --print */
         EnumSet<PrintType> printTypes = EnumSet.noneOf(PrintType.class);
 
+        /** from --num-threads, how many threads to parse classes with */
+        int numThreads = 1;
+
+        /**
+         * from --index, name of the file to keep the annotations of
+         * archives in between runs, or {@code null} not to keep them
+         */
+        String indexFile;
+
         /** remaining positional arguments */
         String[] files;
 
@@ -104,6 +113,22 @@ public class Main {
                     } catch (IllegalArgumentException ex) {
                         throw new InvalidArgumentException("invalid --print");
                     }
+                } else if (arg.startsWith("--num-threads=")) {
+                    String argParam = arg.substring(arg.indexOf('=') + 1);
+
+                    try {
+                        numThreads = Integer.parseInt(argParam);
+                    } catch (NumberFormatException ex) {
+                        throw new InvalidArgumentException(
+                                "invalid --num-threads");
+                    }
+
+                    if (numThreads < 1) {
+                        throw new InvalidArgumentException(
+                                "invalid --num-threads");
+                    }
+                } else if (arg.startsWith("--index=")) {
+                    indexFile = arg.substring(arg.indexOf('=') + 1);
                 } else {
                     files = new String[argArray.length - i];
                     System.arraycopy(argArray, i, files, 0, files.length);
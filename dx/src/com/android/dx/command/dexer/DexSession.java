@@ -0,0 +1,640 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.dexer;
+
+import com.android.dx.cf.iface.ParseException;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.dex.cf.ConstantFieldCollector;
+import com.android.dx.dex.code.CodeSpill;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.KeepRules;
+import com.android.dx.dex.file.StartupLayout;
+import com.android.dx.dex.file.StartupProfile;
+import com.android.dx.dex.file.TreeShaker;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.util.WeakInternTable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * One translation of a set of classes into a dex file, for tools that
+ * run dx in-process. A session is given its options and where to
+ * report to when it is constructed, then is fed the bytes of each
+ * class, and finally turns them into a dex file. Sessions share no
+ * state with each other, so any number of them may run at the same
+ * time, each on its own thread. The statistics that are printed with
+ * {@link Main.Arguments#statistics} are the exception: they are
+ * totals for the whole process.
+ *
+ * <p>{@link Main} is a session fed from the files named on the
+ * command line.</p>
+ */
+public final class DexSession {
+    /**
+     * {@code non-null;} the lengthy message that tries to discourage
+     * people from defining core classes in applications
+     */
+    private static final String IN_RE_CORE_CLASSES =
+        "Ill-advised or mistaken usage of a core class (java.* or javax.*)\n" +
+        "when not building a core library.\n\n" +
+        "This is often due to inadvertently including a core library file\n" +
+        "in your application's project, when using an IDE (such as\n" +
+        "Eclipse). If you are sure you're not intentionally defining a\n" +
+        "core class, then this is the most likely explanation of what's\n" +
+        "going on.\n\n" +
+        "However, you might actually be trying to define a class in a core\n" +
+        "namespace, the source of which you may have taken, for example,\n" +
+        "from a non-Android virtual machine project. This will most\n" +
+        "assuredly not work. At a minimum, it jeopardizes the\n" +
+        "compatibility of your app with future versions of the platform.\n" +
+        "It is also often of questionable legality.\n\n" +
+        "If you really intend to build a core library -- which is only\n" +
+        "appropriate as part of creating a full virtual machine\n" +
+        "distribution, as opposed to compiling an application -- then use\n" +
+        "the \"--core-library\" option to suppress this error message.\n\n" +
+        "If you go ahead and use \"--core-library\" but are in fact\n" +
+        "building an application, then be forewarned that your application\n" +
+        "will still fail to build or run, at some point. Please be\n" +
+        "prepared for angry customers who find, for example, that your\n" +
+        "application ceases to function once they upgrade their operating\n" +
+        "system. You will be to blame for this problem.\n\n" +
+        "If you are legitimately using some code that happens to be in a\n" +
+        "core package, then the easiest safe alternative you have is to\n" +
+        "repackage that code. That is, move the classes in question into\n" +
+        "your own package namespace. This means that they will never be in\n" +
+        "conflict with core system classes. JarJar is a tool that may help\n" +
+        "you in this endeavor. If you find that you cannot do this, then\n" +
+        "that is an indication that the path you are on will ultimately\n" +
+        "lead to pain, suffering, grief, and lamentation.\n";
+
+    /**
+     * {@code non-null;} list of {@code javax} subpackages that are considered
+     * to be "core". <b>Note:</b>: This list must be sorted, since it
+     * is binary-searched.
+     */
+    private static final String[] JAVAX_CORE = {
+        "accessibility", "crypto", "imageio", "management", "naming", "net",
+        "print", "rmi", "security", "sound", "sql", "swing", "transaction",
+        "xml"
+    };
+
+    /** {@code non-null;} the options */
+    private final Main.Arguments args;
+
+    /** {@code non-null;} the translation options, made from {@link #args} */
+    private final CfOptions cfOptions;
+
+    /** {@code non-null;} where to print progress and statistics */
+    private final PrintStream out;
+
+    /** {@code non-null;} where to report trouble */
+    private final PrintStream err;
+
+    /**
+     * {@code null-ok;} the collector of static final fields with known
+     * values, if constants are to be folded and translation hasn't
+     * started yet
+     */
+    private ConstantFieldCollector constantCollector;
+
+    /**
+     * {@code null-ok;} output file in-progress, or {@code null} once
+     * it has been written
+     */
+    private DexFile outputDex;
+
+    /**
+     * {@code null-ok;} where translated code is kept until it is
+     * written, if {@link Main.Arguments#lowMemory} is on
+     */
+    private final CodeSpill codeSpill;
+
+    /** number of warnings during processing */
+    private int warnings = 0;
+
+    /** number of errors during processing */
+    private int errors = 0;
+
+    /** number of classes translated successfully */
+    private int classCount = 0;
+
+    /** whether a class was found that stops all further processing */
+    private boolean stopped = false;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param args {@code non-null;} the options; {@link
+     * Main.Arguments#fileNames} is ignored, since classes are fed to
+     * the session instead
+     * @param out {@code non-null;} where to print progress and statistics
+     * @param err {@code non-null;} where to report trouble
+     */
+    public DexSession(Main.Arguments args, PrintStream out, PrintStream err) {
+        if (args == null) {
+            throw new NullPointerException("args == null");
+        }
+
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+
+        if (err == null) {
+            throw new NullPointerException("err == null");
+        }
+
+        this.args = args;
+        this.cfOptions = args.makeCfOptions(err);
+        this.out = out;
+        this.err = err;
+        this.outputDex = new DexFile();
+        this.codeSpill = args.lowMemory ? new CodeSpill() : null;
+        cfOptions.codeSpill = codeSpill;
+
+        if (args.dumpWidth != 0) {
+            outputDex.setDumpWidth(args.dumpWidth);
+        }
+
+        if (args.foldConstants) {
+            constantCollector =
+                new ConstantFieldCollector(args.constantAttributesOnly);
+        }
+    }
+
+    /**
+     * Reads a class ahead of translation, to find the static final
+     * fields whose values are known across classes. This only matters
+     * if {@link Main.Arguments#foldConstants} is set, in which case
+     * every class should be scanned before the first is added.
+     *
+     * @param name {@code non-null;} the file path for the class,
+     * excluding any base directory specification
+     * @param bytes {@code non-null;} contents of the class file
+     */
+    public void scanClass(String name, byte[] bytes) {
+        if (!args.foldConstants) {
+            return;
+        }
+
+        if (constantCollector == null) {
+            throw new IllegalStateException("translation already started");
+        }
+
+        constantCollector.add(name, bytes);
+    }
+
+    /**
+     * Translates a class and adds it to the output. Trouble with the
+     * class is reported to the error stream and counted.
+     *
+     * @param name {@code non-null;} the file path for the class,
+     * excluding any base directory specification; it <i>should</i>
+     * correspond to the name of the class it contains
+     * @param bytes {@code non-null;} contents of the class file
+     * @return whether the class was translated
+     */
+    public boolean addClass(String name, byte[] bytes) {
+        if (outputDex == null) {
+            throw new IllegalStateException("already finished");
+        }
+
+        if (stopped) {
+            return false;
+        }
+
+        if (constantCollector != null) {
+            cfOptions.constantFields = constantCollector.getConstants();
+            constantCollector = null;
+        }
+
+        if (! args.coreLibrary && ! checkClassName(name)) {
+            return false;
+        }
+
+        try {
+            ClassDefItem clazz =
+                CfTranslator.translate(name, bytes, cfOptions);
+            outputDex.add(clazz);
+            classCount++;
+            return true;
+        } catch (ParseException ex) {
+            err.println("\ntrouble processing:");
+            if (args.debug) {
+                ex.printStackTrace(err);
+            } else {
+                ex.printContext(err);
+            }
+        }
+
+        warnings++;
+        return false;
+    }
+
+    /**
+     * Reports an unexpected exception that happened while feeding this
+     * instance, and counts it as an error.
+     *
+     * @param ex {@code non-null;} the exception
+     */
+    public void addException(Exception ex) {
+        err.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+        ex.printStackTrace(err);
+        errors++;
+    }
+
+    /**
+     * Gets the number of warnings so far.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getWarningCount() {
+        return warnings;
+    }
+
+    /**
+     * Gets the number of errors so far. The output can't be made if
+     * there are any.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * Gets whether a class has been added that stops all further
+     * processing, which is a core class when {@link
+     * Main.Arguments#coreLibrary} isn't set. Classes added after that
+     * are ignored.
+     *
+     * @return whether processing has stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Makes the dex file from the classes added, and does whatever
+     * human-oriented dumping and printing of statistics the options
+     * ask for. Trouble is reported to the error stream. This may only
+     * be called once.
+     *
+     * @return {@code null-ok;} the dex file, or {@code null} if there
+     * was trouble or if only a method was to be dumped
+     */
+    public byte[] toDex() {
+        if (!finishClasses()) {
+            outputDex = null;
+            return null;
+        }
+
+        return writeDex();
+    }
+
+    /**
+     * Makes the dex file from the classes added, as with {@link
+     * #toDex}, and writes it to the given stream.
+     *
+     * @param stream {@code non-null;} where to write to
+     * @return whether the dex file was made and written
+     * @throws IOException on i/o problem writing to {@code stream}
+     */
+    public boolean writeTo(OutputStream stream) throws IOException {
+        byte[] dexArray = toDex();
+
+        if (dexArray == null) {
+            return false;
+        }
+
+        stream.write(dexArray);
+        return true;
+    }
+
+    /**
+     * Deletes the spilled code, if any, once it can't be needed any
+     * longer. This is done by {@link #toDex} in any case, so only a
+     * session that is given up on before then needs to be closed.
+     * Closing a session more than once is harmless.
+     */
+    public void close() {
+        if (codeSpill != null) {
+            codeSpill.close();
+        }
+    }
+
+    /**
+     * Reports how processing the classes went, and finishes the whole
+     * set of them, as by removing the unreachable ones.
+     *
+     * @return whether the dex file can be made
+     */
+    /*package*/ boolean finishClasses() {
+        if (outputDex == null) {
+            throw new IllegalStateException("already finished");
+        }
+
+        if (warnings != 0) {
+            err.println(warnings + " warning" +
+                    ((warnings == 1) ? "" : "s"));
+        }
+
+        if (errors != 0) {
+            err.println(errors + " error" +
+                    ((errors == 1) ? "" : "s") + "; aborting");
+            close();
+            return false;
+        }
+
+        if (!((classCount != 0) || args.emptyOk)) {
+            err.println("no classfiles specified");
+            close();
+            return false;
+        }
+
+        if (args.keepRulesFile != null) {
+            TreeShaker shaker = new TreeShaker(outputDex,
+                    KeepRules.read(args.keepRulesFile), args.statistics);
+
+            shaker.run();
+
+            if (args.statistics) {
+                shaker.dumpStatistics(out);
+            }
+        }
+
+        if (args.optimize && args.statistics) {
+            CodeStatistics.dumpStatistics(out, cfOptions);
+        }
+
+        return true;
+    }
+
+    /**
+     * Converts {@link #outputDex} into a {@code byte[]}, write
+     * it out to the proper file (if any), and also do whatever human-oriented
+     * dumping is required. {@link #outputDex} is let go of afterwards,
+     * since it is often massive.
+     *
+     * @return {@code null-ok;} the converted {@code byte[]} or {@code null}
+     * if there was a problem
+     */
+    /*package*/ byte[] writeDex() {
+        byte[] outArray = null;
+        StartupLayout startupLayout = null;
+        DexFile dex = outputDex;
+
+        if (dex == null) {
+            throw new IllegalStateException("already finished");
+        }
+
+        outputDex = null;
+
+        if (args.startupProfileFile != null) {
+            startupLayout = new StartupLayout(
+                    StartupProfile.read(args.startupProfileFile));
+            dex.setStartupLayout(startupLayout);
+        }
+
+        dex.setDedupeCode(args.dedupeCode);
+        dex.setDedupeDebugInfo(args.dedupeDebugInfo);
+        dex.setCompactDebugInfo(args.compactDebugInfo);
+        dex.setNumThreads(args.numThreads);
+
+        try {
+            OutputStream stream = null;
+            OutputStream humanOutRaw = null;
+            OutputStreamWriter humanOut = null;
+            try {
+                if (args.humanOutName != null) {
+                    humanOutRaw = Main.openOutput(args.humanOutName);
+                    humanOut = new OutputStreamWriter(humanOutRaw);
+                }
+
+                if (args.methodToDump != null) {
+                    /*
+                     * Simply dump the requested method. Note: The call
+                     * to toDex() is required just to get the underlying
+                     * structures ready.
+                     */
+                    dex.toDex(null, false);
+                    dumpMethod(dex, args.methodToDump, humanOut);
+                } else {
+                    /*
+                     * This is the usual case: Create an output .dex file,
+                     * and write it, dump it, etc.
+                     */
+                    outArray = dex.toDex(humanOut, args.verboseDump);
+
+                    if ((args.outName != null) && !args.jarOutput) {
+                        stream = Main.openOutput(args.outName);
+                        stream.write(outArray);
+                    }
+                }
+
+                if (args.statistics) {
+                    out.println(dex.getStatistics().toHuman());
+
+                    if (args.peephole) {
+                        CodeStatistics.dumpPeepholeStatistics(out);
+                    }
+
+                    if (startupLayout != null) {
+                        startupLayout.dumpStatistics(out);
+                    }
+
+                    WeakInternTable.dumpStatistics(out);
+
+                    if (codeSpill != null) {
+                        codeSpill.dumpStatistics(out);
+                    }
+                }
+            } finally {
+                close();
+                if (humanOut != null) {
+                    humanOut.flush();
+                }
+                Main.closeOutput(stream);
+                Main.closeOutput(humanOutRaw);
+            }
+        } catch (Exception ex) {
+            if (args.debug) {
+                err.println("\ntrouble writing output:");
+                ex.printStackTrace(err);
+            } else {
+                err.println("\ntrouble writing output: " +
+                        ex.getMessage());
+            }
+            return null;
+        }
+
+        return outArray;
+    }
+
+    /**
+     * Check the class name to make sure it's not a "core library"
+     * class. If there is a problem, this updates the error count and
+     * stops all further processing.
+     *
+     * @param name {@code non-null;} the fully-qualified internal-form
+     * class name
+     * @return whether the class may be translated
+     */
+    private boolean checkClassName(String name) {
+        boolean bogus = false;
+
+        if (name.startsWith("java/")) {
+            bogus = true;
+        } else if (name.startsWith("javax/")) {
+            int slashAt = name.indexOf('/', 6);
+            if (slashAt == -1) {
+                // Top-level javax classes are verboten.
+                bogus = true;
+            } else {
+                String pkg = name.substring(6, slashAt);
+                bogus = (Arrays.binarySearch(JAVAX_CORE, pkg) >= 0);
+            }
+        }
+
+        if (! bogus) {
+            return true;
+        }
+
+        /*
+         * The user is probably trying to include an entire desktop
+         * core library in a misguided attempt to get their application
+         * working. Try to help them understand what's happening.
+         */
+
+        err.println("\ntrouble processing \"" + name + "\":\n\n" +
+                IN_RE_CORE_CLASSES);
+        errors++;
+        stopped = true;
+        return false;
+    }
+
+    /**
+     * Dumps any method with the given name in the given file.
+     *
+     * @param dex {@code non-null;} the dex file
+     * @param fqName {@code non-null;} the fully-qualified name of the
+     * method(s)
+     * @param out {@code non-null;} where to dump to
+     */
+    private void dumpMethod(DexFile dex, String fqName,
+            OutputStreamWriter out) {
+        boolean wildcard = fqName.endsWith("*");
+        int lastDot = fqName.lastIndexOf('.');
+
+        if ((lastDot <= 0) || (lastDot == (fqName.length() - 1))) {
+            err.println("bogus fully-qualified method name: " +
+                               fqName);
+            return;
+        }
+
+        String className = fqName.substring(0, lastDot).replace('.', '/');
+        String methodName = fqName.substring(lastDot + 1);
+        ClassDefItem clazz = dex.getClassOrNull(className);
+
+        if (clazz == null) {
+            err.println("no such class: " + className);
+            return;
+        }
+
+        if (wildcard) {
+            methodName = methodName.substring(0, methodName.length() - 1);
+        }
+
+        ArrayList<EncodedMethod> allMeths = clazz.getMethods();
+        TreeMap<CstNat, EncodedMethod> meths =
+            new TreeMap<CstNat, EncodedMethod>();
+
+        /*
+         * Figure out which methods to include in the output, and get them
+         * all sorted, so that the printout code is robust with respect to
+         * changes in the underlying order.
+         */
+        for (EncodedMethod meth : allMeths) {
+            String methName = meth.getName().getString();
+            if ((wildcard && methName.startsWith(methodName)) ||
+                (!wildcard && methName.equals(methodName))) {
+                meths.put(meth.getRef().getNat(), meth);
+            }
+        }
+
+        if (meths.size() == 0) {
+            err.println("no such method: " + fqName);
+            return;
+        }
+
+        PrintWriter pw = new PrintWriter(out);
+
+        for (EncodedMethod meth : meths.values()) {
+            // TODO: Better stuff goes here, perhaps.
+            meth.debugPrint(pw, args.verboseDump);
+
+            /*
+             * The (default) source file is an attribute of the class, but
+             * it's useful to see it in method dumps.
+             */
+            CstUtf8 sourceFile = clazz.getSourceFile();
+            if (sourceFile != null) {
+                pw.println("  source file: " + sourceFile.toQuoted());
+            }
+
+            Annotations methodAnnotations =
+                clazz.getMethodAnnotations(meth.getRef());
+            AnnotationsList parameterAnnotations =
+                clazz.getParameterAnnotations(meth.getRef());
+
+            if (methodAnnotations != null) {
+                pw.println("  method annotations:");
+                for (Annotation a : methodAnnotations.getAnnotations()) {
+                    pw.println("    " + a);
+                }
+            }
+
+            if (parameterAnnotations != null) {
+                pw.println("  parameter annotations:");
+                int sz = parameterAnnotations.size();
+                for (int i = 0; i < sz; i++) {
+                    pw.println("    parameter " + i);
+                    Annotations annotations = parameterAnnotations.get(i);
+                    for (Annotation a : annotations.getAnnotations()) {
+                        pw.println("      " + a);
+                    }
+                }
+            }
+        }
+
+        pw.flush();
+    }
+}
@@ -17,80 +17,37 @@
 package com.android.dx.command.dexer;
 
 import com.android.dx.Version;
-import com.android.dx.cf.iface.ParseException;
 import com.android.dx.cf.direct.ClassPathOpener;
 import com.android.dx.command.DxConsole;
 import com.android.dx.command.UsageException;
 import com.android.dx.dex.cf.CfOptions;
-import com.android.dx.dex.cf.CfTranslator;
-import com.android.dx.dex.cf.CodeStatistics;
 import com.android.dx.dex.code.PositionList;
-import com.android.dx.dex.file.ClassDefItem;
-import com.android.dx.dex.file.DexFile;
-import com.android.dx.dex.file.EncodedMethod;
-import com.android.dx.rop.annotation.Annotation;
-import com.android.dx.rop.annotation.Annotations;
-import com.android.dx.rop.annotation.AnnotationsList;
-import com.android.dx.rop.cst.CstNat;
-import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.ssa.DomFront;
+import com.android.dx.util.RawZipFile;
+import com.android.dx.util.RawZipWriter;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.Arrays;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 
 /**
  * Main class for the class file translator.
  */
 public class Main {
-    /**
-     * {@code non-null;} the lengthy message that tries to discourage
-     * people from defining core classes in applications
-     */
-    private static final String IN_RE_CORE_CLASSES =
-        "Ill-advised or mistaken usage of a core class (java.* or javax.*)\n" +
-        "when not building a core library.\n\n" +
-        "This is often due to inadvertently including a core library file\n" +
-        "in your application's project, when using an IDE (such as\n" +
-        "Eclipse). If you are sure you're not intentionally defining a\n" +
-        "core class, then this is the most likely explanation of what's\n" +
-        "going on.\n\n" +
-        "However, you might actually be trying to define a class in a core\n" +
-        "namespace, the source of which you may have taken, for example,\n" +
-        "from a non-Android virtual machine project. This will most\n" +
-        "assuredly not work. At a minimum, it jeopardizes the\n" +
-        "compatibility of your app with future versions of the platform.\n" +
-        "It is also often of questionable legality.\n\n" +
-        "If you really intend to build a core library -- which is only\n" +
-        "appropriate as part of creating a full virtual machine\n" +
-        "distribution, as opposed to compiling an application -- then use\n" +
-        "the \"--core-library\" option to suppress this error message.\n\n" +
-        "If you go ahead and use \"--core-library\" but are in fact\n" +
-        "building an application, then be forewarned that your application\n" +
-        "will still fail to build or run, at some point. Please be\n" +
-        "prepared for angry customers who find, for example, that your\n" +
-        "application ceases to function once they upgrade their operating\n" +
-        "system. You will be to blame for this problem.\n\n" +
-        "If you are legitimately using some code that happens to be in a\n" +
-        "core package, then the easiest safe alternative you have is to\n" +
-        "repackage that code. That is, move the classes in question into\n" +
-        "your own package namespace. This means that they will never be in\n" +
-        "conflict with core system classes. JarJar is a tool that may help\n" +
-        "you in this endeavor. If you find that you cannot do this, then\n" +
-        "that is an indication that the path you are on will ultimately\n" +
-        "lead to pain, suffering, grief, and lamentation.\n";
-
     /**
      * {@code non-null;} name for the {@code .dex} file that goes into
      * {@code .jar} files
@@ -110,40 +67,39 @@ public class Main {
     private static final Attributes.Name CREATED_BY =
         new Attributes.Name("Created-By");
 
-    /**
-     * {@code non-null;} list of {@code javax} subpackages that are considered
-     * to be "core". <b>Note:</b>: This list must be sorted, since it
-     * is binary-searched.
-     */
-    private static final String[] JAVAX_CORE = {
-        "accessibility", "crypto", "imageio", "management", "naming", "net",
-        "print", "rmi", "security", "sound", "sql", "swing", "transaction",
-        "xml"
-    };
-
-    /** number of warnings during processing */
-    private static int warnings = 0;
-
-    /** number of errors during processing */
-    private static int errors = 0;
-
     /** {@code non-null;} parsed command-line arguments */
-    private static Arguments args;
+    private final Arguments args;
 
-    /** {@code non-null;} output file in-progress */
-    private static DexFile outputDex;
+    /** {@code non-null;} the session the classes are translated in */
+    private final DexSession session;
 
     /**
      * {@code null-ok;} map of resources to include in the output, or
      * {@code null} if resources are being ignored
      */
-    private static TreeMap<String, byte[]> outputResources;
+    private final TreeMap<String, Resource> outputResources;
 
     /**
-     * This class is uninstantiable.
+     * {@code non-null;} input archives that resources are copied from,
+     * kept open until the output is written
      */
-    private Main() {
-        // This space intentionally left blank.
+    private final ArrayList<RawZipFile> inputArchives =
+        new ArrayList<RawZipFile>();
+
+    /**
+     * Constructs an instance, to run one conversion.
+     *
+     * @param args {@code non-null;} the data + parameters for the conversion
+     */
+    private Main(Arguments args) {
+        this.args = args;
+        this.session = new DexSession(args, DxConsole.out, DxConsole.err);
+
+        if (args.jarOutput) {
+            outputResources = new TreeMap<String, Resource>();
+        } else {
+            outputResources = null;
+        }
     }
 
     /**
@@ -161,63 +117,64 @@ public class Main {
     }
 
     /**
-     * Run and return a result code.
+     * Run and return a result code. Each call runs in a session of its
+     * own, so calls on different threads don't interfere.
      * @param arguments the data + parameters for the conversion
      * @return 0 if success > 0 otherwise.
      */
     public static int run(Arguments arguments) {
-        // Reset the error/warning count to start fresh.
-        warnings = 0;
-        errors = 0;
-
-        args = arguments;
-        args.makeCfOptions();
-
-        if (!processAllFiles()) {
-            return 1;
-        }
+        return new Main(arguments).run0();
+    }
 
-        byte[] outArray = writeDex();
+    /**
+     * Helper for {@link #run}, which does the conversion.
+     *
+     * @return 0 if success > 0 otherwise.
+     */
+    private int run0() {
+        try {
+            if (!processAllFiles()) {
+                return 1;
+            }
 
-        if (outArray == null) {
-            return 2;
-        }
+            byte[] outArray = session.writeDex();
 
-        if (args.jarOutput) {
-            // Effectively free up the (often massive) DexFile memory.
-            outputDex = null;
+            if (outArray == null) {
+                return 2;
+            }
 
-            if (!createJar(args.outName, outArray)) {
-                return 3;
+            if (args.jarOutput) {
+                if (!createJar(args.outName, outArray)) {
+                    return 3;
+                }
             }
+        } finally {
+            session.close();
+            closeInputArchives();
         }
 
         return 0;
     }
 
     /**
-     * Constructs the output {@link DexFile}, fill it in with all the
-     * specified classes, and populate the resources map if required.
+     * Fills in the session with all the specified classes, and
+     * populate the resources map if required.
      *
      * @return whether processing was successful
      */
-    private static boolean processAllFiles() {
-        outputDex = new DexFile();
-
-        if (args.jarOutput) {
-            outputResources = new TreeMap<String, byte[]>();
-        }
-
-        if (args.dumpWidth != 0) {
-            outputDex.setDumpWidth(args.dumpWidth);
+    private boolean processAllFiles() {
+        if (args.foldConstants) {
+            collectConstantFields();
         }
 
-        boolean any = false;
         String[] fileNames = args.fileNames;
 
         try {
             for (int i = 0; i < fileNames.length; i++) {
-                any |= processOne(fileNames[i]);
+                if (outputResources != null) {
+                    collectResources(fileNames[i]);
+                }
+                processOne(fileNames[i]);
             }
         } catch (StopProcessing ex) {
             /*
@@ -226,27 +183,37 @@ public class Main {
              */
         }
 
-        if (warnings != 0) {
-            DxConsole.err.println(warnings + " warning" +
-                               ((warnings == 1) ? "" : "s"));
-        }
-
-        if (errors != 0) {
-            DxConsole.err.println(errors + " error" +
-                    ((errors == 1) ? "" : "s") + "; aborting");
-            return false;
-        }
+        return session.finishClasses();
+    }
 
-        if (!(any || args.emptyOk)) {
-            DxConsole.err.println("no classfiles specified");
-            return false;
-        }
+    /**
+     * Reads all the classes once ahead of translation, to find the
+     * static final fields whose values are known across classes.
+     */
+    private void collectConstantFields() {
+        for (String pathname : args.fileNames) {
+            ClassPathOpener opener = new ClassPathOpener(pathname, false,
+                    new ClassPathOpener.Consumer() {
+                public boolean processFileBytes(String name, byte[] bytes) {
+                    if (!name.endsWith(".class")) {
+                        return false;
+                    }
+                    session.scanClass(fixPath(name), bytes);
+                    return true;
+                }
+                public void onException(Exception ex) {
+                    /*
+                     * Ignore it; the translation will run into the
+                     * same trouble and report it.
+                     */
+                }
+                public void onProcessArchiveStart(File file) {
+                    // This space intentionally left blank.
+                }
+            });
 
-        if (args.optimize && args.statistics) {
-            CodeStatistics.dumpStatistics(DxConsole.out);
+            opener.process();
         }
-
-        return true;
     }
 
     /**
@@ -255,23 +222,32 @@ public class Main {
      * @param pathname {@code non-null;} the pathname to process. May
      * be the path of a class file, a jar file, or a directory
      * containing class files.
-     * @return whether any processing actually happened
      */
-    private static boolean processOne(String pathname) {
+    private void processOne(String pathname) {
         ClassPathOpener opener;
+        ClassPathOpener.FileNameFilter filter;
 
-        opener = new ClassPathOpener(pathname, false,
+        if (outputResources != null) {
+            // The resources are copied as they are stored, once written.
+            filter = new ClassPathOpener.FileNameFilter() {
+                public boolean accept(String path) {
+                    return path.endsWith(".class");
+                }
+            };
+        } else {
+            filter = ClassPathOpener.acceptAll;
+        }
+
+        opener = new ClassPathOpener(pathname, false, filter,
                 new ClassPathOpener.Consumer() {
             public boolean processFileBytes(String name, byte[] bytes) {
-                return Main.processFileBytes(name, bytes);
+                return Main.this.processFileBytes(name, bytes);
             }
             public void onException(Exception ex) {
                 if (ex instanceof StopProcessing) {
                     throw (StopProcessing) ex;
                 }
-                DxConsole.err.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
-                ex.printStackTrace(DxConsole.err);
-                errors++;
+                session.addException(ex);
             }
             public void onProcessArchiveStart(File file) {
                 if (args.verbose) {
@@ -281,226 +257,200 @@ public class Main {
             }
         });
 
-        return opener.process();
+        opener.process();
     }
 
     /**
-     * Processes one file, which may be either a class or a resource.
+     * Finds the resources in one pathname element, to include in the
+     * output. Only where each one is found is noted; its contents are
+     * read once the output is written. Classes count as resources if
+     * they are to be kept in the output.
      *
-     * @param name {@code non-null;} name of the file
-     * @param bytes {@code non-null;} contents of the file
-     * @return whether processing was successful
+     * @param pathname {@code non-null;} the pathname to look in. May
+     * be the path of a file, a jar file, or a directory.
      */
-    private static boolean processFileBytes(String name, byte[] bytes) {
-        boolean isClass = name.endsWith(".class");
-        boolean keepResources = (outputResources != null);
+    private void collectResources(String pathname) {
+        try {
+            collectResources(new File(pathname), true);
+        } catch (IOException ex) {
+            session.addException(ex);
+        }
+    }
 
-        if (!isClass && !keepResources) {
-            if (args.verbose) {
-                DxConsole.out.println("ignored resource " + name);
+    /**
+     * Helper for {@link #collectResources(String)}, which looks in one
+     * file, archive or directory, the same way {@link ClassPathOpener}
+     * does.
+     *
+     * @param file {@code non-null;} the file to look in
+     * @param topLevel whether this is a top-level file (that is,
+     * specified directly on the commandline)
+     * @throws IOException on i/o problem
+     */
+    private void collectResources(File file, boolean topLevel)
+            throws IOException {
+        if (file.isDirectory()) {
+            if (topLevel) {
+                file = new File(file, ".");
             }
-            return false;
-        }
 
-        if (args.verbose) {
-            DxConsole.out.println("processing " + name + "...");
+            for (File one : file.listFiles()) {
+                collectResources(one, false);
+            }
+
+            return;
         }
 
-        String fixedName = fixPath(name);
+        String path = file.getPath();
+
+        if (path.endsWith(".zip") ||
+                path.endsWith(".jar") ||
+                path.endsWith(".apk")) {
+            RawZipFile zip = new RawZipFile(file);
 
-        if (isClass) {
-            if (keepResources && args.keepClassesInJar) {
-                outputResources.put(fixedName, bytes);
+            inputArchives.add(zip);
+
+            for (RawZipFile.Entry one : zip.entries()) {
+                String name = one.getName();
+
+                if (!one.isDirectory() && isResource(name)) {
+                    outputResources.put(fixPath(name),
+                            new Resource.ArchiveEntry(zip, one));
+                }
             }
-            return processClass(fixedName, bytes);
-        } else {
-            outputResources.put(fixedName, bytes);
-            return true;
+        } else if (isResource(path)) {
+            outputResources.put(fixPath(path), new Resource.LooseFile(file));
         }
     }
 
     /**
-     * Processes one classfile.
+     * Tells whether a file is to be included in the output as a resource.
      *
-     * @param name {@code non-null;} name of the file, clipped such that it
-     * <i>should</i> correspond to the name of the class it contains
-     * @param bytes {@code non-null;} contents of the file
-     * @return whether processing was successful
+     * @param name {@code non-null;} name of the file
+     * @return whether the file is a resource
      */
-    private static boolean processClass(String name, byte[] bytes) {
-        if (! args.coreLibrary) {
-            checkClassName(name);
-        }
-
-        try {
-            ClassDefItem clazz =
-                CfTranslator.translate(name, bytes, args.cfOptions);
-            outputDex.add(clazz);
-            return true;
-        } catch (ParseException ex) {
-            DxConsole.err.println("\ntrouble processing:");
-            if (args.debug) {
-                ex.printStackTrace(DxConsole.err);
-            } else {
-                ex.printContext(DxConsole.err);
-            }
-        }
-
-        warnings++;
-        return false;
+    private boolean isResource(String name) {
+        return !name.endsWith(".class") || args.keepClassesInJar;
     }
 
     /**
-     * Check the class name to make sure it's not a "core library"
-     * class. If there is a problem, this updates the error count and
-     * throws an exception to stop processing.
-     *
-     * @param name {@code non-null;} the fully-qualified internal-form
-     * class name
+     * Closes the input archives that resources were copied from. Since
+     * they were only read, trouble closing them is ignored.
      */
-    private static void checkClassName(String name) {
-        boolean bogus = false;
-
-        if (name.startsWith("java/")) {
-            bogus = true;
-        } else if (name.startsWith("javax/")) {
-            int slashAt = name.indexOf('/', 6);
-            if (slashAt == -1) {
-                // Top-level javax classes are verboten.
-                bogus = true;
-            } else {
-                String pkg = name.substring(6, slashAt);
-                bogus = (Arrays.binarySearch(JAVAX_CORE, pkg) >= 0);
+    private void closeInputArchives() {
+        for (RawZipFile zip : inputArchives) {
+            try {
+                zip.close();
+            } catch (IOException ex) {
+                // This space intentionally left blank.
             }
         }
 
-        if (! bogus) {
-            return;
-        }
-
-        /*
-         * The user is probably trying to include an entire desktop
-         * core library in a misguided attempt to get their application
-         * working. Try to help them understand what's happening.
-         */
-
-        DxConsole.err.println("\ntrouble processing \"" + name + "\":\n\n" +
-                IN_RE_CORE_CLASSES);
-        errors++;
-        throw new StopProcessing();
+        inputArchives.clear();
     }
 
     /**
-     * Converts {@link #outputDex} into a {@code byte[]}, write
-     * it out to the proper file (if any), and also do whatever human-oriented
-     * dumping is required.
+     * Processes one file, which may be either a class or a resource.
+     * Resources are ignored here; they are found by
+     * {@link #collectResources(String)} if they are to be kept.
      *
-     * @return {@code null-ok;} the converted {@code byte[]} or {@code null}
-     * if there was a problem
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return whether processing was successful
      */
-    private static byte[] writeDex() {
-        byte[] outArray = null;
+    private boolean processFileBytes(String name, byte[] bytes) {
+        boolean isClass = name.endsWith(".class");
 
-        try {
-            OutputStream out = null;
-            OutputStream humanOutRaw = null;
-            OutputStreamWriter humanOut = null;
-            try {
-                if (args.humanOutName != null) {
-                    humanOutRaw = openOutput(args.humanOutName);
-                    humanOut = new OutputStreamWriter(humanOutRaw);
-                }
+        if (!isClass) {
+            if (args.verbose) {
+                DxConsole.out.println("ignored resource " + name);
+            }
+            return false;
+        }
 
-                if (args.methodToDump != null) {
-                    /*
-                     * Simply dump the requested method. Note: The call
-                     * to toDex() is required just to get the underlying
-                     * structures ready.
-                     */
-                    outputDex.toDex(null, false);
-                    dumpMethod(outputDex, args.methodToDump, humanOut);
-                } else {
-                    /*
-                     * This is the usual case: Create an output .dex file,
-                     * and write it, dump it, etc.
-                     */
-                    outArray = outputDex.toDex(humanOut, args.verboseDump);
+        if (args.verbose) {
+            DxConsole.out.println("processing " + name + "...");
+        }
 
-                    if ((args.outName != null) && !args.jarOutput) {
-                        out = openOutput(args.outName);
-                        out.write(outArray);
-                    }
-                }
+        boolean result = session.addClass(fixPath(name), bytes);
 
-                if (args.statistics) {
-                    DxConsole.out.println(outputDex.getStatistics().toHuman());
-                }
-            } finally {
-                if (humanOut != null) {
-                    humanOut.flush();
-                }
-                closeOutput(out);
-                closeOutput(humanOutRaw);
-            }
-        } catch (Exception ex) {
-            if (args.debug) {
-                DxConsole.err.println("\ntrouble writing output:");
-                ex.printStackTrace(DxConsole.err);
-            } else {
-                DxConsole.err.println("\ntrouble writing output: " +
-                                   ex.getMessage());
-            }
-            return null;
+        if (session.isStopped()) {
+            throw new StopProcessing();
         }
 
-        return outArray;
+        return result;
     }
 
     /**
      * Creates a jar file from the resources and given dex file array.
+     * Resources from input archives are copied as they are stored there,
+     * and the dex file array is deflated on another thread meanwhile, to
+     * go in last.
      *
      * @param fileName {@code non-null;} name of the file
      * @param dexArray {@code non-null;} array containing the dex file
      * to include
      * @return whether the creation was successful
      */
-    private static boolean createJar(String fileName, byte[] dexArray) {
-        /*
-         * Make or modify the manifest (as appropriate), put the dex
-         * array into the resources map, and then process the entire
-         * resources map in a uniform manner.
-         */
+    private boolean createJar(String fileName, final byte[] dexArray) {
+        FutureTask<byte[]> deflatedDex =
+            new FutureTask<byte[]>(new Callable<byte[]>() {
+                public byte[] call() {
+                    return RawZipWriter.deflate(dexArray);
+                }
+            });
+
+        new Thread(deflatedDex, "dex deflater").start();
 
         try {
             Manifest manifest = makeManifest();
             OutputStream out = openOutput(fileName);
-            JarOutputStream jarOut = new JarOutputStream(out, manifest);
+            RawZipWriter zipOut =
+                new RawZipWriter(new BufferedOutputStream(out));
 
-            outputResources.put(DEX_IN_JAR_NAME, dexArray);
+            outputResources.remove(DEX_IN_JAR_NAME);
 
             try {
-                for (Map.Entry<String, byte[]> e :
+                ByteArrayOutputStream manifestBytes =
+                    new ByteArrayOutputStream();
+
+                manifest.write(manifestBytes);
+                zipOut.deflate(MANIFEST_NAME, manifestBytes.toByteArray());
+
+                for (Map.Entry<String, Resource> e :
                          outputResources.entrySet()) {
                     String name = e.getKey();
-                    byte[] contents = e.getValue();
-                    JarEntry entry = new JarEntry(name);
+                    Resource resource = e.getValue();
 
                     if (args.verbose) {
                         DxConsole.out.println("writing " + name + "; size " +
-                                           contents.length + "...");
+                                           resource.getSize() + "...");
                     }
 
-                    entry.setSize(contents.length);
-                    jarOut.putNextEntry(entry);
-                    jarOut.write(contents);
-                    jarOut.closeEntry();
+                    resource.writeTo(zipOut, name);
+                }
+
+                if (args.verbose) {
+                    DxConsole.out.println("writing " + DEX_IN_JAR_NAME +
+                            "; size " + dexArray.length + "...");
                 }
+
+                CRC32 crc = new CRC32();
+
+                crc.update(dexArray);
+                zipOut.write(DEX_IN_JAR_NAME, RawZipWriter.DEFLATED,
+                        (int) crc.getValue(), dexArray.length,
+                        deflatedDex.get());
+                zipOut.finish();
             } finally {
-                jarOut.finish();
-                jarOut.flush();
                 closeOutput(out);
             }
         } catch (Exception ex) {
+            if ((ex instanceof ExecutionException)
+                    && (ex.getCause() instanceof Exception)) {
+                ex = (Exception) ex.getCause();
+            }
+
             if (args.debug) {
                 DxConsole.err.println("\ntrouble writing output:");
                 ex.printStackTrace(DxConsole.err);
@@ -520,18 +470,19 @@ public class Main {
      *
      * @return {@code non-null;} the manifest
      */
-    private static Manifest makeManifest() throws IOException {
-        byte[] manifestBytes = outputResources.get(MANIFEST_NAME);
+    private Manifest makeManifest() throws IOException {
+        Resource manifestResource = outputResources.get(MANIFEST_NAME);
         Manifest manifest;
         Attributes attribs;
 
-        if (manifestBytes == null) {
+        if (manifestResource == null) {
             // We need to construct an entirely new manifest.
             manifest = new Manifest();
             attribs = manifest.getMainAttributes();
             attribs.put(Attributes.Name.MANIFEST_VERSION, "1.0");
         } else {
-            manifest = new Manifest(new ByteArrayInputStream(manifestBytes));
+            manifest = new Manifest(
+                    new ByteArrayInputStream(manifestResource.getBytes()));
             attribs = manifest.getMainAttributes();
             outputResources.remove(MANIFEST_NAME);
         }
@@ -556,7 +507,7 @@ public class Main {
      * @param name {@code non-null;} the file name
      * @return {@code non-null;} the opened file
      */
-    private static OutputStream openOutput(String name) throws IOException {
+    /*package*/ static OutputStream openOutput(String name) throws IOException {
         if (name.equals("-") ||
                 name.startsWith("-.")) {
             return System.out;
@@ -573,7 +524,7 @@ public class Main {
      *
      * @param stream {@code null-ok;} what to close
      */
-    private static void closeOutput(OutputStream stream) throws IOException {
+    /*package*/ static void closeOutput(OutputStream stream) throws IOException {
         if (stream == null) {
             return;
         }
@@ -622,103 +573,6 @@ public class Main {
         return path;
     }
 
-    /**
-     * Dumps any method with the given name in the given file.
-     *
-     * @param dex {@code non-null;} the dex file
-     * @param fqName {@code non-null;} the fully-qualified name of the
-     * method(s)
-     * @param out {@code non-null;} where to dump to
-     */
-    private static void dumpMethod(DexFile dex, String fqName,
-            OutputStreamWriter out) {
-        boolean wildcard = fqName.endsWith("*");
-        int lastDot = fqName.lastIndexOf('.');
-
-        if ((lastDot <= 0) || (lastDot == (fqName.length() - 1))) {
-            DxConsole.err.println("bogus fully-qualified method name: " +
-                               fqName);
-            return;
-        }
-
-        String className = fqName.substring(0, lastDot).replace('.', '/');
-        String methodName = fqName.substring(lastDot + 1);
-        ClassDefItem clazz = dex.getClassOrNull(className);
-
-        if (clazz == null) {
-            DxConsole.err.println("no such class: " + className);
-            return;
-        }
-
-        if (wildcard) {
-            methodName = methodName.substring(0, methodName.length() - 1);
-        }
-
-        ArrayList<EncodedMethod> allMeths = clazz.getMethods();
-        TreeMap<CstNat, EncodedMethod> meths =
-            new TreeMap<CstNat, EncodedMethod>();
-
-        /*
-         * Figure out which methods to include in the output, and get them
-         * all sorted, so that the printout code is robust with respect to
-         * changes in the underlying order.
-         */
-        for (EncodedMethod meth : allMeths) {
-            String methName = meth.getName().getString();
-            if ((wildcard && methName.startsWith(methodName)) ||
-                (!wildcard && methName.equals(methodName))) {
-                meths.put(meth.getRef().getNat(), meth);
-            }
-        }
-
-        if (meths.size() == 0) {
-            DxConsole.err.println("no such method: " + fqName);
-            return;
-        }
-
-        PrintWriter pw = new PrintWriter(out);
-
-        for (EncodedMethod meth : meths.values()) {
-            // TODO: Better stuff goes here, perhaps.
-            meth.debugPrint(pw, args.verboseDump);
-
-            /*
-             * The (default) source file is an attribute of the class, but
-             * it's useful to see it in method dumps.
-             */
-            CstUtf8 sourceFile = clazz.getSourceFile();
-            if (sourceFile != null) {
-                pw.println("  source file: " + sourceFile.toQuoted());
-            }
-
-            Annotations methodAnnotations =
-                clazz.getMethodAnnotations(meth.getRef());
-            AnnotationsList parameterAnnotations =
-                clazz.getParameterAnnotations(meth.getRef());
-
-            if (methodAnnotations != null) {
-                pw.println("  method annotations:");
-                for (Annotation a : methodAnnotations.getAnnotations()) {
-                    pw.println("    " + a);
-                }
-            }
-
-            if (parameterAnnotations != null) {
-                pw.println("  parameter annotations:");
-                int sz = parameterAnnotations.size();
-                for (int i = 0; i < sz; i++) {
-                    pw.println("    parameter " + i);
-                    Annotations annotations = parameterAnnotations.get(i);
-                    for (Annotation a : annotations.getAnnotations()) {
-                        pw.println("      " + a);
-                    }
-                }
-            }
-        }
-
-        pw.flush();
-    }
-
     /**
      * Exception class used to halt processing prematurely.
      */
@@ -796,6 +650,84 @@ public class Main {
         /** Whether to print statistics to stdout at end of compile cycle */
         public boolean statistics;
 
+        /** algorithm the optimizer uses to compute dominators */
+        public DomFront.Algorithm domAlgorithm =
+            DomFront.Algorithm.LENGAUER_TARJAN;
+
+        /** whether to place phis only where their register is live */
+        public boolean prunedSsa = false;
+
+        /** whether to replace non-escaping arrays with registers */
+        public boolean escapeAnalysis = false;
+
+        /** whether to remove redundant computations by value numbering */
+        public boolean valueNumbering = false;
+
+        /** whether to hoist loop-invariant insns out of loops */
+        public boolean loopInvariantMotion = false;
+
+        /** whether to inline calls to small methods of the same class */
+        public boolean inline = false;
+
+        /** maximum size, in rop insns, of a method to inline */
+        public int inlineThreshold = -1;
+
+        /** whether to lay out blocks from estimated block frequencies */
+        public boolean frequencyLayout = false;
+
+        /** whether to run the peephole optimizer over the final dex code */
+        public boolean peephole = false;
+
+        /**
+         * whether to move constant stores out of static initializers and
+         * into static values
+         */
+        public boolean staticValues = false;
+
+        /**
+         * file containing the rules for what to keep when removing
+         * unreachable classes and members, or {@code null} to keep
+         * everything
+         */
+        public String keepRulesFile = null;
+
+        /**
+         * whether to fold reads of static final fields whose values are
+         * known across all the classes being translated
+         */
+        public boolean foldConstants = false;
+
+        /**
+         * whether only fields with a {@code ConstantValue} attribute
+         * count as known, when folding constants
+         */
+        public boolean constantAttributesOnly = false;
+
+        /**
+         * file listing the classes and methods used at startup, to lay
+         * out together at the front of the output, or {@code null} for
+         * the usual layout
+         */
+        public String startupProfileFile = null;
+
+        /** whether methods with the same code should share a code item */
+        public boolean dedupeCode = false;
+
+        /** whether code items with the same debug info should share it */
+        public boolean dedupeDebugInfo = false;
+
+        /** whether to encode debug info compactly */
+        public boolean compactDebugInfo = false;
+
+        /** number of threads to write the output with */
+        public int numThreads = 1;
+
+        /**
+         * whether to keep translated code in a temporary file, rather
+         * than on the heap, until it is written
+         */
+        public boolean lowMemory = false;
+
         /** Options for dex.cf.* */
         public CfOptions cfOptions;
 
@@ -882,6 +814,79 @@ public class Main {
                     }
                 } else if (arg.equals("--no-locals")) {
                     localInfo = false;
+                } else if (arg.equals("--pruned-ssa")) {
+                    prunedSsa = true;
+                } else if (arg.equals("--escape-analysis")) {
+                    escapeAnalysis = true;
+                } else if (arg.equals("--value-numbering")) {
+                    valueNumbering = true;
+                } else if (arg.equals("--loop-invariant-motion")) {
+                    loopInvariantMotion = true;
+                } else if (arg.equals("--inline")) {
+                    inline = true;
+                } else if (arg.startsWith("--inline-threshold=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    inlineThreshold = Integer.parseInt(arg);
+                } else if (arg.equals("--peephole")) {
+                    peephole = true;
+                } else if (arg.equals("--static-values")) {
+                    staticValues = true;
+                } else if (arg.startsWith("--tree-shake=")) {
+                    keepRulesFile = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.equals("--dedupe-code")) {
+                    dedupeCode = true;
+                } else if (arg.equals("--dedupe-debug-info")) {
+                    dedupeDebugInfo = true;
+                } else if (arg.equals("--compact-debug-info")) {
+                    compactDebugInfo = true;
+                } else if (arg.equals("--low-memory")) {
+                    lowMemory = true;
+                } else if (arg.startsWith("--num-threads=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    numThreads = Integer.parseInt(arg);
+                    if (numThreads < 1) {
+                        System.err.println("bogus number of threads: " +
+                                arg);
+                        throw new UsageException();
+                    }
+                } else if (arg.startsWith("--startup-profile=")) {
+                    startupProfileFile = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("--fold-constants=")) {
+                    String fstr = arg.substring(arg.indexOf('=') + 1).intern();
+                    if (fstr == "attributes") {
+                        constantAttributesOnly = true;
+                    } else if (fstr == "initializers") {
+                        constantAttributesOnly = false;
+                    } else {
+                        System.err.println("unknown constant folding " +
+                                "option: " + fstr);
+                        throw new UsageException();
+                    }
+                    foldConstants = true;
+                } else if (arg.startsWith("--block-layout=")) {
+                    String lstr = arg.substring(arg.indexOf('=') + 1).intern();
+                    if (lstr == "trace") {
+                        frequencyLayout = false;
+                    } else if (lstr == "frequency") {
+                        frequencyLayout = true;
+                    } else {
+                        System.err.println("unknown block layout option: " +
+                                           lstr);
+                        throw new UsageException();
+                    }
+                } else if (arg.startsWith("--dominators=")) {
+                    String dstr = arg.substring(arg.indexOf('=') + 1).intern();
+                    if (dstr == "lengauer-tarjan") {
+                        domAlgorithm = DomFront.Algorithm.LENGAUER_TARJAN;
+                    } else if (dstr == "iterative") {
+                        domAlgorithm = DomFront.Algorithm.ITERATIVE;
+                    } else if (dstr == "check") {
+                        domAlgorithm = DomFront.Algorithm.CHECKED;
+                    } else {
+                        System.err.println("unknown dominators option: " +
+                                           dstr);
+                        throw new UsageException();
+                    }
                 } else {
                     System.err.println("unknown option: " + arg);
                     throw new UsageException();
@@ -908,23 +913,40 @@ public class Main {
                 humanOutName = "-";
             }
 
-            makeCfOptions();
+            cfOptions = makeCfOptions(DxConsole.err);
         }
 
         /**
-         * Copies relevent arguments over into a CfOptions instance.
+         * Copies relevent arguments over into a new CfOptions instance.
+         *
+         * @param warn {@code non-null;} where to print warnings
+         * @return {@code non-null;} the options
          */
-        private void makeCfOptions() {
-            cfOptions = new CfOptions();
-
-            cfOptions.positionInfo = positionInfo;
-            cfOptions.localInfo = localInfo;
-            cfOptions.strictNameCheck = strictNameCheck;
-            cfOptions.optimize = optimize;
-            cfOptions.optimizeListFile = optimizeListFile;
-            cfOptions.dontOptimizeListFile = dontOptimizeListFile;
-            cfOptions.statistics = statistics;
-            cfOptions.warn = DxConsole.err;
+        /*package*/ CfOptions makeCfOptions(PrintStream warn) {
+            CfOptions options = new CfOptions();
+
+            options.positionInfo = positionInfo;
+            options.localInfo = localInfo;
+            options.strictNameCheck = strictNameCheck;
+            options.optimize = optimize;
+            options.optimizeListFile = optimizeListFile;
+            options.dontOptimizeListFile = dontOptimizeListFile;
+            options.statistics = statistics;
+            options.domAlgorithm = domAlgorithm;
+            options.prunedSsa = prunedSsa;
+            options.escapeAnalysis = escapeAnalysis;
+            options.valueNumbering = valueNumbering;
+            options.loopInvariantMotion = loopInvariantMotion;
+            options.inline = inline;
+            if (inlineThreshold >= 0) {
+                options.inlineThreshold = inlineThreshold;
+            }
+            options.frequencyLayout = frequencyLayout;
+            options.peephole = peephole;
+            options.staticValues = staticValues;
+            options.warn = warn;
+
+            return options;
         }
     }
 }
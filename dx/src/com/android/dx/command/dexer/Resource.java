@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.command.dexer;
+
+import com.android.dx.util.FileUtils;
+import com.android.dx.util.RawZipFile;
+import com.android.dx.util.RawZipWriter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A resource to include in jar output. Only where it is found is kept
+ * until the output is written, so resources are never all in memory
+ * at once.
+ */
+/*package*/ abstract class Resource {
+    /**
+     * Gets the size of the resource's contents.
+     *
+     * @return {@code >= 0;} the size, in bytes
+     */
+    public abstract long getSize();
+
+    /**
+     * Reads the resource's contents.
+     *
+     * @return {@code non-null;} the contents
+     * @throws IOException on i/o problem
+     */
+    public abstract byte[] getBytes() throws IOException;
+
+    /**
+     * Writes the resource as an entry of jar output.
+     *
+     * @param out {@code non-null;} where to write to
+     * @param name {@code non-null;} name of the entry
+     * @throws IOException on i/o problem
+     */
+    public abstract void writeTo(RawZipWriter out, String name)
+            throws IOException;
+
+    /**
+     * A resource which is an entry of an input archive. It is copied
+     * as it is stored there, without being inflated and deflated again.
+     */
+    public static final class ArchiveEntry extends Resource {
+        /** {@code non-null;} the archive */
+        private final RawZipFile zip;
+
+        /** {@code non-null;} the entry */
+        private final RawZipFile.Entry entry;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param zip {@code non-null;} the archive
+         * @param entry {@code non-null;} the entry
+         */
+        public ArchiveEntry(RawZipFile zip, RawZipFile.Entry entry) {
+            this.zip = zip;
+            this.entry = entry;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public long getSize() {
+            return entry.getSize();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public byte[] getBytes() throws IOException {
+            return zip.read(entry);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void writeTo(RawZipWriter out, String name)
+                throws IOException {
+            out.copy(name, zip, entry);
+        }
+    }
+
+    /**
+     * A resource which is a file of its own. It is read and deflated
+     * as it is written.
+     */
+    public static final class LooseFile extends Resource {
+        /** {@code non-null;} the file */
+        private final File file;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param file {@code non-null;} the file
+         */
+        public LooseFile(File file) {
+            this.file = file;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public long getSize() {
+            return file.length();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public byte[] getBytes() {
+            return FileUtils.readFile(file);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void writeTo(RawZipWriter out, String name)
+                throws IOException {
+            out.deflate(name, getBytes());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.dexer._tests;
+
+import com.android.dx.command.dexer.DexSession;
+import com.android.dx.command.dexer.Main;
+import com.android.dx.dex.code.RopTranslator;
+import com.android.dx.ssa.Optimizer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Test the class {@code com.android.dx.command.dexer.DexSession}. The
+ * classes it translates are read from the current directory, where
+ * {@code tests/130-unit-DexSession} compiles them.
+ */
+public class _DexSession
+    extends TestCase {
+    /** {@code non-null;} the classes translated, as file names */
+    private static final String[] CLASSES = {
+        "Blort.class", "Fizmo.class", "Zorch.class"
+    };
+
+    public void test_concurrent() throws Exception {
+        final byte[] optimized = translate(makeArgs(true));
+        final byte[] unoptimized = translate(makeArgs(false));
+
+        assertNotNull(optimized);
+        assertNotNull(unoptimized);
+        assertFalse(Arrays.equals(optimized, unoptimized));
+
+        final byte[][] results = new byte[8][];
+        final Throwable[] failures = new Throwable[results.length];
+        Thread[] threads = new Thread[results.length];
+
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[index] =
+                            translate(makeArgs((index & 1) == 0));
+                    } catch (Throwable ex) {
+                        failures[index] = ex;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertNull("thread " + i, failures[i]);
+            assertTrue("thread " + i, Arrays.equals(results[i],
+                            ((i & 1) == 0) ? optimized : unoptimized));
+        }
+    }
+
+    public void test_interleaved() throws Exception {
+        byte[] peephole = translate(makeArgs(true, true));
+        byte[] plain = translate(makeArgs(true, false));
+
+        assertFalse(Arrays.equals(peephole, plain));
+
+        /*
+         * Two sessions with different settings translate their classes
+         * in turn on this thread, and one of them is written from
+         * another thread.
+         */
+        final DexSession first = new DexSession(makeArgs(true, true),
+                System.out, System.err);
+        DexSession second = new DexSession(makeArgs(true, false),
+                System.out, System.err);
+
+        for (String name : CLASSES) {
+            byte[] bytes = readClass(name);
+
+            assertTrue(name, first.addClass(name, bytes));
+            assertTrue(name, second.addClass(name, bytes));
+        }
+
+        final ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+        final Throwable[] failure = new Throwable[1];
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    assertTrue(first.writeTo(firstOut));
+                } catch (Throwable ex) {
+                    failure[0] = ex;
+                }
+            }
+        };
+
+        writer.start();
+        writer.join();
+        assertNull(failure[0]);
+
+        ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+
+        assertTrue(second.writeTo(secondOut));
+        assertTrue(Arrays.equals(peephole, firstOut.toByteArray()));
+        assertTrue(Arrays.equals(plain, secondOut.toByteArray()));
+
+        // Nothing of the sessions' settings is left on this thread.
+        assertFalse(Optimizer.getEscapeAnalysis());
+        assertNull(Optimizer.getConstantFields());
+        assertFalse(RopTranslator.getFrequencyLayout());
+    }
+
+    public void test_coreClass() throws IOException {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        DexSession session = new DexSession(makeArgs(true),
+                new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(err, true));
+
+        assertFalse(session.addClass("java/util/Blort.class",
+                        readClass(CLASSES[0])));
+        assertTrue(session.isStopped());
+        assertEquals(1, session.getErrorCount());
+        assertFalse(session.addClass(CLASSES[0], readClass(CLASSES[0])));
+        assertNull(session.toDex());
+        assertTrue(err.toString().indexOf("1 error; aborting") >= 0);
+    }
+
+    public void test_noClasses() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        DexSession session = new DexSession(makeArgs(true),
+                new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(err, true));
+
+        assertNull(session.toDex());
+        assertTrue(err.toString().indexOf("no classfiles specified") >= 0);
+
+        try {
+            session.toDex();
+            fail("toDex() twice");
+        } catch (IllegalStateException ex) {
+            // This is expected.
+        }
+    }
+
+    /**
+     * Makes the options for a session.
+     *
+     * @param optimize whether to optimize
+     * @return {@code non-null;} the options
+     */
+    private static Main.Arguments makeArgs(boolean optimize) {
+        return makeArgs(optimize, false);
+    }
+
+    /**
+     * Makes the options for a session.
+     *
+     * @param optimize whether to optimize
+     * @param peephole whether to run the peephole optimizer
+     * @return {@code non-null;} the options
+     */
+    private static Main.Arguments makeArgs(boolean optimize,
+            boolean peephole) {
+        Main.Arguments args = new Main.Arguments();
+
+        args.optimize = optimize;
+        args.peephole = peephole;
+        return args;
+    }
+
+    /**
+     * Translates {@link #CLASSES} in a session of their own.
+     *
+     * @param args {@code non-null;} the options
+     * @return {@code non-null;} the dex file
+     */
+    private static byte[] translate(Main.Arguments args) throws IOException {
+        DexSession session = new DexSession(args, System.out, System.err);
+
+        for (String name : CLASSES) {
+            assertTrue(name, session.addClass(name, readClass(name)));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertTrue(session.writeTo(out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a class file from the current directory.
+     *
+     * @param name {@code non-null;} the file name of the class
+     * @return {@code non-null;} the contents of the class file
+     */
+    private static byte[] readClass(String name) throws IOException {
+        InputStream in = new FileInputStream(new File(name));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
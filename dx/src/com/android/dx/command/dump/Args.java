@@ -16,6 +16,10 @@
 
 package com.android.dx.command.dump;
 
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.SsaConverter;
+import com.android.dx.ssa.StepTimer;
+
 /**
  * contains command line parsedArgs values
  */
@@ -50,7 +54,63 @@ class Args {
     /** whether to dump flow-graph in "dot" format */
     boolean dotDump = false;
 
-    /** if non-null, an explicit method to dump */
+    /**
+     * if non-null, an explicit method to dump, or with a trailing
+     * {@code *}, the prefix of the names of the methods to dump
+     */
     String method;
 
+    /** whether to place phi functions in pruned SSA form */
+    boolean prunePhis = false;
+
+    /** whether to run escape analysis when optimizing */
+    boolean escapeAnalysis = false;
+
+    /** whether to run value numbering when optimizing */
+    boolean valueNumbering = false;
+
+    /** whether to hoist loop-invariant insns out of loops when optimizing */
+    boolean loopInvariantMotion = false;
+
+    /**
+     * if non-null, the directory to dump each class to a file of its
+     * own in, rather than to stdout
+     */
+    String outputDir;
+
+    /** how many threads to dump classes with, if dumping to files */
+    int numThreads = 1;
+
+    /** if non-null, where to add the time spent in each SSA step */
+    StepTimer timer;
+
+    /**
+     * Gets whether a method is to be dumped.
+     *
+     * @param name {@code non-null;} the method name
+     * @return true if this method should be dumped
+     */
+    boolean shouldDumpMethod(String name) {
+        if (method == null) {
+            return true;
+        }
+
+        if (method.endsWith("*")) {
+            return name.startsWith(method.substring(0, method.length() - 1));
+        }
+
+        return method.equals(name);
+    }
+
+    /**
+     * Makes the settings that are kept per thread for the current
+     * thread, so that the dumpers run on it see them.
+     */
+    void applyThreadSettings() {
+        SsaConverter.setPrunePhis(prunePhis);
+        Optimizer.setEscapeAnalysis(escapeAnalysis);
+        Optimizer.setValueNumbering(valueNumbering);
+        Optimizer.setLoopInvariantMotion(loopInvariantMotion);
+        Optimizer.setStepTimer(timer);
+    }
 }
@@ -17,9 +17,14 @@
 package com.android.dx.command.dump;
 
 import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
 import com.android.dx.cf.iface.Member;
 import com.android.dx.cf.iface.ParseObserver;
 import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.TranslationAdvice;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.StepTimer;
 import com.android.dx.util.ByteArray;
 import com.android.dx.util.Hex;
 import com.android.dx.util.IndentingWriter;
@@ -112,6 +117,40 @@ public abstract class BaseDumper
             getWordCount();
     }
 
+    /**
+     * Gets whether a method has code to dump, that is, whether it is
+     * neither abstract nor native.
+     *
+     * @param member {@code non-null;} the method
+     * @return whether the method has code
+     */
+    static boolean hasCode(Member member) {
+        int accessFlags = member.getAccessFlags();
+
+        return !(AccessFlags.isAbstract(accessFlags)
+                || AccessFlags.isNative(accessFlags));
+    }
+
+    /**
+     * Converts a method to rop form, adding the time it takes to the
+     * {@link StepTimer} for the current thread, if there is one.
+     *
+     * @param meth {@code non-null;} method to convert
+     * @param advice {@code non-null;} translation advice to use
+     * @return {@code non-null;} the rop form of the method
+     */
+    static RopMethod ropper(ConcreteMethod meth, TranslationAdvice advice) {
+        long start = StepTimer.start();
+        RopMethod result = Ropper.convert(meth, advice);
+        StepTimer timer = Optimizer.getStepTimer();
+
+        if (timer != null) {
+            timer.end(StepTimer.Step.ROPPER, start);
+        }
+
+        return result;
+    }
+
     /** {@inheritDoc} */
     public void changeIndent(int indentDelta) {
         indent += indentDelta;
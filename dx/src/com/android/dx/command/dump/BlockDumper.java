@@ -23,7 +23,6 @@ import com.android.dx.cf.code.ByteBlockList;
 import com.android.dx.cf.code.ByteCatchList;
 import com.android.dx.cf.code.BytecodeArray;
 import com.android.dx.cf.code.ConcreteMethod;
-import com.android.dx.cf.code.Ropper;
 import com.android.dx.cf.direct.CodeObserver;
 import com.android.dx.cf.direct.DirectClassFile;
 import com.android.dx.cf.direct.StdAttributeFactory;
@@ -147,7 +146,7 @@ public class BlockDumper
      * @return true if this method should be dumped
      */
     protected boolean shouldDumpMethod(String name) {
-        return args.method == null || args.method.equals(name);
+        return args.shouldDumpMethod(name);
     }
 
     /** {@inheritDoc} */
@@ -186,7 +185,7 @@ public class BlockDumper
             return;
         }
 
-        if (!shouldDumpMethod(name)) {
+        if (!shouldDumpMethod(name) || !hasCode(member)) {
             return;
         }
 
@@ -287,7 +286,7 @@ public class BlockDumper
         TranslationAdvice advice = DexTranslationAdvice.THE_ONE;
 
         RopMethod rmeth =
-            Ropper.convert(meth, advice);
+            ropper(meth, advice);
         StringBuffer sb = new StringBuffer(2000);
 
         if (optimize) {
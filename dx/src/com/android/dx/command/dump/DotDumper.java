@@ -17,7 +17,6 @@
 package com.android.dx.command.dump;
 
 import com.android.dx.cf.code.ConcreteMethod;
-import com.android.dx.cf.code.Ropper;
 import com.android.dx.cf.direct.DirectClassFile;
 import com.android.dx.cf.direct.StdAttributeFactory;
 import com.android.dx.cf.iface.Member;
@@ -34,6 +33,8 @@ import com.android.dx.util.ByteArray;
 import com.android.dx.util.Hex;
 import com.android.dx.util.IntList;
 
+import java.io.PrintStream;
+
 /**
  * Dumps the pred/succ graph of methods into a format compatible
  * with the popular graph utility "dot".
@@ -42,17 +43,20 @@ public class DotDumper implements ParseObserver {
     private DirectClassFile classFile;
 
     private final byte[] bytes;
+    private final PrintStream out;
     private final String filePath;
     private final boolean strictParse;
     private final boolean optimize;
     private final Args args;
 
-    static void dump(byte[] bytes, String filePath, Args args) {
-        new DotDumper(bytes, filePath, args).run();
+    static void dump(byte[] bytes, PrintStream out, String filePath,
+            Args args) {
+        new DotDumper(bytes, out, filePath, args).run();
     }
 
-    DotDumper(byte[] bytes, String filePath, Args args) {
+    DotDumper(byte[] bytes, PrintStream out, String filePath, Args args) {
         this.bytes = bytes;
+        this.out = out;
         this.filePath = filePath;
         this.strictParse = args.strictParse;
         this.optimize = args.optimize;
@@ -83,7 +87,7 @@ public class DotDumper implements ParseObserver {
      * @return true if this method should be dumped
      */
     protected boolean shouldDumpMethod(String name) {
-        return args.method == null || args.method.equals(name);
+        return args.shouldDumpMethod(name);
     }
 
     public void changeIndent(int indentDelta) {
@@ -106,7 +110,7 @@ public class DotDumper implements ParseObserver {
             return;
         }
 
-        if (!shouldDumpMethod(name)) {
+        if (!shouldDumpMethod(name) || !BaseDumper.hasCode(member)) {
             return;
         }
 
@@ -115,7 +119,7 @@ public class DotDumper implements ParseObserver {
 
         TranslationAdvice advice = DexTranslationAdvice.THE_ONE;
         RopMethod rmeth =
-            Ropper.convert(meth, advice);
+            BaseDumper.ropper(meth, advice);
 
         if (optimize) {
             boolean isStatic = AccessFlags.isStatic(meth.getAccessFlags());
@@ -124,9 +128,9 @@ public class DotDumper implements ParseObserver {
                     true, advice);
         }
 
-        System.out.println("digraph "  + name + "{");
+        out.println("digraph "  + name + "{");
 
-        System.out.println("\tfirst -> n"
+        out.println("\tfirst -> n"
                 + Hex.u2(rmeth.getFirstLabel()) + ";");
 
         BasicBlockList blocks = rmeth.getBlocks();
@@ -138,23 +142,23 @@ public class DotDumper implements ParseObserver {
             IntList successors = bb.getSuccessors();
 
             if (successors.size() == 0) {
-                System.out.println("\tn" + Hex.u2(label) + " -> returns;");
+                out.println("\tn" + Hex.u2(label) + " -> returns;");
             } else if (successors.size() == 1) {
-                System.out.println("\tn" + Hex.u2(label) + " -> n"
+                out.println("\tn" + Hex.u2(label) + " -> n"
                         + Hex.u2(successors.get(0)) + ";");
             } else {
-                System.out.print("\tn" + Hex.u2(label) + " -> {");
+                out.print("\tn" + Hex.u2(label) + " -> {");
                 for (int j = 0; j < successors.size(); j++ ) {
                     int successor = successors.get(j);
 
                     if (successor != bb.getPrimarySuccessor()) {
-                        System.out.print(" n" + Hex.u2(successor) + " ");
+                        out.print(" n" + Hex.u2(successor) + " ");
                     }
 
                 }
-                System.out.println("};");
+                out.println("};");
 
-                System.out.println("\tn" + Hex.u2(label) + " -> n"
+                out.println("\tn" + Hex.u2(label) + " -> n"
                         + Hex.u2(bb.getPrimarySuccessor())
                         + " [label=\"primary\"];");
 
@@ -162,6 +166,6 @@ public class DotDumper implements ParseObserver {
             }
         }
 
-        System.out.println("}");
+        out.println("}");
     }
 }
@@ -16,14 +16,35 @@
 
 package com.android.dx.command.dump;
 
+import com.android.dx.cf.direct.ClassPathOpener;
 import com.android.dx.cf.iface.ParseException;
+import com.android.dx.ssa.StepTimer;
 import com.android.dx.util.FileUtils;
 import com.android.dx.util.HexParser;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class for the class file dumper.
+ *
+ * <p>Given {@code --output-dir}, the dumper takes class path elements
+ * (class files, directories and archives) and dumps each class in them
+ * to a file of its own in that directory, on several threads at once
+ * if so asked. Otherwise the named files are dumped one after another
+ * to stdout.</p>
  */
 public class Main {
 
@@ -58,6 +79,14 @@ public class Main {
                 parsedArgs.ssaBlocks = true;
             } else if (arg.startsWith("--ssa-step=")) {
                 parsedArgs.ssaStep = arg.substring(arg.indexOf('=') + 1);
+            } else if (arg.equals("--pruned-ssa")) {
+                parsedArgs.prunePhis = true;
+            } else if (arg.equals("--escape-analysis")) {
+                parsedArgs.escapeAnalysis = true;
+            } else if (arg.equals("--value-numbering")) {
+                parsedArgs.valueNumbering = true;
+            } else if (arg.equals("--loop-invariant-motion")) {
+                parsedArgs.loopInvariantMotion = true;
             } else if (arg.equals("--debug")) {
                 parsedArgs.debug = true;
             } else if (arg.equals("--dot")) {
@@ -70,6 +99,23 @@ public class Main {
             } else if (arg.startsWith("--method=")) {
                 arg = arg.substring(arg.indexOf('=') + 1);
                 parsedArgs.method = arg;
+            } else if (arg.startsWith("--output-dir=")) {
+                arg = arg.substring(arg.indexOf('=') + 1);
+                parsedArgs.outputDir = arg;
+            } else if (arg.startsWith("--num-threads=")) {
+                arg = arg.substring(arg.indexOf('=') + 1);
+                try {
+                    parsedArgs.numThreads = Integer.parseInt(arg);
+                } catch (NumberFormatException ex) {
+                    parsedArgs.numThreads = 0;
+                }
+
+                if (parsedArgs.numThreads < 1) {
+                    System.err.println("invalid --num-threads");
+                    throw new RuntimeException("usage");
+                }
+            } else if (arg.equals("--timing")) {
+                parsedArgs.timer = new StepTimer();
             } else {
                 System.err.println("unknown option: " + arg);
                 throw new RuntimeException("usage");
@@ -81,6 +127,40 @@ public class Main {
             throw new RuntimeException("usage");
         }
 
+        if ((parsedArgs.numThreads > 1) && (parsedArgs.outputDir == null)) {
+            System.err.println("--num-threads requires --output-dir");
+            throw new RuntimeException("usage");
+        }
+
+        if (parsedArgs.ssaBlocks) {
+            // --optimize ignored with --ssa-blocks
+            parsedArgs.optimize = false;
+        }
+
+        parsedArgs.applyThreadSettings();
+
+        if (parsedArgs.outputDir != null) {
+            String[] paths = new String[args.length - at];
+
+            System.arraycopy(args, at, paths, 0, paths.length);
+            dumpToFiles(paths);
+        } else {
+            dumpToStdout(args, at);
+        }
+
+        if (parsedArgs.timer != null) {
+            parsedArgs.timer.dump(System.out);
+        }
+    }
+
+    /**
+     * Dumps the named files to stdout, one after another.
+     *
+     * @param args {@code non-null;} the command line
+     * @param at {@code >= 0;} the index of the first file name in
+     * {@code args}
+     */
+    private static void dumpToStdout(String[] args, int at) {
         for (/*at*/; at < args.length; at++) {
             try {
                 String name = args[at];
@@ -95,15 +175,182 @@ public class Main {
                     }
                     bytes = HexParser.parse(src);
                 }
-                processOne(name, bytes);
+                processOne(name, bytes, System.out);
             } catch (ParseException ex) {
                 System.err.println("\ntrouble parsing:");
-                if (parsedArgs.debug) {
-                    ex.printStackTrace();
-                } else {
-                    ex.printContext(System.err);
+                printTrouble(ex);
+            }
+        }
+    }
+
+    /**
+     * Dumps each class found in the given class path elements to a
+     * file of its own in the output directory. The classes are dumped
+     * on {@link Args#numThreads} threads, and trouble parsing any of
+     * them is reported in the order they were found in.
+     *
+     * @param paths {@code non-null;} the class path elements
+     */
+    private static void dumpToFiles(String[] paths) {
+        final File outputDir = new File(parsedArgs.outputDir);
+        final ArrayList<String> names = new ArrayList<String>();
+        final ArrayList<Future<?>> dumps = new ArrayList<Future<?>>();
+        ExecutorService executor = null;
+
+        if (parsedArgs.numThreads > 1) {
+            /*
+             * Once the queue is full, the reading thread dumps classes
+             * itself, so that not too many are read ahead.
+             */
+            executor = new ThreadPoolExecutor(parsedArgs.numThreads,
+                    parsedArgs.numThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(
+                            parsedArgs.numThreads * 4),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+
+        try {
+            for (final String path : paths) {
+                final ExecutorService dumper = executor;
+
+                System.out.println("reading " + path + "...");
+
+                ClassPathOpener opener = new ClassPathOpener(path, true,
+                        new ClassPathOpener.Consumer() {
+                    public boolean processFileBytes(final String name,
+                            final byte[] bytes) {
+                        if (!name.endsWith(".class")) {
+                            return true;
+                        }
+
+                        final File file =
+                            new File(outputDir, outputName(path, name));
+
+                        Runnable task = new Runnable() {
+                            public void run() {
+                                parsedArgs.applyThreadSettings();
+                                dumpToFile(name, bytes, file);
+                            }
+                        };
+
+                        names.add(name);
+
+                        if (dumper != null) {
+                            dumps.add(dumper.submit(task));
+                            return true;
+                        }
+
+                        FutureTask<Void> future =
+                            new FutureTask<Void>(task, null);
+
+                        future.run();
+                        dumps.add(future);
+                        return true;
+                    }
+
+                    public void onException(Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+
+                    public void onProcessArchiveStart(File file) {
+                        // This space intentionally left blank.
+                    }
+                });
+
+                opener.process();
+            }
+
+            for (int i = 0; i < dumps.size(); i++) {
+                try {
+                    dumps.get(i).get();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+
+                    if (cause instanceof ParseException) {
+                        System.err.println("\ntrouble parsing "
+                                + names.get(i) + ":");
+                        printTrouble((ParseException) cause);
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        throw new RuntimeException(cause);
+                    }
                 }
             }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the file, relative to the output directory, to
+     * dump a class to. This is the class's path within the class path
+     * element it was found in, with a suffix for the kind of dump.
+     *
+     * @param path {@code non-null;} the class path element
+     * @param name {@code non-null;} the name the class was found under
+     * @return {@code non-null;} the name of the file to dump to
+     */
+    private static String outputName(String path, String name) {
+        if (name.equals(path)) {
+            name = new File(name).getName();
+        } else if (name.startsWith(path)) {
+            name = name.substring(path.length());
+
+            while (name.startsWith("/")
+                    || name.startsWith(File.separator)) {
+                name = name.substring(1);
+            }
+        }
+
+        name = name.substring(0, name.length() - ".class".length());
+        return name + (parsedArgs.dotDump ? ".dot" : ".txt");
+    }
+
+    /**
+     * Dumps one class to a file of its own.
+     *
+     * @param name {@code non-null;} name of the class file
+     * @param bytes {@code non-null;} contents of the class file
+     * @param file {@code non-null;} the file to dump to
+     */
+    private static void dumpToFile(String name, byte[] bytes, File file) {
+        File parent = file.getParentFile();
+
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        PrintStream out;
+
+        try {
+            out = new PrintStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+        } catch (IOException ex) {
+            throw new RuntimeException("trouble writing " + file, ex);
+        }
+
+        try {
+            processOne(name, bytes, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Prints what went wrong parsing a class.
+     *
+     * @param ex {@code non-null;} the trouble
+     */
+    private static void printTrouble(ParseException ex) {
+        if (parsedArgs.debug) {
+            ex.printStackTrace();
+        } else {
+            ex.printContext(System.err);
         }
     }
 
@@ -112,20 +359,20 @@ public class Main {
      *
      * @param name {@code non-null;} name of the file
      * @param bytes {@code non-null;} contents of the file
+     * @param out {@code non-null;} where to dump to
      */
-    private static void processOne(String name, byte[] bytes) {
+    private static void processOne(String name, byte[] bytes,
+            PrintStream out) {
         if (parsedArgs.dotDump) {
-            DotDumper.dump(bytes, name, parsedArgs);
+            DotDumper.dump(bytes, out, name, parsedArgs);
         } else if (parsedArgs.basicBlocks) {
-            BlockDumper.dump(bytes, System.out, name, false, parsedArgs);
+            BlockDumper.dump(bytes, out, name, false, parsedArgs);
         } else if (parsedArgs.ropBlocks) {
-            BlockDumper.dump(bytes, System.out, name, true, parsedArgs);
+            BlockDumper.dump(bytes, out, name, true, parsedArgs);
         } else if (parsedArgs.ssaBlocks) {
-            // --optimize ignored with --ssa-blocks
-            parsedArgs.optimize = false;
-            SsaDumper.dump(bytes, System.out, name, parsedArgs);
+            SsaDumper.dump(bytes, out, name, parsedArgs);
         } else {
-            ClassDumper.dump(bytes, System.out, name, parsedArgs);
+            ClassDumper.dump(bytes, out, name, parsedArgs);
         }
     }
 }
@@ -17,7 +17,6 @@
 package com.android.dx.command.dump;
 
 import com.android.dx.cf.code.ConcreteMethod;
-import com.android.dx.cf.code.Ropper;
 import com.android.dx.cf.iface.Member;
 import com.android.dx.cf.iface.Method;
 import com.android.dx.rop.code.RopMethod;
@@ -86,14 +85,14 @@ public class SsaDumper extends BlockDumper {
             return;
         }
 
-        if (!shouldDumpMethod(name)) {
+        if (!shouldDumpMethod(name) || !hasCode(member)) {
             return;
         }
 
         ConcreteMethod meth =
             new ConcreteMethod((Method) member, classFile, true, true);
         TranslationAdvice advice = DexTranslationAdvice.THE_ONE;
-        RopMethod rmeth = Ropper.convert(meth, advice);
+        RopMethod rmeth = ropper(meth, advice);
         SsaMethod ssaMeth = null;
         boolean isStatic = AccessFlags.isStatic(meth.getAccessFlags());
         int paramWidth = computeParamWidth(meth, isStatic);
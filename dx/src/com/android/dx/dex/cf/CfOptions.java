@@ -16,9 +16,15 @@
 
 package com.android.dx.dex.cf;
 
+import com.android.dx.dex.code.CodeSpill;
 import com.android.dx.dex.code.PositionList;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.TypedConstant;
+import com.android.dx.ssa.DomFront;
 
 import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A class to contain options passed into dex.cf
@@ -45,6 +51,67 @@ public class CfOptions {
     /** whether to print statistics to stdout at end of compile cycle */
     public boolean statistics;
 
+    /** algorithm the optimizer uses to compute dominators */
+    public DomFront.Algorithm domAlgorithm =
+        DomFront.Algorithm.LENGAUER_TARJAN;
+
+    /** whether to place phis only where their register is live */
+    public boolean prunedSsa = false;
+
+    /** whether to replace non-escaping arrays with registers */
+    public boolean escapeAnalysis = false;
+
+    /** whether to remove redundant computations by value numbering */
+    public boolean valueNumbering = false;
+
+    /** whether to hoist loop-invariant insns out of loops */
+    public boolean loopInvariantMotion = false;
+
+    /** whether to inline calls to small methods of the same class */
+    public boolean inline = false;
+
+    /** maximum size, in rop insns, of a method to inline */
+    public int inlineThreshold = MethodInliner.DEFAULT_THRESHOLD;
+
+    /** whether to lay out blocks from estimated block frequencies */
+    public boolean frequencyLayout = false;
+
+    /** whether to run the peephole optimizer over the final dex code */
+    public boolean peephole = false;
+
+    /**
+     * whether to move constant stores out of static initializers and
+     * into static values
+     */
+    public boolean staticValues = false;
+
+    /**
+     * {@code null-ok;} static final fields whose values are known across
+     * all the classes being translated, for reads of them to be folded
+     * into constants, or {@code null} not to fold any
+     */
+    public Map<CstFieldRef, TypedConstant> constantFields = null;
+
+    /**
+     * {@code null-ok;} the lists loaded from {@link #optimizeListFile}
+     * or {@link #dontOptimizeListFile}, once they have been loaded
+     */
+    /*package*/ OptimizerOptions.Lists optimizeLists = null;
+
+    /**
+     * {@code non-null;} number of initializer insns eliminated by
+     * {@link #staticValues}, keyed by the human form of the class they
+     * were eliminated from; only kept with {@link #statistics}
+     */
+    /*package*/ final TreeMap<String, Integer> eliminatedByClass =
+        new TreeMap<String, Integer>();
+
+    /**
+     * {@code null-ok;} where to keep translated code until it is
+     * written, or {@code null} to keep it on the heap
+     */
+    public CodeSpill codeSpill = null;
+
     /** where to issue warnings to */
     public PrintStream warn = System.err;
 }
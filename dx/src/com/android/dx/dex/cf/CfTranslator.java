@@ -16,6 +16,7 @@
 
 package com.android.dx.dex.cf;
 
+import com.android.dx.cf.code.BytecodeArray;
 import com.android.dx.cf.code.ConcreteMethod;
 import com.android.dx.cf.code.Ropper;
 import com.android.dx.cf.direct.DirectClassFile;
@@ -51,7 +52,9 @@ import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
+import com.android.dx.ssa.DomFront;
 import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.SsaConverter;
 import com.android.dx.util.ExceptionWithContext;
 
 /**
@@ -71,7 +74,9 @@ public class CfTranslator {
 
     /**
      * Takes a {@code byte[]}, interprets it as a Java classfile, and
-     * translates it into a {@link ClassDefItem}.
+     * translates it into a {@link ClassDefItem}. The settings the
+     * translation makes for the current thread are cleared afterwards,
+     * so that the thread keeps nothing of the translation.
      *
      * @param filePath {@code non-null;} the file path for the class,
      * excluding any base directory specification
@@ -86,6 +91,12 @@ public class CfTranslator {
         } catch (RuntimeException ex) {
             String msg = "...while processing " + filePath;
             throw ExceptionWithContext.withContext(ex, msg);
+        } finally {
+            BytecodeArray.clearSettings();
+            DomFront.clearSettings();
+            SsaConverter.clearSettings();
+            Optimizer.clearSettings();
+            RopTranslator.clearSettings();
         }
     }
 
@@ -108,8 +119,14 @@ public class CfTranslator {
         cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
         cf.getMagic();
 
-        OptimizerOptions.loadOptimizeLists(args.optimizeListFile,
-                args.dontOptimizeListFile);
+        BytecodeArray.setFillConstantPrefix(args.staticValues);
+        DomFront.setAlgorithm(args.domAlgorithm);
+        SsaConverter.setPrunePhis(args.prunedSsa);
+        Optimizer.setEscapeAnalysis(args.escapeAnalysis);
+        Optimizer.setValueNumbering(args.valueNumbering);
+        Optimizer.setLoopInvariantMotion(args.loopInvariantMotion);
+        Optimizer.setConstantFields(args.constantFields);
+        RopTranslator.setFrequencyLayout(args.frequencyLayout);
 
         // Build up a class to output.
 
@@ -127,8 +144,16 @@ public class CfTranslator {
             out.setClassAnnotations(classAnnotations);
         }
 
-        processFields(cf, out);
-        processMethods(cf, args, out);
+        /*
+         * The methods go first, so that any constant stores moved out of
+         * the static initializer are known when the fields' static
+         * values are set.
+         */
+        StaticValueHoister hoister =
+            args.staticValues ? new StaticValueHoister(cf, args) : null;
+
+        processMethods(cf, args, out, hoister);
+        processFields(cf, out, hoister);
 
         return out;
     }
@@ -138,8 +163,11 @@ public class CfTranslator {
      *
      * @param cf {@code non-null;} class being translated
      * @param out {@code non-null;} output class
+     * @param hoister {@code null-ok;} what moved stores out of the static
+     * initializer, if anything did
      */
-    private static void processFields(DirectClassFile cf, ClassDefItem out) {
+    private static void processFields(DirectClassFile cf, ClassDefItem out,
+            StaticValueHoister hoister) {
         CstType thisClass = cf.getThisClass();
         FieldList fields = cf.getFields();
         int sz = fields.size();
@@ -156,6 +184,9 @@ public class CfTranslator {
                     if (constVal != null) {
                         constVal = coerceConstant(constVal, field.getType());
                     }
+                    if (hoister != null) {
+                        constVal = hoister.getValue(field, constVal);
+                    }
                     out.addStaticField(fi, constVal);
                 } else {
                     EncodedField fi = new EncodedField(field, accessFlags);
@@ -182,7 +213,7 @@ public class CfTranslator {
      * @param constant {@code non-null;} the constant in question
      * @param type {@code non-null;} the desired type
      */
-    private static TypedConstant coerceConstant(TypedConstant constant,
+    /*package*/ static TypedConstant coerceConstant(TypedConstant constant,
             Type type) {
         Type constantType = constant.getType();
 
@@ -216,12 +247,17 @@ public class CfTranslator {
      * @param cf {@code non-null;} class being translated
      * @param args {@code non-null;} command-line args
      * @param out {@code non-null;} output class
+     * @param hoister {@code null-ok;} what to move constant stores out of
+     * the static initializer with, if anything
      */
     private static void processMethods(DirectClassFile cf,
-            CfOptions args, ClassDefItem out) {
+            CfOptions args, ClassDefItem out, StaticValueHoister hoister) {
         CstType thisClass = cf.getThisClass();
         MethodList methods = cf.getMethods();
         int sz = methods.size();
+        MethodInliner inliner = args.inline
+            ? new MethodInliner(cf, args, DexTranslationAdvice.THE_ONE)
+            : null;
 
         for (int i = 0; i < sz; i++) {
             Method one = methods.get(i);
@@ -250,6 +286,18 @@ public class CfTranslator {
                     advice = DexTranslationAdvice.THE_ONE;
 
                     RopMethod rmeth = Ropper.convert(concrete, advice);
+
+                    if (inliner != null) {
+                        rmeth = inliner.inline(one, rmeth);
+                    }
+
+                    if ((hoister != null) && meth.isClassInit()) {
+                        rmeth = hoister.process(rmeth);
+                        if (rmeth == null) {
+                            // There's nothing left for it to do.
+                            continue;
+                        }
+                    }
                     RopMethod nonOptRmeth = null;
                     int paramSize;
 
@@ -260,7 +308,8 @@ public class CfTranslator {
                                 + "." + one.getName().getString();
 
                     if (args.optimize &&
-                            OptimizerOptions.shouldOptimize(canonicalName)) {
+                            OptimizerOptions.shouldOptimize(args,
+                                    canonicalName)) {
                         if (DEBUG) {
                             System.err.println("Optimizing " + canonicalName);
                         }
@@ -287,12 +336,20 @@ public class CfTranslator {
                     }
 
                     code = RopTranslator.translate(rmeth, args.positionInfo,
-                            locals, paramSize);
+                            locals, paramSize, args.peephole);
+
+                    if (args.codeSpill != null) {
+                        code.spill(args.codeSpill);
+                    }
 
                     if (args.statistics && nonOptRmeth != null) {
                         updateDexStatistics(args, rmeth, nonOptRmeth, locals,
                                 paramSize, concrete.getCode().size());
                     }
+
+                    if (args.statistics && args.frequencyLayout) {
+                        CodeStatistics.updateLayoutStatistics(rmeth);
+                    }
                 }
 
                 // Preserve the synchronized flag as its "declared" variant...
@@ -356,10 +413,16 @@ public class CfTranslator {
          * indices).
          */
 
+        /*
+         * These deltas are the SSA optimizer's alone, and the peephole
+         * optimizer only counts what it does to the code written out,
+         * so it is left off for these copies.
+         */
+
         DalvCode optCode = RopTranslator.translate(optRmeth,
-                args.positionInfo, locals, paramSize);
+                args.positionInfo, locals, paramSize, false);
         DalvCode nonOptCode = RopTranslator.translate(nonOptRmeth,
-                args.positionInfo, locals, paramSize);
+                args.positionInfo, locals, paramSize, false);
 
         /*
          * Fake out the indices, so code.getInsns() can work well enough
@@ -378,6 +441,7 @@ public class CfTranslator {
         nonOptCode.assignIndices(callback);
 
         CodeStatistics.updateDexStatistics(nonOptCode, optCode);
+
         CodeStatistics.updateOriginalByteCount(originalByteCount);
     }
 }
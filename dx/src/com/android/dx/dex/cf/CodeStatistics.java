@@ -16,10 +16,15 @@
 
 package com.android.dx.dex.cf;
 
+import com.android.dx.dex.code.BlockLayout;
 import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.PeepholeOptimizer;
+import com.android.dx.dex.code.RopTranslator;
 import com.android.dx.rop.code.RopMethod;
+import com.android.dx.ssa.Optimizer;
 
 import java.io.PrintStream;
+import java.util.Map;
 
 /**
  * Static methods and variables for collecting statistics on generated
@@ -66,6 +71,18 @@ public final class CodeStatistics {
     /** running sum of original class bytecode bytes */
     public static int runningOriginalBytes = 0;
 
+    /**
+     * running sum of the number of {@code goto}s that frequency-based
+     * block layout saved over trace-based layout
+     */
+    public static long runningGotosSaved = 0;
+
+    /**
+     * running sum of the number of {@code goto}s saved, each weighted
+     * by the estimated frequency of its block
+     */
+    public static long runningDynamicGotosSaved = 0;
+
     /**
      * This class is uninstantiable.
      */
@@ -78,7 +95,7 @@ public final class CodeStatistics {
      *
      * @param count {@code >= 0;} the number of bytes to add
      */
-    public static void updateOriginalByteCount(int count) {
+    public static synchronized void updateOriginalByteCount(int count) {
         runningOriginalBytes += count;
     }
 
@@ -88,7 +105,7 @@ public final class CodeStatistics {
      * @param nonOptCode non-optimized code block
      * @param code optimized code block
      */
-    public static void updateDexStatistics(DalvCode nonOptCode,
+    public static synchronized void updateDexStatistics(DalvCode nonOptCode,
             DalvCode code) {
         if (DEBUG) {
             System.err.println("dex insns (old/new) "
@@ -117,7 +134,7 @@ public final class CodeStatistics {
      * @param nonOptRmeth non-optimized method
      * @param rmeth optimized method
      */
-    public static void updateRopStatistics(RopMethod nonOptRmeth,
+    public static synchronized void updateRopStatistics(RopMethod nonOptRmeth,
             RopMethod rmeth) {
         int oldCountInsns
                 = nonOptRmeth.getBlocks().getEffectiveInstructionCount();
@@ -143,12 +160,50 @@ public final class CodeStatistics {
         runningTotalInsns += newCountInsns;
     }
 
+    /**
+     * Updates the block layout statistics, comparing the frequency-based
+     * layout of a method with its trace-based layout.
+     *
+     * @param rmeth {@code non-null;} method being translated
+     */
+    public static synchronized void updateLayoutStatistics(RopMethod rmeth) {
+        BlockLayout layout = new BlockLayout(rmeth);
+        int[] traceOrder = RopTranslator.pickTraceOrder(rmeth);
+        int[] order = layout.pickOrder();
+
+        runningGotosSaved += layout.countGotos(traceOrder, false)
+                - layout.countGotos(order, false);
+        runningDynamicGotosSaved += layout.countGotos(traceOrder, true)
+                - layout.countGotos(order, true);
+    }
+
+    /**
+     * Prints out what the peephole optimizer did. Code is only finished
+     * as the dex file is written, so this comes after that rather than
+     * with the rest of the statistics.
+     *
+     * @param out {@code non-null;} where to output to
+     */
+    public static void dumpPeepholeStatistics(PrintStream out) {
+        for (PeepholeOptimizer.Pattern p
+                : PeepholeOptimizer.Pattern.values()) {
+            out.printf("Peephole %s: %d applied, %d insns "
+                    + "(%d code units) removed\n",
+                    p.getDescription(),
+                    PeepholeOptimizer.getAppliedCount(p),
+                    PeepholeOptimizer.getRemovedInsnCount(p),
+                    PeepholeOptimizer.getRemovedCodeUnits(p));
+        }
+    }
+
     /**
      * Prints out the collected statistics.
      *
      * @param out {@code non-null;} where to output to
+     * @param args {@code non-null;} the options the code was translated
+     * with, which tell which optional steps ran
      */
-    public static void dumpStatistics(PrintStream out) {
+    public static void dumpStatistics(PrintStream out, CfOptions args) {
         out.printf("Optimizer Delta Rop Insns: %d total: %d "
                 + "(%.2f%%) Delta Registers: %d\n",
                 runningDeltaInsns,
@@ -168,5 +223,49 @@ public final class CodeStatistics {
 
         out.printf("Original bytecode byte count: %d\n",
                 runningOriginalBytes);
+
+        if (args.valueNumbering) {
+            out.printf("Redundant insns removed by value numbering: %d\n",
+                    Optimizer.getRedundantInsnCount());
+        }
+
+        if (args.loopInvariantMotion) {
+            out.printf("Insns hoisted out of loops: %d\n",
+                    Optimizer.getHoistedInsnCount());
+        }
+
+        if (args.constantFields != null) {
+            out.printf("Static field reads folded into constants: %d\n",
+                    Optimizer.getFoldedFieldReadCount());
+        }
+
+        if (args.inline) {
+            out.printf("Call sites inlined: %d\n",
+                    MethodInliner.getInlinedCallSiteCount());
+        }
+
+        if (args.staticValues) {
+            out.printf("Stores moved into static values: %d "
+                    + "(static initializers removed: %d)\n",
+                    StaticValueHoister.getMovedStoreCount(),
+                    StaticValueHoister.getRemovedInitializerCount());
+
+            for (Map.Entry<String, Integer> one
+                    : args.eliminatedByClass.entrySet()) {
+                out.printf("  Startup insns eliminated from %s: %d\n",
+                        one.getKey(), one.getValue());
+            }
+        }
+
+        if (args.escapeAnalysis) {
+            out.printf("Arrays replaced by escape analysis: %d\n",
+                    Optimizer.getReplacedArrayCount());
+        }
+
+        if (args.frequencyLayout) {
+            out.printf("Gotos saved by block layout: %d "
+                    + "(estimated dynamic: %d)\n",
+                    runningGotosSaved, runningDynamicGotosSaved);
+        }
     }
 }
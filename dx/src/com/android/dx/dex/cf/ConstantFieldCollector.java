@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.cf.attrib.AttCode;
+import com.android.dx.cf.code.ByteOps;
+import com.android.dx.cf.code.BytecodeArray;
+import com.android.dx.cf.code.SwitchList;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Field;
+import com.android.dx.cf.iface.FieldList;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.cf.iface.ParseException;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.TypedConstant;
+import com.android.dx.rop.type.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Collects the static final fields, across all the classes being
+ * translated, whose values are known before any code reads them. The
+ * result lets {@link com.android.dx.ssa.SCCP} fold reads of such fields
+ * in other classes, which javac leaves as field reads unless the field
+ * is a compile-time constant.
+ *
+ * <p>A field is known if it has a {@code ConstantValue} attribute, or,
+ * unless only attributes are trusted, if its one and only store is of
+ * a constant at the very start of its class's static initializer.
+ * Either way, folding a read means the read no longer causes the
+ * field's class to be initialized. Fields known from the initializer
+ * carry a further risk: code run while a superclass is initialized
+ * could see the field before it is stored to, and would see something
+ * different after folding.</p>
+ */
+public final class ConstantFieldCollector {
+    /** whether to only collect fields with a {@code ConstantValue} */
+    private final boolean attributesOnly;
+
+    /** {@code non-null;} the values found, keyed by field */
+    private final HashMap<CstFieldRef, TypedConstant> constants;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param attributesOnly whether to only collect fields with a
+     * {@code ConstantValue} attribute
+     */
+    public ConstantFieldCollector(boolean attributesOnly) {
+        this.attributesOnly = attributesOnly;
+        this.constants = new HashMap<CstFieldRef, TypedConstant>();
+    }
+
+    /**
+     * Gets the values found so far.
+     *
+     * @return {@code non-null;} the values, keyed by field
+     */
+    public HashMap<CstFieldRef, TypedConstant> getConstants() {
+        return constants;
+    }
+
+    /**
+     * Collects the known fields of a class. A class that can't be
+     * parsed is skipped, since translating it will report the problem.
+     *
+     * @param filePath {@code non-null;} the file path for the class,
+     * excluding any base directory specification
+     * @param bytes {@code non-null;} contents of the file
+     */
+    public void add(String filePath, byte[] bytes) {
+        DirectClassFile cf = new DirectClassFile(bytes, filePath, false);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        try {
+            add(cf);
+        } catch (ParseException ex) {
+            // Leave it to the translation to complain.
+        }
+    }
+
+    /**
+     * Helper for {@link #add(String, byte[])}, which does the work.
+     *
+     * @param cf {@code non-null;} the class
+     */
+    private void add(DirectClassFile cf) {
+        CstType thisClass = cf.getThisClass();
+        FieldList fields = cf.getFields();
+        int sz = fields.size();
+        HashMap<CstFieldRef, Integer> candidates =
+            new HashMap<CstFieldRef, Integer>();
+
+        for (int i = 0; i < sz; i++) {
+            Field one = fields.get(i);
+            int accessFlags = one.getAccessFlags();
+
+            if (!(AccessFlags.isStatic(accessFlags)
+                            && ((accessFlags & AccessFlags.ACC_FINAL) != 0))) {
+                continue;
+            }
+
+            CstFieldRef field = new CstFieldRef(thisClass, one.getNat());
+            TypedConstant constVal = one.getConstantValue();
+
+            if (constVal != null) {
+                if (fits(constVal, field.getType())) {
+                    constants.put(field, constVal);
+                }
+            } else if (!attributesOnly) {
+                candidates.put(field, 0);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        /*
+         * Count the stores to each candidate, anywhere in the class,
+         * and find the static initializer while at it.
+         */
+        MethodList methods = cf.getMethods();
+        BytecodeArray clinit = null;
+
+        sz = methods.size();
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+            AttCode code =
+                (AttCode) one.getAttributes().findFirst(AttCode.ATTRIBUTE_NAME);
+
+            if (code == null) {
+                continue;
+            }
+
+            if (one.getName().getString().equals("<clinit>")) {
+                clinit = code.getCode();
+            }
+
+            code.getCode().forEach(new StoreCounter(candidates));
+        }
+
+        if (clinit != null) {
+            addInitializerStores(clinit, candidates);
+        }
+    }
+
+    /**
+     * Adds the candidates stored to exactly once, with a constant, in
+     * the straight-line run of constants and stores that starts a
+     * static initializer.
+     *
+     * @param clinit {@code non-null;} the static initializer's code
+     * @param candidates {@code non-null;} the count of stores to each
+     * candidate field
+     */
+    private void addInitializerStores(BytecodeArray clinit,
+            HashMap<CstFieldRef, Integer> candidates) {
+        PrefixVisitor visitor = new PrefixVisitor();
+        int sz = clinit.size();
+        int offset = 0;
+
+        while (offset < sz) {
+            offset += clinit.parseInstruction(offset, visitor);
+
+            if ((visitor.opcode == ByteOps.LDC)
+                    || (visitor.opcode == ByteOps.LDC2_W)) {
+                if (!(visitor.cst instanceof TypedConstant)) {
+                    return;
+                }
+                visitor.stack.add((TypedConstant) visitor.cst);
+            } else if (visitor.opcode == ByteOps.PUTSTATIC) {
+                int stackSz = visitor.stack.size();
+
+                if (stackSz == 0) {
+                    return;
+                }
+
+                TypedConstant value = visitor.stack.remove(stackSz - 1);
+                CstFieldRef field = (CstFieldRef) visitor.cst;
+                Integer stores = candidates.get(field);
+
+                if ((stores != null) && (stores == 1)
+                        && fits(value, field.getType())) {
+                    constants.put(field, value);
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tells whether a constant is of the right sort to be the value of
+     * a field of the given type.
+     *
+     * @param value {@code non-null;} the constant
+     * @param type {@code non-null;} the field's type
+     * @return whether the constant fits the field
+     */
+    private static boolean fits(TypedConstant value, Type type) {
+        if (value instanceof CstString) {
+            return type == Type.STRING;
+        }
+
+        return type.isPrimitive()
+            && (value.getBasicFrameType() == type.getBasicFrameType());
+    }
+
+    /**
+     * Visitor which counts the stores to the candidate fields.
+     */
+    private static class StoreCounter extends BytecodeArray.BaseVisitor {
+        /** {@code non-null;} the count of stores, keyed by field */
+        private final HashMap<CstFieldRef, Integer> candidates;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param candidates {@code non-null;} the count of stores,
+         * keyed by field
+         */
+        public StoreCounter(HashMap<CstFieldRef, Integer> candidates) {
+            this.candidates = candidates;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void visitConstant(int opcode, int offset, int length,
+                Constant cst, int value) {
+            if (opcode != ByteOps.PUTSTATIC) {
+                return;
+            }
+
+            Integer stores = candidates.get(cst);
+
+            if (stores != null) {
+                candidates.put((CstFieldRef) cst, stores + 1);
+            }
+        }
+    }
+
+    /**
+     * Visitor which tracks the constants pushed by the start of a
+     * static initializer. Any opcode it doesn't note is left as
+     * {@link ByteOps#NOP}, which ends the run.
+     */
+    private static class PrefixVisitor extends BytecodeArray.BaseVisitor {
+        /** {@code non-null;} the constants pushed and not yet stored */
+        public final ArrayList<TypedConstant> stack =
+            new ArrayList<TypedConstant>();
+
+        /** opcode of the insn just visited */
+        public int opcode;
+
+        /** {@code null-ok;} constant of the insn just visited */
+        public Constant cst;
+
+        /** {@inheritDoc} */
+        @Override
+        public void visitInvalid(int opcode, int offset, int length) {
+            this.opcode = ByteOps.NOP;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void visitNoArgs(int opcode, int offset, int length,
+                Type type) {
+            this.opcode = ByteOps.NOP;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void visitLocal(int opcode, int offset, int length,
+                int idx, Type type, int value) {
+            this.opcode = ByteOps.NOP;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void visitConstant(int opcode, int offset, int length,
+                Constant cst, int value) {
+            this.opcode = opcode;
+            this.cst = cst;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void visitBranch(int opcode, int offset, int length,
+                int target) {
+            this.opcode = ByteOps.NOP;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void visitSwitch(int opcode, int offset, int length,
+                SwitchList cases, int padding) {
+            this.opcode = ByteOps.NOP;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void visitNewarray(int offset, int length,
+                CstType type, ArrayList<Constant> initVals) {
+            this.opcode = ByteOps.NOP;
+        }
+    }
+}
@@ -0,0 +1,700 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.code.TranslationAdvice;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Inlines calls to small methods of the same class, in rop form, before
+ * the methods are optimized. Only calls that can't be dispatched
+ * elsewhere are considered: {@code invoke-static} of a static method, and
+ * {@code invoke-direct} of a private non-constructor method on
+ * {@code this}, which is known not to be {@code null}. Callees are
+ * inlined one level deep, so recursion is never expanded. The
+ * {@code access$NNN} methods javac makes for inner classes are only
+ * called from other classes, where their bodies would fail access
+ * checks, so they are left alone.
+ *
+ * <p>The inlined code keeps its own source positions, which are in the
+ * same source file as the caller, so line numbers stay meaningful. The
+ * callee's local variable information is dropped. Each throwing insn in
+ * the inlined code gets the call site's exception handlers appended
+ * after its own, which is where an exception escaping the callee would
+ * have gone.</p>
+ */
+/*package*/ final class MethodInliner {
+    /** default maximum size of a callee, in rop insns */
+    public static final int DEFAULT_THRESHOLD = 10;
+
+    /** running count of call sites inlined */
+    private static int inlinedCallSiteCount = 0;
+
+    /** {@code non-null;} class whose methods are being translated */
+    private final DirectClassFile cf;
+
+    /** {@code non-null;} options in effect */
+    private final CfOptions args;
+
+    /** {@code non-null;} translation advice */
+    private final TranslationAdvice advice;
+
+    /**
+     * {@code non-null;} callees already looked at, mapped to their rop
+     * form, or to {@code null} if they can't be inlined
+     */
+    private final HashMap<Method, RopMethod> callees;
+
+    /**
+     * Gets the number of call sites inlined so far.
+     *
+     * @return {@code >= 0;} the number of call sites inlined
+     */
+    public static int getInlinedCallSiteCount() {
+        return inlinedCallSiteCount;
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param cf {@code non-null;} class whose methods are being translated
+     * @param args {@code non-null;} options in effect
+     * @param advice {@code non-null;} translation advice
+     */
+    public MethodInliner(DirectClassFile cf, CfOptions args,
+            TranslationAdvice advice) {
+        this.cf = cf;
+        this.args = args;
+        this.advice = advice;
+        this.callees = new HashMap<Method, RopMethod>();
+    }
+
+    /**
+     * Inlines the eligible calls made by a method.
+     *
+     * @param caller {@code non-null;} the calling method
+     * @param rmeth {@code non-null;} the calling method, in rop form
+     * @return {@code non-null;} the method with calls inlined; {@code rmeth}
+     * itself if nothing was inlined
+     */
+    public RopMethod inline(Method caller, RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        int sz = blocks.size();
+        BitSet[] thisRegs = AccessFlags.isStatic(caller.getAccessFlags())
+            ? null : findThisRegisters(rmeth);
+        int nextLabel = blocks.getMaxLabel();
+        int nextReg = blocks.getRegCount();
+        ArrayList<BasicBlock> result = new ArrayList<BasicBlock>(sz);
+        BitSet removedLabels = new BitSet(nextLabel);
+        int count = 0;
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock block = blocks.get(i);
+            Insn insn = block.getLastInsn();
+            RopMethod callee = getCallee(caller, insn,
+                    isReceiverThis(block, insn, thisRegs, i));
+
+            // Each caught type must have its handler, then the primary.
+            if (callee != null && block.getSuccessors().size()
+                    != insn.getCatches().size() + 1) {
+                callee = null;
+            }
+
+            if (callee == null) {
+                result.add(block);
+                continue;
+            }
+
+            // The move-result block, if any, only follows this block.
+            BasicBlock next = blocks.labelToBlock(block.getPrimarySuccessor());
+            Insn first = next.getFirstInsn();
+            RegisterSpec dest = null;
+            int continueLabel = next.getLabel();
+
+            if (first.getOpcode().getOpcode() == RegOps.MOVE_RESULT) {
+                dest = first.getResult();
+                continueLabel = next.getPrimarySuccessor();
+                removedLabels.set(next.getLabel());
+            }
+
+            addInlinedBlocks(block, callee, dest, continueLabel, nextLabel,
+                    nextReg, result);
+
+            BasicBlockList calleeBlocks = callee.getBlocks();
+            nextLabel += calleeBlocks.getMaxLabel();
+            nextReg += calleeBlocks.getRegCount();
+            count++;
+        }
+
+        if (count == 0) {
+            return rmeth;
+        }
+
+        synchronized (MethodInliner.class) {
+            inlinedCallSiteCount += count;
+        }
+
+        return makeMethod(rmeth.getFirstLabel(), result, removedLabels);
+    }
+
+    /**
+     * Finds, for each block, the registers certain to hold {@code this}
+     * on entry, by following parameter 0 through moves. Javac copies
+     * {@code this} to the stack before each use, so this is needed to
+     * know that the receiver of a call is {@code this} and so can't be
+     * {@code null}.
+     *
+     * @param rmeth {@code non-null;} an instance method, in rop form
+     * @return {@code non-null;} the registers holding {@code this} on
+     * entry, indexed by block index
+     */
+    private static BitSet[] findThisRegisters(RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        BitSet[] result = new BitSet[blocks.size()];
+        BitSet worklist = new BitSet(blocks.size());
+        int first = blocks.indexOfLabel(rmeth.getFirstLabel());
+
+        result[first] = new BitSet();
+        worklist.set(first);
+
+        for (int i = worklist.nextSetBit(0); i >= 0;
+             i = worklist.nextSetBit(0)) {
+            worklist.clear(i);
+
+            BasicBlock block = blocks.get(i);
+            BitSet out = (BitSet) result[i].clone();
+            InsnList insns = block.getInsns();
+
+            for (int j = 0; j < insns.size(); j++) {
+                updateThisRegisters(insns.get(j), out);
+            }
+
+            IntList succs = block.getSuccessors();
+
+            for (int j = 0; j < succs.size(); j++) {
+                int succ = blocks.indexOfLabel(succs.get(j));
+                BitSet in = result[succ];
+
+                if (in == null) {
+                    result[succ] = (BitSet) out.clone();
+                    worklist.set(succ);
+                } else if (!contains(out, in)) {
+                    in.and(out);
+                    worklist.set(succ);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the set of registers holding {@code this} past an insn.
+     *
+     * @param insn {@code non-null;} the insn
+     * @param regs {@code non-null;} the registers holding {@code this},
+     * updated in place
+     */
+    private static void updateThisRegisters(Insn insn, BitSet regs) {
+        RegisterSpec result = insn.getResult();
+
+        if (result == null) {
+            return;
+        }
+
+        int opcode = insn.getOpcode().getOpcode();
+        boolean isThis = false;
+
+        if (opcode == RegOps.MOVE_PARAM) {
+            isThis = ((CstInteger) ((CstInsn) insn).getConstant())
+                    .getValue() == 0;
+        } else if (opcode == RegOps.MOVE) {
+            isThis = regs.get(insn.getSources().get(0).getReg());
+        }
+
+        regs.clear(result.getReg(), result.getNextReg());
+
+        if (isThis) {
+            regs.set(result.getReg());
+        }
+    }
+
+    /**
+     * Returns whether one set contains all of another.
+     *
+     * @param set {@code non-null;} the possible superset
+     * @param subset {@code non-null;} the possible subset
+     * @return true if {@code set} contains all of {@code subset}
+     */
+    private static boolean contains(BitSet set, BitSet subset) {
+        BitSet missing = (BitSet) subset.clone();
+
+        missing.andNot(set);
+        return missing.isEmpty();
+    }
+
+    /**
+     * Returns whether the first source of a block's last insn is
+     * {@code this}.
+     *
+     * @param block {@code non-null;} the block
+     * @param insn {@code non-null;} the block's last insn
+     * @param thisRegs {@code null-ok;} the registers holding {@code this}
+     * on entry to each block, or {@code null} for a static method
+     * @param index the block's index
+     * @return true if the receiver is known to be {@code this}
+     */
+    private static boolean isReceiverThis(BasicBlock block, Insn insn,
+            BitSet[] thisRegs, int index) {
+        if (thisRegs == null || thisRegs[index] == null
+                || insn.getSources().size() == 0) {
+            return false;
+        }
+
+        BitSet regs = (BitSet) thisRegs[index].clone();
+        InsnList insns = block.getInsns();
+
+        for (int i = 0; i < insns.size() - 1; i++) {
+            updateThisRegisters(insns.get(i), regs);
+        }
+
+        return regs.get(insn.getSources().get(0).getReg());
+    }
+
+    /**
+     * Gets the callee of an insn if it's a call that can be inlined.
+     *
+     * @param caller {@code non-null;} the calling method
+     * @param insn {@code non-null;} the insn
+     * @param receiverIsThis whether the insn's first source is known
+     * to be {@code this}
+     * @return {@code null-ok;} the callee in rop form, or {@code null} if
+     * the insn isn't a call that can be inlined
+     */
+    private RopMethod getCallee(Method caller, Insn insn,
+            boolean receiverIsThis) {
+        int opcode = insn.getOpcode().getOpcode();
+
+        if (opcode != RegOps.INVOKE_STATIC && opcode != RegOps.INVOKE_DIRECT) {
+            return null;
+        }
+
+        CstMethodRef ref = (CstMethodRef) ((CstInsn) insn).getConstant();
+
+        if (!ref.getDefiningClass().equals(cf.getThisClass())
+                || ref.isInstanceInit() || ref.isClassInit()) {
+            return null;
+        }
+
+        Method method = findMethod(ref.getNat());
+
+        if (method == null || method == caller) {
+            return null;
+        }
+
+        int accessFlags = method.getAccessFlags();
+
+        if (opcode == RegOps.INVOKE_STATIC) {
+            if (!AccessFlags.isStatic(accessFlags)) {
+                return null;
+            }
+        } else {
+            // Inlining drops the null check the call would have made.
+            if (AccessFlags.isStatic(accessFlags)
+                    || !AccessFlags.isPrivate(accessFlags)
+                    || !receiverIsThis) {
+                return null;
+            }
+        }
+
+        return getCalleeMethod(method);
+    }
+
+    /**
+     * Finds a method of this class by name and type.
+     *
+     * @param nat {@code non-null;} the name and type
+     * @return {@code null-ok;} the method, if found
+     */
+    private Method findMethod(CstNat nat) {
+        MethodList methods = cf.getMethods();
+        int sz = methods.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+
+            if (one.getNat().equals(nat)) {
+                return one;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets a method in rop form if it's small and simple enough to
+     * inline.
+     *
+     * @param method {@code non-null;} the method
+     * @return {@code null-ok;} the method in rop form, or {@code null} if
+     * it can't be inlined
+     */
+    private RopMethod getCalleeMethod(Method method) {
+        if (callees.containsKey(method)) {
+            return callees.get(method);
+        }
+
+        RopMethod result = null;
+        int accessFlags = method.getAccessFlags();
+
+        if (!AccessFlags.isNative(accessFlags)
+                && !AccessFlags.isAbstract(accessFlags)
+                && !AccessFlags.isSynchronized(accessFlags)) {
+            ConcreteMethod concrete = new ConcreteMethod(method, cf,
+                    (args.positionInfo != PositionList.NONE), false);
+            RopMethod rmeth = Ropper.convert(concrete, advice);
+
+            if (isInlineable(rmeth)) {
+                result = rmeth;
+            }
+        }
+
+        callees.put(method, result);
+        return result;
+    }
+
+    /**
+     * Checks that a method is no bigger than the threshold and returns
+     * normally on some path.
+     *
+     * @param rmeth {@code non-null;} the method, in rop form
+     * @return true if the method may be inlined
+     */
+    private boolean isInlineable(RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        int sz = blocks.size();
+        int size = 0;
+        boolean returns = false;
+
+        for (int i = 0; i < sz; i++) {
+            InsnList insns = blocks.get(i).getInsns();
+            int insnSz = insns.size();
+
+            for (int j = 0; j < insnSz; j++) {
+                Rop opcode = insns.get(j).getOpcode();
+
+                switch (opcode.getOpcode()) {
+                    case RegOps.GOTO:
+                    case RegOps.MOVE_PARAM:
+                    case RegOps.MARK_LOCAL:
+                        break;
+                    default:
+                        size++;
+                        break;
+                }
+
+                returns |= (opcode.getBranchingness() == Rop.BRANCH_RETURN);
+            }
+        }
+
+        return returns && size <= args.inlineThreshold;
+    }
+
+    /**
+     * Adds the blocks that replace a call: the calling block, now ending
+     * in a goto, and a copy of the callee with fresh labels and
+     * registers.
+     *
+     * @param block {@code non-null;} block ending with the call
+     * @param callee {@code non-null;} the callee, in rop form
+     * @param dest {@code null-ok;} register the call's result is moved to
+     * @param continueLabel label to continue at after the call
+     * @param labelOffset offset to add to the callee's labels
+     * @param regOffset offset to add to the callee's registers
+     * @param result {@code non-null;} list to add the blocks to
+     */
+    private static void addInlinedBlocks(BasicBlock block, RopMethod callee,
+            RegisterSpec dest, int continueLabel, int labelOffset,
+            int regOffset, ArrayList<BasicBlock> result) {
+        Insn call = block.getLastInsn();
+        RegisterSpecList args = call.getSources();
+        TypeList catches = call.getCatches();
+        IntList handlers = block.getSuccessors();
+        int entryLabel = callee.getFirstLabel() + labelOffset;
+
+        // The calling block now just falls into the callee.
+        InsnList insns = block.getInsns();
+        int insnSz = insns.size();
+        InsnList newInsns = new InsnList(insnSz);
+
+        for (int i = 0; i < insnSz - 1; i++) {
+            newInsns.set(i, insns.get(i));
+        }
+
+        newInsns.set(insnSz - 1, new PlainInsn(Rops.GOTO,
+                call.getPosition(), null, RegisterSpecList.EMPTY));
+        newInsns.setImmutable();
+        result.add(new BasicBlock(block.getLabel(), newInsns,
+                IntList.makeImmutable(entryLabel), entryLabel));
+
+        BasicBlockList blocks = callee.getBlocks();
+        int sz = blocks.size();
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock one = blocks.get(i);
+            InsnList oneInsns = one.getInsns();
+            int oneSz = oneInsns.size();
+            Insn last = oneInsns.get(oneSz - 1);
+            boolean isReturn =
+                last.getOpcode().getBranchingness() == Rop.BRANCH_RETURN;
+            boolean needsResult = isReturn && dest != null
+                    && last.getSources().size() != 0;
+            ArrayList<Insn> copy = new ArrayList<Insn>(oneSz + 1);
+
+            for (int j = 0; j < oneSz - 1; j++) {
+                Insn insn = oneInsns.get(j);
+
+                if (insn.getOpcode().getOpcode() != RegOps.MOVE_PARAM) {
+                    copy.add(insn.withRegisterOffset(regOffset));
+                } else if (insn.getResult() != null) {
+                    copy.add(makeParamMove(insn, args, regOffset));
+                }
+            }
+
+            IntList succs = one.getSuccessors();
+            int primary = one.getPrimarySuccessor();
+            IntList newSuccs = new IntList(succs.size() + handlers.size());
+
+            if (isReturn) {
+                SourcePosition pos = last.getPosition();
+
+                if (needsResult) {
+                    RegisterSpec value = last.getSources().get(0)
+                            .withOffset(regOffset);
+                    copy.add(new PlainInsn(Rops.opMove(dest), pos,
+                            dest, RegisterSpecList.make(value)));
+                }
+
+                copy.add(new PlainInsn(Rops.GOTO, pos, null,
+                        RegisterSpecList.EMPTY));
+                primary = continueLabel;
+                newSuccs.add(continueLabel);
+            } else {
+                last = last.withRegisterOffset(regOffset);
+
+                int handlerCount = 0;
+                if (last.canThrow()) {
+                    handlerCount = last.getCatches().size();
+                }
+
+                for (int j = 0; j < handlerCount; j++) {
+                    newSuccs.add(succs.get(j) + labelOffset);
+                }
+
+                if (last.canThrow()) {
+                    last = addCallerCatches(last, catches, handlers, newSuccs);
+                }
+
+                for (int j = handlerCount; j < succs.size(); j++) {
+                    newSuccs.add(succs.get(j) + labelOffset);
+                }
+
+                if (primary >= 0) {
+                    primary += labelOffset;
+                }
+
+                copy.add(last);
+            }
+
+            newSuccs.setImmutable();
+            result.add(new BasicBlock(one.getLabel() + labelOffset,
+                    makeInsnList(copy),
+                    newSuccs, primary));
+        }
+    }
+
+    /**
+     * Makes an immutable insn list.
+     *
+     * @param insns {@code non-null;} the insns
+     * @return {@code non-null;} the insn list
+     */
+    private static InsnList makeInsnList(ArrayList<Insn> insns) {
+        int sz = insns.size();
+        InsnList result = new InsnList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            result.set(i, insns.get(i));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Turns a callee's parameter move into a move from the matching
+     * argument of the call.
+     *
+     * @param insn {@code non-null;} the {@code move-param} insn
+     * @param args {@code non-null;} arguments of the call
+     * @param regOffset offset to add to the callee's registers
+     * @return {@code non-null;} the replacement insn
+     */
+    private static Insn makeParamMove(Insn insn, RegisterSpecList args,
+            int regOffset) {
+        int param = ((CstInteger) ((CstInsn) insn).getConstant()).getValue();
+        RegisterSpec result = insn.getResult().withOffset(regOffset);
+        int at = 0;
+        int sz = args.size();
+
+        for (int i = 0; i < sz; i++) {
+            RegisterSpec arg = args.get(i);
+
+            if (at == param) {
+                return new PlainInsn(Rops.opMove(result), insn.getPosition(),
+                        result, RegisterSpecList.make(arg));
+            }
+
+            at += arg.getCategory();
+        }
+
+        throw new RuntimeException("no argument for parameter " + param);
+    }
+
+    /**
+     * Adds the exception handlers of the call site to an inlined throwing
+     * insn, after its own, skipping any that its own handlers hide.
+     *
+     * @param insn {@code non-null;} the throwing insn
+     * @param catches {@code non-null;} types caught at the call site
+     * @param handlers {@code non-null;} successors of the call site, which
+     * start with one handler label per caught type
+     * @param succs {@code non-null;} successors of the inlined block, to
+     * add handler labels to
+     * @return {@code non-null;} the insn with the added catches
+     */
+    private static Insn addCallerCatches(Insn insn, TypeList catches,
+            IntList handlers, IntList succs) {
+        int sz = catches.size();
+
+        for (int i = 0; i < sz; i++) {
+            TypeList own = insn.getCatches();
+            Type type = catches.getType(i);
+            boolean hidden = false;
+
+            for (int j = own.size() - 1; j >= 0; j--) {
+                Type one = own.getType(j);
+                if (one == Type.OBJECT || one.equals(type)) {
+                    hidden = true;
+                    break;
+                }
+            }
+
+            if (!hidden) {
+                insn = insn.withAddedCatch(type);
+                succs.add(handlers.get(i));
+            }
+        }
+
+        return insn;
+    }
+
+    /**
+     * Makes the method from the rewritten blocks, leaving out the removed
+     * move-result blocks and anything no longer reachable, such as call
+     * site handlers for a callee that can't throw.
+     *
+     * @param firstLabel the method's first label
+     * @param blocks {@code non-null;} the rewritten blocks
+     * @param removedLabels {@code non-null;} labels of blocks to leave out
+     * @return {@code non-null;} the new method
+     */
+    private static RopMethod makeMethod(int firstLabel,
+            ArrayList<BasicBlock> blocks, BitSet removedLabels) {
+        int sz = blocks.size();
+        HashMap<Integer, BasicBlock> byLabel =
+            new HashMap<Integer, BasicBlock>(sz * 2);
+
+        for (BasicBlock one : blocks) {
+            if (!removedLabels.get(one.getLabel())) {
+                byLabel.put(one.getLabel(), one);
+            }
+        }
+
+        BitSet reached = new BitSet();
+        ArrayList<BasicBlock> work = new ArrayList<BasicBlock>();
+
+        reached.set(firstLabel);
+        work.add(byLabel.get(firstLabel));
+
+        while (!work.isEmpty()) {
+            BasicBlock one = work.remove(work.size() - 1);
+            IntList succs = one.getSuccessors();
+
+            for (int i = 0; i < succs.size(); i++) {
+                int succ = succs.get(i);
+
+                if (!reached.get(succ)) {
+                    reached.set(succ);
+                    work.add(byLabel.get(succ));
+                }
+            }
+        }
+
+        BasicBlockList result = new BasicBlockList(reached.cardinality());
+        int at = 0;
+
+        for (BasicBlock one : blocks) {
+            if (reached.get(one.getLabel())
+                    && !removedLabels.get(one.getLabel())) {
+                result.set(at++, one);
+            }
+        }
+
+        result.setImmutable();
+        return new RopMethod(result, firstLabel);
+    }
+}
@@ -30,23 +30,6 @@ import java.util.HashSet;
  * Settings for optimization of code.
  */
 public class OptimizerOptions {
-    /**
-     * {@code null-ok;} hash set of class name + method names that
-     * should be optimized. {@code null} if this constraint was not
-     * specified on the command line
-     */
-    private static HashSet<String> optimizeList;
-
-    /**
-     * {@code null-ok;} hash set of class name + method names that should NOT
-     * be optimized.  null if this constraint was not specified on the
-     * command line
-     */
-    private static HashSet<String> dontOptimizeList;
-
-    /** true if the above lists have been loaded */
-    private static boolean optimizeListsLoaded;
-
     /**
      * This class is uninstantiable.
      */
@@ -55,35 +38,62 @@ public class OptimizerOptions {
     }
 
     /**
-     * Loads the optimize/don't optimize lists from files.
+     * Gets the optimize/don't optimize lists for the given options,
+     * loading them from their files the first time they are asked for.
+     * They are kept with the options, so that each session has the
+     * lists of its own, and they go away with it.
      *
-     * @param optimizeListFile Pathname
-     * @param dontOptimizeListFile Pathname
+     * @param args {@code non-null;} translator arguments
+     * @return {@code non-null;} the lists
      */
-    public static void loadOptimizeLists(String optimizeListFile,
-            String dontOptimizeListFile) {
-        if (optimizeListsLoaded) {
-            return;
-        }
+    private static Lists getLists(CfOptions args) {
+        String optimizeListFile = args.optimizeListFile;
+        String dontOptimizeListFile = args.dontOptimizeListFile;
+
+        synchronized (args) {
+            Lists current = args.optimizeLists;
+
+            if ((current != null)
+                    && sameFile(current.optimizeListFile, optimizeListFile)
+                    && sameFile(current.dontOptimizeListFile,
+                            dontOptimizeListFile)) {
+                return current;
+            }
 
-        if (optimizeListFile != null && dontOptimizeListFile != null) {
-            /*
-             * We shouldn't get this far. The condition should have
-             * been caught in the arg processor.
-             */
-            throw new RuntimeException("optimize and don't optimize lists "
-                    + " are mutually exclusive.");
-        }
+            if (optimizeListFile != null && dontOptimizeListFile != null) {
+                /*
+                 * We shouldn't get this far. The condition should have
+                 * been caught in the arg processor.
+                 */
+                throw new RuntimeException("optimize and don't optimize "
+                        + "lists are mutually exclusive.");
+            }
 
-        if (optimizeListFile != null) {
-            optimizeList = loadStringsFromFile(optimizeListFile);
-        }
+            current = new Lists(optimizeListFile, dontOptimizeListFile);
+
+            if (optimizeListFile != null) {
+                current.optimizeList = loadStringsFromFile(optimizeListFile);
+            }
+
+            if (dontOptimizeListFile != null) {
+                current.dontOptimizeList =
+                    loadStringsFromFile(dontOptimizeListFile);
+            }
 
-        if (dontOptimizeListFile != null) {
-            dontOptimizeList = loadStringsFromFile(dontOptimizeListFile);
+            args.optimizeLists = current;
+            return current;
         }
+    }
 
-        optimizeListsLoaded = true;
+    /**
+     * Tells whether two list file names are the same.
+     *
+     * @param name1 {@code null-ok;} one name
+     * @param name2 {@code null-ok;} the other name
+     * @return whether they are the same
+     */
+    private static boolean sameFile(String name1, String name2) {
+        return (name1 == null) ? (name2 == null) : name1.equals(name2);
     }
 
     /**
@@ -161,10 +171,16 @@ public class OptimizerOptions {
     /**
      * Checks whether the specified method should be optimized
      *
+     * @param args {@code non-null;} translator arguments
      * @param canonicalMethodName name of method being considered
      * @return true if it should be optimized
      */
-    public static boolean shouldOptimize(String canonicalMethodName) {
+    public static boolean shouldOptimize(CfOptions args,
+            String canonicalMethodName) {
+        Lists current = getLists(args);
+        HashSet<String> optimizeList = current.optimizeList;
+        HashSet<String> dontOptimizeList = current.dontOptimizeList;
+
         // Optimize only what's in the optimize list.
         if (optimizeList != null) {
             return optimizeList.contains(canonicalMethodName);
@@ -182,4 +198,42 @@ public class OptimizerOptions {
         // If neither list has been specified, then optimize everything.
         return true;
     }
+
+    /**
+     * The optimize/don't optimize lists loaded from one pair of files.
+     */
+    /*package*/ static class Lists {
+        /** {@code null-ok;} file the optimize list was loaded from */
+        public final String optimizeListFile;
+
+        /** {@code null-ok;} file the don't optimize list was loaded from */
+        public final String dontOptimizeListFile;
+
+        /**
+         * {@code null-ok;} hash set of class name + method names that
+         * should be optimized. {@code null} if this constraint was not
+         * specified on the command line
+         */
+        public HashSet<String> optimizeList;
+
+        /**
+         * {@code null-ok;} hash set of class name + method names that
+         * should NOT be optimized.  null if this constraint was not
+         * specified on the command line
+         */
+        public HashSet<String> dontOptimizeList;
+
+        /**
+         * Constructs an instance, with no lists loaded yet.
+         *
+         * @param optimizeListFile {@code null-ok;} file to load the
+         * optimize list from
+         * @param dontOptimizeListFile {@code null-ok;} file to load the
+         * don't optimize list from
+         */
+        public Lists(String optimizeListFile, String dontOptimizeListFile) {
+            this.optimizeListFile = optimizeListFile;
+            this.dontOptimizeListFile = dontOptimizeListFile;
+        }
+    }
 }
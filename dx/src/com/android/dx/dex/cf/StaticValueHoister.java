@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.iface.Field;
+import com.android.dx.cf.iface.FieldList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.TypedConstant;
+import com.android.dx.rop.type.Type;
+import com.android.dx.util.IntList;
+
+import java.util.HashMap;
+
+/**
+ * Moves constant stores at the start of a class's static initializer
+ * into the class's static values, which the VM sets up before running
+ * the initializer. A store is only moved if everything that runs before
+ * it, from the start of the initializer, is a constant, a move, or
+ * another such store, since nothing else can tell the difference. An
+ * initializer with nothing left to do is dropped altogether.
+ *
+ * <p>Static values can only hold primitives, strings, and {@code null}
+ * for fields of those types. Arrays have no static value form that the
+ * VM will accept, so array tables stay in the initializer, built with
+ * {@code fill-array-data} where their elements are constant.</p>
+ */
+/*package*/ final class StaticValueHoister {
+    /** running count of stores moved into static values */
+    private static int movedStoreCount = 0;
+
+    /** running count of static initializers dropped */
+    private static int removedInitializerCount = 0;
+
+    /** {@code non-null;} class whose initializer is being translated */
+    private final DirectClassFile cf;
+
+    /** {@code non-null;} options in effect */
+    private final CfOptions args;
+
+    /**
+     * {@code non-null;} static values found, keyed by field; a
+     * {@code null} value is the field type's zero
+     */
+    private final HashMap<CstFieldRef, Constant> values;
+
+    /**
+     * Gets the number of stores moved into static values so far.
+     *
+     * @return {@code >= 0;} the number of stores moved
+     */
+    public static int getMovedStoreCount() {
+        return movedStoreCount;
+    }
+
+    /**
+     * Gets the number of static initializers dropped so far.
+     *
+     * @return {@code >= 0;} the number of initializers dropped
+     */
+    public static int getRemovedInitializerCount() {
+        return removedInitializerCount;
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param cf {@code non-null;} class whose initializer is being
+     * translated
+     * @param args {@code non-null;} options in effect
+     */
+    public StaticValueHoister(DirectClassFile cf, CfOptions args) {
+        this.cf = cf;
+        this.args = args;
+        this.values = new HashMap<CstFieldRef, Constant>();
+    }
+
+    /**
+     * Gets the static value found for a field, if any.
+     *
+     * @param field {@code non-null;} the field
+     * @param original {@code null-ok;} value the field had otherwise
+     * @return {@code null-ok;} the field's value
+     */
+    public TypedConstant getValue(CstFieldRef field, TypedConstant original) {
+        if (!values.containsKey(field)) {
+            return original;
+        }
+
+        return (TypedConstant) values.get(field);
+    }
+
+    /**
+     * Moves the leading constant stores out of a static initializer.
+     *
+     * @param rmeth {@code non-null;} the static initializer, in rop form
+     * @return {@code null-ok;} the initializer without the moved stores;
+     * {@code rmeth} itself if there were none, or {@code null} if
+     * nothing is left for it to do
+     */
+    public RopMethod process(RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        BasicBlockList result = null;
+        HashMap<Integer, Constant> regs = new HashMap<Integer, Constant>();
+        Constant pending = null;
+        int label = rmeth.getFirstLabel();
+        int moved = 0;
+
+        prefix:
+        while (true) {
+            BasicBlock block = blocks.labelToBlock(label);
+            InsnList insns = block.getInsns();
+            int sz = insns.size();
+
+            for (int i = 0; i < sz; i++) {
+                Insn insn = insns.get(i);
+                RegisterSpec dest = insn.getResult();
+
+                switch (insn.getOpcode().getOpcode()) {
+                    case RegOps.NOP:
+                    case RegOps.MARK_LOCAL:
+                    case RegOps.GOTO: {
+                        break;
+                    }
+                    case RegOps.CONST: {
+                        Constant cst = ((CstInsn) insn).getConstant();
+                        if (dest == null) {
+                            // A throwing const-string; see move-result-pseudo.
+                            if (!(cst instanceof CstString)) {
+                                break prefix;
+                            }
+                            pending = cst;
+                        } else {
+                            define(regs, dest, cst);
+                        }
+                        break;
+                    }
+                    case RegOps.MOVE_RESULT_PSEUDO: {
+                        if (pending == null) {
+                            break prefix;
+                        }
+                        define(regs, dest, pending);
+                        pending = null;
+                        break;
+                    }
+                    case RegOps.MOVE: {
+                        define(regs, dest,
+                                regs.get(insn.getSources().get(0).getReg()));
+                        break;
+                    }
+                    case RegOps.PUT_STATIC: {
+                        CstFieldRef field = (CstFieldRef)
+                            ((CstInsn) insn).getConstant();
+                        Constant cst = coerce(
+                                regs.get(insn.getSources().get(0).getReg()),
+                                field);
+                        if ((cst == null)
+                                || (block.getSuccessors().size() != 1)) {
+                            break prefix;
+                        }
+                        values.put(field,
+                                (cst instanceof CstKnownNull) ? null : cst);
+                        if (result == null) {
+                            result = blocks.getMutableCopy();
+                        }
+                        result.set(blocks.indexOfLabel(label),
+                                withoutLastInsn(block));
+                        moved++;
+                        break;
+                    }
+                    default: {
+                        break prefix;
+                    }
+                }
+            }
+
+            /*
+             * Carry on into the next block only if it can't be
+             * reached from anywhere else, which also keeps this from
+             * going around a loop. A store covered by an exception
+             * handler is left alone, so that no handler is orphaned.
+             */
+            if (block.getSuccessors().size() != 1) {
+                break;
+            }
+
+            label = block.getPrimarySuccessor();
+            if ((label == rmeth.getFirstLabel())
+                    || (rmeth.labelToPredecessors(label).size() != 1)) {
+                break;
+            }
+        }
+
+        if (moved == 0) {
+            return rmeth;
+        }
+
+        result.setImmutable();
+
+        RopMethod newMethod = new RopMethod(result, rmeth.getFirstLabel());
+        int eliminated = moved;
+        boolean removed = isTrivial(newMethod);
+
+        if (removed) {
+            eliminated = blocks.getEffectiveInstructionCount();
+            newMethod = null;
+        }
+
+        // Classes may be translated on several threads at once.
+        synchronized (StaticValueHoister.class) {
+            if (removed) {
+                removedInitializerCount++;
+            }
+
+            movedStoreCount += moved;
+        }
+
+        if (args.statistics) {
+            synchronized (args.eliminatedByClass) {
+                args.eliminatedByClass.put(cf.getThisClass().toHuman(),
+                        eliminated);
+            }
+        }
+
+        return newMethod;
+    }
+
+    /**
+     * Records the constant held in a register, or that it holds no
+     * known constant, forgetting about any wide constant the register
+     * overlapped.
+     *
+     * @param regs {@code non-null;} constants known to be held, by register
+     * @param dest {@code non-null;} register being defined
+     * @param cst {@code null-ok;} its constant, if known
+     */
+    private static void define(HashMap<Integer, Constant> regs,
+            RegisterSpec dest, Constant cst) {
+        int reg = dest.getReg();
+        Constant below = regs.get(reg - 1);
+
+        if ((below != null) && ((TypedConstant) below).getType().isCategory2()) {
+            regs.remove(reg - 1);
+        }
+
+        if (dest.getCategory() == 2) {
+            regs.remove(reg + 1);
+        }
+
+        if (cst == null) {
+            regs.remove(reg);
+        } else {
+            regs.put(reg, cst);
+        }
+    }
+
+    /**
+     * Gets the static value a constant makes for a field, if the field
+     * is one of this class's own static fields and a static value of
+     * its type can hold the constant.
+     *
+     * @param cst {@code null-ok;} constant being stored, if known
+     * @param field {@code non-null;} the field stored to
+     * @return {@code null-ok;} the static value, or {@code null} if
+     * there can't be one
+     */
+    private Constant coerce(Constant cst, CstFieldRef field) {
+        if ((cst == null) || !isOwnStaticField(field)) {
+            return null;
+        }
+
+        Type type = field.getType();
+
+        switch (type.getBasicType()) {
+            case Type.BT_BOOLEAN:
+            case Type.BT_BYTE:
+            case Type.BT_CHAR:
+            case Type.BT_SHORT: {
+                if (!(cst instanceof CstInteger)) {
+                    return null;
+                }
+                int value = ((CstInteger) cst).getValue();
+                if (!fits(value, type)) {
+                    return null;
+                }
+                return CfTranslator.coerceConstant((CstInteger) cst, type);
+            }
+            case Type.BT_INT: {
+                return (cst instanceof CstInteger) ? cst : null;
+            }
+            case Type.BT_LONG: {
+                return (cst instanceof CstLong) ? cst : null;
+            }
+            case Type.BT_FLOAT: {
+                return (cst instanceof CstFloat) ? cst : null;
+            }
+            case Type.BT_DOUBLE: {
+                return (cst instanceof CstDouble) ? cst : null;
+            }
+            case Type.BT_OBJECT: {
+                if (cst instanceof CstKnownNull) {
+                    return cst;
+                }
+                if ((cst instanceof CstString) && type.equals(Type.STRING)) {
+                    return cst;
+                }
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Tells whether an {@code int} is in the range of a narrower type.
+     *
+     * @param value the value
+     * @param type {@code non-null;} the narrower type
+     * @return whether the value is in range
+     */
+    private static boolean fits(int value, Type type) {
+        switch (type.getBasicType()) {
+            case Type.BT_BOOLEAN: return (value == 0) || (value == 1);
+            case Type.BT_BYTE:    return value == (byte) value;
+            case Type.BT_CHAR:    return value == (char) value;
+            case Type.BT_SHORT:   return value == (short) value;
+        }
+
+        return true;
+    }
+
+    /**
+     * Tells whether a field reference is to a static field declared by
+     * this class, rather than one inherited from elsewhere.
+     *
+     * @param field {@code non-null;} the field reference
+     * @return whether it is one of this class's own static fields
+     */
+    private boolean isOwnStaticField(CstFieldRef field) {
+        CstType thisClass = cf.getThisClass();
+
+        if (!field.getDefiningClass().equals(thisClass)) {
+            return false;
+        }
+
+        FieldList fields = cf.getFields();
+        int sz = fields.size();
+
+        for (int i = 0; i < sz; i++) {
+            Field one = fields.get(i);
+            if (one.getNat().equals(field.getNat())) {
+                return AccessFlags.isStatic(one.getAccessFlags());
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Makes a copy of a block whose last insn is a store being moved,
+     * going straight on to its primary successor instead.
+     *
+     * @param block {@code non-null;} the block
+     * @return {@code non-null;} the block without the store
+     */
+    private static BasicBlock withoutLastInsn(BasicBlock block) {
+        InsnList insns = block.getInsns();
+        int sz = insns.size();
+        InsnList newInsns = new InsnList(sz);
+        Insn last = insns.getLast();
+
+        for (int i = 0; i < sz - 1; i++) {
+            newInsns.set(i, insns.get(i));
+        }
+
+        newInsns.set(sz - 1, new PlainInsn(Rops.GOTO, last.getPosition(),
+                        null, RegisterSpecList.EMPTY));
+        newInsns.setImmutable();
+
+        return new BasicBlock(block.getLabel(), newInsns,
+                IntList.makeImmutable(block.getPrimarySuccessor()),
+                block.getPrimarySuccessor());
+    }
+
+    /**
+     * Tells whether a static initializer has nothing left to do, that
+     * is, whether all it does is load constants and return. Such an
+     * initializer has no branches, so this follows it from the start
+     * and gives up if it comes back around to a block, which would be
+     * an infinite loop.
+     *
+     * @param rmeth {@code non-null;} the initializer
+     * @return whether the initializer can be dropped
+     */
+    private static boolean isTrivial(RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        int label = rmeth.getFirstLabel();
+
+        for (int steps = blocks.size(); steps > 0; steps--) {
+            BasicBlock block = blocks.labelToBlock(label);
+            InsnList insns = block.getInsns();
+            int sz = insns.size();
+
+            for (int i = 0; i < sz; i++) {
+                Insn insn = insns.get(i);
+
+                switch (insn.getOpcode().getOpcode()) {
+                    case RegOps.NOP:
+                    case RegOps.MARK_LOCAL:
+                    case RegOps.GOTO:
+                    case RegOps.MOVE:
+                    case RegOps.MOVE_RESULT_PSEUDO: {
+                        break;
+                    }
+                    case RegOps.RETURN: {
+                        return true;
+                    }
+                    case RegOps.CONST: {
+                        Constant cst = ((CstInsn) insn).getConstant();
+                        if ((insn.getResult() == null)
+                                && !(cst instanceof CstString)) {
+                            return false;
+                        }
+                        break;
+                    }
+                    default: {
+                        return false;
+                    }
+                }
+            }
+
+            if (block.getSuccessors().size() != 1) {
+                return false;
+            }
+
+            label = block.getPrimarySuccessor();
+        }
+
+        return false;
+    }
+}
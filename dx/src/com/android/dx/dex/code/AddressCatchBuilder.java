@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.code;
+
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.Type;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Constructor of {@link CatchTable} instances from the address objects
+ * of the blocks that can throw, in output order. Unlike {@link
+ * StdCatchBuilder}, this doesn't refer to the method the blocks came
+ * from, so it is all that needs to be kept of the method once it has
+ * been translated.
+ */
+/*package*/ final class AddressCatchBuilder implements CatchBuilder {
+    /** the maximum range of a single catch handler, in code units */
+    private static final int MAX_CATCH_RANGE = 65535;
+
+    /** {@code non-null;} the types caught anywhere in the code */
+    private final Type[] catchTypes;
+
+    /** {@code non-null;} the blocks that can throw, in output order */
+    private final ArrayList<Thrower> throwers;
+
+    /**
+     * Constructs an instance. It merely holds onto its parameters for
+     * a subsequent call to {@link #build}.
+     *
+     * @param catchTypes {@code non-null;} the types caught anywhere in
+     * the code
+     * @param throwers {@code non-null;} the blocks that can throw, in
+     * output order
+     */
+    public AddressCatchBuilder(Type[] catchTypes,
+            ArrayList<Thrower> throwers) {
+        if (catchTypes == null) {
+            throw new NullPointerException("catchTypes == null");
+        }
+
+        if (throwers == null) {
+            throw new NullPointerException("throwers == null");
+        }
+
+        this.catchTypes = catchTypes;
+        this.throwers = throwers;
+    }
+
+    /** {@inheritDoc} */
+    public CatchTable build() {
+        return build(throwers);
+    }
+
+    /** {@inheritDoc} */
+    public boolean hasAnyCatches() {
+        return catchTypes.length != 0;
+    }
+
+    /** {@inheritDoc} */
+    public HashSet<Type> getCatchTypes() {
+        // This keeps the order the types were given in.
+        HashSet<Type> result = new LinkedHashSet<Type>(20);
+
+        for (Type type : catchTypes) {
+            result.add(type);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the types caught anywhere in the code.
+     *
+     * @return {@code non-null;} the types
+     */
+    public Type[] getCatchTypeArray() {
+        return catchTypes;
+    }
+
+    /**
+     * Gets the blocks that can throw, in output order.
+     *
+     * @return {@code non-null;} the blocks
+     */
+    public ArrayList<Thrower> getThrowers() {
+        return throwers;
+    }
+
+    /**
+     * Builds and returns the catch table for the given blocks.
+     *
+     * @param throwers {@code non-null;} the blocks that can throw, in
+     * output order
+     * @return {@code non-null;} the constructed table
+     */
+    public static CatchTable build(ArrayList<Thrower> throwers) {
+        int len = throwers.size();
+        ArrayList<CatchTable.Entry> resultList =
+            new ArrayList<CatchTable.Entry>(len);
+        CatchHandlerList currentHandlers = CatchHandlerList.EMPTY;
+        Thrower currentStart = null;
+        Thrower currentEnd = null;
+
+        for (int i = 0; i < len; i++) {
+            Thrower block = throwers.get(i);
+            CatchHandlerList handlers = block.makeHandlers();
+
+            if (currentHandlers.size() == 0) {
+                // This is the start of a new catch range.
+                currentStart = block;
+                currentEnd = block;
+                currentHandlers = handlers;
+                continue;
+            }
+
+            if (currentHandlers.equals(handlers)
+                    && rangeIsValid(currentStart, block)) {
+                /*
+                 * The block we are looking at now has the same handlers
+                 * as the block that started the currently open catch
+                 * range, and adding it to the currently open range won't
+                 * cause it to be too long.
+                 */
+                currentEnd = block;
+                continue;
+            }
+
+            /*
+             * The block we are looking at now has incompatible handlers,
+             * so we need to finish off the last entry and start a new
+             * one. Note: We only emit an entry if it has associated handlers.
+             */
+            if (currentHandlers.size() != 0) {
+                resultList.add(makeEntry(currentStart, currentEnd,
+                                currentHandlers));
+            }
+
+            currentStart = block;
+            currentEnd = block;
+            currentHandlers = handlers;
+        }
+
+        if (currentHandlers.size() != 0) {
+            // Emit an entry for the range that was left hanging.
+            resultList.add(makeEntry(currentStart, currentEnd,
+                            currentHandlers));
+        }
+
+        // Construct the final result.
+
+        int resultSz = resultList.size();
+
+        if (resultSz == 0) {
+            return CatchTable.EMPTY;
+        }
+
+        CatchTable result = new CatchTable(resultSz);
+
+        for (int i = 0; i < resultSz; i++) {
+            result.set(i, resultList.get(i));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Makes a {@link CatchTable#Entry} for the given block range and
+     * handlers.
+     *
+     * @param start {@code non-null;} the start block for the range (inclusive)
+     * @param end {@code non-null;} the start block for the range (also inclusive)
+     * @param handlers {@code non-null;} the handlers for the range
+     */
+    private static CatchTable.Entry makeEntry(Thrower start, Thrower end,
+            CatchHandlerList handlers) {
+        /*
+         * We start at the *last* instruction of the start block, since
+         * that's the instruction that can throw...
+         */
+        int startAddress = start.getLast().getAddress();
+
+        // ...And we end *after* the last instruction of the end block.
+        int endAddress = end.getEnd().getAddress();
+
+        return new CatchTable.Entry(startAddress, endAddress, handlers);
+    }
+
+    /**
+     * Gets whether the address range for the given two blocks is valid
+     * for a catch handler. This is true as long as the covered range is
+     * under 65536 code units.
+     *
+     * @param start {@code non-null;} the start block for the range (inclusive)
+     * @param end {@code non-null;} the start block for the range (also inclusive)
+     * @return {@code true} if the range is valid as a catch range
+     */
+    private static boolean rangeIsValid(Thrower start, Thrower end) {
+        if (start == null) {
+            throw new NullPointerException("start == null");
+        }
+
+        if (end == null) {
+            throw new NullPointerException("end == null");
+        }
+
+        // See above about selection of instructions.
+        int startAddress = start.getLast().getAddress();
+        int endAddress = end.getEnd().getAddress();
+
+        return (endAddress - startAddress) <= MAX_CATCH_RANGE;
+    }
+
+    /**
+     * Block that can throw, as the address objects that matter for its
+     * catch range and handlers.
+     */
+    public static final class Thrower {
+        /** {@code non-null;} address of the block's last instruction */
+        private final CodeAddress last;
+
+        /** {@code non-null;} address just past the end of the block */
+        private final CodeAddress end;
+
+        /**
+         * {@code non-null;} the types caught, up to and including any
+         * catch-all
+         */
+        private final CstType[] types;
+
+        /**
+         * {@code non-null;} address of the handler for each element of
+         * {@link #types}
+         */
+        private final CodeAddress[] handlers;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param last {@code non-null;} address of the block's last
+         * instruction
+         * @param end {@code non-null;} address just past the end of the
+         * block
+         * @param types {@code non-null;} the types caught, up to and
+         * including any catch-all
+         * @param handlers {@code non-null;} address of the handler for
+         * each element of {@code types}
+         */
+        public Thrower(CodeAddress last, CodeAddress end, CstType[] types,
+                CodeAddress[] handlers) {
+            if (last == null) {
+                throw new NullPointerException("last == null");
+            }
+
+            if (end == null) {
+                throw new NullPointerException("end == null");
+            }
+
+            if (types.length != handlers.length) {
+                throw new IllegalArgumentException(
+                        "types.length != handlers.length");
+            }
+
+            this.last = last;
+            this.end = end;
+            this.types = types;
+            this.handlers = handlers;
+        }
+
+        /**
+         * Gets the address of the block's last instruction.
+         *
+         * @return {@code non-null;} the address
+         */
+        public CodeAddress getLast() {
+            return last;
+        }
+
+        /**
+         * Gets the address just past the end of the block.
+         *
+         * @return {@code non-null;} the address
+         */
+        public CodeAddress getEnd() {
+            return end;
+        }
+
+        /**
+         * Gets the types caught, up to and including any catch-all.
+         *
+         * @return {@code non-null;} the types
+         */
+        public CstType[] getTypes() {
+            return types;
+        }
+
+        /**
+         * Gets the address of the handler for each caught type.
+         *
+         * @return {@code non-null;} the addresses
+         */
+        public CodeAddress[] getHandlers() {
+            return handlers;
+        }
+
+        /**
+         * Makes the {@link CatchHandlerList} for this block. This may
+         * only be called once addresses have been assigned.
+         *
+         * @return {@code non-null;} the handlers
+         */
+        public CatchHandlerList makeHandlers() {
+            int size = types.length;
+
+            if (size == 0) {
+                return CatchHandlerList.EMPTY;
+            }
+
+            CatchHandlerList result = new CatchHandlerList(size);
+
+            for (int i = 0; i < size; i++) {
+                result.set(i, types[i], handlers[i].getAddress());
+            }
+
+            result.setImmutable();
+            return result;
+        }
+    }
+}
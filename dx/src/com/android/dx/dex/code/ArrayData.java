@@ -160,6 +160,34 @@ public final class ArrayData extends VariableSizeInsn {
         return new ArrayData(getPosition(), user, values, arrayType);
     }
 
+    /**
+     * Gets the address representing the instruction that uses this
+     * instance.
+     *
+     * @return {@code non-null;} the address
+     */
+    public CodeAddress getUser() {
+        return user;
+    }
+
+    /**
+     * Gets the initial values to be filled into the array.
+     *
+     * @return {@code non-null;} the values
+     */
+    public ArrayList<Constant> getValues() {
+        return values;
+    }
+
+    /**
+     * Gets the type of the array.
+     *
+     * @return {@code non-null;} the array type
+     */
+    public Constant getArrayType() {
+        return arrayType;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected String argString() {
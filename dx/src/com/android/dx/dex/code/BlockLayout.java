@@ -0,0 +1,562 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.code;
+
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.util.Bits;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Frequency-guided block layout. Estimates how often each block runs
+ * from static heuristics, then orders the blocks so that the most
+ * frequently taken edges become fall-throughs.
+ *
+ * <p>A block's estimated frequency grows tenfold with each loop it is
+ * nested in. Blocks that are only reached by throwing an exception, or
+ * that can only go on to throw one, are taken to be cold and given a
+ * frequency of zero, so they end up after the code around them.</p>
+ *
+ * <p>Layout follows Pettis and Hansen: each block starts as a chain of
+ * its own, and chains are joined along edges from the heaviest down,
+ * whenever an edge leads from the end of one chain to the start of
+ * another. Back edges win ties and edges out of loop headers lose them,
+ * so a loop's test ends up after its body and each iteration branches
+ * back instead of taking a {@code goto}. An invoke is always followed
+ * by the block holding its {@code move-result}.</p>
+ */
+public final class BlockLayout {
+    /** frequency multiplier per level of loop nesting */
+    private static final int LOOP_WEIGHT = 10;
+
+    /** deepest loop nesting that still raises a block's frequency */
+    private static final int MAX_DEPTH = 6;
+
+    /** {@code non-null;} method being laid out */
+    private final RopMethod method;
+
+    /** {@code non-null;} method's blocks */
+    private final BasicBlockList blocks;
+
+    /** {@code non-null;} estimated frequency of each block, by label */
+    private final int[] freq;
+
+    /**
+     * {@code non-null;} target of the back edge leaving each block, by
+     * label, or {@code -1} if there is none
+     */
+    private final int[] backEdges;
+
+    /** {@code non-null;} set of loop headers, by label */
+    private final int[] headers;
+
+    /**
+     * Constructs an instance, estimating block frequencies.
+     *
+     * @param method {@code non-null;} method to lay out
+     */
+    public BlockLayout(RopMethod method) {
+        this.method = method;
+        this.blocks = method.getBlocks();
+
+        int maxLabel = blocks.getMaxLabel();
+
+        this.freq = new int[maxLabel];
+        this.backEdges = new int[maxLabel];
+        this.headers = Bits.makeBitSet(maxLabel);
+
+        Arrays.fill(backEdges, -1);
+
+        int[] depth = findLoopDepths();
+        int[] warm = findWarmBlocks();
+        int sz = blocks.size();
+
+        for (int i = 0; i < sz; i++) {
+            int label = blocks.get(i).getLabel();
+
+            if (Bits.get(warm, label)) {
+                int f = 1;
+
+                for (int d = Math.min(depth[label], MAX_DEPTH); d > 0; d--) {
+                    f *= LOOP_WEIGHT;
+                }
+
+                freq[label] = f;
+            }
+        }
+    }
+
+    /**
+     * Picks the order in which to output the blocks.
+     *
+     * @return {@code non-null;} the block labels, in output order,
+     * starting with the method's first label
+     */
+    public int[] pickOrder() {
+        int sz = blocks.size();
+        int maxLabel = blocks.getMaxLabel();
+
+        /*
+         * Chains are kept as linked lists of labels. Each chain is
+         * identified by its first label, and every block records the
+         * head of its chain.
+         */
+        int[] next = new int[maxLabel];
+        int[] chainOf = new int[maxLabel];
+
+        for (int i = 0; i < sz; i++) {
+            int label = blocks.get(i).getLabel();
+
+            next[label] = -1;
+            chainOf[label] = label;
+        }
+
+        ArrayList<Edge> edges = new ArrayList<Edge>();
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock one = blocks.get(i);
+            IntList succs = normalSuccessors(one);
+            int ssz = succs.size();
+
+            for (int j = 0; j < ssz; j++) {
+                edges.add(makeEdge(one, succs.get(j), i));
+            }
+        }
+
+        Collections.sort(edges, Edge.ORDER);
+
+        int firstLabel = method.getFirstLabel();
+
+        for (Edge e : edges) {
+            int from = e.from;
+            int to = e.to;
+            int fromChain = chainOf[from];
+            int toChain = chainOf[to];
+
+            if (to == firstLabel || fromChain == toChain
+                    || next[from] >= 0 || toChain != to) {
+                continue;
+            }
+
+            // Append the "to" chain to the "from" chain.
+            next[from] = to;
+
+            for (int l = to; l >= 0; l = next[l]) {
+                chainOf[l] = fromChain;
+            }
+        }
+
+        return orderChains(next, chainOf);
+    }
+
+    /**
+     * Makes an edge that may become a fall-through, working out its
+     * weight and how it ranks among edges of the same weight.
+     *
+     * @param block {@code non-null;} source block
+     * @param to {@code >= 0;} label of the target block
+     * @param index position of the source block in the block list
+     * @return {@code non-null;} the edge
+     */
+    private Edge makeEdge(BasicBlock block, int to, int index) {
+        int from = block.getLabel();
+        Insn first = blocks.labelToBlock(to).getFirstInsn();
+        int weight;
+        int rank;
+
+        if (first.getOpcode().getOpcode() == RegOps.MOVE_RESULT) {
+            // The move-result has to directly follow its invoke.
+            weight = Integer.MAX_VALUE;
+        } else {
+            weight = Math.min(freq[from], freq[to]);
+        }
+
+        /*
+         * Back edges go first, and edges out of a loop header last, so
+         * that the body of a loop is laid out ahead of its header.
+         */
+        if (backEdges[from] == to) {
+            rank = 0;
+        } else if (Bits.get(headers, from)) {
+            rank = 3;
+        } else if (block.getPrimarySuccessor() == to) {
+            rank = 1;
+        } else {
+            rank = 2;
+        }
+
+        return new Edge(from, to, weight, rank, index);
+    }
+
+    /**
+     * Orders the chains found by {@link #pickOrder}. The chain starting
+     * with the first label goes first. After that, the chain reached by
+     * the heaviest edge out of the block just placed is placed next, if
+     * there is one, and otherwise the hottest chain left. Ties go to the
+     * chain appearing first in the original block order.
+     *
+     * @param next {@code non-null;} the label following each label in
+     * its chain, or {@code -1}
+     * @param chainOf {@code non-null;} the chain head of each label
+     * @return {@code non-null;} the block labels, in output order
+     */
+    private int[] orderChains(int[] next, int[] chainOf) {
+        int sz = blocks.size();
+        int maxLabel = blocks.getMaxLabel();
+        int[] chainFreq = new int[maxLabel];
+        int[] placed = Bits.makeBitSet(maxLabel);
+        int[] order = new int[sz];
+        int at = 0;
+
+        for (int i = 0; i < sz; i++) {
+            int label = blocks.get(i).getLabel();
+            int chain = chainOf[label];
+
+            chainFreq[chain] = Math.max(chainFreq[chain], freq[label]);
+        }
+
+        int chain = method.getFirstLabel();
+
+        while (chain >= 0) {
+            Bits.set(placed, chain);
+
+            int last = chain;
+
+            for (int l = chain; l >= 0; l = next[l]) {
+                order[at++] = l;
+                last = l;
+            }
+
+            chain = -1;
+
+            // Follow the heaviest edge out of the chain, if possible.
+            IntList succs = normalSuccessors(blocks.labelToBlock(last));
+            int ssz = succs.size();
+            int best = -1;
+
+            for (int i = 0; i < ssz; i++) {
+                int succ = succs.get(i);
+                int succChain = chainOf[succ];
+
+                if (!Bits.get(placed, succChain)
+                        && freq[succ] > best) {
+                    chain = succChain;
+                    best = freq[succ];
+                }
+            }
+
+            if (chain >= 0) {
+                continue;
+            }
+
+            // Otherwise take the hottest chain left.
+            for (int i = 0; i < sz; i++) {
+                int candidate = chainOf[blocks.get(i).getLabel()];
+
+                if (!Bits.get(placed, candidate)
+                        && (chain < 0
+                                || chainFreq[candidate] > chainFreq[chain])) {
+                    chain = candidate;
+                }
+            }
+        }
+
+        if (at != sz) {
+            throw new RuntimeException("shouldn't happen");
+        }
+
+        return order;
+    }
+
+    /**
+     * Counts the {@code goto}s that {@link RopTranslator} adds for a
+     * given block order, either once per block or weighted by the
+     * estimated frequency of the block they end.
+     *
+     * @param order {@code non-null;} the block labels, in output order
+     * @param weighted whether to weight each {@code goto} by the
+     * frequency of its block
+     * @return {@code >= 0;} the count
+     */
+    public long countGotos(int[] order, boolean weighted) {
+        long result = 0;
+
+        for (int i = 0; i < order.length; i++) {
+            int nextLabel = (i + 1 == order.length) ? -1 : order[i + 1];
+            BasicBlock one = blocks.labelToBlock(order[i]);
+            int succ = one.getPrimarySuccessor();
+
+            if ((succ < 0) || (succ == nextLabel)) {
+                continue;
+            }
+
+            Rop lastRop = one.getLastInsn().getOpcode();
+
+            if ((lastRop.getBranchingness() == Rop.BRANCH_IF)
+                    && (one.getSecondarySuccessor() == nextLabel)) {
+                // The branch gets reversed instead.
+                continue;
+            }
+
+            result += weighted ? freq[order[i]] : 1;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the successors of a block that are reached without throwing.
+     *
+     * @param block {@code non-null;} the block
+     * @return {@code non-null;} the successors
+     */
+    private static IntList normalSuccessors(BasicBlock block) {
+        if (!block.hasExceptionHandlers()) {
+            return block.getSuccessors();
+        }
+
+        int primary = block.getPrimarySuccessor();
+
+        return (primary < 0) ? IntList.EMPTY : IntList.makeImmutable(primary);
+    }
+
+    /**
+     * Finds the loop nesting depth of each block, and records the back
+     * edges and loop headers in {@link #backEdges} and {@link #headers}. A loop is found for each edge to a
+     * block still being visited by a depth-first walk from the first
+     * block, and is made of the blocks that reach the edge without going
+     * through its target.
+     *
+     * @return {@code non-null;} the depth of each block, by label
+     */
+    private int[] findLoopDepths() {
+        int maxLabel = blocks.getMaxLabel();
+        int sz = blocks.size();
+        int[] depth = new int[maxLabel];
+        int[] visited = Bits.makeBitSet(maxLabel);
+        int[] onStack = Bits.makeBitSet(maxLabel);
+        int[][] bodies = new int[maxLabel][];
+        int[] stack = new int[sz];
+        int[] nextSucc = new int[sz];
+        int sp = 0;
+        int first = method.getFirstLabel();
+
+        Bits.set(visited, first);
+        Bits.set(onStack, first);
+        stack[sp++] = first;
+
+        while (sp > 0) {
+            int cur = stack[sp - 1];
+            IntList succs = blocks.labelToBlock(cur).getSuccessors();
+
+            if (nextSucc[sp - 1] == succs.size()) {
+                Bits.clear(onStack, cur);
+                sp--;
+                continue;
+            }
+
+            int succ = succs.get(nextSucc[sp - 1]++);
+
+            if (Bits.get(onStack, succ)) {
+                // A back edge.
+                if (bodies[succ] == null) {
+                    bodies[succ] = Bits.makeBitSet(maxLabel);
+                    Bits.set(bodies[succ], succ);
+                    Bits.set(headers, succ);
+                }
+
+                backEdges[cur] = succ;
+
+                addBody(bodies[succ], cur);
+            } else if (!Bits.get(visited, succ)) {
+                Bits.set(visited, succ);
+                Bits.set(onStack, succ);
+                nextSucc[sp] = 0;
+                stack[sp++] = succ;
+            }
+        }
+
+        for (int h = 0; h < maxLabel; h++) {
+            if (bodies[h] == null) {
+                continue;
+            }
+
+            for (int l = Bits.findFirst(bodies[h], 0); l >= 0;
+                 l = Bits.findFirst(bodies[h], l + 1)) {
+                depth[l]++;
+            }
+        }
+
+        return depth;
+    }
+
+    /**
+     * Adds to a loop body the blocks that reach a given block without
+     * going through the loop's header, which must already be in the body.
+     *
+     * @param body {@code non-null;} the loop body, as a bit set of labels
+     * @param tail {@code >= 0;} source of the back edge
+     */
+    private void addBody(int[] body, int tail) {
+        if (Bits.get(body, tail)) {
+            return;
+        }
+
+        IntList work = new IntList();
+
+        Bits.set(body, tail);
+        work.add(tail);
+
+        while (work.size() > 0) {
+            IntList preds = method.labelToPredecessors(work.pop());
+            int psz = preds.size();
+
+            for (int i = 0; i < psz; i++) {
+                int pred = preds.get(i);
+
+                if (!Bits.get(body, pred)) {
+                    Bits.set(body, pred);
+                    work.add(pred);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the blocks that are reached from the first block, and can
+     * reach a return, without throwing an exception.
+     *
+     * @return {@code non-null;} the set of warm blocks, by label
+     */
+    private int[] findWarmBlocks() {
+        int maxLabel = blocks.getMaxLabel();
+        int sz = blocks.size();
+        int[] reached = Bits.makeBitSet(maxLabel);
+        int[] returns = Bits.makeBitSet(maxLabel);
+        IntList work = new IntList();
+
+        Bits.set(reached, method.getFirstLabel());
+        work.add(method.getFirstLabel());
+
+        while (work.size() > 0) {
+            IntList succs = normalSuccessors(blocks.labelToBlock(work.pop()));
+            int ssz = succs.size();
+
+            for (int i = 0; i < ssz; i++) {
+                int succ = succs.get(i);
+
+                if (!Bits.get(reached, succ)) {
+                    Bits.set(reached, succ);
+                    work.add(succ);
+                }
+            }
+        }
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock one = blocks.get(i);
+            Insn last = one.getLastInsn();
+
+            if (last.getOpcode().getBranchingness() == Rop.BRANCH_RETURN) {
+                Bits.set(returns, one.getLabel());
+                work.add(one.getLabel());
+            }
+        }
+
+        while (work.size() > 0) {
+            int label = work.pop();
+            IntList preds = method.labelToPredecessors(label);
+            int psz = preds.size();
+
+            for (int i = 0; i < psz; i++) {
+                int pred = preds.get(i);
+
+                if (!Bits.get(returns, pred) && normalSuccessors(
+                        blocks.labelToBlock(pred)).contains(label)) {
+                    Bits.set(returns, pred);
+                    work.add(pred);
+                }
+            }
+        }
+
+        for (int i = 0; i < reached.length; i++) {
+            reached[i] &= returns[i];
+        }
+
+        return reached;
+    }
+
+    /**
+     * An edge that may become a fall-through.
+     */
+    private static final class Edge {
+        /** sorts heaviest first, then by rank, then in block order */
+        static final Comparator<Edge> ORDER = new Comparator<Edge>() {
+            public int compare(Edge a, Edge b) {
+                if (a.weight != b.weight) {
+                    return (a.weight > b.weight) ? -1 : 1;
+                }
+
+                if (a.rank != b.rank) {
+                    return a.rank - b.rank;
+                }
+
+                return a.index - b.index;
+            }
+        };
+
+        /** {@code >= 0;} label of the source block */
+        final int from;
+
+        /** {@code >= 0;} label of the target block */
+        final int to;
+
+        /** {@code >= 0;} estimated frequency of the edge */
+        final int weight;
+
+        /** tie breaker; lower goes first */
+        final int rank;
+
+        /** position of the source block in the block list */
+        final int index;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param from {@code >= 0;} label of the source block
+         * @param to {@code >= 0;} label of the target block
+         * @param weight {@code >= 0;} estimated frequency of the edge
+         * @param rank tie breaker; lower goes first
+         * @param index position of the source block in the block list
+         */
+        Edge(int from, int to, int weight, int rank, int index) {
+            this.from = from;
+            this.to = to;
+            this.weight = weight;
+            this.rank = rank;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,1120 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.code;
+
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RegisterSpecSet;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstLiteralBits;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeBearer;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
+import com.android.dx.util.IntList;
+import com.android.dx.util.SpillFile;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Store for the code of methods between their translation and the
+ * writing of the file they are part of, which keeps the code in a
+ * {@link SpillFile} rather than on the heap. Code is stored in a
+ * compact form, in which the constants, types and local variable names
+ * it refers to are replaced by indices into a table that all the code
+ * shares. That table, which mostly holds what the file's ids are made
+ * from anyway, is all that stays on the heap.
+ *
+ * <p>The methods that read code back lock the table, so that code can
+ * be read from several threads at once.</p>
+ *
+ * @see DalvCode#spill
+ */
+public final class CodeSpill {
+    /** instruction tag: {@link CodeAddress} */
+    private static final int INSN_CODE_ADDRESS = 0;
+
+    /** instruction tag: {@link SimpleInsn} */
+    private static final int INSN_SIMPLE = 1;
+
+    /** instruction tag: {@link CstInsn} */
+    private static final int INSN_CST = 2;
+
+    /** instruction tag: {@link TargetInsn} */
+    private static final int INSN_TARGET = 3;
+
+    /** instruction tag: {@link SwitchData} */
+    private static final int INSN_SWITCH_DATA = 4;
+
+    /** instruction tag: {@link ArrayData} */
+    private static final int INSN_ARRAY_DATA = 5;
+
+    /** instruction tag: {@link HighRegisterPrefix} */
+    private static final int INSN_HIGH_REGISTER_PREFIX = 6;
+
+    /** instruction tag: {@link OddSpacer} */
+    private static final int INSN_ODD_SPACER = 7;
+
+    /** instruction tag: {@link LocalStart} */
+    private static final int INSN_LOCAL_START = 8;
+
+    /** instruction tag: {@link LocalEnd} */
+    private static final int INSN_LOCAL_END = 9;
+
+    /** instruction tag: {@link LocalSnapshot} */
+    private static final int INSN_LOCAL_SNAPSHOT = 10;
+
+    /** reference: {@code null} */
+    private static final int REF_NULL = 0;
+
+    /** reference: a literal, whose value follows */
+    private static final int REF_LITERAL = 1;
+
+    /** reference: the first index into {@link #objects} */
+    private static final int REF_FIRST_OBJECT = 2;
+
+    /** literal tag: {@link CstInteger} */
+    private static final int LITERAL_INT = 0;
+
+    /** literal tag: {@link CstLong} */
+    private static final int LITERAL_LONG = 1;
+
+    /** literal tag: {@link CstFloat} */
+    private static final int LITERAL_FLOAT = 2;
+
+    /** literal tag: {@link CstDouble} */
+    private static final int LITERAL_DOUBLE = 3;
+
+    /** literal tag: {@link CstBoolean} */
+    private static final int LITERAL_BOOLEAN = 4;
+
+    /** literal tag: {@link CstByte} */
+    private static final int LITERAL_BYTE = 5;
+
+    /** literal tag: {@link CstShort} */
+    private static final int LITERAL_SHORT = 6;
+
+    /** literal tag: {@link CstChar} */
+    private static final int LITERAL_CHAR = 7;
+
+    /** {@code non-null;} where the code is kept */
+    private final SpillFile file;
+
+    /**
+     * {@code non-null;} the constants, types and local variable names
+     * the code refers to
+     */
+    private final ArrayList<Object> objects;
+
+    /** {@code non-null;} the index of each element of {@link #objects} */
+    private final HashMap<Object, Integer> objectIndices;
+
+    /** number of methods whose code has been spilled */
+    private int methodCount;
+
+    /** number of times code has been read back */
+    private int readCount;
+
+    /**
+     * Constructs an instance. It is initially empty, and the file is
+     * only created once code is spilled to it.
+     */
+    public CodeSpill() {
+        this.file = new SpillFile();
+        this.objects = new ArrayList<Object>(1000);
+        this.objectIndices = new HashMap<Object, Integer>(1000);
+        this.methodCount = 0;
+        this.readCount = 0;
+    }
+
+    /**
+     * Closes and deletes the file. The code spilled to this instance
+     * can't be used any longer afterwards.
+     */
+    public void close() {
+        file.close();
+    }
+
+    /**
+     * Prints how much code has been spilled and read back.
+     *
+     * @param out {@code non-null;} where to print to
+     */
+    public synchronized void dumpStatistics(PrintStream out) {
+        out.println("Spilled code:");
+        out.println("  methods: " + methodCount);
+        out.println("  bytes written: " + file.size());
+        out.println("  times read back: " + readCount);
+        out.println("  shared objects: " + objects.size());
+    }
+
+    /**
+     * Spills the given not-yet-finished code.
+     *
+     * @param insns {@code non-null;} the instructions
+     * @param catches {@code non-null;} the catches
+     * @return {@code non-null;} where the code was spilled to
+     */
+    /*package*/ Location spill(OutputFinisher insns,
+            AddressCatchBuilder catches) {
+        Encoder encoder = new Encoder();
+
+        encoder.writeUleb(insns.getUnreservedRegCount());
+        encoder.writeInsns(insns.getInsns());
+        encoder.writeCatches(catches);
+
+        synchronized (this) {
+            methodCount++;
+        }
+
+        return encoder.spill();
+    }
+
+    /**
+     * Spills the given finished code, replacing what was spilled of it
+     * before it was finished.
+     *
+     * @param insns {@code non-null;} the instructions
+     * @param catches {@code non-null;} the catch table
+     * @return {@code non-null;} where the code was spilled to
+     */
+    /*package*/ Location spill(DalvInsnList insns, CatchTable catches) {
+        Encoder encoder = new Encoder();
+        int size = insns.size();
+        ArrayList<DalvInsn> list = new ArrayList<DalvInsn>(size);
+
+        for (int i = 0; i < size; i++) {
+            list.add(insns.get(i));
+        }
+
+        encoder.writeUleb(insns.getRegistersSize());
+        encoder.writeInsns(list);
+        encoder.writeCatchTable(catches);
+
+        return encoder.spill();
+    }
+
+    /**
+     * Reads back not-yet-finished code.
+     *
+     * @param location {@code non-null;} where the code was spilled to
+     * @param peephole whether to run the peephole optimizer over the
+     * code when it is finished
+     * @return {@code non-null;} the code
+     */
+    /*package*/ Unfinished readUnfinished(Location location,
+            boolean peephole) {
+        Decoder decoder = new Decoder(location);
+        int regCount = decoder.readUleb();
+        ArrayList<DalvInsn> insns = decoder.readInsns();
+        OutputFinisher finisher =
+            new OutputFinisher(insns.size(), regCount, peephole);
+
+        for (DalvInsn insn : insns) {
+            finisher.add(insn);
+        }
+
+        return new Unfinished(finisher, decoder.readCatches());
+    }
+
+    /**
+     * Reads back finished code.
+     *
+     * @param location {@code non-null;} where the code was spilled to
+     * @param positionInfo how much position info to preserve; one of the
+     * static constants in {@link PositionList}
+     * @return {@code non-null;} the code
+     */
+    /*package*/ Finished readFinished(Location location, int positionInfo) {
+        Decoder decoder = new Decoder(location);
+        int regCount = decoder.readUleb();
+        ArrayList<DalvInsn> insns = decoder.readInsns();
+        int address = 0;
+
+        // The addresses are just as finishing the code assigned them.
+        for (DalvInsn insn : insns) {
+            insn.setAddress(address);
+            address += insn.codeSize();
+        }
+
+        DalvInsnList list = DalvInsnList.makeImmutable(insns, regCount);
+
+        return new Finished(list, PositionList.make(list, positionInfo),
+                LocalList.make(list), decoder.readCatchTable());
+    }
+
+    /**
+     * Gets the index to refer to the given object by, adding it to the
+     * table if it isn't there yet.
+     *
+     * @param obj {@code non-null;} the object
+     * @return {@code >= 0;} its index
+     */
+    private synchronized int indexOf(Object obj) {
+        Integer index = objectIndices.get(obj);
+
+        if (index != null) {
+            return index;
+        }
+
+        int result = objects.size();
+
+        objects.add(obj);
+        objectIndices.put(obj, result);
+        return result;
+    }
+
+    /**
+     * Gets the object with the given index.
+     *
+     * @param index {@code >= 0;} the index
+     * @return {@code non-null;} the object
+     */
+    private synchronized Object getObject(int index) {
+        return objects.get(index);
+    }
+
+    /**
+     * Not-yet-finished code, as read back.
+     */
+    /*package*/ static final class Unfinished {
+        /** {@code non-null;} the instructions */
+        public final OutputFinisher insns;
+
+        /** {@code non-null;} the catches */
+        public final AddressCatchBuilder catches;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param insns {@code non-null;} the instructions
+         * @param catches {@code non-null;} the catches
+         */
+        public Unfinished(OutputFinisher insns, AddressCatchBuilder catches) {
+            this.insns = insns;
+            this.catches = catches;
+        }
+    }
+
+    /**
+     * Finished code, with everything {@link DalvCode} makes of it.
+     */
+    /*package*/ static final class Finished {
+        /** {@code non-null;} the instructions */
+        public final DalvInsnList insns;
+
+        /** {@code non-null;} the source positions */
+        public final PositionList positions;
+
+        /** {@code non-null;} the local variables */
+        public final LocalList locals;
+
+        /** {@code non-null;} the catch table */
+        public final CatchTable catches;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param insns {@code non-null;} the instructions
+         * @param positions {@code non-null;} the source positions
+         * @param locals {@code non-null;} the local variables
+         * @param catches {@code non-null;} the catch table
+         */
+        public Finished(DalvInsnList insns, PositionList positions,
+                LocalList locals, CatchTable catches) {
+            this.insns = insns;
+            this.positions = positions;
+            this.locals = locals;
+            this.catches = catches;
+        }
+    }
+
+    /**
+     * Where the code of a method is kept in the file.
+     */
+    /*package*/ static final class Location {
+        /** {@code >= 0;} offset of the code in the file */
+        private final long offset;
+
+        /** {@code >= 0;} length of the code, in bytes */
+        private final int length;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param offset {@code >= 0;} offset of the code in the file
+         * @param length {@code >= 0;} length of the code, in bytes
+         */
+        public Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Writer of the compact form of one method's code.
+     */
+    private final class Encoder {
+        /** {@code non-null;} where to write to */
+        private final ByteArrayAnnotatedOutput out;
+
+        /**
+         * {@code non-null;} index of each of the code addresses among
+         * the instructions
+         */
+        private final IdentityHashMap<CodeAddress, Integer> addresses;
+
+        /**
+         * Constructs an instance.
+         */
+        public Encoder() {
+            this.out = new ByteArrayAnnotatedOutput();
+            this.addresses = new IdentityHashMap<CodeAddress, Integer>();
+        }
+
+        /**
+         * Writes what has been encoded to the file.
+         *
+         * @return {@code non-null;} where it was written
+         */
+        public Location spill() {
+            byte[] bytes = out.toByteArray();
+
+            return new Location(file.write(bytes), bytes.length);
+        }
+
+        /**
+         * Writes an unsigned value.
+         *
+         * @param value {@code >= 0;} the value
+         */
+        public void writeUleb(int value) {
+            out.writeUnsignedLeb128(value);
+        }
+
+        /**
+         * Writes a signed value.
+         *
+         * @param value the value
+         */
+        public void writeSleb(int value) {
+            out.writeSignedLeb128(value);
+        }
+
+        /**
+         * Writes the given instructions. The code addresses among them
+         * are written first, so that they can be referred to before
+         * they come up.
+         *
+         * @param insns {@code non-null;} the instructions
+         */
+        public void writeInsns(ArrayList<DalvInsn> insns) {
+            for (DalvInsn insn : insns) {
+                if (insn instanceof CodeAddress) {
+                    addresses.put((CodeAddress) insn, addresses.size());
+                }
+            }
+
+            writeUleb(addresses.size());
+
+            for (DalvInsn insn : insns) {
+                if (insn instanceof CodeAddress) {
+                    writePosition(insn.getPosition());
+                }
+            }
+
+            writeUleb(insns.size());
+
+            for (DalvInsn insn : insns) {
+                writeInsn(insn);
+            }
+        }
+
+        /**
+         * Writes a single instruction.
+         *
+         * @param insn {@code non-null;} the instruction
+         */
+        private void writeInsn(DalvInsn insn) {
+            if (insn instanceof CodeAddress) {
+                writeUleb(INSN_CODE_ADDRESS);
+                writeAddress((CodeAddress) insn);
+            } else if (insn instanceof SimpleInsn) {
+                writeUleb(INSN_SIMPLE);
+                writeFixedSize(insn);
+            } else if (insn instanceof CstInsn) {
+                CstInsn cstInsn = (CstInsn) insn;
+
+                writeUleb(INSN_CST);
+                writeFixedSize(insn);
+                writeRef(cstInsn.getConstant());
+                writeUleb(cstInsn.hasIndex() ? cstInsn.getIndex() + 1 : 0);
+                writeUleb(cstInsn.hasClassIndex() ?
+                        cstInsn.getClassIndex() + 1 : 0);
+            } else if (insn instanceof TargetInsn) {
+                writeUleb(INSN_TARGET);
+                writeFixedSize(insn);
+                writeAddress(((TargetInsn) insn).getTarget());
+            } else if (insn instanceof SwitchData) {
+                SwitchData data = (SwitchData) insn;
+                IntList cases = data.getCases();
+                CodeAddress[] targets = data.getTargets();
+                int size = cases.size();
+
+                writeUleb(INSN_SWITCH_DATA);
+                writePosition(insn.getPosition());
+                writeAddress(data.getUser());
+                writeUleb(size);
+
+                for (int i = 0; i < size; i++) {
+                    writeSleb(cases.get(i));
+                    writeAddress(targets[i]);
+                }
+            } else if (insn instanceof ArrayData) {
+                ArrayData data = (ArrayData) insn;
+                ArrayList<Constant> values = data.getValues();
+
+                writeUleb(INSN_ARRAY_DATA);
+                writePosition(insn.getPosition());
+                writeAddress(data.getUser());
+                writeRef(data.getArrayType());
+                writeUleb(values.size());
+
+                for (Constant value : values) {
+                    writeRef(value);
+                }
+            } else if (insn instanceof HighRegisterPrefix) {
+                writeUleb(INSN_HIGH_REGISTER_PREFIX);
+                writePosition(insn.getPosition());
+                writeRegisters(insn.getRegisters());
+            } else if (insn instanceof OddSpacer) {
+                writeUleb(INSN_ODD_SPACER);
+                writePosition(insn.getPosition());
+            } else if (insn instanceof LocalStart) {
+                writeUleb(INSN_LOCAL_START);
+                writePosition(insn.getPosition());
+                writeSpec(((LocalStart) insn).getLocal());
+            } else if (insn instanceof LocalEnd) {
+                writeUleb(INSN_LOCAL_END);
+                writePosition(insn.getPosition());
+                writeSpec(((LocalEnd) insn).getLocal());
+            } else if (insn instanceof LocalSnapshot) {
+                RegisterSpecSet locals = ((LocalSnapshot) insn).getLocals();
+                int maxSize = locals.getMaxSize();
+
+                writeUleb(INSN_LOCAL_SNAPSHOT);
+                writePosition(insn.getPosition());
+                writeUleb(maxSize);
+                writeUleb(locals.size());
+
+                for (int i = 0; i < maxSize; i++) {
+                    RegisterSpec spec = locals.get(i);
+                    if (spec != null) {
+                        writeSpec(spec);
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException(
+                        "can't spill instruction: " + insn);
+            }
+        }
+
+        /**
+         * Writes the parts that all the fixed-size instructions have.
+         *
+         * @param insn {@code non-null;} the instruction
+         */
+        private void writeFixedSize(DalvInsn insn) {
+            writeUleb(insn.getOpcode().getOpcode() - DalvOps.MIN_VALUE);
+            writePosition(insn.getPosition());
+            writeRegisters(insn.getRegisters());
+        }
+
+        /**
+         * Writes a reference to a code address among the instructions.
+         * An address that isn't among them is never assigned, so it is
+         * written as one that is never assigned either.
+         *
+         * @param address {@code non-null;} the address
+         */
+        private void writeAddress(CodeAddress address) {
+            Integer index = addresses.get(address);
+
+            writeUleb((index == null) ? 0 : index + 1);
+        }
+
+        /**
+         * Writes a source position.
+         *
+         * @param position {@code non-null;} the position
+         */
+        private void writePosition(SourcePosition position) {
+            writeRef(position.getSourceFile());
+            writeSleb(position.getAddress());
+            writeSleb(position.getLine());
+        }
+
+        /**
+         * Writes a list of registers.
+         *
+         * @param registers {@code non-null;} the registers
+         */
+        private void writeRegisters(RegisterSpecList registers) {
+            int size = registers.size();
+
+            writeUleb(size);
+
+            for (int i = 0; i < size; i++) {
+                writeSpec(registers.get(i));
+            }
+        }
+
+        /**
+         * Writes a register.
+         *
+         * @param spec {@code non-null;} the register
+         */
+        private void writeSpec(RegisterSpec spec) {
+            writeUleb(spec.getReg());
+            writeRef(spec.getTypeBearer());
+            writeRef(spec.getLocalItem());
+        }
+
+        /**
+         * Writes a reference to a constant, type or local variable name.
+         * Literals are written in place, since there are many more of
+         * them than of the rest.
+         *
+         * @param obj {@code null-ok;} the object
+         */
+        private void writeRef(Object obj) {
+            if (obj == null) {
+                writeUleb(REF_NULL);
+            } else if (obj instanceof CstInteger) {
+                writeLiteral(LITERAL_INT, (CstLiteralBits) obj);
+            } else if (obj instanceof CstLong) {
+                writeLiteral(LITERAL_LONG, (CstLiteralBits) obj);
+            } else if (obj instanceof CstFloat) {
+                writeLiteral(LITERAL_FLOAT, (CstLiteralBits) obj);
+            } else if (obj instanceof CstDouble) {
+                writeLiteral(LITERAL_DOUBLE, (CstLiteralBits) obj);
+            } else if (obj instanceof CstBoolean) {
+                writeLiteral(LITERAL_BOOLEAN, (CstLiteralBits) obj);
+            } else if (obj instanceof CstByte) {
+                writeLiteral(LITERAL_BYTE, (CstLiteralBits) obj);
+            } else if (obj instanceof CstShort) {
+                writeLiteral(LITERAL_SHORT, (CstLiteralBits) obj);
+            } else if (obj instanceof CstChar) {
+                writeLiteral(LITERAL_CHAR, (CstLiteralBits) obj);
+            } else {
+                writeUleb(indexOf(obj) + REF_FIRST_OBJECT);
+            }
+        }
+
+        /**
+         * Writes a literal in place.
+         *
+         * @param tag the kind of literal
+         * @param literal {@code non-null;} the literal
+         */
+        private void writeLiteral(int tag, CstLiteralBits literal) {
+            writeUleb(REF_LITERAL);
+            writeUleb(tag);
+
+            if ((tag == LITERAL_LONG) || (tag == LITERAL_DOUBLE)) {
+                out.writeLong(literal.getLongBits());
+            } else {
+                writeSleb(literal.getIntBits());
+            }
+        }
+
+        /**
+         * Writes the catches of not-yet-finished code.
+         *
+         * @param catches {@code non-null;} the catches
+         */
+        public void writeCatches(AddressCatchBuilder catches) {
+            Type[] catchTypes = catches.getCatchTypeArray();
+            ArrayList<AddressCatchBuilder.Thrower> throwers =
+                catches.getThrowers();
+
+            writeUleb(catchTypes.length);
+
+            for (Type type : catchTypes) {
+                writeRef(type);
+            }
+
+            writeUleb(throwers.size());
+
+            for (AddressCatchBuilder.Thrower thrower : throwers) {
+                CstType[] types = thrower.getTypes();
+                CodeAddress[] handlers = thrower.getHandlers();
+
+                writeAddress(thrower.getLast());
+                writeAddress(thrower.getEnd());
+                writeUleb(types.length);
+
+                for (int i = 0; i < types.length; i++) {
+                    writeRef(types[i]);
+                    writeAddress(handlers[i]);
+                }
+            }
+        }
+
+        /**
+         * Writes the catch table of finished code.
+         *
+         * @param catches {@code non-null;} the catch table
+         */
+        public void writeCatchTable(CatchTable catches) {
+            int size = catches.size();
+
+            writeUleb(size);
+
+            for (int i = 0; i < size; i++) {
+                CatchTable.Entry entry = catches.get(i);
+                CatchHandlerList handlers = entry.getHandlers();
+                int handlersSize = handlers.size();
+
+                writeUleb(entry.getStart());
+                writeUleb(entry.getEnd());
+                writeUleb(handlersSize);
+
+                for (int j = 0; j < handlersSize; j++) {
+                    CatchHandlerList.Entry handler = handlers.get(j);
+                    writeRef(handler.getExceptionType());
+                    writeUleb(handler.getHandler());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reader of the compact form of one method's code.
+     */
+    private final class Decoder {
+        /** {@code non-null;} the bytes to read */
+        private final byte[] bytes;
+
+        /** {@code >= 0;} where to read next */
+        private int cursor;
+
+        /**
+         * {@code null-ok;} the code addresses among the instructions,
+         * once they have been read
+         */
+        private CodeAddress[] addresses;
+
+        /**
+         * Constructs an instance, reading the bytes from the file.
+         *
+         * @param location {@code non-null;} where the code was spilled to
+         */
+        public Decoder(Location location) {
+            this.bytes = file.read(location.offset, location.length);
+            this.cursor = 0;
+            this.addresses = null;
+
+            synchronized (CodeSpill.this) {
+                readCount++;
+            }
+        }
+
+        /**
+         * Reads an unsigned value.
+         *
+         * @return {@code >= 0;} the value
+         */
+        public int readUleb() {
+            int result = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                b = bytes[cursor++] & 0xff;
+                result |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return result;
+        }
+
+        /**
+         * Reads a signed value.
+         *
+         * @return the value
+         */
+        public int readSleb() {
+            int result = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                b = bytes[cursor++] & 0xff;
+                result |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if ((shift < 32) && ((b & 0x40) != 0)) {
+                // Extend the sign.
+                result |= -1 << shift;
+            }
+
+            return result;
+        }
+
+        /**
+         * Reads a {@code long} value, written least significant byte
+         * first.
+         *
+         * @return the value
+         */
+        private long readLong() {
+            long result = 0;
+
+            for (int i = 0; i < 8; i++) {
+                result |= (bytes[cursor++] & 0xffL) << (i * 8);
+            }
+
+            return result;
+        }
+
+        /**
+         * Reads instructions, as written by {@link Encoder#writeInsns}.
+         *
+         * @return {@code non-null;} the instructions
+         */
+        public ArrayList<DalvInsn> readInsns() {
+            int addressCount = readUleb();
+
+            addresses = new CodeAddress[addressCount];
+
+            for (int i = 0; i < addressCount; i++) {
+                addresses[i] = new CodeAddress(readPosition());
+            }
+
+            int size = readUleb();
+            ArrayList<DalvInsn> result = new ArrayList<DalvInsn>(size);
+
+            for (int i = 0; i < size; i++) {
+                result.add(readInsn());
+            }
+
+            return result;
+        }
+
+        /**
+         * Reads a single instruction.
+         *
+         * @return {@code non-null;} the instruction
+         */
+        private DalvInsn readInsn() {
+            int tag = readUleb();
+
+            switch (tag) {
+                case INSN_CODE_ADDRESS: {
+                    return readAddress();
+                }
+                case INSN_SIMPLE: {
+                    Dop opcode = readOpcode();
+                    SourcePosition position = readPosition();
+                    return new SimpleInsn(opcode, position, readRegisters());
+                }
+                case INSN_CST: {
+                    Dop opcode = readOpcode();
+                    SourcePosition position = readPosition();
+                    RegisterSpecList registers = readRegisters();
+                    CstInsn result = new CstInsn(opcode, position,
+                            registers, (Constant) readRef());
+                    int index = readUleb();
+                    int classIndex = readUleb();
+
+                    if (index != 0) {
+                        result.setIndex(index - 1);
+                    }
+
+                    if (classIndex != 0) {
+                        result.setClassIndex(classIndex - 1);
+                    }
+
+                    return result;
+                }
+                case INSN_TARGET: {
+                    Dop opcode = readOpcode();
+                    SourcePosition position = readPosition();
+                    RegisterSpecList registers = readRegisters();
+                    return new TargetInsn(opcode, position, registers,
+                            readAddress());
+                }
+                case INSN_SWITCH_DATA: {
+                    SourcePosition position = readPosition();
+                    CodeAddress user = readAddress();
+                    int size = readUleb();
+                    IntList cases = new IntList(size);
+                    CodeAddress[] targets = new CodeAddress[size];
+
+                    for (int i = 0; i < size; i++) {
+                        cases.add(readSleb());
+                        targets[i] = readAddress();
+                    }
+
+                    cases.setImmutable();
+                    return new SwitchData(position, user, cases, targets);
+                }
+                case INSN_ARRAY_DATA: {
+                    SourcePosition position = readPosition();
+                    CodeAddress user = readAddress();
+
+                    /*
+                     * ArrayData tells the element width by which of the
+                     * CstType constants the array type is, so get that
+                     * one rather than an equal one.
+                     */
+                    CstType arrayType =
+                        CstType.intern(((CstType) readRef()).getClassType());
+                    int size = readUleb();
+                    ArrayList<Constant> values = new ArrayList<Constant>(size);
+
+                    for (int i = 0; i < size; i++) {
+                        values.add((Constant) readRef());
+                    }
+
+                    return new ArrayData(position, user, values, arrayType);
+                }
+                case INSN_HIGH_REGISTER_PREFIX: {
+                    SourcePosition position = readPosition();
+                    return new HighRegisterPrefix(position, readRegisters());
+                }
+                case INSN_ODD_SPACER: {
+                    return new OddSpacer(readPosition());
+                }
+                case INSN_LOCAL_START: {
+                    SourcePosition position = readPosition();
+                    return new LocalStart(position, readSpec());
+                }
+                case INSN_LOCAL_END: {
+                    SourcePosition position = readPosition();
+                    return new LocalEnd(position, readSpec());
+                }
+                case INSN_LOCAL_SNAPSHOT: {
+                    SourcePosition position = readPosition();
+                    RegisterSpecSet locals = new RegisterSpecSet(readUleb());
+                    int size = readUleb();
+
+                    for (int i = 0; i < size; i++) {
+                        locals.put(readSpec());
+                    }
+
+                    locals.setImmutable();
+                    return new LocalSnapshot(position, locals);
+                }
+            }
+
+            throw new RuntimeException("shouldn't happen: bogus tag " + tag);
+        }
+
+        /**
+         * Reads an opcode.
+         *
+         * @return {@code non-null;} the opcode
+         */
+        private Dop readOpcode() {
+            return Dops.get(readUleb() + DalvOps.MIN_VALUE);
+        }
+
+        /**
+         * Reads a reference to a code address among the instructions.
+         *
+         * @return {@code non-null;} the address
+         */
+        private CodeAddress readAddress() {
+            int index = readUleb();
+
+            if (index == 0) {
+                return new CodeAddress(SourcePosition.NO_INFO);
+            }
+
+            return addresses[index - 1];
+        }
+
+        /**
+         * Reads a source position.
+         *
+         * @return {@code non-null;} the position
+         */
+        private SourcePosition readPosition() {
+            CstUtf8 sourceFile = (CstUtf8) readRef();
+            int address = readSleb();
+            int line = readSleb();
+
+            if ((sourceFile == null) && (address == -1) && (line == -1)) {
+                return SourcePosition.NO_INFO;
+            }
+
+            return new SourcePosition(sourceFile, address, line);
+        }
+
+        /**
+         * Reads a list of registers.
+         *
+         * @return {@code non-null;} the registers
+         */
+        private RegisterSpecList readRegisters() {
+            int size = readUleb();
+
+            if (size == 0) {
+                return RegisterSpecList.EMPTY;
+            }
+
+            RegisterSpecList result = new RegisterSpecList(size);
+
+            for (int i = 0; i < size; i++) {
+                result.set(i, readSpec());
+            }
+
+            result.setImmutable();
+            return result;
+        }
+
+        /**
+         * Reads a register.
+         *
+         * @return {@code non-null;} the register
+         */
+        private RegisterSpec readSpec() {
+            int reg = readUleb();
+            TypeBearer type = (TypeBearer) readRef();
+            LocalItem local = (LocalItem) readRef();
+
+            return RegisterSpec.makeLocalOptional(reg, type, local);
+        }
+
+        /**
+         * Reads a reference to a constant, type or local variable name.
+         *
+         * @return {@code null-ok;} the object
+         */
+        private Object readRef() {
+            int ref = readUleb();
+
+            if (ref == REF_NULL) {
+                return null;
+            } else if (ref != REF_LITERAL) {
+                return getObject(ref - REF_FIRST_OBJECT);
+            }
+
+            int tag = readUleb();
+
+            switch (tag) {
+                case LITERAL_INT: return CstInteger.make(readSleb());
+                case LITERAL_LONG: return CstLong.make(readLong());
+                case LITERAL_FLOAT: return CstFloat.make(readSleb());
+                case LITERAL_DOUBLE: return CstDouble.make(readLong());
+                case LITERAL_BOOLEAN: return CstBoolean.make(readSleb());
+                case LITERAL_BYTE: return CstByte.make(readSleb());
+                case LITERAL_SHORT: return CstShort.make(readSleb());
+                case LITERAL_CHAR: return CstChar.make(readSleb());
+            }
+
+            throw new RuntimeException("shouldn't happen: bogus tag " + tag);
+        }
+
+        /**
+         * Reads the catches of not-yet-finished code. This must be
+         * called after the instructions are read.
+         *
+         * @return {@code non-null;} the catches
+         */
+        public AddressCatchBuilder readCatches() {
+            Type[] catchTypes = new Type[readUleb()];
+
+            for (int i = 0; i < catchTypes.length; i++) {
+                catchTypes[i] = (Type) readRef();
+            }
+
+            int size = readUleb();
+            ArrayList<AddressCatchBuilder.Thrower> throwers =
+                new ArrayList<AddressCatchBuilder.Thrower>(size);
+
+            for (int i = 0; i < size; i++) {
+                CodeAddress last = readAddress();
+                CodeAddress end = readAddress();
+                int typesSize = readUleb();
+                CstType[] types = new CstType[typesSize];
+                CodeAddress[] handlers = new CodeAddress[typesSize];
+
+                for (int j = 0; j < typesSize; j++) {
+                    types[j] = (CstType) readRef();
+                    handlers[j] = readAddress();
+                }
+
+                throwers.add(new AddressCatchBuilder.Thrower(last, end,
+                                types, handlers));
+            }
+
+            return new AddressCatchBuilder(catchTypes, throwers);
+        }
+
+        /**
+         * Reads the catch table of finished code.
+         *
+         * @return {@code non-null;} the catch table
+         */
+        public CatchTable readCatchTable() {
+            int size = readUleb();
+
+            if (size == 0) {
+                return CatchTable.EMPTY;
+            }
+
+            CatchTable result = new CatchTable(size);
+
+            for (int i = 0; i < size; i++) {
+                int start = readUleb();
+                int end = readUleb();
+                int handlersSize = readUleb();
+                CatchHandlerList handlers =
+                    new CatchHandlerList(handlersSize);
+
+                for (int j = 0; j < handlersSize; j++) {
+                    CstType type = (CstType) readRef();
+                    handlers.set(j, type, readUleb());
+                }
+
+                handlers.setImmutable();
+                result.set(i, new CatchTable.Entry(start, end, handlers));
+            }
+
+            result.setImmutable();
+            return result;
+        }
+    }
+}
@@ -68,6 +68,12 @@ public final class DalvCode {
      */
     private DalvInsnList insns;
 
+    /**
+     * {@code null-ok;} where the code is kept, if it has been spilled;
+     * set in {@link #spill}
+     */
+    private SpilledCode spilled;
+
     /**
      * Constructs an instance.
      *
@@ -95,16 +101,71 @@ public final class DalvCode {
         this.positions = null;
         this.locals = null;
         this.insns = null;
+        this.spilled = null;
+    }
+
+    /**
+     * Moves the code off the heap, into the given spill. Only what is
+     * needed to lay out the file stays behind; the code is read back
+     * when it is finished, and spilled again in its finished form.
+     *
+     * @param spill {@code non-null;} where to keep the code
+     */
+    public void spill(CodeSpill spill) {
+        if ((spilled != null) || (insns != null)) {
+            throw new IllegalStateException("already spilled or finished");
+        }
+
+        spilled = new SpilledCode(spill, positionInfo, unprocessedInsns,
+                unprocessedCatches);
+
+        // Let them be gc'ed.
+        unprocessedInsns = null;
+        unprocessedCatches = null;
+    }
+
+    /**
+     * Reads back the spilled code, if it has been spilled and isn't
+     * already on the heap, so that it can be finished.
+     */
+    private void unspillIfNecessary() {
+        if ((spilled == null) || (unprocessedInsns != null)
+                || spilled.isFinished()) {
+            return;
+        }
+
+        CodeSpill.Unfinished code = spilled.getUnfinished();
+
+        unprocessedInsns = code.insns;
+        unprocessedCatches = code.catches;
+    }
+
+    /**
+     * Keeps the peephole optimizer from running over this code when it
+     * is finished. This is for code that is only finished to find out
+     * its size, and that isn't written out. It has no effect on code
+     * that has already been finished.
+     */
+    public void disablePeephole() {
+        if (unprocessedInsns != null) {
+            unprocessedInsns.disablePeephole();
+        }
+
+        if ((spilled != null) && !spilled.isFinished()) {
+            spilled.disablePeephole();
+        }
     }
 
     /**
      * Finish up processing of the method.
      */
     private void finishProcessingIfNecessary() {
-        if (insns != null) {
+        if ((insns != null) || ((spilled != null) && spilled.isFinished())) {
             return;
         }
 
+        unspillIfNecessary();
+
         insns = unprocessedInsns.finishProcessingAndGetList();
         positions = PositionList.make(insns, positionInfo);
         locals = LocalList.make(insns);
@@ -113,6 +174,26 @@ public final class DalvCode {
         // Let them be gc'ed.
         unprocessedInsns = null;
         unprocessedCatches = null;
+
+        if (spilled != null) {
+            spilled.finish(
+                    new CodeSpill.Finished(insns, positions, locals, catches));
+            insns = null;
+            positions = null;
+            locals = null;
+            catches = null;
+        }
+    }
+
+    /**
+     * Gets the finished code, finishing it first if necessary. This may
+     * only be called on spilled code.
+     *
+     * @return {@code non-null;} the finished code
+     */
+    private CodeSpill.Finished getFinished() {
+        finishProcessingIfNecessary();
+        return spilled.getFinished();
     }
 
     /**
@@ -123,6 +204,7 @@ public final class DalvCode {
      * @param callback {@code non-null;} callback object
      */
     public void assignIndices(AssignIndicesCallback callback) {
+        unspillIfNecessary();
         unprocessedInsns.assignIndices(callback);
     }
 
@@ -133,6 +215,11 @@ public final class DalvCode {
      * data to represent
      */
     public boolean hasPositions() {
+        if (unprocessedInsns == null && spilled != null) {
+            return (positionInfo != PositionList.NONE)
+                && spilled.hasAnyPositionInfo();
+        }
+
         return (positionInfo != PositionList.NONE)
             && unprocessedInsns.hasAnyPositionInfo();
     }
@@ -144,6 +231,10 @@ public final class DalvCode {
      * data to represent
      */
     public boolean hasLocals() {
+        if (unprocessedInsns == null && spilled != null) {
+            return spilled.hasAnyLocalInfo();
+        }
+
         return unprocessedInsns.hasAnyLocalInfo();
     }
 
@@ -154,6 +245,10 @@ public final class DalvCode {
      * @return whether this instance has any catches at all
      */
     public boolean hasAnyCatches() {
+        if (unprocessedCatches == null && spilled != null) {
+            return spilled.hasAnyCatches();
+        }
+
         return unprocessedCatches.hasAnyCatches();
     }
 
@@ -163,6 +258,10 @@ public final class DalvCode {
      * @return {@code non-null;} the set of catch types
      */
     public HashSet<Type> getCatchTypes() {
+        if (unprocessedCatches == null && spilled != null) {
+            return spilled.getCatchTypes();
+        }
+
         return unprocessedCatches.getCatchTypes();
     }
 
@@ -173,6 +272,14 @@ public final class DalvCode {
      * @return {@code non-null;} the set of constants
      */
     public HashSet<Constant> getInsnConstants() {
+        if (unprocessedInsns == null && spilled != null) {
+            return spilled.getInsnConstants();
+        }
+
+        if (unprocessedInsns == null) {
+            return OutputFinisher.getAllConstants(insns);
+        }
+
         return unprocessedInsns.getAllConstants();
     }
 
@@ -182,6 +289,10 @@ public final class DalvCode {
      * @return {@code non-null;} the instruction list
      */
     public DalvInsnList getInsns() {
+        if (spilled != null) {
+            return getFinished().insns;
+        }
+
         finishProcessingIfNecessary();
         return insns;
     }
@@ -192,6 +303,10 @@ public final class DalvCode {
      * @return {@code non-null;} the catch table
      */
     public CatchTable getCatches() {
+        if (spilled != null) {
+            return getFinished().catches;
+        }
+
         finishProcessingIfNecessary();
         return catches;
     }
@@ -202,6 +317,10 @@ public final class DalvCode {
      * @return {@code non-null;} the source positions list
      */
     public PositionList getPositions() {
+        if (spilled != null) {
+            return getFinished().positions;
+        }
+
         finishProcessingIfNecessary();
         return positions;
     }
@@ -212,6 +331,10 @@ public final class DalvCode {
      * @return {@code non-null;} the source positions list
      */
     public LocalList getLocals() {
+        if (spilled != null) {
+            return getFinished().locals;
+        }
+
         finishProcessingIfNecessary();
         return locals;
     }
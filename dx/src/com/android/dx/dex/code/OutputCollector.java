@@ -46,10 +46,13 @@ public final class OutputCollector {
      * @param suffixInitialCapacity {@code >= 0;} initial capacity of the output
      * suffix
      * @param regCount {@code >= 0;} register count for the method
+     * @param peephole whether to run the peephole optimizer over the
+     * finished output
      */
     public OutputCollector(int initialCapacity, int suffixInitialCapacity,
-            int regCount) {
-        this.finisher = new OutputFinisher(initialCapacity, regCount);
+            int regCount, boolean peephole) {
+        this.finisher =
+            new OutputFinisher(initialCapacity, regCount, peephole);
         this.suffix = new ArrayList<DalvInsn>(suffixInitialCapacity);
     }
 
@@ -26,6 +26,7 @@ import com.android.dx.rop.cst.CstMemberRef;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
+import com.android.dx.util.IntList;
 
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -51,6 +52,9 @@ public final class OutputFinisher {
     /** whether any instruction has local variable info */
     private boolean hasAnyLocalInfo;
 
+    /** whether to run the peephole optimizer over the finished list */
+    private boolean peephole;
+
     /**
      * {@code >= 0;} the count of reserved registers (low-numbered
      * registers used when expanding instructions that can't be
@@ -65,13 +69,52 @@ public final class OutputFinisher {
      * @param regCount {@code >= 0;} register count for the method
      * @param initialCapacity {@code >= 0;} initial capacity of the instructions
      * list
+     * @param peephole whether to run {@link PeepholeOptimizer} over the
+     * instructions once their registers and formats are final
      */
-    public OutputFinisher(int initialCapacity, int regCount) {
+    public OutputFinisher(int initialCapacity, int regCount,
+            boolean peephole) {
         this.unreservedRegCount = regCount;
         this.insns = new ArrayList<DalvInsn>(initialCapacity);
         this.reservedCount = -1;
         this.hasAnyPositionInfo = false;
         this.hasAnyLocalInfo = false;
+        this.peephole = peephole;
+    }
+
+    /**
+     * @return true if the peephole optimizer runs over the finished list
+     */
+    public boolean getPeephole() {
+        return peephole;
+    }
+
+    /**
+     * Keeps the peephole optimizer from running over the finished list.
+     * This is for code that is only finished to find out its size, and
+     * that isn't written out.
+     */
+    public void disablePeephole() {
+        peephole = false;
+    }
+
+    /**
+     * Gets the register count for the method, not including any reserved
+     * registers.
+     *
+     * @return {@code >= 0;} the register count
+     */
+    /*package*/ int getUnreservedRegCount() {
+        return unreservedRegCount;
+    }
+
+    /**
+     * Gets the instructions added to this instance so far.
+     *
+     * @return {@code non-null;} the instructions
+     */
+    /*package*/ ArrayList<DalvInsn> getInsns() {
+        return insns;
     }
 
     /**
@@ -150,6 +193,24 @@ public final class OutputFinisher {
         return result;
     }
 
+    /**
+     * Returns the set of all constants referred to by the given list of
+     * already-finished instructions.
+     *
+     * @param insns {@code non-null;} the instructions
+     * @return {@code non-null;} the set of constants
+     */
+    public static HashSet<Constant> getAllConstants(DalvInsnList insns) {
+        HashSet<Constant> result = new HashSet<Constant>(20);
+        int sz = insns.size();
+
+        for (int i = 0; i < sz; i++) {
+            addConstants(result, insns.get(i));
+        }
+
+        return result;
+    }
+
     /**
      * Helper for {@link #getAllConstants} which adds all the info for
      * a single instruction.
@@ -328,6 +389,7 @@ public final class OutputFinisher {
      *   <li>optionally renumbering registers (to make room as needed for
      *   expanded instructions)</li>
      *   <li>picking a final opcode for each instruction</li>
+     *   <li>optionally running the peephole optimizer</li>
      *   <li>rewriting instructions, because of register number,
      *   constant pool index, or branch target size issues</li>
      *   <li>assigning final addresses</li>
@@ -348,6 +410,11 @@ public final class OutputFinisher {
         InsnFormat[] formats = makeFormatsArray();
         reserveRegisters(formats);
         massageInstructions(formats);
+
+        if (peephole) {
+            insns = PeepholeOptimizer.process(insns);
+        }
+
         assignAddressesAndFixBranches();
 
         return DalvInsnList.makeImmutable(insns,
@@ -383,74 +450,100 @@ public final class OutputFinisher {
      */
     private void reserveRegisters(InsnFormat[] formats) {
         int oldReservedCount = (reservedCount < 0) ? 0 : reservedCount;
+        int size = insns.size();
 
         /*
-         * Call calculateReservedCount() and then perform register
-         * reservation, repeatedly until no new reservations happen.
+         * The first pass looks at every instruction. After that, only
+         * the instructions that have registers and still fit a simple
+         * format can be affected by reserving more registers, so
+         * only those are looked at again.
+         */
+        IntList candidates = new IntList(size);
+
+        for (int i = 0; i < size; i++) {
+            candidates.add(i);
+        }
+
+        /*
+         * Call calculateReservedCount() repeatedly until no new
+         * reservations happen, checking the instructions as they
+         * would be with the registers reserved so far.
          */
         for (;;) {
-            int newReservedCount = calculateReservedCount(formats);
+            int newReservedCount =
+                calculateReservedCount(formats, candidates, oldReservedCount);
             if (oldReservedCount >= newReservedCount) {
                 break;
             }
 
-            int reservedDifference = newReservedCount - oldReservedCount;
-            int size = insns.size();
+            oldReservedCount = newReservedCount;
+        }
 
-            for (int i = 0; i < size; i++) {
+        reservedCount = oldReservedCount;
+
+        if (reservedCount == 0) {
+            return;
+        }
+
+        // Renumber the registers, all in one go.
+        for (int i = 0; i < size; i++) {
+            /*
+             * CodeAddress instance identity is used to link
+             * TargetInsns to their targets, so it is
+             * inappropriate to make replacements, and they don't
+             * have registers in any case. Hence, the instanceof
+             * test below.
+             */
+            DalvInsn insn = insns.get(i);
+            if (!(insn instanceof CodeAddress)) {
                 /*
-                 * CodeAddress instance identity is used to link
-                 * TargetInsns to their targets, so it is
-                 * inappropriate to make replacements, and they don't
-                 * have registers in any case. Hence, the instanceof
-                 * test below.
+                 * No need to call this.set() since the format and
+                 * other info are the same.
                  */
-                DalvInsn insn = insns.get(i);
-                if (!(insn instanceof CodeAddress)) {
-                    /*
-                     * No need to call this.set() since the format and
-                     * other info are the same.
-                     */
-                    insns.set(i, insn.withRegisterOffset(reservedDifference));
-                }
+                insns.set(i, insn.withRegisterOffset(reservedCount));
             }
-
-            oldReservedCount = newReservedCount;
         }
-
-        reservedCount = oldReservedCount;
     }
 
     /**
      * Helper for {@link #reserveRegisters}, which does one
-     * pass over the instructions, calculating the number of
+     * pass over the candidate instructions, calculating the number of
      * registers that need to be reserved. It also updates the
      * {@code formats} list to help avoid extra work in future
-     * register reservation passes.
+     * register reservation passes, and drops the instructions that
+     * can't be affected by future passes from {@code candidates}.
      *
      * @param formats {@code non-null;} array of per-instruction format selections
+     * @param candidates {@code non-null;} indices of the instructions to
+     * look at, in order
+     * @param offset {@code >= 0;} the number of registers reserved so far
      * @return {@code >= 0;} the count of reserved registers
      */
-    private int calculateReservedCount(InsnFormat[] formats) {
-        int size = insns.size();
+    private int calculateReservedCount(InsnFormat[] formats,
+            IntList candidates, int offset) {
+        int size = candidates.size();
+        int kept = 0;
 
         /*
          * Potential new value of reservedCount, which gets updated in the
-         * following loop. It starts out with the existing reservedCount
+         * following loop. It starts out with the existing count
          * and gets increased if it turns out that additional registers
          * need to be reserved.
          */
-        int newReservedCount = reservedCount;
+        int newReservedCount = offset;
 
-        for (int i = 0; i < size; i++) {
+        for (int j = 0; j < size; j++) {
+            int i = candidates.get(j);
             DalvInsn insn = insns.get(i);
-            InsnFormat originalFormat = formats[i];
-            InsnFormat newFormat = findFormatForInsn(insn, originalFormat);
+            boolean hasRegisters = (insn.getRegisters().size() != 0);
 
-            if (originalFormat == newFormat) {
-                continue;
+            if (hasRegisters && (offset != 0)) {
+                insn = insn.withRegisterOffset(offset);
             }
 
+            InsnFormat originalFormat = formats[i];
+            InsnFormat newFormat = findFormatForInsn(insn, originalFormat);
+
             if (newFormat == null) {
                 /*
                  * The instruction will need to be expanded, so reserve
@@ -460,11 +553,15 @@ public final class OutputFinisher {
                 if (reserve > newReservedCount) {
                     newReservedCount = reserve;
                 }
+            } else if (hasRegisters) {
+                candidates.set(kept, i);
+                kept++;
             }
 
             formats[i] = newFormat;
         }
 
+        candidates.shrink(kept);
         return newReservedCount;
     }
 
@@ -622,53 +719,143 @@ public final class OutputFinisher {
      * addresses to each instruction, possibly rewriting branches to
      * fix ones that wouldn't otherwise be able to reach their
      * targets.
+     *
+     * <p>Every branch is checked once. Since instructions only ever
+     * grow, after that a branch can only stop fitting if an
+     * instruction between it and its target grew, so only those
+     * branches are checked again, and addresses are only reassigned
+     * from the first instruction that changed.</p>
      */
     private void assignAddressesAndFixBranches() {
+        IntList branches = new IntList();
+        int size = insns.size();
+
+        for (int i = 0; i < size; i++) {
+            if (insns.get(i) instanceof TargetInsn) {
+                branches.add(i);
+            }
+        }
+
+        assignAddresses(0, new IntList());
+
+        IntList toCheck = branches;
+        IntList splits = new IntList();
+        ArrayList<DalvInsn> reversed = new ArrayList<DalvInsn>();
+
         for (;;) {
-            assignAddresses();
-            if (!fixBranches()) {
+            int firstFixed = fixBranches(toCheck, splits, reversed);
+            if (firstFixed < 0) {
                 break;
             }
+
+            if (splits.size() != 0) {
+                branches = splitBranches(branches, splits, reversed);
+                splits = new IntList();
+                reversed.clear();
+            }
+
+            IntList grown = new IntList();
+            assignAddresses(firstFixed, grown);
+            toCheck = findBranchesToCheck(branches, grown);
         }
     }
 
     /**
      * Helper for {@link #assignAddressesAndFixBranches}, which
-     * assigns an address to each instruction, in order.
+     * assigns an address to each instruction, in order, starting
+     * at the given one. The addresses of the instructions before it
+     * are taken to be right already.
+     *
+     * @param start {@code >= 0;} index of the first instruction to
+     * assign an address to
+     * @param grown {@code non-null;} where to add the new address of
+     * each instruction that is new or got bigger, in order
      */
-    private void assignAddresses() {
-        int address = 0;
+    private void assignAddresses(int start, IntList grown) {
+        int address = (start == 0) ? 0 : insns.get(start - 1).getNextAddress();
         int size = insns.size();
 
-        for (int i = 0; i < size; i++) {
+        for (int i = start; i < size; i++) {
             DalvInsn insn = insns.get(i);
+            int oldSize = insn.hasAddress() ? insn.codeSize() : -1;
+
             insn.setAddress(address);
-            address += insn.codeSize();
+
+            int newSize = insn.codeSize();
+            if (newSize > oldSize) {
+                grown.add(address);
+            }
+
+            address += newSize;
         }
     }
 
     /**
-     * Helper for {@link #assignAddressesAndFixBranches}, which checks
-     * the branch target size requirement of each branch instruction
-     * to make sure it fits. For instructions that don't fit, this
-     * rewrites them to use a {@code goto} of some sort. In the
-     * case of a conditional branch that doesn't fit, the sense of the
-     * test is reversed in order to branch around a {@code goto}
-     * to the original target.
+     * Helper for {@link #assignAddressesAndFixBranches}, which finds
+     * the branches that need to be checked again, which are the ones
+     * with an instruction that grew between them and their targets.
      *
-     * @return whether any branches had to be fixed
+     * @param branches {@code non-null;} indices of all the branches,
+     * in order
+     * @param grown {@code non-null;} addresses of the instructions that
+     * grew, in order
+     * @return {@code non-null;} indices of the branches to check, in order
      */
-    private boolean fixBranches() {
-        int size = insns.size();
-        boolean anyFixed = false;
+    private IntList findBranchesToCheck(IntList branches, IntList grown) {
+        int size = branches.size();
+        IntList result = new IntList();
+
+        grown.sort();
+
+        for (int j = 0; j < size; j++) {
+            int i = branches.get(j);
+            TargetInsn insn = (TargetInsn) insns.get(i);
+            int from = insn.getAddress();
+            int to = insn.getTargetAddress();
+            int low = Math.min(from, to);
+            int high = Math.max(from, to);
+            int at = grown.binarysearch(low);
+
+            if (at < 0) {
+                at = -at - 1;
+            }
 
-        for (int i = 0; i < size; i++) {
-            DalvInsn insn = insns.get(i);
-            if (!(insn instanceof TargetInsn)) {
-                // This loop only needs to inspect TargetInsns.
-                continue;
+            if ((at < grown.size()) && (grown.get(at) <= high)) {
+                result.add(i);
             }
+        }
+
+        return result;
+    }
 
+    /**
+     * Helper for {@link #assignAddressesAndFixBranches}, which checks
+     * the branch target size requirement of the given branch
+     * instructions to make sure they fit. For instructions that don't
+     * fit, this rewrites them to use a {@code goto} of some sort. In
+     * the case of a conditional branch that doesn't fit, the sense of
+     * the test is reversed in order to branch around a {@code goto}
+     * to the original target. The {@code goto} takes the conditional's
+     * place, and the reversed conditional is left for {@link
+     * #splitBranches} to insert, so that the list is only rebuilt once.
+     *
+     * @param toCheck {@code non-null;} indices of the branches to
+     * check, in order
+     * @param splits {@code non-null;} where to add the indices of the
+     * conditionals that got reversed
+     * @param reversed {@code non-null;} where to add the reversed
+     * conditionals, in the same order
+     * @return the index of the first branch that had to be fixed, or
+     * {@code -1} if none did
+     */
+    private int fixBranches(IntList toCheck, IntList splits,
+            ArrayList<DalvInsn> reversed) {
+        int size = toCheck.size();
+        int firstFixed = -1;
+
+        for (int j = 0; j < size; j++) {
+            int i = toCheck.get(j);
+            DalvInsn insn = insns.get(i);
             Dop dop = insn.getOpcode();
             InsnFormat format = dop.getFormat();
             TargetInsn target = (TargetInsn) insn;
@@ -702,12 +889,6 @@ public final class OutputFinisher {
                  * Hence, it is always safe to get the next element
                  * after a TargetInsn and cast it to CodeAddress, as
                  * is happening a few lines down.
-                 *
-                 * Also note: Size gets incremented by one here, as we
-                 * have -- in the net -- added one additional element
-                 * to the list, so we increment i to match. The added
-                 * and changed elements will be inspected by a repeat
-                 * call to this method after this invocation returns.
                  */
                 CodeAddress newTarget;
                 try {
@@ -724,14 +905,59 @@ public final class OutputFinisher {
                     new TargetInsn(Dops.GOTO, target.getPosition(),
                             RegisterSpecList.EMPTY, target.getTarget());
                 insns.set(i, gotoInsn);
-                insns.add(i, target.withNewTargetAndReversed(newTarget));
-                size++;
-                i++;
+                splits.add(i);
+                reversed.add(target.withNewTargetAndReversed(newTarget));
+            }
+
+            if (firstFixed < 0) {
+                firstFixed = i;
+            }
+        }
+
+        return firstFixed;
+    }
+
+    /**
+     * Helper for {@link #assignAddressesAndFixBranches}, which inserts
+     * the conditionals reversed by {@link #fixBranches} ahead of the
+     * {@code goto}s that took their places, rebuilding the list once.
+     *
+     * @param branches {@code non-null;} indices of all the branches,
+     * in order
+     * @param splits {@code non-null;} indices of the {@code goto}s to
+     * insert ahead of, in order
+     * @param reversed {@code non-null;} the conditionals to insert, in
+     * the same order
+     * @return {@code non-null;} indices of all the branches in the
+     * rebuilt list, in order
+     */
+    private IntList splitBranches(IntList branches, IntList splits,
+            ArrayList<DalvInsn> reversed) {
+        int size = insns.size();
+        int splitCount = splits.size();
+        ArrayList<DalvInsn> result =
+            new ArrayList<DalvInsn>(size + splitCount);
+        IntList newBranches = new IntList(branches.size() + splitCount);
+        int nextSplit = 0;
+        int nextBranch = 0;
+
+        for (int i = 0; i < size; i++) {
+            if ((nextSplit < splitCount) && (splits.get(nextSplit) == i)) {
+                newBranches.add(result.size());
+                result.add(reversed.get(nextSplit));
+                nextSplit++;
+            }
+
+            if ((nextBranch < branches.size()) &&
+                    (branches.get(nextBranch) == i)) {
+                newBranches.add(result.size());
+                nextBranch++;
             }
 
-            anyFixed = true;
+            result.add(insns.get(i));
         }
 
-        return anyFixed;
+        insns = result;
+        return newBranches;
     }
 }
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.code;
+
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Peephole optimizer over the final list of dex instructions, after
+ * register allocation and block layout have had their say. It runs
+ * once registers are final and formats have been picked, and before
+ * addresses are assigned, so the only insns whose format may need to
+ * change afterwards are retargeted branches, which {@link
+ * OutputFinisher} widens like any other.
+ *
+ * <p>Insns are only ever removed from within a straight-line run, or
+ * replaced in place, so the {@link CodeAddress}es that mark blocks,
+ * branch targets and catch ranges all stay where they were.</p>
+ */
+public final class PeepholeOptimizer {
+    /**
+     * The patterns this class looks for.
+     */
+    public enum Pattern {
+        /** a {@code goto} to a return, replaced by a copy of the return */
+        GOTO_TO_RETURN("goto to return"),
+
+        /** a branch to a {@code goto}, retargeted past it */
+        BRANCH_TO_GOTO("branch to goto"),
+
+        /** a branch to the next insn, removed */
+        BRANCH_TO_NEXT("branch to next insn"),
+
+        /** a move of a register to itself, or back where it came from */
+        REDUNDANT_MOVE("redundant move"),
+
+        /** a constant overwritten by the very next insn */
+        OVERWRITTEN_CONST("overwritten const");
+
+        /** {@code non-null;} human-oriented description */
+        private final String description;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param description {@code non-null;} human-oriented description
+         */
+        private Pattern(String description) {
+            this.description = description;
+        }
+
+        /**
+         * @return {@code non-null;} human-oriented description
+         */
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /** most {@code goto}s followed when looking for a branch's target */
+    private static final int MAX_CHAIN = 16;
+
+    /** running count of times each pattern was applied, by ordinal */
+    private static final int[] appliedCounts =
+        new int[Pattern.values().length];
+
+    /** running count of insns removed by each pattern, by ordinal */
+    private static final int[] removedInsns =
+        new int[Pattern.values().length];
+
+    /** running count of code units removed by each pattern, by ordinal */
+    private static final int[] removedUnits =
+        new int[Pattern.values().length];
+
+    /** {@code non-null;} the insns being processed */
+    private final ArrayList<DalvInsn> insns;
+
+    /** {@code non-null;} index of each code address in {@link #insns} */
+    private final IdentityHashMap<CodeAddress, Integer> addressIndices;
+
+    /**
+     * Processes a list of insns.
+     *
+     * @param insns {@code non-null;} the insns, with final registers and
+     * formats; branches may be modified in place
+     * @return {@code non-null;} the processed list
+     */
+    public static ArrayList<DalvInsn> process(ArrayList<DalvInsn> insns) {
+        return new PeepholeOptimizer(insns).run();
+    }
+
+    /**
+     * @param pattern {@code non-null;} the pattern
+     * @return {@code >= 0;} number of times the pattern was applied so far
+     */
+    public static int getAppliedCount(Pattern pattern) {
+        return appliedCounts[pattern.ordinal()];
+    }
+
+    /**
+     * @param pattern {@code non-null;} the pattern
+     * @return {@code >= 0;} number of insns the pattern removed so far
+     */
+    public static int getRemovedInsnCount(Pattern pattern) {
+        return removedInsns[pattern.ordinal()];
+    }
+
+    /**
+     * @param pattern {@code non-null;} the pattern
+     * @return {@code >= 0;} number of code units the pattern removed
+     * so far
+     */
+    public static int getRemovedCodeUnits(Pattern pattern) {
+        return removedUnits[pattern.ordinal()];
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param insns {@code non-null;} the insns to process
+     */
+    private PeepholeOptimizer(ArrayList<DalvInsn> insns) {
+        this.insns = insns;
+        this.addressIndices = new IdentityHashMap<CodeAddress, Integer>();
+
+        int size = insns.size();
+
+        for (int i = 0; i < size; i++) {
+            DalvInsn insn = insns.get(i);
+
+            if (insn instanceof CodeAddress) {
+                addressIndices.put((CodeAddress) insn, i);
+            }
+        }
+    }
+
+    /**
+     * Applies the patterns: first those that rewrite branches in place,
+     * then those that remove insns.
+     *
+     * @return {@code non-null;} the processed list
+     */
+    private ArrayList<DalvInsn> run() {
+        int size = insns.size();
+
+        for (int i = 0; i < size; i++) {
+            DalvInsn insn = insns.get(i);
+
+            if (isBranch(insn)) {
+                insns.set(i, rewriteBranch((TargetInsn) insn));
+            }
+        }
+
+        ArrayList<DalvInsn> result = new ArrayList<DalvInsn>(size);
+
+        for (int i = 0; i < size; i++) {
+            DalvInsn insn = insns.get(i);
+            Pattern pattern = findRemovable(i);
+
+            if (pattern == null) {
+                result.add(insn);
+            } else {
+                record(pattern, 1, insn.codeSize());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Retargets a branch past any {@code goto}s at its target, then, if
+     * it is itself a {@code goto} and now lands on a return, replaces it
+     * with a copy of the return.
+     *
+     * @param insn {@code non-null;} the branch
+     * @return {@code non-null;} the insn to use in its place
+     */
+    private DalvInsn rewriteBranch(TargetInsn insn) {
+        CodeAddress target = insn.getTarget();
+
+        for (int i = 0; i < MAX_CHAIN; i++) {
+            DalvInsn next = firstInsnAt(target);
+
+            if (!(next instanceof TargetInsn)
+                    || next.getOpcode().getFamily() != DalvOps.GOTO
+                    || ((TargetInsn) next).getTarget() == target) {
+                break;
+            }
+
+            target = ((TargetInsn) next).getTarget();
+        }
+
+        if (target != insn.getTarget()) {
+            insn = insn.withNewTarget(target);
+            record(Pattern.BRANCH_TO_GOTO, 0, 0);
+        }
+
+        if (insn.getOpcode().getFamily() == DalvOps.GOTO) {
+            DalvInsn next = firstInsnAt(target);
+
+            if (next instanceof SimpleInsn && isReturn(next)) {
+                record(Pattern.GOTO_TO_RETURN, 0,
+                        insn.codeSize() - next.codeSize());
+
+                /*
+                 * Keep the position of the goto, so that the copy
+                 * doesn't add to the line number table.
+                 */
+                return new SimpleInsn(next.getOpcode(), insn.getPosition(),
+                        next.getRegisters());
+            }
+        }
+
+        return insn;
+    }
+
+    /**
+     * Figures out whether the insn at the given index can be removed.
+     *
+     * @param index {@code >= 0;} the insn's index
+     * @return {@code null-ok;} the pattern that removes it, or
+     * {@code null} if it stays
+     */
+    private Pattern findRemovable(int index) {
+        DalvInsn insn = insns.get(index);
+        int family = insn.getOpcode().getFamily();
+
+        if (isBranch(insn)) {
+            CodeAddress address = ((TargetInsn) insn).getTarget();
+            Integer target = addressIndices.get(address);
+
+            if (target != null && target > index
+                    && isZeroSizeRange(index + 1, target)) {
+                return Pattern.BRANCH_TO_NEXT;
+            }
+        } else if (isMove(family)) {
+            RegisterSpecList regs = insn.getRegisters();
+
+            if (regs.get(0).getReg() == regs.get(1).getReg()) {
+                return Pattern.REDUNDANT_MOVE;
+            }
+
+            if (index > 0 && isMoveBack(insns.get(index - 1), insn)) {
+                return Pattern.REDUNDANT_MOVE;
+            }
+        } else if (family == DalvOps.CONST || family == DalvOps.CONST_WIDE) {
+            if (index + 1 < insns.size()
+                    && overwrites(insns.get(index + 1),
+                            insn.getRegisters().get(0))) {
+                return Pattern.OVERWRITTEN_CONST;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns whether a move undoes the move just before it, as in
+     * {@code move v1, v2} followed by {@code move v2, v1}.
+     *
+     * @param prev {@code non-null;} the insn before the move
+     * @param insn {@code non-null;} the move
+     * @return true if {@code insn} has no effect
+     */
+    private static boolean isMoveBack(DalvInsn prev, DalvInsn insn) {
+        if (prev.getOpcode().getFamily() != insn.getOpcode().getFamily()) {
+            return false;
+        }
+
+        RegisterSpecList prevRegs = prev.getRegisters();
+        RegisterSpecList regs = insn.getRegisters();
+        int a = prevRegs.get(0).getReg();
+        int b = prevRegs.get(1).getReg();
+
+        if (regs.get(0).getReg() != b || regs.get(1).getReg() != a) {
+            return false;
+        }
+
+        /*
+         * Overlapping wide moves shift a value by one register, so the
+         * second one isn't undoing anything.
+         */
+        return Math.abs(a - b) >= regs.get(0).getCategory();
+    }
+
+    /**
+     * Returns whether an insn definitely overwrites a register without
+     * reading it first. Only non-throwing constant loads and moves are
+     * considered, so that an exception handler can't see the old value.
+     *
+     * @param insn {@code non-null;} the insn
+     * @param spec {@code non-null;} the register
+     * @return true if {@code insn} overwrites all of {@code spec}
+     */
+    private static boolean overwrites(DalvInsn insn, RegisterSpec spec) {
+        int family = insn.getOpcode().getFamily();
+
+        if (family != DalvOps.CONST && family != DalvOps.CONST_WIDE
+                && !isMove(family)) {
+            return false;
+        }
+
+        RegisterSpecList regs = insn.getRegisters();
+        RegisterSpec result = regs.get(0);
+
+        if (result.getReg() != spec.getReg()
+                || result.getCategory() != spec.getCategory()) {
+            return false;
+        }
+
+        int sz = regs.size();
+
+        for (int i = 1; i < sz; i++) {
+            RegisterSpec source = regs.get(i);
+
+            if (source.getReg() < spec.getNextReg()
+                    && spec.getReg() < source.getNextReg()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the first insn that emits code at or after a code address.
+     *
+     * @param address {@code non-null;} the address
+     * @return {@code null-ok;} the insn, or {@code null} if there is none
+     */
+    private DalvInsn firstInsnAt(CodeAddress address) {
+        Integer index = addressIndices.get(address);
+
+        if (index == null) {
+            return null;
+        }
+
+        int size = insns.size();
+
+        for (int i = index; i < size; i++) {
+            DalvInsn insn = insns.get(i);
+
+            if (!(insn instanceof ZeroSizeInsn)) {
+                return insn;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns whether the insns in a range all emit no code.
+     *
+     * @param start {@code >= 0;} first index
+     * @param end {@code >= start;} index just past the range
+     * @return true if all the insns are zero-size
+     */
+    private boolean isZeroSizeRange(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!(insns.get(i) instanceof ZeroSizeInsn)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns whether an insn is a {@code goto} or {@code if-*}.
+     * Switches and {@code fill-array-data} are also {@link TargetInsn}s,
+     * but target their data rather than code.
+     *
+     * @param insn {@code non-null;} the insn
+     * @return true if it's a branch
+     */
+    private static boolean isBranch(DalvInsn insn) {
+        if (!(insn instanceof TargetInsn)) {
+            return false;
+        }
+
+        int family = insn.getOpcode().getFamily();
+
+        return family == DalvOps.GOTO
+                || (family >= DalvOps.IF_EQ && family <= DalvOps.IF_LEZ);
+    }
+
+    /**
+     * Returns whether an opcode family is one of the register moves.
+     *
+     * @param family the family
+     * @return true if it's a move
+     */
+    private static boolean isMove(int family) {
+        return family == DalvOps.MOVE || family == DalvOps.MOVE_WIDE
+                || family == DalvOps.MOVE_OBJECT;
+    }
+
+    /**
+     * Returns whether an insn is one of the returns.
+     *
+     * @param insn {@code non-null;} the insn
+     * @return true if it's a return
+     */
+    private static boolean isReturn(DalvInsn insn) {
+        int family = insn.getOpcode().getFamily();
+
+        return family == DalvOps.RETURN_VOID || family == DalvOps.RETURN
+                || family == DalvOps.RETURN_WIDE
+                || family == DalvOps.RETURN_OBJECT;
+    }
+
+    /**
+     * Records an application of a pattern.
+     *
+     * @param pattern {@code non-null;} the pattern
+     * @param insnCount {@code >= 0;} number of insns removed
+     * @param units {@code >= 0;} number of code units removed
+     */
+    private static synchronized void record(Pattern pattern, int insnCount,
+            int units) {
+        int ordinal = pattern.ordinal();
+
+        appliedCounts[ordinal]++;
+        removedInsns[ordinal] += insnCount;
+        removedUnits[ordinal] += units;
+    }
+}
@@ -46,6 +46,19 @@ import java.util.ArrayList;
  * #translate} method is the thing to call on this class.
  */
 public final class RopTranslator {
+    /**
+     * whether blocks are laid out from estimated frequencies rather than
+     * by following primary successors, for translations on the current
+     * thread
+     */
+    private static final ThreadLocal<Boolean> frequencyLayout =
+        new ThreadLocal<Boolean>() {
+            @Override
+            protected Boolean initialValue() {
+                return false;
+            }
+        };
+
     /** {@code non-null;} method to translate */
     private final RopMethod method;
 
@@ -82,6 +95,32 @@ public final class RopTranslator {
      */
     private boolean paramsAreInOrder;
 
+    /**
+     * Sets whether translations on the current thread lay out blocks
+     * from estimated frequencies, using {@link BlockLayout}, rather than
+     * by following primary successors.
+     *
+     * @param enable true to lay out blocks from estimated frequencies
+     */
+    public static void setFrequencyLayout(boolean enable) {
+        frequencyLayout.set(enable);
+    }
+
+    /**
+     * @return true if blocks are laid out from estimated frequencies
+     */
+    public static boolean getFrequencyLayout() {
+        return frequencyLayout.get();
+    }
+
+    /**
+     * Puts the setting for the current thread back to its default, so
+     * that nothing is left behind on a thread that is reused.
+     */
+    public static void clearSettings() {
+        frequencyLayout.remove();
+    }
+
     /**
      * Translates a {@link RopMethod}. This may modify the given
      * input.
@@ -92,13 +131,16 @@ public final class RopTranslator {
      * @param locals {@code null-ok;} local variable information to use
      * @param paramSize size, in register units, of all the parameters to
      * this method
+     * @param peephole whether to run the peephole optimizer over the
+     * code when it is finished
      * @return {@code non-null;} the translated version
      */
     public static DalvCode translate(RopMethod method, int positionInfo,
-                                     LocalVariableInfo locals, int paramSize) {
+                                     LocalVariableInfo locals, int paramSize,
+                                     boolean peephole) {
         RopTranslator translator =
             new RopTranslator(method, positionInfo, locals,
-                    paramSize);
+                    paramSize, peephole);
         return translator.translateAndGetResult();
     }
 
@@ -111,9 +153,12 @@ public final class RopTranslator {
      * @param locals {@code null-ok;} local variable information to use
      * @param paramSize size, in register units, of all the parameters to
      * this method
+     * @param peephole whether to run the peephole optimizer over the
+     * code when it is finished
      */
     private RopTranslator(RopMethod method, int positionInfo,
-                          LocalVariableInfo locals, int paramSize) {
+                          LocalVariableInfo locals, int paramSize,
+                          boolean peephole) {
         this.method = method;
         this.positionInfo = positionInfo;
         this.locals = locals;
@@ -150,7 +195,8 @@ public final class RopTranslator {
         this.regCount = blocks.getRegCount()
                 + (paramsAreInOrder ? 0 : this.paramSize);
 
-        this.output = new OutputCollector(maxInsns, bsz * 3, regCount);
+        this.output =
+            new OutputCollector(maxInsns, bsz * 3, regCount, peephole);
 
         if (locals != null) {
             this.translationVisitor =
@@ -299,9 +345,24 @@ public final class RopTranslator {
     }
 
     /**
-     * Picks an order for the blocks by doing "trace" analysis.
+     * Picks an order for the blocks, either by doing "trace" analysis or,
+     * if enabled, from estimated block frequencies.
      */
     private void pickOrder() {
+        if (frequencyLayout.get()) {
+            order = new BlockLayout(method).pickOrder();
+        } else {
+            order = pickTraceOrder(method);
+        }
+    }
+
+    /**
+     * Picks an order for the blocks by doing "trace" analysis.
+     *
+     * @param method {@code non-null;} method to process
+     * @return {@code non-null;} the block labels, in output order
+     */
+    public static int[] pickTraceOrder(RopMethod method) {
         BasicBlockList blocks = method.getBlocks();
         int sz = blocks.size();
         int maxLabel = blocks.getMaxLabel();
@@ -431,7 +492,7 @@ public final class RopTranslator {
             throw new RuntimeException("shouldn't happen");
         }
 
-        this.order = order;
+        return order;
     }
 
     /**
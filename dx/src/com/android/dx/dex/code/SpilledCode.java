@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.code;
+
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.type.Type;
+
+import java.lang.ref.SoftReference;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * What stays on the heap of a {@link DalvCode} that has been spilled to
+ * a {@link CodeSpill}: where its code is kept, and the few things about
+ * the code that are needed to lay out the file it is part of. Once the
+ * code is finished, it is spilled again in its finished form, which is
+ * also kept on the heap for as long as there is room for it.
+ */
+/*package*/ final class SpilledCode {
+    /** {@code non-null;} where the code is kept */
+    private final CodeSpill spill;
+
+    /**
+     * how much position info to preserve; one of the static
+     * constants in {@link PositionList}
+     */
+    private final int positionInfo;
+
+    /** whether to run the peephole optimizer when finishing the code */
+    private boolean peephole;
+
+    /** whether any instruction has position info */
+    private final boolean hasAnyPositionInfo;
+
+    /** whether any instruction has local variable info */
+    private final boolean hasAnyLocalInfo;
+
+    /** {@code non-null;} the types caught anywhere in the code */
+    private final Type[] catchTypes;
+
+    /**
+     * {@code null-ok;} the constants the instructions refer to, until
+     * the code is finished
+     */
+    private Constant[] insnConstants;
+
+    /** {@code non-null;} where the code is in the spill */
+    private CodeSpill.Location location;
+
+    /**
+     * {@code null-ok;} the finished code, if it is finished and hasn't
+     * been collected since it was last used
+     */
+    private SoftReference<CodeSpill.Finished> finished;
+
+    /**
+     * Constructs an instance, spilling the given code.
+     *
+     * @param spill {@code non-null;} where to keep the code
+     * @param positionInfo how much position info to preserve; one of the
+     * static constants in {@link PositionList}
+     * @param insns {@code non-null;} the instructions
+     * @param catches {@code non-null;} the catches
+     */
+    public SpilledCode(CodeSpill spill, int positionInfo,
+            OutputFinisher insns, CatchBuilder catches) {
+        AddressCatchBuilder addressCatches;
+
+        if (catches instanceof StdCatchBuilder) {
+            addressCatches = ((StdCatchBuilder) catches).withoutMethod();
+        } else if (catches instanceof AddressCatchBuilder) {
+            addressCatches = (AddressCatchBuilder) catches;
+        } else {
+            throw new UnsupportedOperationException(
+                    "can't spill catches: " + catches);
+        }
+
+        HashSet<Constant> constants = insns.getAllConstants();
+
+        this.spill = spill;
+        this.positionInfo = positionInfo;
+        this.peephole = insns.getPeephole();
+        this.hasAnyPositionInfo = insns.hasAnyPositionInfo();
+        this.hasAnyLocalInfo = insns.hasAnyLocalInfo();
+        this.catchTypes = addressCatches.getCatchTypeArray();
+        this.insnConstants = constants.toArray(new Constant[constants.size()]);
+        this.location = spill.spill(insns, addressCatches);
+        this.finished = null;
+    }
+
+    /**
+     * Returns whether any of the instructions come with position info.
+     *
+     * @return whether any instruction has position info
+     */
+    public boolean hasAnyPositionInfo() {
+        return hasAnyPositionInfo;
+    }
+
+    /**
+     * Returns whether any of the instructions come with local variable
+     * info.
+     *
+     * @return whether any instruction has local variable info
+     */
+    public boolean hasAnyLocalInfo() {
+        return hasAnyLocalInfo;
+    }
+
+    /**
+     * Gets whether the code has any catches at all.
+     *
+     * @return whether the code has any catches at all
+     */
+    public boolean hasAnyCatches() {
+        return catchTypes.length != 0;
+    }
+
+    /**
+     * Gets the set of catch types handled anywhere in the code, in the
+     * order the code had them before it was spilled.
+     *
+     * @return {@code non-null;} the set of catch types
+     */
+    public HashSet<Type> getCatchTypes() {
+        HashSet<Type> result = new LinkedHashSet<Type>(20);
+
+        for (Type type : catchTypes) {
+            result.add(type);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the set of constants the instructions refer to, in the order
+     * the code had them before it was spilled. Once the code is
+     * finished, they are those of the finished instructions.
+     *
+     * @return {@code non-null;} the set of constants
+     */
+    public HashSet<Constant> getInsnConstants() {
+        if (insnConstants == null) {
+            return OutputFinisher.getAllConstants(getFinished().insns);
+        }
+
+        HashSet<Constant> result = new LinkedHashSet<Constant>(20);
+
+        for (Constant cst : insnConstants) {
+            result.add(cst);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets whether the code has been finished.
+     *
+     * @return whether the code has been finished
+     */
+    public boolean isFinished() {
+        return insnConstants == null;
+    }
+
+    /**
+     * Reads back the not-yet-finished code.
+     *
+     * @return {@code non-null;} the code
+     */
+    public CodeSpill.Unfinished getUnfinished() {
+        if (isFinished()) {
+            throw new IllegalStateException("already finished");
+        }
+
+        return spill.readUnfinished(location, peephole);
+    }
+
+    /**
+     * Keeps the peephole optimizer from running over the code when it
+     * is read back to be finished.
+     */
+    public void disablePeephole() {
+        peephole = false;
+    }
+
+    /**
+     * Spills the code again, now that it is finished.
+     *
+     * @param code {@code non-null;} the finished code
+     */
+    public void finish(CodeSpill.Finished code) {
+        if (isFinished()) {
+            throw new IllegalStateException("already finished");
+        }
+
+        location = spill.spill(code.insns, code.catches);
+        insnConstants = null;
+        finished = new SoftReference<CodeSpill.Finished>(code);
+    }
+
+    /**
+     * Gets the finished code, reading it back if it isn't on the heap
+     * any longer.
+     *
+     * @return {@code non-null;} the code
+     */
+    public synchronized CodeSpill.Finished getFinished() {
+        if (!isFinished()) {
+            throw new IllegalStateException("not yet finished");
+        }
+
+        CodeSpill.Finished result = finished.get();
+
+        if (result == null) {
+            result = spill.readFinished(location, positionInfo);
+            finished = new SoftReference<CodeSpill.Finished>(result);
+        }
+
+        return result;
+    }
+}
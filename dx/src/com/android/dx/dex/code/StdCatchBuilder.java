@@ -32,8 +32,11 @@ import java.util.HashSet;
  * and associated data.
  */
 public final class StdCatchBuilder implements CatchBuilder {
-    /** the maximum range of a single catch handler, in code units */
-    private static final int MAX_CATCH_RANGE = 65535;
+    /** {@code non-null;} empty array of caught types */
+    private static final CstType[] NO_TYPES = new CstType[0];
+
+    /** {@code non-null;} empty array of handler addresses */
+    private static final CodeAddress[] NO_HANDLERS = new CodeAddress[0];
 
     /** {@code non-null;} method to build the list for */
     private final RopMethod method;
@@ -111,6 +114,21 @@ public final class StdCatchBuilder implements CatchBuilder {
         return result;
     }
 
+    /**
+     * Gets an equivalent builder that refers to the address objects of
+     * the blocks that can throw, rather than to the method itself, so
+     * that the method needn't be kept.
+     *
+     * @return {@code non-null;} the equivalent builder
+     */
+    /*package*/ AddressCatchBuilder withoutMethod() {
+        HashSet<Type> catchTypes = getCatchTypes();
+
+        return new AddressCatchBuilder(
+                catchTypes.toArray(new Type[catchTypes.size()]),
+                getThrowers(method, order, addresses));
+    }
+
     /**
      * Builds and returns the catch table for a given method.
      *
@@ -121,13 +139,25 @@ public final class StdCatchBuilder implements CatchBuilder {
      */
     public static CatchTable build(RopMethod method, int[] order,
             BlockAddresses addresses) {
+        return AddressCatchBuilder.build(
+                getThrowers(method, order, addresses));
+    }
+
+    /**
+     * Gets the blocks of the given method that can throw, in output
+     * order, as the address objects their catch ranges are built from.
+     *
+     * @param method {@code non-null;} method to build the list for
+     * @param order {@code non-null;} block output order
+     * @param addresses {@code non-null;} address objects for each block
+     * @return {@code non-null;} the blocks that can throw
+     */
+    private static ArrayList<AddressCatchBuilder.Thrower> getThrowers(
+            RopMethod method, int[] order, BlockAddresses addresses) {
         int len = order.length;
         BasicBlockList blocks = method.getBlocks();
-        ArrayList<CatchTable.Entry> resultList =
-            new ArrayList<CatchTable.Entry>(len);
-        CatchHandlerList currentHandlers = CatchHandlerList.EMPTY;
-        BasicBlock currentStartBlock = null;
-        BasicBlock currentEndBlock = null;
+        ArrayList<AddressCatchBuilder.Thrower> result =
+            new ArrayList<AddressCatchBuilder.Thrower>(len);
 
         for (int i = 0; i < len; i++) {
             BasicBlock block = blocks.labelToBlock(order[i]);
@@ -141,79 +171,21 @@ public final class StdCatchBuilder implements CatchBuilder {
                 continue;
             }
 
-            CatchHandlerList handlers = handlersFor(block, addresses);
-
-            if (currentHandlers.size() == 0) {
-                // This is the start of a new catch range.
-                currentStartBlock = block;
-                currentEndBlock = block;
-                currentHandlers = handlers;
-                continue;
-            }
-
-            if (currentHandlers.equals(handlers)
-                    && rangeIsValid(currentStartBlock, block, addresses)) {
-                /*
-                 * The block we are looking at now has the same handlers
-                 * as the block that started the currently open catch
-                 * range, and adding it to the currently open range won't
-                 * cause it to be too long.
-                 */
-                currentEndBlock = block;
-                continue;
-            }
-
-            /*
-             * The block we are looking at now has incompatible handlers,
-             * so we need to finish off the last entry and start a new
-             * one. Note: We only emit an entry if it has associated handlers.
-             */
-            if (currentHandlers.size() != 0) {
-                CatchTable.Entry entry =
-                    makeEntry(currentStartBlock, currentEndBlock,
-                            currentHandlers, addresses);
-                resultList.add(entry);
-            }
-
-            currentStartBlock = block;
-            currentEndBlock = block;
-            currentHandlers = handlers;
-        }
-
-        if (currentHandlers.size() != 0) {
-            // Emit an entry for the range that was left hanging.
-            CatchTable.Entry entry =
-                makeEntry(currentStartBlock, currentEndBlock,
-                        currentHandlers, addresses);
-            resultList.add(entry);
-        }
-
-        // Construct the final result.
-
-        int resultSz = resultList.size();
-
-        if (resultSz == 0) {
-            return CatchTable.EMPTY;
-        }
-
-        CatchTable result = new CatchTable(resultSz);
-
-        for (int i = 0; i < resultSz; i++) {
-            result.set(i, resultList.get(i));
+            result.add(throwerFor(block, addresses));
         }
 
-        result.setImmutable();
         return result;
     }
 
     /**
-     * Makes the {@link CatchHandlerList} for the given basic block.
+     * Makes the {@link AddressCatchBuilder.Thrower} for the given basic
+     * block.
      *
      * @param block {@code non-null;} block to get entries for
      * @param addresses {@code non-null;} address objects for each block
-     * @return {@code non-null;} array of entries
+     * @return {@code non-null;} the block's catch range and handlers
      */
-    private static CatchHandlerList handlersFor(BasicBlock block,
+    private static AddressCatchBuilder.Thrower throwerFor(BasicBlock block,
             BlockAddresses addresses) {
         IntList successors = block.getSuccessors();
         int succSize = successors.size();
@@ -221,8 +193,17 @@ public final class StdCatchBuilder implements CatchBuilder {
         TypeList catches = block.getLastInsn().getCatches();
         int catchSize = catches.size();
 
+        /*
+         * We start at the *last* instruction of the block, since
+         * that's the instruction that can throw, and we end *after*
+         * it.
+         */
+        CodeAddress last = addresses.getLast(block);
+        CodeAddress end = addresses.getEnd(block);
+
         if (catchSize == 0) {
-            return CatchHandlerList.EMPTY;
+            return new AddressCatchBuilder.Thrower(last, end, NO_TYPES,
+                    NO_HANDLERS);
         }
 
         if (((primary == -1) && (succSize != catchSize))
@@ -250,67 +231,14 @@ public final class StdCatchBuilder implements CatchBuilder {
             }
         }
 
-        CatchHandlerList result = new CatchHandlerList(catchSize);
+        CstType[] types = new CstType[catchSize];
+        CodeAddress[] handlers = new CodeAddress[catchSize];
 
         for (int i = 0; i < catchSize; i++) {
-            CstType oneType = new CstType(catches.getType(i));
-            CodeAddress oneHandler = addresses.getStart(successors.get(i));
-            result.set(i, oneType, oneHandler.getAddress());
-        }
-
-        result.setImmutable();
-        return result;
-    }
-
-    /**
-     * Makes a {@link CatchTable#Entry} for the given block range and
-     * handlers.
-     *
-     * @param start {@code non-null;} the start block for the range (inclusive)
-     * @param end {@code non-null;} the start block for the range (also inclusive)
-     * @param handlers {@code non-null;} the handlers for the range
-     * @param addresses {@code non-null;} address objects for each block
-     */
-    private static CatchTable.Entry makeEntry(BasicBlock start,
-            BasicBlock end, CatchHandlerList handlers,
-            BlockAddresses addresses) {
-        /*
-         * We start at the *last* instruction of the start block, since
-         * that's the instruction that can throw...
-         */
-        CodeAddress startAddress = addresses.getLast(start);
-
-        // ...And we end *after* the last instruction of the end block.
-        CodeAddress endAddress = addresses.getEnd(end);
-
-        return new CatchTable.Entry(startAddress.getAddress(),
-                endAddress.getAddress(), handlers);
-    }
-
-    /**
-     * Gets whether the address range for the given two blocks is valid
-     * for a catch handler. This is true as long as the covered range is
-     * under 65536 code units.
-     *
-     * @param start {@code non-null;} the start block for the range (inclusive)
-     * @param end {@code non-null;} the start block for the range (also inclusive)
-     * @param addresses {@code non-null;} address objects for each block
-     * @return {@code true} if the range is valid as a catch range
-     */
-    private static boolean rangeIsValid(BasicBlock start, BasicBlock end,
-            BlockAddresses addresses) {
-        if (start == null) {
-            throw new NullPointerException("start == null");
-        }
-
-        if (end == null) {
-            throw new NullPointerException("end == null");
+            types[i] = new CstType(catches.getType(i));
+            handlers[i] = addresses.getStart(successors.get(i));
         }
 
-        // See above about selection of instructions.
-        int startAddress = addresses.getLast(start).getAddress();
-        int endAddress = addresses.getEnd(end).getAddress();
-
-        return (endAddress - startAddress) <= MAX_CATCH_RANGE;
+        return new AddressCatchBuilder.Thrower(last, end, types, handlers);
     }
 }
@@ -157,6 +157,34 @@ public final class SwitchData extends VariableSizeInsn {
         return packed;
     }
 
+    /**
+     * Gets the address representing the instruction that uses this
+     * instance.
+     *
+     * @return {@code non-null;} the address
+     */
+    public CodeAddress getUser() {
+        return user;
+    }
+
+    /**
+     * Gets the sorted list of switch cases (keys).
+     *
+     * @return {@code non-null;} the cases
+     */
+    public IntList getCases() {
+        return cases;
+    }
+
+    /**
+     * Gets the branch target for each case.
+     *
+     * @return {@code non-null;} the targets
+     */
+    public CodeAddress[] getTargets() {
+        return targets;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected String argString() {
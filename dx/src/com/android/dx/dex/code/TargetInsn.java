@@ -77,6 +77,19 @@ public final class TargetInsn extends FixedSizeInsn {
         return new TargetInsn(opcode, getPosition(), getRegisters(), target);
     }
 
+    /**
+     * Returns an instance that is just like this one, except that its
+     * branch target is replaced by the one given, and all set-once values
+     * associated with the class (such as its address) are reset.
+     *
+     * @param target {@code non-null;} the new branch target
+     * @return {@code non-null;} an appropriately-constructed instance
+     */
+    public TargetInsn withNewTarget(CodeAddress target) {
+        return new TargetInsn(getOpcode(), getPosition(), getRegisters(),
+                target);
+    }
+
     /**
      * Gets the unique branch target of this instruction.
      *
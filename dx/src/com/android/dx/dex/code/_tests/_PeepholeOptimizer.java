@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.code._tests;
+
+import com.android.dx.dex.code.CodeAddress;
+import com.android.dx.dex.code.DalvInsn;
+import com.android.dx.dex.code.Dop;
+import com.android.dx.dex.code.Dops;
+import com.android.dx.dex.code.PeepholeOptimizer;
+import com.android.dx.dex.code.SimpleInsn;
+import com.android.dx.dex.code.TargetInsn;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.type.Type;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Test the class {@code com.android.dx.dex.code.PeepholeOptimizer}.
+ * Goto chains can't be produced from class files, since dx collapses
+ * blocks that only hold a {@code goto}, and overlapping wide moves are
+ * up to the register allocator, so the insn lists are built by hand.
+ */
+public class _PeepholeOptimizer
+        extends TestCase {
+    /** longest goto chain a branch is retargeted past */
+    private static final int MAX_CHAIN = 16;
+
+    /** position for all the insns */
+    private static final SourcePosition POS = SourcePosition.NO_INFO;
+
+    /** Makes an {@code if-eqz} on an int register. */
+    private static TargetInsn ifEqz(int reg, CodeAddress target) {
+        return new TargetInsn(Dops.IF_EQZ, POS,
+                RegisterSpecList.make(RegisterSpec.make(reg, Type.INT)),
+                target);
+    }
+
+    /** Makes a {@code goto}. */
+    private static TargetInsn jump(CodeAddress target) {
+        return new TargetInsn(Dops.GOTO, POS, RegisterSpecList.EMPTY,
+                target);
+    }
+
+    /** Makes a {@code return-void}. */
+    private static SimpleInsn returnVoid() {
+        return new SimpleInsn(Dops.RETURN_VOID, POS, RegisterSpecList.EMPTY);
+    }
+
+    /** Makes a move of the given opcode and register type. */
+    private static SimpleInsn move(Dop opcode, Type type, int dest,
+            int source) {
+        return new SimpleInsn(opcode, POS,
+                RegisterSpecList.make(RegisterSpec.make(dest, type),
+                        RegisterSpec.make(source, type)));
+    }
+
+    public void test_gotoChainIsBounded() {
+        int count = MAX_CHAIN + 4;
+        CodeAddress[] addresses = new CodeAddress[count + 1];
+        ArrayList<DalvInsn> insns = new ArrayList<DalvInsn>();
+
+        for (int i = 0; i <= count; i++) {
+            addresses[i] = new CodeAddress(POS);
+        }
+
+        insns.add(ifEqz(0, addresses[count]));
+        insns.add(addresses[0]);
+        insns.add(returnVoid());
+
+        for (int i = 1; i <= count; i++) {
+            insns.add(addresses[i]);
+            insns.add(jump(addresses[i - 1]));
+        }
+
+        ArrayList<DalvInsn> result = PeepholeOptimizer.process(insns);
+        TargetInsn branch = (TargetInsn) result.get(0);
+
+        assertSame(addresses[count - MAX_CHAIN], branch.getTarget());
+
+        // Each goto in the chain ends up on a return in turn.
+        for (int i = 1; i <= count; i++) {
+            assertSame(Dops.RETURN_VOID, result.get(2 * i + 2).getOpcode());
+        }
+    }
+
+    public void test_gotoCycleTerminates() {
+        CodeAddress a = new CodeAddress(POS);
+        CodeAddress b = new CodeAddress(POS);
+        ArrayList<DalvInsn> insns = new ArrayList<DalvInsn>();
+
+        insns.add(ifEqz(0, a));
+        insns.add(returnVoid());
+        insns.add(a);
+        insns.add(jump(b));
+        insns.add(returnVoid());
+        insns.add(b);
+        insns.add(jump(a));
+
+        ArrayList<DalvInsn> result = PeepholeOptimizer.process(insns);
+
+        assertEquals(7, result.size());
+        assertSame(a, ((TargetInsn) result.get(0)).getTarget());
+        assertSame(b, ((TargetInsn) result.get(3)).getTarget());
+        assertSame(a, ((TargetInsn) result.get(6)).getTarget());
+    }
+
+    public void test_selfGotoIsKept() {
+        CodeAddress a = new CodeAddress(POS);
+        ArrayList<DalvInsn> insns = new ArrayList<DalvInsn>();
+
+        insns.add(ifEqz(0, a));
+        insns.add(returnVoid());
+        insns.add(a);
+        insns.add(jump(a));
+
+        ArrayList<DalvInsn> result = PeepholeOptimizer.process(insns);
+
+        assertEquals(4, result.size());
+        assertSame(a, ((TargetInsn) result.get(0)).getTarget());
+        assertSame(a, ((TargetInsn) result.get(3)).getTarget());
+    }
+
+    public void test_moveBack() {
+        ArrayList<DalvInsn> insns = new ArrayList<DalvInsn>();
+
+        insns.add(move(Dops.MOVE, Type.INT, 0, 1));
+        insns.add(move(Dops.MOVE, Type.INT, 1, 0));
+        insns.add(returnVoid());
+
+        ArrayList<DalvInsn> result = PeepholeOptimizer.process(insns);
+
+        assertEquals(2, result.size());
+        assertSame(insns.get(0), result.get(0));
+    }
+
+    public void test_wideMoveBack() {
+        ArrayList<DalvInsn> insns = new ArrayList<DalvInsn>();
+
+        insns.add(move(Dops.MOVE_WIDE, Type.LONG, 0, 2));
+        insns.add(move(Dops.MOVE_WIDE, Type.LONG, 2, 0));
+        insns.add(returnVoid());
+
+        ArrayList<DalvInsn> result = PeepholeOptimizer.process(insns);
+
+        assertEquals(2, result.size());
+        assertSame(insns.get(0), result.get(0));
+    }
+
+    public void test_overlappingWideMoveBackIsKept() {
+        ArrayList<DalvInsn> insns = new ArrayList<DalvInsn>();
+
+        insns.add(move(Dops.MOVE_WIDE, Type.LONG, 0, 1));
+        insns.add(move(Dops.MOVE_WIDE, Type.LONG, 1, 0));
+        insns.add(returnVoid());
+
+        ArrayList<DalvInsn> result = PeepholeOptimizer.process(insns);
+
+        assertEquals(3, result.size());
+    }
+
+    public void test_branchToNext() {
+        CodeAddress next = new CodeAddress(POS);
+        ArrayList<DalvInsn> insns = new ArrayList<DalvInsn>();
+
+        insns.add(ifEqz(0, next));
+        insns.add(next);
+        insns.add(returnVoid());
+
+        ArrayList<DalvInsn> result = PeepholeOptimizer.process(insns);
+
+        assertEquals(2, result.size());
+        assertSame(next, result.get(0));
+    }
+}
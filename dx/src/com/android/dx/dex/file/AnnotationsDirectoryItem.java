@@ -194,6 +194,102 @@ public final class AnnotationsDirectoryItem extends OffsettedItem {
         parameterAnnotations.add(new ParameterAnnotationStruct(method, list));
     }
 
+    /**
+     * Replaces the class annotations on this instance.
+     *
+     * @param annotations {@code null-ok;} the new annotations, or
+     * {@code null} to remove them
+     */
+    public void replaceClassAnnotations(Annotations annotations) {
+        classAnnotations = (annotations == null) ? null
+            : new AnnotationSetItem(annotations);
+    }
+
+    /**
+     * Removes the annotations for a given field, if any.
+     *
+     * @param field {@code non-null;} the field
+     */
+    public void removeFieldAnnotations(CstFieldRef field) {
+        if (fieldAnnotations == null) {
+            return;
+        }
+
+        for (int i = fieldAnnotations.size() - 1; i >= 0; i--) {
+            if (fieldAnnotations.get(i).getField().equals(field)) {
+                fieldAnnotations.remove(i);
+            }
+        }
+
+        if (fieldAnnotations.isEmpty()) {
+            fieldAnnotations = null;
+        }
+    }
+
+    /**
+     * Removes the annotations for a given method and its parameters,
+     * if any.
+     *
+     * @param method {@code non-null;} the method
+     */
+    public void removeMethodAnnotations(CstMethodRef method) {
+        if (methodAnnotations != null) {
+            for (int i = methodAnnotations.size() - 1; i >= 0; i--) {
+                if (methodAnnotations.get(i).getMethod().equals(method)) {
+                    methodAnnotations.remove(i);
+                }
+            }
+
+            if (methodAnnotations.isEmpty()) {
+                methodAnnotations = null;
+            }
+        }
+
+        if (parameterAnnotations != null) {
+            for (int i = parameterAnnotations.size() - 1; i >= 0; i--) {
+                if (parameterAnnotations.get(i).getMethod().equals(method)) {
+                    parameterAnnotations.remove(i);
+                }
+            }
+
+            if (parameterAnnotations.isEmpty()) {
+                parameterAnnotations = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the class annotations, if any. This is meant for use by
+     * debugging / dumping code.
+     *
+     * @return {@code null-ok;} the class annotations, if any
+     */
+    public Annotations getClassAnnotations() {
+        return (classAnnotations == null) ? null
+            : classAnnotations.getAnnotations();
+    }
+
+    /**
+     * Gets the field annotations for a given field, if any. This is
+     * meant for use by debugging / dumping code.
+     *
+     * @param field {@code non-null;} the field
+     * @return {@code null-ok;} the field annotations, if any
+     */
+    public Annotations getFieldAnnotations(CstFieldRef field) {
+        if (fieldAnnotations == null) {
+            return null;
+        }
+
+        for (FieldAnnotationStruct item : fieldAnnotations) {
+            if (item.getField().equals(field)) {
+                return item.getAnnotations();
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Gets the method annotations for a given method, if any. This is
      * meant for use by debugging / dumping code.
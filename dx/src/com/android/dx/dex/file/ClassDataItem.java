@@ -190,6 +190,52 @@ public final class ClassDataItem extends OffsettedItem {
         return result;
     }
 
+    /**
+     * Gets all the fields in this class. The returned list is not linked
+     * in any way to the underlying lists contained in this instance, but
+     * the objects contained in the list are shared.
+     *
+     * @return {@code non-null;} list of all fields
+     */
+    public ArrayList<EncodedField> getFields() {
+        int sz = staticFields.size() + instanceFields.size();
+        ArrayList<EncodedField> result = new ArrayList<EncodedField>(sz);
+
+        result.addAll(staticFields);
+        result.addAll(instanceFields);
+
+        return result;
+    }
+
+    /**
+     * Removes a field, along with its initial value if it is static.
+     *
+     * @param field {@code non-null;} the field to remove
+     */
+    public void removeField(EncodedField field) {
+        if (staticValuesConstant != null) {
+            throw new UnsupportedOperationException(
+                    "static fields already sorted");
+        }
+
+        if (staticFields.remove(field)) {
+            staticValues.remove(field);
+        } else {
+            instanceFields.remove(field);
+        }
+    }
+
+    /**
+     * Removes a method.
+     *
+     * @param method {@code non-null;} the method to remove
+     */
+    public void removeMethod(EncodedMethod method) {
+        if (!directMethods.remove(method)) {
+            virtualMethods.remove(method);
+        }
+    }
+
 
     /**
      * Prints out the contents of this instance, in a debugging-friendly
@@ -307,6 +307,25 @@ public final class ClassDefItem extends IndexedItem {
         classData.addVirtualMethod(method);
     }
 
+    /**
+     * Gets the class data, which is only part of the file if it isn't
+     * empty.
+     *
+     * @return {@code non-null;} the class data
+     */
+    /*package*/ ClassDataItem getClassData() {
+        return classData;
+    }
+
+    /**
+     * Gets the static values, once {@link #addContents} has been called.
+     *
+     * @return {@code null-ok;} the static values, if any
+     */
+    /*package*/ EncodedArrayItem getStaticValuesItem() {
+        return staticValuesItem;
+    }
+
     /**
      * Gets all the methods in this class. The returned list is not linked
      * in any way to the underlying lists contained in this instance, but
@@ -318,6 +337,38 @@ public final class ClassDefItem extends IndexedItem {
         return classData.getMethods();
     }
 
+    /**
+     * Gets all the fields in this class. The returned list is not linked
+     * in any way to the underlying lists contained in this instance, but
+     * the objects contained in the list are shared.
+     *
+     * @return {@code non-null;} list of all fields
+     */
+    public ArrayList<EncodedField> getFields() {
+        return classData.getFields();
+    }
+
+    /**
+     * Removes a field, along with its annotations.
+     *
+     * @param field {@code non-null;} the field to remove
+     */
+    public void removeField(EncodedField field) {
+        classData.removeField(field);
+        annotationsDirectory.removeFieldAnnotations(field.getRef());
+    }
+
+    /**
+     * Removes a method, along with its annotations and its parameters'
+     * annotations.
+     *
+     * @param method {@code non-null;} the method to remove
+     */
+    public void removeMethod(EncodedMethod method) {
+        classData.removeMethod(method);
+        annotationsDirectory.removeMethodAnnotations(method.getRef());
+    }
+
     /**
      * Sets the direct annotations on this class. These are annotations
      * made on the class, per se, as opposed to on one of its members.
@@ -329,6 +380,36 @@ public final class ClassDefItem extends IndexedItem {
         annotationsDirectory.setClassAnnotations(annotations);
     }
 
+    /**
+     * Replaces the direct annotations on this class, if there were any
+     * to begin with.
+     *
+     * @param annotations {@code null-ok;} the new annotations, or
+     * {@code null} to remove them
+     */
+    public void replaceClassAnnotations(Annotations annotations) {
+        annotationsDirectory.replaceClassAnnotations(annotations);
+    }
+
+    /**
+     * Gets the direct annotations on this class, if any.
+     *
+     * @return {@code null-ok;} the class annotations, if any
+     */
+    public Annotations getClassAnnotations() {
+        return annotationsDirectory.getClassAnnotations();
+    }
+
+    /**
+     * Gets the annotations for a given field, if any.
+     *
+     * @param field {@code non-null;} the field
+     * @return {@code null-ok;} the field annotations, if any
+     */
+    public Annotations getFieldAnnotations(CstFieldRef field) {
+        return annotationsDirectory.getFieldAnnotations(field);
+    }
+
     /**
      * Adds a field annotations item to this class.
      *
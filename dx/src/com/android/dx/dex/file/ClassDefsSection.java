@@ -24,8 +24,12 @@ import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.TreeMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class definitions list section of a {@code .dex} file.
@@ -33,13 +37,21 @@ import java.util.TreeMap;
 public final class ClassDefsSection extends UniformItemSection {
     /**
      * {@code non-null;} map from type constants for classes to {@link
-     * ClassDefItem} instances that define those classes
+     * ClassDefItem} instances that define those classes. Classes are
+     * added to this in whatever order, possibly from more than one
+     * thread, and only sorted once, in {@link #orderItems}.
      */
-    private final TreeMap<Type, ClassDefItem> classDefs;
+    private final ConcurrentHashMap<Type, ClassDefItem> classDefs;
+
+    /** {@code null-ok;} the classes in name order; set in {@link #orderItems} */
+    private Type[] sortedTypes;
 
     /** {@code null-ok;} ordered list of classes; set in {@link #orderItems} */
     private ArrayList<ClassDefItem> orderedDefs;
 
+    /** {@code null-ok;} classes to order ahead of the others, if any */
+    private List<Type> firstClasses;
+
     /**
      * Constructs an instance. The file offset is initially unknown.
      *
@@ -48,8 +60,10 @@ public final class ClassDefsSection extends UniformItemSection {
     public ClassDefsSection(DexFile file) {
         super("class_defs", file, 4);
 
-        classDefs = new TreeMap<Type, ClassDefItem>();
+        classDefs = new ConcurrentHashMap<Type, ClassDefItem>();
+        sortedTypes = null;
         orderedDefs = null;
+        firstClasses = null;
     }
 
     /** {@inheritDoc} */
@@ -103,7 +117,8 @@ public final class ClassDefsSection extends UniformItemSection {
 
     /**
      * Adds an element to this instance. It is illegal to attempt to add more
-     * than one class with the same name.
+     * than one class with the same name. This may be called from more
+     * than one thread at once.
      *
      * @param clazz {@code non-null;} the class def to add
      */
@@ -119,47 +134,138 @@ public final class ClassDefsSection extends UniformItemSection {
 
         throwIfPrepared();
 
-        if (classDefs.get(type) != null) {
+        if (classDefs.putIfAbsent(type, clazz) != null) {
             throw new IllegalArgumentException("already added: " + type);
         }
+    }
+
+    /**
+     * Gets the class definitions added so far, in no particular order.
+     *
+     * @return {@code non-null;} the class definitions, keyed by class
+     */
+    public Map<Type, ClassDefItem> getClassDefs() {
+        return classDefs;
+    }
+
+    /**
+     * Removes a class definition.
+     *
+     * @param type {@code non-null;} the class to remove
+     */
+    public void remove(Type type) {
+        throwIfPrepared();
+        classDefs.remove(type);
+    }
+
+    /**
+     * Sets classes to order ahead of the others, in the given order,
+     * though still after their superclasses and interfaces. This must
+     * be called before this instance is prepared. The other sections
+     * are still filled in the usual class order, and the classes are
+     * only reordered by a later call to {@link #orderFirstClasses}.
+     *
+     * @param classes {@code non-null;} the classes to order first
+     */
+    public void setFirstClasses(List<Type> classes) {
+        throwIfPrepared();
+        firstClasses = classes;
+    }
+
+    /**
+     * Orders the classes passed to {@link #setFirstClasses} ahead of
+     * the others. This must be called after this instance is prepared.
+     */
+    public void orderFirstClasses() {
+        throwIfNotPrepared();
+
+        if (firstClasses == null) {
+            throw new IllegalStateException("no first classes");
+        }
+
+        orderedDefs = orderDefs(firstClasses);
+        assignIndices();
+    }
 
-        classDefs.put(type, clazz);
+    /**
+     * Gets the order the classes would have had without any classes
+     * ordered first.
+     *
+     * @return {@code non-null;} the classes in that order
+     */
+    public ArrayList<ClassDefItem> getUsualOrder() {
+        return orderDefs(null);
     }
 
     /** {@inheritDoc} */
     @Override
     protected void orderItems() {
+        sortedTypes = classDefs.keySet().toArray(new Type[0]);
+        Arrays.sort(sortedTypes);
+        orderedDefs = orderDefs(null);
+
+        if (firstClasses == null) {
+            assignIndices();
+        }
+    }
+
+    /**
+     * Assigns each class the index of its place in {@link #orderedDefs}.
+     */
+    private void assignIndices() {
+        int sz = orderedDefs.size();
+
+        for (int i = 0; i < sz; i++) {
+            orderedDefs.get(i).setIndex(i);
+        }
+    }
+
+    /**
+     * Helper for {@link #orderItems}, which orders the classes.
+     *
+     * @param first {@code null-ok;} classes to order ahead of the
+     * others, if any
+     * @return {@code non-null;} the ordered classes
+     */
+    private ArrayList<ClassDefItem> orderDefs(List<Type> first) {
         int sz = classDefs.size();
-        int idx = 0;
+        ArrayList<ClassDefItem> result = new ArrayList<ClassDefItem>(sz);
+        HashSet<Type> done = new HashSet<Type>(sz);
 
-        orderedDefs = new ArrayList<ClassDefItem>(sz);
+        if (first != null) {
+            for (Type type : first) {
+                orderDefs0(type, result, done, sz - result.size());
+            }
+        }
 
         /*
-         * Iterate over all the classes, recursively assigning an
-         * index to each, implicitly skipping the ones that have
-         * already been assigned by the time this (top-level)
-         * iteration reaches them.
+         * Iterate over all the classes, recursively adding each,
+         * implicitly skipping the ones that have already been added
+         * by the time this (top-level) iteration reaches them.
          */
-        for (Type type : classDefs.keySet()) {
-            idx = orderItems0(type, idx, sz - idx);
+        for (Type type : sortedTypes) {
+            orderDefs0(type, result, done, sz - result.size());
         }
+
+        return result;
     }
 
     /**
-     * Helper for {@link #orderItems}, which recursively assigns indices
-     * to classes.
+     * Helper for {@link #orderDefs}, which recursively adds classes
+     * after their superclasses and interfaces.
      *
-     * @param type {@code null-ok;} type ref to assign, if any
-     * @param idx {@code >= 0;} the next index to assign
+     * @param type {@code null-ok;} type ref to add, if any
+     * @param result {@code non-null;} the classes added so far
+     * @param done {@code non-null;} the types added so far
      * @param maxDepth maximum recursion depth; if negative, this will
      * throw an exception indicating class definition circularity
-     * @return {@code >= 0;} the next index to assign
      */
-    private int orderItems0(Type type, int idx, int maxDepth) {
+    private void orderDefs0(Type type, ArrayList<ClassDefItem> result,
+            HashSet<Type> done, int maxDepth) {
         ClassDefItem c = classDefs.get(type);
 
-        if ((c == null) || (c.hasIndex())) {
-            return idx;
+        if ((c == null) || done.contains(type)) {
+            return;
         }
 
         if (maxDepth < 0) {
@@ -171,17 +277,16 @@ public final class ClassDefsSection extends UniformItemSection {
         CstType superclassCst = c.getSuperclass();
         if (superclassCst != null) {
             Type superclass = superclassCst.getClassType();
-            idx = orderItems0(superclass, idx, maxDepth);
+            orderDefs0(superclass, result, done, maxDepth);
         }
 
         TypeList interfaces = c.getInterfaces();
         int sz = interfaces.size();
         for (int i = 0; i < sz; i++) {
-            idx = orderItems0(interfaces.getType(i), idx, maxDepth);
+            orderDefs0(interfaces.getType(i), result, done, maxDepth);
         }
 
-        c.setIndex(idx);
-        orderedDefs.add(c);
-        return idx + 1;
+        done.add(type);
+        result.add(c);
     }
 }
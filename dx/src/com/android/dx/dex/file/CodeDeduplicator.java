@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.dex.file;
+
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Finds the code items in a {@link DexFile} whose contents, once all
+ * their references are resolved, are the same as those of an earlier
+ * item, and has the methods they are for share the earlier item
+ * instead. This commonly covers trivial constructors, empty methods
+ * and generated delegates. Debug info is part of the contents, so items
+ * are only shared if their debug info is the same or absent.
+ *
+ * <p>Code that refers to a type, field or method is only shared
+ * between methods of the same class. The VM verifies and optimizes
+ * one class at a time, rewriting such instructions in place to
+ * versions that are only valid once the class has been verified, or
+ * that throw for the class whose access checks failed. A later class
+ * sharing the code would see the rewritten instructions.</p>
+ *
+ * <p>Separately, debug info items whose encoded form is the same as
+ * that of an earlier one can be dropped, with the code items they are
+ * for sharing the earlier one instead.</p>
+ */
+/*package*/ final class CodeDeduplicator {
+    /** whether to share code items */
+    private final boolean shareCode;
+
+    /** whether to share debug info items */
+    private final boolean shareDebugInfo;
+
+    /** {@code non-null;} the code items removed, in the order found */
+    private final ArrayList<CodeItem> duplicates;
+
+    /**
+     * {@code non-null;} the debug info items kept in place of those
+     * removed, one per item removed, other than those removed along
+     * with a code item
+     */
+    private final ArrayList<DebugInfoItem> sharedDebugInfos;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param shareCode whether to share code items
+     * @param shareDebugInfo whether to share debug info items
+     */
+    public CodeDeduplicator(boolean shareCode, boolean shareDebugInfo) {
+        this.shareCode = shareCode;
+        this.shareDebugInfo = shareDebugInfo;
+        this.duplicates = new ArrayList<CodeItem>();
+        this.sharedDebugInfos = new ArrayList<DebugInfoItem>();
+    }
+
+    /**
+     * Finds and removes the duplicate code items, along with their debug
+     * info, and then the duplicate debug info of the code items left.
+     * This is called after the file's sections are prepared, and before
+     * their items are placed.
+     *
+     * @param file {@code non-null;} the file to deduplicate
+     */
+    public void removeDuplicates(DexFile file) {
+        if (shareCode) {
+            removeDuplicateCode(file);
+        }
+
+        if (shareDebugInfo) {
+            removeDuplicateDebugInfo(file);
+        }
+    }
+
+    /**
+     * Helper for {@link #removeDuplicates}, which removes the duplicate
+     * code items.
+     *
+     * @param file {@code non-null;} the file to deduplicate
+     */
+    private void removeDuplicateCode(DexFile file) {
+        MixedItemSection wordData = file.getWordData();
+        HashMap<Contents, CodeItem> found = new HashMap<Contents, CodeItem>();
+        ArrayList<DebugInfoItem> debugInfos = new ArrayList<DebugInfoItem>();
+
+        for (Item item : wordData.items()) {
+            if (!(item instanceof CodeItem)) {
+                continue;
+            }
+
+            CodeItem code = (CodeItem) item;
+            Contents contents = new Contents(code.getContents(file),
+                    refersToMembers(code) ?
+                    code.getRef().getDefiningClass() : null);
+            CodeItem canonical = found.get(contents);
+
+            if (canonical == null) {
+                found.put(contents, code);
+                continue;
+            }
+
+            code.setCanonical(canonical);
+            duplicates.add(code);
+
+            if (code.getDebugInfo() != null) {
+                debugInfos.add(code.getDebugInfo());
+            }
+        }
+
+        if (duplicates.isEmpty()) {
+            return;
+        }
+
+        wordData.removeItems(duplicates);
+        file.getByteData().removeItems(debugInfos);
+    }
+
+    /**
+     * Helper for {@link #removeDuplicates}, which removes the duplicate
+     * debug info items.
+     *
+     * @param file {@code non-null;} the file to deduplicate
+     */
+    private void removeDuplicateDebugInfo(DexFile file) {
+        HashMap<Contents, DebugInfoItem> found =
+            new HashMap<Contents, DebugInfoItem>();
+        ArrayList<DebugInfoItem> removed = new ArrayList<DebugInfoItem>();
+
+        for (Item item : file.getWordData().items()) {
+            if (!(item instanceof CodeItem)) {
+                continue;
+            }
+
+            CodeItem code = (CodeItem) item;
+            DebugInfoItem debugInfo = code.getDebugInfo();
+
+            if (debugInfo == null) {
+                continue;
+            }
+
+            code.assignIndices(file);
+
+            Contents contents =
+                new Contents(debugInfo.getEncoded(file), null);
+            DebugInfoItem canonical = found.get(contents);
+
+            if (canonical == null) {
+                found.put(contents, debugInfo);
+                continue;
+            }
+
+            code.setDebugInfo(canonical);
+            removed.add(debugInfo);
+            sharedDebugInfos.add(canonical);
+        }
+
+        if (!removed.isEmpty()) {
+            file.getByteData().removeItems(removed);
+        }
+    }
+
+    /**
+     * Tells whether any of the instructions of a code item refer to a
+     * type, field or method, which makes the code specific to the class
+     * it is in.
+     *
+     * @param code {@code non-null;} the code item
+     * @return whether the code refers to a type, field or method
+     */
+    private static boolean refersToMembers(CodeItem code) {
+        for (Constant cst : code.getCode().getInsnConstants()) {
+            if ((cst instanceof CstType) || (cst instanceof CstMemberRef)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds the duplicates removed to the given statistics.
+     *
+     * @param stats {@code non-null;} the statistics to add to
+     */
+    public void addTo(Statistics stats) {
+        for (CodeItem code : duplicates) {
+            CodeItem canonical = code.getCanonical();
+
+            stats.addDuplicate(canonical);
+
+            if (canonical.getDebugInfo() != null) {
+                stats.addDuplicate(canonical.getDebugInfo());
+            }
+        }
+
+        for (DebugInfoItem debugInfo : sharedDebugInfos) {
+            stats.addDuplicate(debugInfo);
+        }
+    }
+
+    /**
+     * The contents of a code item, as a hash key, along with the class
+     * it may only be shared within, if any.
+     */
+    private static final class Contents {
+        /** {@code non-null;} the bytes */
+        private final byte[] bytes;
+
+        /**
+         * {@code null-ok;} the class the contents may only be shared
+         * within, or {@code null} if they may be shared by any class
+         */
+        private final CstType owner;
+
+        /** hash code of the bytes and owner */
+        private final int hash;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param bytes {@code non-null;} the bytes
+         * @param owner {@code null-ok;} the class the contents may only
+         * be shared within, if any
+         */
+        public Contents(byte[] bytes, CstType owner) {
+            this.bytes = bytes;
+            this.owner = owner;
+            this.hash = Arrays.hashCode(bytes) * 31 +
+                ((owner == null) ? 0 : owner.hashCode());
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Contents)) {
+                return false;
+            }
+
+            Contents contents = (Contents) other;
+
+            if ((owner == null) ? (contents.owner != null) :
+                    !owner.equals(contents.owner)) {
+                return false;
+            }
+
+            return Arrays.equals(bytes, contents.bytes);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import com.android.dx.rop.type.StdTypeList;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
 import com.android.dx.util.AnnotatedOutput;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
 import com.android.dx.util.Hex;
 
@@ -72,6 +73,15 @@ public final class CodeItem extends OffsettedItem {
      */
     private DebugInfoItem debugInfo;
 
+    /** whether the code's constants have been assigned indices */
+    private boolean indicesAssigned;
+
+    /**
+     * {@code null-ok;} the item with the same contents that is written
+     * in place of this one, if any; set in {@link #setCanonical}
+     */
+    private CodeItem canonical;
+
     /**
      * Constructs an instance.
      *
@@ -104,6 +114,8 @@ public final class CodeItem extends OffsettedItem {
         this.throwsList = throwsList;
         this.catches = null;
         this.debugInfo = null;
+        this.indicesAssigned = false;
+        this.canonical = null;
     }
 
     /** {@inheritDoc} */
@@ -118,7 +130,8 @@ public final class CodeItem extends OffsettedItem {
         TypeIdsSection typeIds = file.getTypeIds();
 
         if (code.hasPositions() || code.hasLocals()) {
-            debugInfo = new DebugInfoItem(code, isStatic, ref);
+            debugInfo = new DebugInfoItem(code, isStatic, ref,
+                    file.isCompactDebugInfo());
             byteData.add(debugInfo);
         }
 
@@ -134,6 +147,101 @@ public final class CodeItem extends OffsettedItem {
         }
     }
 
+    /**
+     * Gets the code that this instance is for.
+     *
+     * @return {@code non-null;} the code
+     */
+    /*package*/ DalvCode getCode() {
+        return code;
+    }
+
+    /**
+     * Gets the debug info, once {@link #addContents} has been called.
+     *
+     * @return {@code null-ok;} the debug info, if any
+     */
+    /*package*/ DebugInfoItem getDebugInfo() {
+        return debugInfo;
+    }
+
+    /**
+     * Has this instance refer to debug info with the same encoded form
+     * as its own, which is written in place of its own. Its own must
+     * then be removed from the file.
+     *
+     * @param debugInfo {@code non-null;} the debug info to refer to
+     */
+    /*package*/ void setDebugInfo(DebugInfoItem debugInfo) {
+        if (debugInfo == null) {
+            throw new NullPointerException("debugInfo == null");
+        }
+
+        this.debugInfo = debugInfo;
+    }
+
+    /**
+     * Gets the item that is written for the method this instance is for.
+     * This is this instance, unless it turned out to be a duplicate.
+     *
+     * @return {@code non-null;} the item to refer to
+     */
+    /*package*/ CodeItem getCanonical() {
+        return (canonical == null) ? this : canonical;
+    }
+
+    /**
+     * Makes this instance a duplicate of another, which is written in
+     * its place. This instance must then be removed from the file.
+     *
+     * @param canonical {@code non-null;} the item with the same contents
+     */
+    /*package*/ void setCanonical(CodeItem canonical) {
+        if (canonical == null) {
+            throw new NullPointerException("canonical == null");
+        }
+
+        this.canonical = canonical;
+    }
+
+    /**
+     * Gets the bytes this instance would be written as, apart from the
+     * offset of its debug info, followed by the bytes of the debug info,
+     * if any. Two instances with the same contents can be written as
+     * one. This may only be called after the file's sections are
+     * prepared.
+     *
+     * @param file {@code non-null;} the file this instance is part of
+     * @return {@code non-null;} the contents
+     */
+    /*package*/ byte[] getContents(DexFile file) {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+
+        assignIndices(file);
+
+        out.writeShort(getRegistersSize());
+        out.writeShort(getInsSize());
+        out.writeShort(getOutsSize());
+        out.writeShort((catches == null) ? 0 : catches.triesSize());
+        out.writeInt(code.getInsns().codeSize());
+
+        writeCodes(file, out);
+
+        if (catches != null) {
+            catches.encode(file);
+            catches.writeTo(file, out);
+        }
+
+        if (debugInfo != null) {
+            out.writeByte(1);
+            out.write(debugInfo.getEncoded(file));
+        } else {
+            out.writeByte(0);
+        }
+
+        return out.toByteArray();
+    }
+
     /** {@inheritDoc} */
     @Override
     public String toString() {
@@ -190,22 +298,14 @@ public final class CodeItem extends OffsettedItem {
     /** {@inheritDoc} */
     @Override
     protected void place0(Section addedTo, int offset) {
-        final DexFile file = addedTo.getFile();
+        DexFile file = addedTo.getFile();
         int catchesSize;
 
         /*
          * In order to get the catches and insns, all the code's
          * constants need to be assigned indices.
          */
-        code.assignIndices(new DalvCode.AssignIndicesCallback() {
-                public int getIndex(Constant cst) {
-                    IndexedItem item = file.findItemOrNull(cst);
-                    if (item == null) {
-                        return -1;
-                    }
-                    return item.getIndex();
-                }
-            });
+        assignIndices(file);
 
         if (catches != null) {
             catches.encode(file);
@@ -288,6 +388,31 @@ public final class CodeItem extends OffsettedItem {
         }
     }
 
+    /**
+     * Assigns indices to all the code's constants, if that hasn't
+     * already been done. This has to be done before the code's
+     * instructions, or the debug info made from them, are looked at.
+     *
+     * @param file {@code non-null;} file we are part of
+     */
+    /*package*/ void assignIndices(final DexFile file) {
+        if (indicesAssigned) {
+            return;
+        }
+
+        code.assignIndices(new DalvCode.AssignIndicesCallback() {
+                public int getIndex(Constant cst) {
+                    IndexedItem item = file.findItemOrNull(cst);
+                    if (item == null) {
+                        return -1;
+                    }
+                    return item.getIndex();
+                }
+            });
+
+        indicesAssigned = true;
+    }
+
     /**
      * Helper for {@link #writeTo0} which writes out the actual bytecode.
      *
@@ -33,6 +33,7 @@ import com.android.dx.util.ExceptionWithContext;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.BitSet;
@@ -90,6 +91,9 @@ public final class DebugInfoEncoder {
     /** true if output should be consumed during annotation */
     private boolean shouldConsume;
 
+    /** whether to leave out what doesn't affect the positions' meaning */
+    private boolean compact;
+
     /** indexed by register; last local alive in register */
     private final LocalList.Entry[] lastEntryForReg;
 
@@ -120,6 +124,18 @@ public final class DebugInfoEncoder {
         lastEntryForReg = new LocalList.Entry[regSize];
     }
 
+    /**
+     * Sets whether to encode compactly, leaving out the prologue end
+     * marker (which is never anywhere but the start of the method), and
+     * any positions which cover no code or don't change the line. The
+     * line for each address stays the same.
+     *
+     * @param compact whether to encode compactly
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
     /**
      * Annotates or writes a message to the {@code debugPrint} writer
      * if applicable.
@@ -191,16 +207,21 @@ public final class DebugInfoEncoder {
     }
 
     private byte[] convert0() throws IOException {
-        ArrayList<PositionList.Entry> sortedPositions = buildSortedPositions();
+        PositionList sortedPositions = buildSortedPositions();
         ArrayList<LocalList.Entry> methodArgs = extractMethodArguments();
 
         emitHeader(sortedPositions, methodArgs);
 
-        // TODO: Make this mark be the actual prologue end.
-        output.writeByte(DBG_SET_PROLOGUE_END);
+        /*
+         * TODO: Make this mark be the actual prologue end. As it is, it
+         * says nothing, so compact encoding leaves it out.
+         */
+        if (!compact) {
+            output.writeByte(DBG_SET_PROLOGUE_END);
 
-        if (annotateTo != null || debugPrint != null) {
-            annotate(1, String.format("%04x: prologue end",address));
+            if (annotateTo != null || debugPrint != null) {
+                annotate(1, String.format("%04x: prologue end",address));
+            }
         }
 
         int positionsSz = sortedPositions.size();
@@ -346,7 +367,7 @@ public final class DebugInfoEncoder {
      * @throws IOException
      */
     private int emitPositionsAtAddress(int curPositionIdx,
-            ArrayList<PositionList.Entry> sortedPositions)
+            PositionList sortedPositions)
             throws IOException {
         int positionsSz = sortedPositions.size();
         while ((curPositionIdx < positionsSz)
@@ -366,7 +387,7 @@ public final class DebugInfoEncoder {
      * in left-to-right order omitting "this"
      * @throws IOException
      */
-    private void emitHeader(ArrayList<PositionList.Entry> sortedPositions,
+    private void emitHeader(PositionList sortedPositions,
             ArrayList<LocalList.Entry> methodArgs) throws IOException {
         boolean annotate = (annotateTo != null) || (debugPrint != null);
         int mark = output.getCursor();
@@ -480,27 +501,82 @@ public final class DebugInfoEncoder {
 
     /**
      * Builds a list of position entries, sorted by ascending address.
+     * This is usually the list of positions itself, which is normally
+     * made in address order. With compact encoding, positions that
+     * cover no code, because the next one is at the same address, and
+     * positions that don't change the line are left out.
      *
-     * @return A sorted positions list
+     * @return {@code non-null;} a sorted positions list
      */
-    private ArrayList<PositionList.Entry> buildSortedPositions() {
-        int sz = (positions == null) ? 0 : positions.size();
-        ArrayList<PositionList.Entry> result = new ArrayList(sz);
+    private PositionList buildSortedPositions() {
+        if (positions == null) {
+            return PositionList.EMPTY;
+        }
+
+        int sz = positions.size();
+        boolean sorted = true;
+
+        for (int i = 1; i < sz; i++) {
+            if (positions.get(i - 1).getAddress()
+                    > positions.get(i).getAddress()) {
+                sorted = false;
+                break;
+            }
+        }
+
+        if (sorted && !compact) {
+            return positions;
+        }
+
+        PositionList.Entry[] arr = new PositionList.Entry[sz];
 
         for (int i = 0; i < sz; i++) {
-            result.add(positions.get(i));
+            arr[i] = positions.get(i);
         }
 
-        // Sort ascending by address.
-        Collections.sort (result, new Comparator<PositionList.Entry>() {
-            public int compare (PositionList.Entry a, PositionList.Entry b) {
-                return a.getAddress() - b.getAddress();
-            }
+        if (!sorted) {
+            // Sort ascending by address.
+            Arrays.sort(arr, new Comparator<PositionList.Entry>() {
+                public int compare(PositionList.Entry a, PositionList.Entry b) {
+                    return a.getAddress() - b.getAddress();
+                }
 
-            public boolean equals (Object obj) {
-               return obj == this;
+                public boolean equals(Object obj) {
+                   return obj == this;
+                }
+            });
+        }
+
+        int at = sz;
+
+        if (compact) {
+            at = 0;
+
+            for (int i = 0; i < sz; i++) {
+                PositionList.Entry entry = arr[i];
+
+                if ((i + 1 < sz)
+                        && (arr[i + 1].getAddress() == entry.getAddress())) {
+                    continue;
+                }
+
+                if ((at > 0) && arr[at - 1].getPosition().sameLine(
+                                entry.getPosition())) {
+                    continue;
+                }
+
+                arr[at] = entry;
+                at++;
             }
-        });
+        }
+
+        PositionList result = new PositionList(at);
+
+        for (int i = 0; i < at; i++) {
+            result.set(i, arr[i]);
+        }
+
+        result.setImmutable();
         return result;
     }
 
@@ -42,7 +42,11 @@ public class DebugInfoItem extends OffsettedItem {
     private final boolean isStatic;
     private final CstMethodRef ref;
 
-    public DebugInfoItem(DalvCode code, boolean isStatic, CstMethodRef ref) {
+    /** whether to use the encoder's compact encoding */
+    private final boolean compact;
+
+    public DebugInfoItem(DalvCode code, boolean isStatic, CstMethodRef ref,
+            boolean compact) {
         // We don't know the write size yet.
         super (ALIGNMENT, -1);
 
@@ -53,6 +57,7 @@ public class DebugInfoItem extends OffsettedItem {
         this.code = code;
         this.isStatic = isStatic;
         this.ref = ref;
+        this.compact = compact;
     }
 
     /** {@inheritDoc} */
@@ -73,14 +78,29 @@ public class DebugInfoItem extends OffsettedItem {
         // Encode the data and note the size.
 
         try {
-            encoded = encode(addedTo.getFile(), null, null, null, false);
-            setWriteSize(encoded.length);
+            setWriteSize(getEncoded(addedTo.getFile()).length);
         } catch (RuntimeException ex) {
             throw ExceptionWithContext.withContext(ex,
                     "...while placing debug info for " + ref.toHuman());
         }
     }
 
+    /**
+     * Gets the encoded form of this instance, encoding it if that
+     * hasn't already been done. This may only be called after the
+     * file's sections are prepared.
+     *
+     * @param file {@code non-null;} the file this instance is part of
+     * @return {@code non-null;} the encoded array
+     */
+    /*package*/ byte[] getEncoded(DexFile file) {
+        if (encoded == null) {
+            encoded = encode(file, null, null, null, false);
+        }
+
+        return encoded;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String toHuman() {
@@ -182,6 +202,8 @@ public class DebugInfoItem extends OffsettedItem {
             new DebugInfoEncoder(positions, locals,
                     file, codeSize, regSize, isStatic, ref);
 
+        encoder.setCompact(compact);
+
         byte[] result;
 
         if ((debugPrint == null) && (out == null)) {
@@ -33,6 +33,8 @@ import java.io.Writer;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.Adler32;
 
 import static com.android.dx.dex.file.MixedItemSection.SortType;
@@ -101,6 +103,27 @@ public final class DexFile {
     /** {@code >= 40;} maximum width of the file dump */
     private int dumpWidth;
 
+    /** {@code null-ok;} how to lay out the startup set, if at all */
+    private StartupLayout startupLayout;
+
+    /** whether methods whose code is the same share a code item */
+    private boolean dedupeCode;
+
+    /** whether code items whose debug info is the same share it */
+    private boolean dedupeDebugInfo;
+
+    /** whether to encode debug info compactly */
+    private boolean compactDebugInfo;
+
+    /**
+     * {@code null-ok;} what removed duplicate code items and debug info,
+     * if that was done; set in {@link #toDex0}
+     */
+    private CodeDeduplicator codeDeduplicator;
+
+    /** {@code >= 1;} number of threads to write the data sections with */
+    private int numThreads;
+
     /**
      * Constructs an instance. It is initially empty.
      */
@@ -131,6 +154,12 @@ public final class DexFile {
 
         fileSize = -1;
         dumpWidth = 79;
+        startupLayout = null;
+        dedupeCode = false;
+        dedupeDebugInfo = false;
+        compactDebugInfo = false;
+        codeDeduplicator = null;
+        numThreads = 1;
     }
 
     /**
@@ -143,6 +172,75 @@ public final class DexFile {
         classDefs.add(clazz);
     }
 
+    /**
+     * Sets how to lay out what is used while an application starts.
+     * This must be called before the file is written.
+     *
+     * @param startupLayout {@code null-ok;} the layout, or {@code null}
+     * for the usual layout
+     */
+    public void setStartupLayout(StartupLayout startupLayout) {
+        this.startupLayout = startupLayout;
+    }
+
+    /**
+     * Sets whether methods whose code items turn out to be the same
+     * should share one. This must be called before the file is written.
+     *
+     * @param dedupeCode whether to share code items
+     */
+    public void setDedupeCode(boolean dedupeCode) {
+        this.dedupeCode = dedupeCode;
+    }
+
+    /**
+     * Sets whether code items whose debug info turns out to be the same
+     * should share one debug info item. This must be called before the
+     * file is written.
+     *
+     * @param dedupeDebugInfo whether to share debug info items
+     */
+    public void setDedupeDebugInfo(boolean dedupeDebugInfo) {
+        this.dedupeDebugInfo = dedupeDebugInfo;
+    }
+
+    /**
+     * Sets whether to encode debug info compactly. This must be called
+     * before the file is written.
+     *
+     * @param compactDebugInfo whether to encode debug info compactly
+     * @see DebugInfoEncoder#setCompact
+     */
+    public void setCompactDebugInfo(boolean compactDebugInfo) {
+        this.compactDebugInfo = compactDebugInfo;
+    }
+
+    /**
+     * Gets whether to encode debug info compactly.
+     *
+     * @return whether to encode debug info compactly
+     */
+    public boolean isCompactDebugInfo() {
+        return compactDebugInfo;
+    }
+
+    /**
+     * Sets the number of threads to write the items of the data sections
+     * with, once they are placed. With more than one, each section's
+     * items are written in chunks in parallel, into the same bytes as
+     * they would be written serially. Annotated output is always written
+     * serially.
+     *
+     * @param numThreads {@code >= 1;} the number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads < 1");
+        }
+
+        this.numThreads = numThreads;
+    }
+
     /**
      * Gets the class definition with the given name, if any.
      *
@@ -170,15 +268,10 @@ public final class DexFile {
      */
     public void writeTo(OutputStream out, Writer humanOut, boolean verbose)
         throws IOException {
-        boolean annotate = (humanOut != null);
-        ByteArrayAnnotatedOutput result = toDex0(annotate, verbose);
+        byte[] result = toDex0(humanOut, verbose);
 
         if (out != null) {
-            out.write(result.getArray());
-        }
-
-        if (annotate) {
-            result.writeAnnotationsTo(humanOut);
+            out.write(result);
         }
     }
 
@@ -192,14 +285,7 @@ public final class DexFile {
      */
     public byte[] toDex(Writer humanOut, boolean verbose)
         throws IOException {
-        boolean annotate = (humanOut != null);
-        ByteArrayAnnotatedOutput result = toDex0(annotate, verbose);
-
-        if (annotate) {
-            result.writeAnnotationsTo(humanOut);
-        }
-
-        return result.getArray();
+        return toDex0(humanOut, verbose);
     }
 
     /**
@@ -467,20 +553,28 @@ public final class DexFile {
 
     /**
      * Returns the contents of this instance as a {@code .dex} file,
-     * in a {@link ByteArrayAnnotatedOutput} instance.
+     * writing the human-oriented form as well if asked to. The
+     * annotations are written out as they go, so that they needn't all
+     * be kept. The file's checksum and signature are only known once
+     * all of it has been written, and they come first, so the file is
+     * written once without annotations, and then written again over
+     * itself with them.
      *
-     * @param annotate whether or not to keep annotations
+     * @param humanOut {@code null-ok;} where to write human-oriented output to
      * @param verbose if annotating, whether to be verbose
      * @return {@code non-null;} a {@code .dex} file for this instance
      */
-    private ByteArrayAnnotatedOutput toDex0(boolean annotate,
-            boolean verbose) {
+    private byte[] toDex0(Writer humanOut, boolean verbose) {
         /*
          * The following is ordered so that the prepare() calls which
          * add items happen before the calls to the sections that get
          * added to.
          */
 
+        if (startupLayout != null) {
+            startupLayout.orderClasses(this);
+        }
+
         classDefs.prepare();
         classData.prepare();
         wordData.prepare();
@@ -494,6 +588,16 @@ public final class DexFile {
         stringData.prepare();
         header.prepare();
 
+        if (dedupeCode || dedupeDebugInfo) {
+            codeDeduplicator =
+                new CodeDeduplicator(dedupeCode, dedupeDebugInfo);
+            codeDeduplicator.removeDuplicates(this);
+        }
+
+        if (startupLayout != null) {
+            startupLayout.orderItems(this);
+        }
+
         // Place the sections within the file.
 
         int count = sections.length;
@@ -532,17 +636,65 @@ public final class DexFile {
             }
         }
 
+        if (startupLayout != null) {
+            startupLayout.measure(this);
+        }
+
         // Write out all the sections.
 
         fileSize = offset;
         byte[] barr = new byte[fileSize];
-        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+        ExecutorService executor = null;
 
-        if (annotate) {
-            out.enableAnnotations(dumpWidth, verbose);
+        if (numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads);
         }
 
-        for (int i = 0; i < count; i++) {
+        try {
+            writeSections(new ByteArrayAnnotatedOutput(barr), executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        // Perform final bookkeeping.
+
+        calcSignature(barr);
+        calcChecksum(barr);
+
+        if (humanOut != null) {
+            /*
+             * This writes the same bytes again, except for the checksum
+             * and signature, which are left alone as they are written
+             * as zeroes.
+             */
+            ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+
+            out.enableAnnotations(dumpWidth, verbose, humanOut);
+            writeSections(out, null);
+            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
+                    "\nmethod code index:\n\n");
+            getStatistics().writeAnnotation(out);
+            out.finishAnnotating();
+        }
+
+        return barr;
+    }
+
+    /**
+     * Writes out all the sections, which have to have been placed.
+     *
+     * @param out {@code non-null;} where to write to; its array is that
+     * of the whole file
+     * @param executor {@code null-ok;} what to write the items of each
+     * section in parallel with, or {@code null} to write them serially
+     */
+    private void writeSections(ByteArrayAnnotatedOutput out,
+            ExecutorService executor) {
+        byte[] barr = out.getArray();
+
+        for (int i = 0; i < sections.length; i++) {
             try {
                 Section one = sections[i];
                 int zeroCount = one.getFileOffset() - out.getCursor();
@@ -551,7 +703,19 @@ public final class DexFile {
                             (-zeroCount));
                 }
                 out.writeZeroes(one.getFileOffset() - out.getCursor());
-                one.writeTo(out);
+
+                if ((executor != null) &&
+                        (one instanceof MixedItemSection)) {
+                    /*
+                     * The section's items are written straight into
+                     * the array, so just move the cursor past them.
+                     */
+                    ((MixedItemSection) one).writeTo(barr, executor,
+                            numThreads * 4);
+                    out.writeZeroes(one.writeSize());
+                } else {
+                    one.writeTo(out);
+                }
             } catch (RuntimeException ex) {
                 ExceptionWithContext ec;
                 if (ex instanceof ExceptionWithContext) {
@@ -567,20 +731,6 @@ public final class DexFile {
         if (out.getCursor() != fileSize) {
             throw new RuntimeException("foreshortened write");
         }
-
-        // Perform final bookkeeping.
-
-        calcSignature(barr);
-        calcChecksum(barr);
-
-        if (annotate) {
-            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
-                    "\nmethod code index:\n\n");
-            getStatistics().writeAnnotation(out);
-            out.finishAnnotating();
-        }
-
-        return out;
     }
 
     /**
@@ -595,6 +745,10 @@ public final class DexFile {
             stats.addAll(s);
         }
 
+        if (codeDeduplicator != null) {
+            codeDeduplicator.addTo(stats);
+        }
+
         return stats;
     }
 
@@ -154,6 +154,27 @@ public final class EncodedMethod extends EncodedMember
         return method;
     }
 
+    /**
+     * Gets the code for the method, if any.
+     *
+     * @return {@code null-ok;} the code, or {@code null} if the method
+     * is {@code abstract} or {@code native}
+     */
+    /*package*/ DalvCode getCode() {
+        return (code == null) ? null : code.getCode();
+    }
+
+    /**
+     * Gets the code item written for the method, if any. This is shared
+     * with other methods if their code turned out to be the same.
+     *
+     * @return {@code null-ok;} the code item, or {@code null} if the
+     * method is {@code abstract} or {@code native}
+     */
+    /*package*/ CodeItem getCodeItem() {
+        return (code == null) ? null : code.getCanonical();
+    }
+
     /** {@inheritDoc} */
     @Override
     public int encode(DexFile file, AnnotatedOutput out,
@@ -161,7 +182,7 @@ public final class EncodedMethod extends EncodedMember
         int methodIdx = file.getMethodIds().indexOf(method);
         int diff = methodIdx - lastIndex;
         int accessFlags = getAccessFlags();
-        int codeOff = OffsettedItem.getAbsoluteOffsetOr0(code);
+        int codeOff = OffsettedItem.getAbsoluteOffsetOr0(getCodeItem());
         boolean hasCode = (codeOff != 0);
         boolean shouldHaveCode = (accessFlags &
                 (AccessFlags.ACC_ABSTRACT | AccessFlags.ACC_NATIVE)) == 0;
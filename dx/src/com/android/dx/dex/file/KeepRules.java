@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+/**
+ * The roots that {@link TreeShaker} keeps, read from a file with one
+ * rule per line. Blank lines and lines starting with {@code #} are
+ * ignored. Class names are written in their human form, with
+ * {@code $} separating nested class names. The rules are:
+ *
+ * <ul>
+ * <li>{@code com.example.Main} keeps the class and all its members.</li>
+ * <li>{@code com.example.Main#main} keeps the class and its members
+ * called {@code main}.</li>
+ * <li>{@code @com.example.Keep} keeps any class annotated with
+ * {@code com.example.Keep}, along with all its members, and any member
+ * so annotated.</li>
+ * </ul>
+ *
+ * <p>In class and member names, {@code *} matches any part of a name
+ * other than a {@code .}, and {@code **} matches any part of a name at
+ * all, so that {@code com.example.**} keeps every class in the
+ * {@code com.example} package and the packages inside it.</p>
+ */
+public final class KeepRules {
+    /** {@code non-null;} patterns of classes to keep entirely */
+    private final ArrayList<Pattern> classes;
+
+    /** {@code non-null;} patterns of classes with members to keep */
+    private final ArrayList<Pattern> memberClasses;
+
+    /**
+     * {@code non-null;} patterns of members to keep, parallel to
+     * {@link #memberClasses}
+     */
+    private final ArrayList<Pattern> members;
+
+    /** {@code non-null;} names of annotations marking what to keep */
+    private final HashSet<String> annotations;
+
+    /**
+     * Reads the rules in a file.
+     *
+     * @param filename {@code non-null;} name of the file
+     * @return {@code non-null;} the rules
+     */
+    public static KeepRules read(String filename) {
+        KeepRules result = new KeepRules();
+
+        try {
+            FileReader fr = new FileReader(filename);
+            BufferedReader bfr = new BufferedReader(fr);
+
+            String line;
+
+            while (null != (line = bfr.readLine())) {
+                result.add(line.trim());
+            }
+
+            fr.close();
+        } catch (IOException ex) {
+            // Let the exception percolate up as a RuntimeException.
+            throw new RuntimeException("Error with keep rules: " +
+                    filename, ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Constructs an empty instance.
+     */
+    private KeepRules() {
+        classes = new ArrayList<Pattern>();
+        memberClasses = new ArrayList<Pattern>();
+        members = new ArrayList<Pattern>();
+        annotations = new HashSet<String>();
+    }
+
+    /**
+     * Adds a rule.
+     *
+     * @param rule {@code non-null;} the rule, trimmed
+     */
+    private void add(String rule) {
+        if ((rule.length() == 0) || rule.startsWith("#")) {
+            return;
+        }
+
+        if (rule.startsWith("@")) {
+            annotations.add(rule.substring(1));
+            return;
+        }
+
+        int at = rule.indexOf('#');
+
+        if (at < 0) {
+            classes.add(compile(rule));
+        } else {
+            memberClasses.add(compile(rule.substring(0, at)));
+            members.add(compile(rule.substring(at + 1)));
+        }
+    }
+
+    /**
+     * Compiles a name pattern into a regular expression.
+     *
+     * @param glob {@code non-null;} the name pattern
+     * @return {@code non-null;} the equivalent regular expression
+     */
+    private static Pattern compile(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int sz = glob.length();
+
+        for (int i = 0; i < sz; i++) {
+            char c = glob.charAt(i);
+
+            if (c != '*') {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            } else if ((i + 1 < sz) && (glob.charAt(i + 1) == '*')) {
+                sb.append(".*");
+                i++;
+            } else {
+                sb.append("[^.]*");
+            }
+        }
+
+        return Pattern.compile(sb.toString());
+    }
+
+    /**
+     * Tells whether a class is to be kept along with all its members.
+     *
+     * @param className {@code non-null;} human form of the class name
+     * @return whether the class is kept entirely
+     */
+    public boolean keepsClass(String className) {
+        for (Pattern p : classes) {
+            if (p.matcher(className).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Tells whether a member is to be kept.
+     *
+     * @param className {@code non-null;} human form of the name of the
+     * member's class
+     * @param memberName {@code non-null;} the member's name
+     * @return whether the member is kept
+     */
+    public boolean keepsMember(String className, String memberName) {
+        int sz = members.size();
+
+        for (int i = 0; i < sz; i++) {
+            if (memberClasses.get(i).matcher(className).matches()
+                    && members.get(i).matcher(memberName).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Tells whether an annotation marks what it annotates as kept.
+     *
+     * @param annotationName {@code non-null;} human form of the name of
+     * the annotation's type
+     * @return whether the annotation marks what to keep
+     */
+    public boolean isKeepAnnotation(String annotationName) {
+        return annotations.contains(annotationName);
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.dx.dex.file;
 
 import com.android.dx.util.AnnotatedOutput;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
 import com.android.dx.util.Hex;
 
@@ -26,9 +27,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * A section of a {@code .dex} file which consists of a sequence of
@@ -69,6 +75,18 @@ public final class MixedItemSection extends Section {
     /** {@code non-null;} how to sort the items */
     private final SortType sort;
 
+    /**
+     * {@code null-ok;} rank of each item to place ahead of the others of
+     * its type, or {@code null} if there are none
+     */
+    private IdentityHashMap<OffsettedItem, Integer> firstItems;
+
+    /**
+     * {@code null-ok;} offset of each of {@link #firstItems} had they
+     * been placed in the usual order; set in {@link #placeItems}
+     */
+    private IdentityHashMap<OffsettedItem, Integer> usualOffsets;
+
     /**
      * {@code >= -1;} the current size of this part, in bytes, or {@code -1}
      * if not yet calculated
@@ -222,6 +240,80 @@ public final class MixedItemSection extends Section {
         throw new NoSuchElementException(item.toString());
     }
 
+    /**
+     * Sets items to place ahead of the others of their type, in the
+     * given order. The other items keep the order they would otherwise
+     * have. This may only be called after this instance is prepared and
+     * before its items are placed.
+     *
+     * @param first {@code non-null;} the items to place first; each must
+     * have been added to this instance
+     */
+    public void setFirstItems(List<? extends OffsettedItem> first) {
+        throwIfNotPrepared();
+
+        int sz = first.size();
+
+        firstItems = new IdentityHashMap<OffsettedItem, Integer>(sz);
+
+        for (int i = 0; i < sz; i++) {
+            OffsettedItem one = first.get(i);
+            if (!firstItems.containsKey(one)) {
+                firstItems.put(one, i);
+            }
+        }
+    }
+
+    /**
+     * Gets the absolute offset an item placed by way of
+     * {@link #setFirstItems} would have had in the usual order, given
+     * the same write sizes.
+     *
+     * @param item {@code non-null;} the item, which must have been
+     * passed to {@link #setFirstItems}
+     * @return {@code >= 0;} the offset
+     */
+    public int getUsualOffset(OffsettedItem item) {
+        Integer result = usualOffsets.get(item);
+
+        if (result == null) {
+            throw new IllegalArgumentException("not placed first");
+        }
+
+        return getAbsoluteOffset(result);
+    }
+
+    /**
+     * Removes items that turned out to be duplicates of others. This may
+     * only be called after this instance is prepared and before its items
+     * are placed.
+     *
+     * @param removed {@code non-null;} the items to remove; each must have
+     * been added to this instance
+     */
+    public void removeItems(Collection<? extends OffsettedItem> removed) {
+        throwIfNotPrepared();
+
+        IdentityHashMap<OffsettedItem, OffsettedItem> set =
+            new IdentityHashMap<OffsettedItem, OffsettedItem>(removed.size());
+
+        for (OffsettedItem one : removed) {
+            set.put(one, one);
+        }
+
+        ArrayList<OffsettedItem> kept =
+            new ArrayList<OffsettedItem>(items.size());
+
+        for (OffsettedItem one : items) {
+            if (!set.containsKey(one)) {
+                kept.add(one);
+            }
+        }
+
+        items.clear();
+        items.addAll(kept);
+    }
+
     /**
      * Writes an index of contents of the items in this instance of the
      * given type. If there are none, this writes nothing. If there are any,
@@ -304,6 +396,17 @@ public final class MixedItemSection extends Section {
             }
         }
 
+        ArrayList<OffsettedItem> usualItems = null;
+
+        if (firstItems != null) {
+            /*
+             * The sort is stable, so the items keep their usual order
+             * other than those moved to the front of their type.
+             */
+            usualItems = new ArrayList<OffsettedItem>(items);
+            Collections.sort(items, new FirstItemSorter());
+        }
+
         int sz = items.size();
         int outAt = 0;
         for (int i = 0; i < sz; i++) {
@@ -324,6 +427,19 @@ public final class MixedItemSection extends Section {
         }
 
         writeSize = outAt;
+
+        if (usualItems != null) {
+            usualOffsets = new IdentityHashMap<OffsettedItem, Integer>();
+            outAt = 0;
+            for (OffsettedItem one : usualItems) {
+                int alignMask = one.getAlignment() - 1;
+                outAt = (outAt + alignMask) & ~alignMask;
+                if (firstItems.containsKey(one)) {
+                    usualOffsets.put(one, outAt);
+                }
+                outAt += one.writeSize();
+            }
+        }
     }
 
     /** {@inheritDoc} */
@@ -359,4 +475,113 @@ public final class MixedItemSection extends Section {
             throw new RuntimeException("output size mismatch");
         }
     }
+
+    /**
+     * Writes the items of this instance into the array for the whole
+     * file, in chunks that are written in parallel. Once the items are
+     * placed, what each one writes doesn't depend on the others, so each
+     * chunk just writes its items at their placed offsets, and the result
+     * is the same as that of {@link #writeTo}. The bytes between items
+     * are left alone, as the array starts out zeroed. This may only be
+     * called after the items are placed, and not when annotating.
+     *
+     * @param data {@code non-null;} the array for the whole file
+     * @param executor {@code non-null;} what to write the chunks with
+     * @param chunkCount {@code > 0;} the number of chunks to aim for
+     */
+    /*package*/ void writeTo(final byte[] data, ExecutorService executor,
+            int chunkCount) {
+        if (writeSize < 0) {
+            throw new RuntimeException("items not yet placed");
+        }
+
+        final DexFile file = getFile();
+        int chunkSize = Math.max(writeSize / chunkCount, 1);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        int sz = items.size();
+        int start = 0;
+        int startAt = 0;
+
+        for (int i = 0; i < sz; i++) {
+            int endAt = items.get(i).getRelativeOffset() +
+                items.get(i).writeSize();
+
+            if ((endAt - startAt < chunkSize) && (i != sz - 1)) {
+                continue;
+            }
+
+            final List<OffsettedItem> chunk = items.subList(start, i + 1);
+            final int chunkAt = getAbsoluteOffset(startAt);
+            final int chunkEnd = getAbsoluteOffset(endAt);
+
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    ByteArrayAnnotatedOutput out =
+                        new ByteArrayAnnotatedOutput(data);
+
+                    // This just moves the cursor, without writing.
+                    out.writeZeroes(chunkAt);
+
+                    for (OffsettedItem one : chunk) {
+                        one.writeTo(file, out);
+                    }
+
+                    /*
+                     * An item may leave padding at its end unwritten,
+                     * but none may write past the chunk into the next.
+                     */
+                    if (out.getCursor() > chunkEnd) {
+                        throw new RuntimeException("output size mismatch");
+                    }
+                }
+            }));
+
+            start = i + 1;
+            startAt = endAt;
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Comparator which puts the items to place first ahead of the others
+     * of their type, in their given order, and otherwise leaves the
+     * items where they are.
+     */
+    private class FirstItemSorter implements Comparator<OffsettedItem> {
+        /** {@inheritDoc} */
+        public int compare(OffsettedItem item1, OffsettedItem item2) {
+            if (sort != SortType.NONE) {
+                int result = item1.itemType().compareTo(item2.itemType());
+                if (result != 0) {
+                    return result;
+                }
+            }
+
+            Integer rank1 = firstItems.get(item1);
+            Integer rank2 = firstItems.get(item2);
+
+            if (rank1 == null) {
+                return (rank2 == null) ? 0 : 1;
+            } else if (rank2 == null) {
+                return -1;
+            }
+
+            return rank1.compareTo(rank2);
+        }
+    }
 }
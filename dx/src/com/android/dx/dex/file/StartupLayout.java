@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Type;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lays out a {@link DexFile} so that what a {@link StartupProfile} says
+ * is used while an application starts is together at the front of each
+ * section: the class definitions and class data of the startup classes,
+ * the code and debug info of the startup methods, the static values of
+ * the startup classes, and the string data those refer to. Since the
+ * file is mapped into memory, this keeps down the number of pages the
+ * application has to touch to start.
+ */
+public final class StartupLayout {
+    /** size of a page of memory, in bytes */
+    private static final int PAGE_SIZE = 4096;
+
+    /** {@code non-null;} the profile to lay out by */
+    private final StartupProfile profile;
+
+    /** {@code non-null;} the startup classes, in profile order */
+    private final ArrayList<ClassDefItem> classes;
+
+    /** {@code non-null;} class data of the startup classes */
+    private final ArrayList<OffsettedItem> classData;
+
+    /** {@code non-null;} code of the startup methods */
+    private final ArrayList<OffsettedItem> code;
+
+    /** {@code non-null;} debug info and static values of the above */
+    private final ArrayList<OffsettedItem> byteData;
+
+    /**
+     * {@code non-null;} string data referred to by all of the above,
+     * possibly more than once
+     */
+    private final ArrayList<OffsettedItem> stringData;
+
+    /** number of startup methods found */
+    private int methodCount;
+
+    /**
+     * {@code non-null;} pages spanned by the startup items in each part of
+     * the file, in the usual order and in startup order; set in
+     * {@link #measure}
+     */
+    private final LinkedHashMap<String, int[]> pageCounts;
+
+    /** pages spanned by all the startup items, in the usual order */
+    private int usualPages;
+
+    /** pages spanned by all the startup items, in startup order */
+    private int startupPages;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param profile {@code non-null;} the profile to lay out by
+     */
+    public StartupLayout(StartupProfile profile) {
+        if (profile == null) {
+            throw new NullPointerException("profile == null");
+        }
+
+        this.profile = profile;
+        this.classes = new ArrayList<ClassDefItem>();
+        this.classData = new ArrayList<OffsettedItem>();
+        this.code = new ArrayList<OffsettedItem>();
+        this.byteData = new ArrayList<OffsettedItem>();
+        this.stringData = new ArrayList<OffsettedItem>();
+        this.methodCount = 0;
+        this.pageCounts = new LinkedHashMap<String, int[]>();
+    }
+
+    /**
+     * Picks out the startup classes, to be ordered first once the file's
+     * sections are prepared. This is called before they are prepared.
+     *
+     * @param file {@code non-null;} the file being laid out
+     */
+    /*package*/ void orderClasses(DexFile file) {
+        ClassDefsSection classDefs = file.getClassDefs();
+        Map<Type, ClassDefItem> defs = classDefs.getClassDefs();
+        ArrayList<Type> types = new ArrayList<Type>();
+
+        for (String name : profile.getClasses()) {
+            Type type = Type.internClassName(name.replace('.', '/'));
+            ClassDefItem clazz = defs.get(type);
+
+            if (clazz != null) {
+                classes.add(clazz);
+                types.add(type);
+            }
+        }
+
+        classDefs.setFirstClasses(types);
+    }
+
+    /**
+     * Orders the startup classes and the items they use first.
+     * This is called after the file's sections are prepared, and before
+     * their items are placed.
+     *
+     * @param file {@code non-null;} the file being laid out
+     */
+    /*package*/ void orderItems(DexFile file) {
+        StringIdsSection stringIds = file.getStringIds();
+
+        file.getClassDefs().orderFirstClasses();
+
+        for (ClassDefItem clazz : classes) {
+            CstType thisClass = clazz.getThisClass();
+            String className = thisClass.toHuman();
+            ClassDataItem data = clazz.getClassData();
+
+            addString(stringIds, thisClass);
+
+            if (!data.isEmpty()) {
+                classData.add(data);
+            }
+
+            if (clazz.getStaticValuesItem() != null) {
+                byteData.add(clazz.getStaticValuesItem());
+            }
+
+            for (EncodedMethod method : clazz.getMethods()) {
+                CodeItem codeItem = method.getCodeItem();
+
+                if ((codeItem == null) || !profile.hasMethod(className,
+                                method.getName().getString())) {
+                    continue;
+                }
+
+                methodCount++;
+                code.add(codeItem);
+                addString(stringIds, method.getName());
+
+                if (codeItem.getDebugInfo() != null) {
+                    byteData.add(codeItem.getDebugInfo());
+                }
+
+                DalvCode dalvCode = codeItem.getCode();
+
+                for (Constant cst : dalvCode.getInsnConstants()) {
+                    addString(stringIds, cst);
+                }
+            }
+        }
+
+        file.getClassData().setFirstItems(classData);
+        file.getWordData().setFirstItems(code);
+        file.getByteData().setFirstItems(byteData);
+        file.getStringData().setFirstItems(stringData);
+    }
+
+    /**
+     * Helper for {@link #orderItems}, which adds the string data for
+     * the strings that a constant refers to.
+     *
+     * @param stringIds {@code non-null;} the file's string ids
+     * @param cst {@code non-null;} the constant
+     */
+    private void addString(StringIdsSection stringIds, Constant cst) {
+        CstUtf8 string;
+
+        if (cst instanceof CstUtf8) {
+            string = (CstUtf8) cst;
+        } else if (cst instanceof CstString) {
+            string = ((CstString) cst).getString();
+        } else if (cst instanceof CstType) {
+            string = ((CstType) cst).getDescriptor();
+        } else if (cst instanceof CstMemberRef) {
+            CstMemberRef ref = (CstMemberRef) cst;
+            addString(stringIds, ref.getDefiningClass());
+            string = ref.getNat().getName();
+        } else {
+            return;
+        }
+
+        stringData.add(((StringIdItem) stringIds.get(string)).getData());
+    }
+
+    /**
+     * Works out how many pages the startup items span, both as placed
+     * and as they would have been in the usual order. This is called
+     * after the file's items are placed.
+     *
+     * @param file {@code non-null;} the file being laid out
+     */
+    /*package*/ void measure(DexFile file) {
+        HashSet<Integer> allUsual = new HashSet<Integer>();
+        HashSet<Integer> allStartup = new HashSet<Integer>();
+
+        ClassDefsSection classDefs = file.getClassDefs();
+        IdentityHashMap<ClassDefItem, Integer> usualIndices =
+            new IdentityHashMap<ClassDefItem, Integer>();
+        HashSet<Integer> usual = new HashSet<Integer>();
+        HashSet<Integer> startup = new HashSet<Integer>();
+
+        for (ClassDefItem clazz : classDefs.getUsualOrder()) {
+            usualIndices.put(clazz, usualIndices.size());
+        }
+
+        for (ClassDefItem clazz : classes) {
+            int size = clazz.writeSize();
+            int usualAt = classDefs.getAbsoluteOffset(
+                    usualIndices.get(clazz) * size);
+            addPages(usual, usualAt, size);
+            addPages(startup, classDefs.getAbsoluteItemOffset(clazz), size);
+        }
+
+        addCounts("class defs", usual, startup, allUsual, allStartup);
+        measure("class data", file.getClassData(), classData,
+                allUsual, allStartup);
+        measure("code", file.getWordData(), code, allUsual, allStartup);
+        measure("debug info and static values", file.getByteData(),
+                byteData, allUsual, allStartup);
+        measure("string data", file.getStringData(), stringData,
+                allUsual, allStartup);
+
+        usualPages = allUsual.size();
+        startupPages = allStartup.size();
+    }
+
+    /**
+     * Helper for {@link #measure(DexFile)}, which measures the startup
+     * items in one section.
+     *
+     * @param name {@code non-null;} name of the part of the file
+     * @param section {@code non-null;} the section
+     * @param items {@code non-null;} the startup items in it
+     * @param allUsual {@code non-null;} pages spanned in the usual order
+     * by all the startup items
+     * @param allStartup {@code non-null;} pages spanned in startup order
+     * by all the startup items
+     */
+    private void measure(String name, MixedItemSection section,
+            ArrayList<OffsettedItem> items, HashSet<Integer> allUsual,
+            HashSet<Integer> allStartup) {
+        HashSet<Integer> usual = new HashSet<Integer>();
+        HashSet<Integer> startup = new HashSet<Integer>();
+
+        for (OffsettedItem item : items) {
+            int size = item.writeSize();
+            addPages(usual, section.getUsualOffset(item), size);
+            addPages(startup, item.getAbsoluteOffset(), size);
+        }
+
+        addCounts(name, usual, startup, allUsual, allStartup);
+    }
+
+    /**
+     * Helper for {@link #measure(DexFile)}, which notes the pages
+     * spanned in one part of the file.
+     *
+     * @param name {@code non-null;} name of the part of the file
+     * @param usual {@code non-null;} pages spanned in the usual order
+     * @param startup {@code non-null;} pages spanned in startup order
+     * @param allUsual {@code non-null;} pages spanned in the usual order
+     * by all the startup items
+     * @param allStartup {@code non-null;} pages spanned in startup order
+     * by all the startup items
+     */
+    private void addCounts(String name, HashSet<Integer> usual,
+            HashSet<Integer> startup, HashSet<Integer> allUsual,
+            HashSet<Integer> allStartup) {
+        pageCounts.put(name, new int[] { usual.size(), startup.size() });
+        allUsual.addAll(usual);
+        allStartup.addAll(startup);
+    }
+
+    /**
+     * Adds the pages that a range of bytes spans.
+     *
+     * @param pages {@code non-null;} the set to add to
+     * @param offset {@code >= 0;} the offset of the range
+     * @param size {@code >= 0;} the size of the range
+     */
+    private static void addPages(HashSet<Integer> pages, int offset,
+            int size) {
+        if (size == 0) {
+            return;
+        }
+
+        int last = (offset + size - 1) / PAGE_SIZE;
+
+        for (int page = offset / PAGE_SIZE; page <= last; page++) {
+            pages.add(page);
+        }
+    }
+
+    /**
+     * Prints how many pages the startup items span, in the usual order
+     * and in startup order.
+     *
+     * @param out {@code non-null;} where to print to
+     */
+    public void dumpStatistics(PrintStream out) {
+        out.printf("Startup set: %d classes and %d methods\n",
+                classes.size(), methodCount);
+        out.printf("Startup pages: %d in the usual order, %d in startup "
+                + "order\n", usualPages, startupPages);
+
+        for (String name : pageCounts.keySet()) {
+            int[] counts = pageCounts.get(name);
+            out.printf("  %s: %d -> %d\n", name, counts[0], counts[1]);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * The classes and methods used while an application starts, read from
+ * a file with one entry per line, in the order they are first used.
+ * Blank lines and lines starting with {@code #} are ignored. Class
+ * names are written in their human form, with {@code $} separating
+ * nested class names. An entry is either a class, such as
+ * {@code com.example.Main}, which covers the class and all its
+ * methods, or a method, such as {@code com.example.Main#onCreate},
+ * which covers the class and its methods of that name.
+ */
+public final class StartupProfile {
+    /** {@code non-null;} the classes, in the order first listed */
+    private final ArrayList<String> classes;
+
+    /** {@code non-null;} the same classes, for lookup */
+    private final HashSet<String> classSet;
+
+    /** {@code non-null;} the classes listed without a method */
+    private final HashSet<String> wholeClasses;
+
+    /** {@code non-null;} the methods listed, as {@code class#name} */
+    private final HashSet<String> methods;
+
+    /**
+     * Reads the profile in a file.
+     *
+     * @param filename {@code non-null;} name of the file
+     * @return {@code non-null;} the profile
+     */
+    public static StartupProfile read(String filename) {
+        StartupProfile result = new StartupProfile();
+
+        try {
+            FileReader fr = new FileReader(filename);
+            BufferedReader bfr = new BufferedReader(fr);
+
+            String line;
+
+            while (null != (line = bfr.readLine())) {
+                result.add(line.trim());
+            }
+
+            fr.close();
+        } catch (IOException ex) {
+            // Let the exception percolate up as a RuntimeException.
+            throw new RuntimeException("Error with startup profile: " +
+                    filename, ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Constructs an empty instance.
+     */
+    private StartupProfile() {
+        classes = new ArrayList<String>();
+        classSet = new HashSet<String>();
+        wholeClasses = new HashSet<String>();
+        methods = new HashSet<String>();
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param entry {@code non-null;} the entry, trimmed
+     */
+    private void add(String entry) {
+        if ((entry.length() == 0) || entry.startsWith("#")) {
+            return;
+        }
+
+        int at = entry.indexOf('#');
+        String className = (at < 0) ? entry : entry.substring(0, at);
+
+        if (classSet.add(className)) {
+            classes.add(className);
+        }
+
+        if (at < 0) {
+            wholeClasses.add(className);
+        } else {
+            methods.add(entry);
+        }
+    }
+
+    /**
+     * Gets the classes, in the order they are first used.
+     *
+     * @return {@code non-null;} the human forms of the class names
+     */
+    public ArrayList<String> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Tells whether a method is used at startup.
+     *
+     * @param className {@code non-null;} human form of the name of the
+     * method's class
+     * @param methodName {@code non-null;} the method's name
+     * @return whether the method is used at startup
+     */
+    public boolean hasMethod(String className, String methodName) {
+        return wholeClasses.contains(className)
+            || methods.contains(className + '#' + methodName);
+    }
+}
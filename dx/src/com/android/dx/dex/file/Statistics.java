@@ -52,6 +52,17 @@ public final class Statistics {
         }
     }
 
+    /**
+     * Notes that a duplicate of the given item was removed from the
+     * file, saving as many bytes as the item takes up. The item itself
+     * must already have been added.
+     *
+     * @param item {@code non-null;} the item that was kept
+     */
+    public void addDuplicate(Item item) {
+        dataMap.get(item.typeName()).addDuplicate(item);
+    }
+
     /**
      * Adds the given list of items to the statistics.
      *
@@ -124,6 +135,12 @@ public final class Statistics {
         /** {@code >= 0;} smallest size of any individual item */
         private int smallestSize;
 
+        /** {@code >= 0;} number of duplicate instances removed */
+        private int duplicateCount;
+
+        /** {@code >= 0;} total size of duplicate instances removed */
+        private int duplicateSize;
+
         /**
          * Constructs an instance for the given item.
          *
@@ -138,6 +155,8 @@ public final class Statistics {
             this.totalSize = size;
             this.largestSize = size;
             this.smallestSize = size;
+            this.duplicateCount = 0;
+            this.duplicateSize = 0;
         }
 
         /**
@@ -160,6 +179,17 @@ public final class Statistics {
             }
         }
 
+        /**
+         * Notes a duplicate of an item that was removed. This assumes the
+         * type name matches.
+         *
+         * @param item {@code non-null;} the item that was kept
+         */
+        public void addDuplicate(Item item) {
+            duplicateCount++;
+            duplicateSize += item.writeSize();
+        }
+
         /**
          * Writes this instance as an annotation.
          *
@@ -189,6 +219,12 @@ public final class Statistics {
                              " bytes/item; average " + average + "\n");
             }
 
+            if (duplicateCount != 0) {
+                sb.append("    " + duplicateCount + " duplicate" +
+                        (duplicateCount == 1 ? "" : "s") + " removed; " +
+                        duplicateSize + " bytes saved\n");
+            }
+
             return sb.toString();
         }
     }
@@ -23,8 +23,10 @@ import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Strings list section of a {@code .dex} file.
@@ -33,9 +35,16 @@ public final class StringIdsSection
         extends UniformItemSection {
     /**
      * {@code non-null;} map from string constants to {@link
-     * StringIdItem} instances
+     * StringIdItem} instances. Strings are interned into this in
+     * whatever order, possibly from more than one thread, and only
+     * sorted once, in {@link #orderItems}.
      */
-    private final TreeMap<CstUtf8, StringIdItem> strings;
+    private final ConcurrentHashMap<CstUtf8, StringIdItem> strings;
+
+    /**
+     * {@code null-ok;} the strings in order; set in {@link #orderItems}
+     */
+    private ArrayList<StringIdItem> orderedStrings;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -45,12 +54,17 @@ public final class StringIdsSection
     public StringIdsSection(DexFile file) {
         super("string_ids", file, 4);
 
-        strings = new TreeMap<CstUtf8, StringIdItem>();
+        strings = new ConcurrentHashMap<CstUtf8, StringIdItem>();
+        orderedStrings = null;
     }
 
     /** {@inheritDoc} */
     @Override
     public Collection<? extends Item> items() {
+        if (orderedStrings != null) {
+            return orderedStrings;
+        }
+
         return strings.values();
     }
 
@@ -130,7 +144,8 @@ public final class StringIdsSection
     }
 
     /**
-     * Interns an element into this instance.
+     * Interns an element into this instance. This may be called from
+     * more than one thread at once.
      *
      * @param string {@code non-null;} the string to intern
      * @return {@code non-null;} the interned string
@@ -142,15 +157,9 @@ public final class StringIdsSection
 
         throwIfPrepared();
 
-        CstUtf8 value = string.getValue();
-        StringIdItem already = strings.get(value);
-
-        if (already != null) {
-            return already;
-        }
+        StringIdItem already = strings.putIfAbsent(string.getValue(), string);
 
-        strings.put(value, string);
-        return string;
+        return (already != null) ? already : string;
     }
 
     /**
@@ -200,11 +209,16 @@ public final class StringIdsSection
     /** {@inheritDoc} */
     @Override
     protected void orderItems() {
-        int idx = 0;
+        CstUtf8[] values = strings.keySet().toArray(new CstUtf8[0]);
+        int sz = values.length;
+
+        Arrays.sort(values);
+        orderedStrings = new ArrayList<StringIdItem>(sz);
 
-        for (StringIdItem s : strings.values()) {
-            s.setIndex(idx);
-            idx++;
+        for (int i = 0; i < sz; i++) {
+            StringIdItem s = strings.get(values[i]);
+            s.setIndex(i);
+            orderedStrings.add(s);
         }
     }
 }
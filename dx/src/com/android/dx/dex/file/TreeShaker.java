@@ -0,0 +1,847 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.Prototype;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeList;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Removes the classes, methods and fields of a {@link DexFile} that
+ * can't be reached from the roots named by a set of {@link KeepRules}.
+ * This runs after all the classes are translated and before the file
+ * is written, following the types, methods and fields that each kept
+ * method's code refers to.
+ *
+ * <p>A call through a method reference keeps the method it resolves
+ * to, and also every method with the same name and descriptor in a
+ * kept class, since the call may be dispatched to any of them. Some
+ * methods are kept whenever their class is, because something other
+ * than code in the file may call them: static initializers, native
+ * methods, the methods of {@code Object} and of serialization, the
+ * {@code values} and {@code valueOf} methods of enums, and all the
+ * virtual methods of a class with a supertype from outside the file,
+ * since any of them might override a method of that supertype.
+ * Anything used only through reflection needs a keep rule.</p>
+ */
+public final class TreeShaker {
+    /** estimated size of a method's id and class data entry */
+    private static final int METHOD_SIZE = 11;
+
+    /** estimated size of a code item's header */
+    private static final int CODE_HEADER_SIZE = 16;
+
+    /** estimated size of a field's id and class data entry */
+    private static final int FIELD_SIZE = 10;
+
+    /** estimated size of a class's definition and type id */
+    private static final int CLASS_SIZE = 36;
+
+    /** {@code non-null;} type of the annotation listing member classes */
+    private static final Type MEMBER_CLASSES =
+        Type.intern("Ldalvik/annotation/MemberClasses;");
+
+    /** {@code non-null;} type of enums */
+    private static final Type ENUM = Type.intern("Ljava/lang/Enum;");
+
+    /** {@code non-null;} methods called by the VM or by library code */
+    private static final HashSet<String> IMPLICIT_METHODS =
+        new HashSet<String>();
+
+    /** {@code non-null;} fields used by library code */
+    private static final HashSet<String> IMPLICIT_FIELDS =
+        new HashSet<String>();
+
+    static {
+        String[] methods = {
+            "equals", "hashCode", "toString", "finalize", "clone",
+            "writeObject", "readObject", "readObjectNoData",
+            "writeReplace", "readResolve"
+        };
+        String[] fields = {
+            "serialVersionUID", "serialPersistentFields"
+        };
+
+        for (String one : methods) {
+            IMPLICIT_METHODS.add(one);
+        }
+
+        for (String one : fields) {
+            IMPLICIT_FIELDS.add(one);
+        }
+    }
+
+    /** {@code non-null;} file being shaken */
+    private final DexFile file;
+
+    /** {@code non-null;} roots to keep */
+    private final KeepRules rules;
+
+    /** {@code non-null;} classes in the file, by type */
+    private final Map<Type, ClassDefItem> classes;
+
+    /** {@code non-null;} classes found to be reachable */
+    private final HashSet<Type> liveClasses;
+
+    /** {@code non-null;} methods found to be reachable */
+    private final HashSet<CstMethodRef> liveMethods;
+
+    /** {@code non-null;} fields found to be reachable */
+    private final HashSet<CstFieldRef> liveFields;
+
+    /** {@code non-null;} names and descriptors of methods called virtually */
+    private final HashSet<CstNat> calledVirtuals;
+
+    /**
+     * {@code non-null;} virtual methods of reachable classes not yet
+     * known to be called, by name and descriptor
+     */
+    private final HashMap<CstNat, ArrayList<EncodedMethod>> pendingVirtuals;
+
+    /** {@code non-null;} reachable methods whose code is yet to be scanned */
+    private final ArrayList<EncodedMethod> worklist;
+
+    /**
+     * {@code non-null;} whether each class has a supertype from outside
+     * the file, other than {@code Object}
+     */
+    private final HashMap<Type, Boolean> extendsLibrary;
+
+    /**
+     * whether to estimate the bytes saved, which means finishing the
+     * code of every method removed
+     */
+    private final boolean estimateSizes;
+
+    /** {@code non-null;} estimated bytes saved, by package */
+    private final TreeMap<String, Integer> savedByPackage;
+
+    /** number of classes removed */
+    private int removedClasses;
+
+    /** number of methods removed */
+    private int removedMethods;
+
+    /** number of fields removed */
+    private int removedFields;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param file {@code non-null;} file to shake, with all its classes
+     * added
+     * @param rules {@code non-null;} roots to keep
+     * @param estimateSizes whether to estimate the bytes saved, for
+     * {@link #dumpStatistics}
+     */
+    public TreeShaker(DexFile file, KeepRules rules,
+            boolean estimateSizes) {
+        this.file = file;
+        this.rules = rules;
+        this.estimateSizes = estimateSizes;
+        this.classes = file.getClassDefs().getClassDefs();
+        this.liveClasses = new HashSet<Type>();
+        this.liveMethods = new HashSet<CstMethodRef>();
+        this.liveFields = new HashSet<CstFieldRef>();
+        this.calledVirtuals = new HashSet<CstNat>();
+        this.pendingVirtuals = new HashMap<CstNat, ArrayList<EncodedMethod>>();
+        this.worklist = new ArrayList<EncodedMethod>();
+        this.extendsLibrary = new HashMap<Type, Boolean>();
+        this.savedByPackage = new TreeMap<String, Integer>();
+    }
+
+    /**
+     * Finds what is reachable, and removes everything else.
+     */
+    public void run() {
+        markRoots();
+
+        while (!worklist.isEmpty()) {
+            scanCode(worklist.remove(worklist.size() - 1));
+        }
+
+        sweep();
+    }
+
+    /**
+     * Prints out what was removed, with the estimated bytes saved for
+     * each package.
+     *
+     * @param out {@code non-null;} where to output to
+     */
+    public void dumpStatistics(PrintStream out) {
+        int total = 0;
+
+        for (int one : savedByPackage.values()) {
+            total += one;
+        }
+
+        out.printf("Tree shaking removed %d classes, %d methods and "
+                + "%d fields (estimated %d bytes)\n",
+                removedClasses, removedMethods, removedFields, total);
+
+        for (Map.Entry<String, Integer> one : savedByPackage.entrySet()) {
+            out.printf("  %s: %d bytes\n", one.getKey(), one.getValue());
+        }
+    }
+
+    /**
+     * Marks the classes and members named by the keep rules.
+     */
+    private void markRoots() {
+        for (ClassDefItem clazz : classes.values()) {
+            String name = clazz.getThisClass().getClassType().toHuman();
+            boolean all = rules.keepsClass(name)
+                || hasKeepAnnotation(clazz.getClassAnnotations());
+
+            for (EncodedMethod one : clazz.getMethods()) {
+                CstMethodRef ref = one.getRef();
+                if (all
+                        || rules.keepsMember(name, one.getName().getString())
+                        || hasKeepAnnotation(
+                                clazz.getMethodAnnotations(ref))) {
+                    markMethod(clazz, one);
+                }
+            }
+
+            for (EncodedField one : clazz.getFields()) {
+                CstFieldRef ref = one.getRef();
+                if (all
+                        || rules.keepsMember(name, one.getName().getString())
+                        || hasKeepAnnotation(
+                                clazz.getFieldAnnotations(ref))) {
+                    markField(clazz, one);
+                }
+            }
+
+            if (all) {
+                markClass(clazz.getThisClass().getClassType());
+            }
+        }
+    }
+
+    /**
+     * Tells whether a set of annotations includes one marking what it
+     * annotates as kept.
+     *
+     * @param annotations {@code null-ok;} the annotations
+     * @return whether one of them is a keep annotation
+     */
+    private boolean hasKeepAnnotation(Annotations annotations) {
+        if (annotations == null) {
+            return false;
+        }
+
+        for (Annotation one : annotations.getAnnotations()) {
+            if (rules.isKeepAnnotation(
+                    one.getType().getClassType().toHuman())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Marks a class as reachable, along with its supertypes and the
+     * members that are kept whenever it is.
+     *
+     * @param type {@code non-null;} the class, or an array of it
+     */
+    private void markClass(Type type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+
+        ClassDefItem clazz = classes.get(type);
+
+        if ((clazz == null) || !liveClasses.add(type)) {
+            return;
+        }
+
+        CstType superclass = clazz.getSuperclass();
+
+        if (superclass != null) {
+            markClass(superclass.getClassType());
+        }
+
+        TypeList interfaces = clazz.getInterfaces();
+        int sz = interfaces.size();
+
+        for (int i = 0; i < sz; i++) {
+            markClass(interfaces.getType(i));
+        }
+
+        markAnnotations(clazz.getClassAnnotations());
+
+        boolean library = extendsLibrary(type);
+        boolean isEnum = (superclass != null)
+            && superclass.getClassType().equals(ENUM);
+
+        for (EncodedMethod one : clazz.getMethods()) {
+            CstMethodRef ref = one.getRef();
+            String name = one.getName().getString();
+            int accessFlags = one.getAccessFlags();
+
+            if (ref.isClassInit()
+                    || AccessFlags.isNative(accessFlags)
+                    || IMPLICIT_METHODS.contains(name)
+                    || (isEnum && (name.equals("values")
+                                    || name.equals("valueOf")))) {
+                markMethod(clazz, one);
+            } else if (isVirtual(one)) {
+                CstNat nat = ref.getNat();
+
+                if (library || calledVirtuals.contains(nat)) {
+                    markMethod(clazz, one);
+                } else {
+                    ArrayList<EncodedMethod> list = pendingVirtuals.get(nat);
+                    if (list == null) {
+                        list = new ArrayList<EncodedMethod>();
+                        pendingVirtuals.put(nat, list);
+                    }
+                    list.add(one);
+                }
+            }
+        }
+
+        for (EncodedField one : clazz.getFields()) {
+            if (IMPLICIT_FIELDS.contains(one.getName().getString())) {
+                markField(clazz, one);
+            }
+        }
+    }
+
+    /**
+     * Tells whether a method can be called virtually.
+     *
+     * @param method {@code non-null;} the method
+     * @return whether it is a virtual method
+     */
+    private static boolean isVirtual(EncodedMethod method) {
+        int accessFlags = method.getAccessFlags();
+
+        return !AccessFlags.isStatic(accessFlags)
+            && !AccessFlags.isPrivate(accessFlags)
+            && !method.getRef().isInstanceInit();
+    }
+
+    /**
+     * Tells whether a class has a supertype from outside the file,
+     * other than {@code Object}, whose methods its own might override.
+     *
+     * @param type {@code non-null;} the class
+     * @return whether it extends or implements a library type
+     */
+    private boolean extendsLibrary(Type type) {
+        Boolean known = extendsLibrary.get(type);
+
+        if (known != null) {
+            return known;
+        }
+
+        ClassDefItem clazz = classes.get(type);
+        boolean result;
+
+        if (clazz == null) {
+            result = !type.equals(Type.OBJECT);
+        } else {
+            CstType superclass = clazz.getSuperclass();
+            TypeList interfaces = clazz.getInterfaces();
+            int sz = interfaces.size();
+
+            result = (superclass != null)
+                && extendsLibrary(superclass.getClassType());
+
+            for (int i = 0; !result && (i < sz); i++) {
+                result = extendsLibrary(interfaces.getType(i));
+            }
+        }
+
+        extendsLibrary.put(type, result);
+        return result;
+    }
+
+    /**
+     * Marks a method as reachable, and queues its code to be scanned.
+     *
+     * @param clazz {@code non-null;} the method's class
+     * @param method {@code non-null;} the method
+     */
+    private void markMethod(ClassDefItem clazz, EncodedMethod method) {
+        CstMethodRef ref = method.getRef();
+
+        if (!liveMethods.add(ref)) {
+            return;
+        }
+
+        markClass(clazz.getThisClass().getClassType());
+        markPrototype(ref.getPrototype());
+        markAnnotations(clazz.getMethodAnnotations(ref));
+
+        AnnotationsList list = clazz.getParameterAnnotations(ref);
+
+        if (list != null) {
+            int sz = list.size();
+            for (int i = 0; i < sz; i++) {
+                markAnnotations(list.get(i));
+            }
+        }
+
+        if (method.getCode() != null) {
+            worklist.add(method);
+        }
+    }
+
+    /**
+     * Marks the classes a method's prototype refers to.
+     *
+     * @param prototype {@code non-null;} the prototype
+     */
+    private void markPrototype(Prototype prototype) {
+        StdTypeList params = prototype.getParameterTypes();
+        int sz = params.size();
+
+        markClass(prototype.getReturnType());
+
+        for (int i = 0; i < sz; i++) {
+            markClass(params.getType(i));
+        }
+    }
+
+    /**
+     * Marks a field as reachable.
+     *
+     * @param clazz {@code non-null;} the field's class
+     * @param field {@code non-null;} the field
+     */
+    private void markField(ClassDefItem clazz, EncodedField field) {
+        CstFieldRef ref = field.getRef();
+
+        if (!liveFields.add(ref)) {
+            return;
+        }
+
+        markClass(clazz.getThisClass().getClassType());
+        markClass(ref.getType());
+        markAnnotations(clazz.getFieldAnnotations(ref));
+    }
+
+    /**
+     * Marks what a method's code refers to.
+     *
+     * @param method {@code non-null;} the method
+     */
+    private void scanCode(EncodedMethod method) {
+        DalvCode code = method.getCode();
+
+        for (Constant cst : code.getInsnConstants()) {
+            markConstant(cst);
+        }
+
+        if (code.hasAnyCatches()) {
+            for (Type type : code.getCatchTypes()) {
+                markClass(type);
+            }
+        }
+    }
+
+    /**
+     * Marks what a constant refers to, if anything.
+     *
+     * @param cst {@code non-null;} the constant
+     */
+    private void markConstant(Constant cst) {
+        if (cst instanceof CstType) {
+            markClass(((CstType) cst).getClassType());
+        } else if (cst instanceof CstBaseMethodRef) {
+            markMethodRef((CstBaseMethodRef) cst);
+        } else if (cst instanceof CstFieldRef) {
+            markFieldRef((CstFieldRef) cst);
+        } else if (cst instanceof CstEnumRef) {
+            markFieldRef(((CstEnumRef) cst).getFieldRef());
+        } else if (cst instanceof CstAnnotation) {
+            markAnnotation(((CstAnnotation) cst).getAnnotation());
+        } else if (cst instanceof CstArray) {
+            CstArray.List list = ((CstArray) cst).getList();
+            int sz = list.size();
+            for (int i = 0; i < sz; i++) {
+                markConstant(list.get(i));
+            }
+        }
+    }
+
+    /**
+     * Marks what a set of annotations refers to.
+     *
+     * @param annotations {@code null-ok;} the annotations
+     */
+    private void markAnnotations(Annotations annotations) {
+        if (annotations == null) {
+            return;
+        }
+
+        for (Annotation one : annotations.getAnnotations()) {
+            markAnnotation(one);
+        }
+    }
+
+    /**
+     * Marks what an annotation refers to. The member classes a class
+     * lists are left out, so that a class doesn't keep all its nested
+     * classes; any removed ones are dropped from the list afterwards.
+     *
+     * @param annotation {@code non-null;} the annotation
+     */
+    private void markAnnotation(Annotation annotation) {
+        Type type = annotation.getType().getClassType();
+
+        markClass(type);
+
+        if (type.equals(MEMBER_CLASSES)) {
+            return;
+        }
+
+        for (NameValuePair pair : annotation.getNameValuePairs()) {
+            markConstant(pair.getValue());
+        }
+    }
+
+    /**
+     * Marks a method reference as called. The method it resolves to is
+     * marked, and if it can be dispatched virtually, so is every method
+     * of a reachable class with the same name and descriptor.
+     *
+     * @param ref {@code non-null;} the method reference
+     */
+    private void markMethodRef(CstBaseMethodRef ref) {
+        Type type = ref.getDefiningClass().getClassType();
+        CstNat nat = ref.getNat();
+
+        markClass(type);
+
+        ClassDefItem[] owner = new ClassDefItem[1];
+        EncodedMethod method = resolveMethod(type, nat, owner);
+
+        if (method != null) {
+            markMethod(owner[0], method);
+        }
+
+        if (((method == null) || isVirtual(method))
+                && calledVirtuals.add(nat)) {
+            ArrayList<EncodedMethod> list = pendingVirtuals.remove(nat);
+            if (list != null) {
+                for (EncodedMethod one : list) {
+                    markMethod(classes.get(
+                            one.getRef().getDefiningClass().getClassType()),
+                            one);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the method a reference resolves to, looking in the class,
+     * then its superclasses, then its interfaces.
+     *
+     * @param type {@code non-null;} class to start looking in
+     * @param nat {@code non-null;} name and descriptor of the method
+     * @param owner {@code non-null;} where to store the class the method
+     * was found in
+     * @return {@code null-ok;} the method, or {@code null} if it isn't
+     * in the file
+     */
+    private EncodedMethod resolveMethod(Type type, CstNat nat,
+            ClassDefItem[] owner) {
+        ClassDefItem clazz = classes.get(type);
+
+        if (clazz == null) {
+            return null;
+        }
+
+        for (EncodedMethod one : clazz.getMethods()) {
+            if (one.getRef().getNat().equals(nat)) {
+                owner[0] = clazz;
+                return one;
+            }
+        }
+
+        CstType superclass = clazz.getSuperclass();
+        EncodedMethod result = null;
+
+        if (superclass != null) {
+            result = resolveMethod(superclass.getClassType(), nat, owner);
+        }
+
+        TypeList interfaces = clazz.getInterfaces();
+        int sz = interfaces.size();
+
+        for (int i = 0; (result == null) && (i < sz); i++) {
+            result = resolveMethod(interfaces.getType(i), nat, owner);
+        }
+
+        return result;
+    }
+
+    /**
+     * Marks the field a field reference resolves to, looking in the
+     * class, then its interfaces, then its superclasses.
+     *
+     * @param ref {@code non-null;} the field reference
+     */
+    private void markFieldRef(CstFieldRef ref) {
+        Type type = ref.getDefiningClass().getClassType();
+
+        markClass(type);
+        markClass(ref.getType());
+        resolveField(type, ref.getNat());
+    }
+
+    /**
+     * Helper for {@link #markFieldRef}, which finds and marks the field.
+     *
+     * @param type {@code non-null;} class to look in
+     * @param nat {@code non-null;} name and type of the field
+     * @return whether the field was found
+     */
+    private boolean resolveField(Type type, CstNat nat) {
+        ClassDefItem clazz = classes.get(type);
+
+        if (clazz == null) {
+            return false;
+        }
+
+        for (EncodedField one : clazz.getFields()) {
+            if (one.getRef().getNat().equals(nat)) {
+                markField(clazz, one);
+                return true;
+            }
+        }
+
+        TypeList interfaces = clazz.getInterfaces();
+        int sz = interfaces.size();
+
+        for (int i = 0; i < sz; i++) {
+            if (resolveField(interfaces.getType(i), nat)) {
+                return true;
+            }
+        }
+
+        CstType superclass = clazz.getSuperclass();
+
+        return (superclass != null)
+            && resolveField(superclass.getClassType(), nat);
+    }
+
+    /**
+     * Removes everything not marked as reachable.
+     */
+    private void sweep() {
+        ArrayList<ClassDefItem> all =
+            new ArrayList<ClassDefItem>(classes.values());
+
+        for (ClassDefItem clazz : all) {
+            Type type = clazz.getThisClass().getClassType();
+            String pkg = getPackage(type);
+
+            if (!liveClasses.contains(type)) {
+                for (EncodedMethod one : clazz.getMethods()) {
+                    save(pkg, sizeOf(one));
+                }
+                save(pkg, FIELD_SIZE * clazz.getFields().size()
+                        + CLASS_SIZE);
+                file.getClassDefs().remove(type);
+                removedClasses++;
+                continue;
+            }
+
+            for (EncodedMethod one : clazz.getMethods()) {
+                if (!liveMethods.contains(one.getRef())) {
+                    save(pkg, sizeOf(one));
+                    clazz.removeMethod(one);
+                    removedMethods++;
+                }
+            }
+
+            for (EncodedField one : clazz.getFields()) {
+                if (!liveFields.contains(one.getRef())) {
+                    save(pkg, FIELD_SIZE);
+                    clazz.removeField(one);
+                    removedFields++;
+                }
+            }
+
+            pruneMemberClasses(clazz);
+        }
+    }
+
+    /**
+     * Drops removed classes from the list of member classes a class
+     * carries as an annotation, if it has one.
+     *
+     * @param clazz {@code non-null;} the class
+     */
+    private void pruneMemberClasses(ClassDefItem clazz) {
+        Annotations annotations = clazz.getClassAnnotations();
+
+        if (annotations == null) {
+            return;
+        }
+
+        Annotations result = new Annotations();
+        boolean changed = false;
+
+        for (Annotation one : annotations.getAnnotations()) {
+            if (!one.getType().getClassType().equals(MEMBER_CLASSES)) {
+                result.add(one);
+                continue;
+            }
+
+            Annotation pruned = new Annotation(one.getType(),
+                    one.getVisibility());
+
+            for (NameValuePair pair : one.getNameValuePairs()) {
+                CstArray.List list = ((CstArray) pair.getValue()).getList();
+                ArrayList<Constant> kept = new ArrayList<Constant>();
+                int sz = list.size();
+
+                for (int i = 0; i < sz; i++) {
+                    Constant cst = list.get(i);
+                    if (liveClasses.contains(
+                            ((CstType) cst).getClassType())) {
+                        kept.add(cst);
+                    }
+                }
+
+                if (kept.size() == sz) {
+                    pruned.add(pair);
+                    continue;
+                }
+
+                changed = true;
+
+                if (kept.isEmpty()) {
+                    continue;
+                }
+
+                CstArray.List newList = new CstArray.List(kept.size());
+                for (int i = 0; i < kept.size(); i++) {
+                    newList.set(i, kept.get(i));
+                }
+                newList.setImmutable();
+                pruned.add(new NameValuePair(pair.getName(),
+                                new CstArray(newList)));
+            }
+
+            if (pruned.getNameValuePairs().size() != 0) {
+                pruned.setImmutable();
+                result.add(pruned);
+            }
+        }
+
+        if (changed) {
+            result.setImmutable();
+            clazz.replaceClassAnnotations(
+                    (result.size() == 0) ? null : result);
+        }
+    }
+
+    /**
+     * Gets the package a class is in, in human form.
+     *
+     * @param type {@code non-null;} the class
+     * @return {@code non-null;} the package name
+     */
+    private static String getPackage(Type type) {
+        String name = type.toHuman();
+        int at = name.lastIndexOf('.');
+
+        return (at < 0) ? "(default)" : name.substring(0, at);
+    }
+
+    /**
+     * Adds to the estimated bytes saved in a package.
+     *
+     * @param pkg {@code non-null;} the package
+     * @param size {@code >= 0;} the bytes saved
+     */
+    private void save(String pkg, int size) {
+        if (!estimateSizes) {
+            return;
+        }
+
+        Integer old = savedByPackage.get(pkg);
+
+        savedByPackage.put(pkg, (old == null) ? size : old + size);
+    }
+
+    /**
+     * Estimates the bytes a method takes up, if sizes are being
+     * estimated at all. The code of a removed method is finished just
+     * to find its size, with made-up indices and without the peephole
+     * optimizer, whose statistics should only cover code that is
+     * written out.
+     *
+     * @param method {@code non-null;} the method
+     * @return {@code >= 0;} its estimated size
+     */
+    private int sizeOf(EncodedMethod method) {
+        DalvCode code = method.getCode();
+
+        if (!estimateSizes) {
+            return 0;
+        }
+
+        if (code == null) {
+            return METHOD_SIZE;
+        }
+
+        code.assignIndices(new DalvCode.AssignIndicesCallback() {
+            public int getIndex(Constant cst) {
+                return 0;
+            }
+        });
+
+        code.disablePeephole();
+
+        return METHOD_SIZE + CODE_HEADER_SIZE
+            + code.getInsns().codeSize() * 2;
+    }
+}
@@ -22,17 +22,24 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Type identifiers list section of a {@code .dex} file.
  */
 public final class TypeIdsSection extends UniformItemSection {
     /**
-     * {@code non-null;} map from types to {@link TypeIdItem} instances
+     * {@code non-null;} map from types to {@link TypeIdItem} instances.
+     * Types are interned into this in whatever order, possibly from more
+     * than one thread, and only sorted once, in {@link #orderItems}.
      */
-    private final TreeMap<Type, TypeIdItem> typeIds;
+    private final ConcurrentHashMap<Type, TypeIdItem> typeIds;
+
+    /** {@code null-ok;} the types in order; set in {@link #orderItems} */
+    private ArrayList<TypeIdItem> orderedTypeIds;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -42,12 +49,17 @@ public final class TypeIdsSection extends UniformItemSection {
     public TypeIdsSection(DexFile file) {
         super("type_ids", file, 4);
 
-        typeIds = new TreeMap<Type, TypeIdItem>();
+        typeIds = new ConcurrentHashMap<Type, TypeIdItem>();
+        orderedTypeIds = null;
     }
 
     /** {@inheritDoc} */
     @Override
     public Collection<? extends Item> items() {
+        if (orderedTypeIds != null) {
+            return orderedTypeIds;
+        }
+
         return typeIds.values();
     }
 
@@ -95,7 +107,8 @@ public final class TypeIdsSection extends UniformItemSection {
     }
 
     /**
-     * Interns an element into this instance.
+     * Interns an element into this instance. This may be called from
+     * more than one thread at once.
      *
      * @param type {@code non-null;} the type to intern
      * @return {@code non-null;} the interned reference
@@ -111,14 +124,19 @@ public final class TypeIdsSection extends UniformItemSection {
 
         if (result == null) {
             result = new TypeIdItem(new CstType(type));
-            typeIds.put(type, result);
+
+            TypeIdItem already = typeIds.putIfAbsent(type, result);
+            if (already != null) {
+                result = already;
+            }
         }
 
         return result;
     }
 
     /**
-     * Interns an element into this instance.
+     * Interns an element into this instance. This may be called from
+     * more than one thread at once.
      *
      * @param type {@code non-null;} the type to intern
      * @return {@code non-null;} the interned reference
@@ -135,7 +153,11 @@ public final class TypeIdsSection extends UniformItemSection {
 
         if (result == null) {
             result = new TypeIdItem(type);
-            typeIds.put(typePerSe, result);
+
+            TypeIdItem already = typeIds.putIfAbsent(typePerSe, result);
+            if (already != null) {
+                result = already;
+            }
         }
 
         return result;
@@ -182,11 +204,16 @@ public final class TypeIdsSection extends UniformItemSection {
     /** {@inheritDoc} */
     @Override
     protected void orderItems() {
-        int idx = 0;
+        Type[] types = typeIds.keySet().toArray(new Type[0]);
+        int sz = types.length;
+
+        Arrays.sort(types);
+        orderedTypeIds = new ArrayList<TypeIdItem>(sz);
 
-        for (Object i : items()) {
-            ((TypeIdItem) i).setIndex(idx);
-            idx++;
+        for (int i = 0; i < sz; i++) {
+            TypeIdItem item = typeIds.get(types[i]);
+            item.setIndex(i);
+            orderedTypeIds.add(item);
         }
     }
 }
@@ -67,8 +67,14 @@ public final class PlainCstInsn
     /** {@inheritDoc} */
     @Override
     public Insn withRegisterOffset(int delta) {
+        RegisterSpec result = getResult();
+
+        if (result != null) {
+            result = result.withOffset(delta);
+        }
+
         return new PlainCstInsn(getOpcode(), getPosition(),
-                                getResult().withOffset(delta),
+                                result,
                                 getSources().withOffset(delta),
                                 getConstant());
     }
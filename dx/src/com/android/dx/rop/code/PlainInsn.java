@@ -88,8 +88,14 @@ public final class PlainInsn
     /** {@inheritDoc} */
     @Override
     public Insn withRegisterOffset(int delta) {
+        RegisterSpec result = getResult();
+
+        if (result != null) {
+            result = result.withOffset(delta);
+        }
+
         return new PlainInsn(getOpcode(), getPosition(),
-                             getResult().withOffset(delta),
+                             result,
                              getSources().withOffset(delta));
     }
 
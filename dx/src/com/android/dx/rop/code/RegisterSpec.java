@@ -21,8 +21,7 @@ import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeBearer;
 import com.android.dx.util.ToHuman;
-
-import java.util.HashMap;
+import com.android.dx.util.WeakInternTable;
 
 /**
  * Combination of a register number and a type, used as the sources and
@@ -34,10 +33,14 @@ public final class RegisterSpec
     public static final String PREFIX = "v";
 
     /** {@code non-null;} intern table for instances */
-    private static final HashMap<Object, RegisterSpec> theInterns =
-        new HashMap<Object, RegisterSpec>(1000);
+    private static final WeakInternTable<ForComparison, RegisterSpec>
+        theInterns = new WeakInternTable<ForComparison, RegisterSpec>(
+                "register specs", 1000);
 
-    /** {@code non-null;} common comparison instance used while interning */
+    /**
+     * {@code non-null;} common comparison instance used while interning,
+     * while holding the lock on {@link #theInterns}
+     */
     private static final ForComparison theInterningItem = new ForComparison();
 
     /** {@code >= 0;} register number */
@@ -60,16 +63,23 @@ public final class RegisterSpec
      */
     private static RegisterSpec intern(int reg, TypeBearer type,
             LocalItem local) {
-        theInterningItem.set(reg, type, local);
-        RegisterSpec found = theInterns.get(theInterningItem);
+        synchronized (theInterns) {
+            theInterningItem.set(reg, type, local);
+            RegisterSpec found = theInterns.get(theInterningItem);
 
-        if (found != null) {
-            return found;
-        }
+            if (found != null) {
+                return found;
+            }
 
-        found = theInterningItem.toRegisterSpec();
-        theInterns.put(found, found);
-        return found;
+            /*
+             * The key is a copy, since the instance itself can't be
+             * the key of a table which only refers to it weakly.
+             */
+            ForComparison key = new ForComparison();
+            key.set(reg, type, local);
+            found = key.toRegisterSpec();
+            return theInterns.intern(key, found);
+        }
     }
 
     /**
@@ -633,6 +643,14 @@ public final class RegisterSpec
         /** {@inheritDoc} */
         @Override
         public boolean equals(Object other) {
+            if (other instanceof ForComparison) {
+                ForComparison fc = (ForComparison) other;
+                return (reg == fc.reg)
+                    && type.equals(fc.type)
+                    && ((local == fc.local)
+                            || ((local != null) && local.equals(fc.local)));
+            }
+
             if (!(other instanceof RegisterSpec)) {
                 return false;
             }
@@ -80,8 +80,14 @@ public final class SwitchInsn
     /** {@inheritDoc} */
     @Override
     public Insn withRegisterOffset(int delta) {
+        RegisterSpec result = getResult();
+
+        if (result != null) {
+            result = result.withOffset(delta);
+        }
+
         return new SwitchInsn(getOpcode(), getPosition(),
-                              getResult().withOffset(delta),
+                              result,
                               getSources().withOffset(delta),
                               cases);
     }
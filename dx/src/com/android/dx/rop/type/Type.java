@@ -17,8 +17,8 @@
 package com.android.dx.rop.type;
 
 import com.android.dx.util.Hex;
+import com.android.dx.util.WeakInternTable;
 
-import java.util.HashMap;
 
 /**
  * Representation of a value type, such as may appear in a field, in a
@@ -28,8 +28,8 @@ import java.util.HashMap;
  */
 public final class Type implements TypeBearer, Comparable<Type> {
     /** {@code non-null;} intern table mapping string descriptors to instances */
-    private static final HashMap<String, Type> internTable =
-        new HashMap<String, Type>(500);
+    private static final WeakInternTable<String, Type> internTable =
+        new WeakInternTable<String, Type>("types", 500);
 
     /** basic type constant for {@code void} */
     public static final int BT_VOID = 0;
@@ -842,14 +842,6 @@ public final class Type implements TypeBearer, Comparable<Type> {
      * @return {@code non-null;} the actual interned object
      */
     private static Type putIntern(Type type) {
-        synchronized (internTable) {
-            String descriptor = type.getDescriptor();
-            Type already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, type);
-            return type;
-        }
+        return internTable.intern(type.getDescriptor(), type);
     }
 }
@@ -294,6 +294,7 @@ public class ConstCollector {
             ArrayList<SsaInsn> insns = use.getBlock().getInsns();
 
             insns.add(insns.indexOf(use) + 1, newInsn);
+            ssaMeth.onInsnAdded(newInsn);
         }
     }
 
@@ -315,8 +316,6 @@ public class ConstCollector {
         final HashSet<TypedConstant> usedByLocal
                 = new HashSet<TypedConstant>();
 
-        final ArrayList<SsaInsn>[] useList = ssaMeth.getUseListCopy();
-
         for (int i = 0; i < origRegCount; i++) {
             SsaInsn insn = ssaMeth.getDefinitionForRegister(i);
 
@@ -372,7 +371,14 @@ public class ConstCollector {
                 }
             };
 
-            for (SsaInsn use : useList[origReg.getReg()]) {
+            /*
+             * Mapping a use takes it off origReg's use list, so walk a
+             * snapshot of the list.
+             */
+            ArrayList<SsaInsn> uses = new ArrayList<SsaInsn>(
+                    ssaMeth.getUseListForRegister(origReg.getReg()));
+
+            for (SsaInsn use : uses) {
                 if (use.canThrow()
                         && use.getBlock().getSuccessors().cardinality() > 1) {
                     continue;
@@ -25,7 +25,6 @@ import com.android.dx.rop.code.Rops;
 import com.android.dx.rop.code.SourcePosition;
 import com.android.dx.rop.code.Insn;
 
-import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashSet;
 
@@ -48,9 +47,6 @@ public class DeadCodeRemover {
      */
     private final BitSet worklist;
 
-    /** use list indexed by register; modified during operation */
-    private final ArrayList<SsaInsn>[] useList;
-
     /**
      * Process a method with the dead-code remver
      *
@@ -71,7 +67,6 @@ public class DeadCodeRemover {
 
         regCount = ssaMethod.getRegCount();
         worklist = new BitSet(regCount);
-        useList = ssaMeth.getUseListCopy();
     }
 
     /**
@@ -87,23 +82,24 @@ public class DeadCodeRemover {
         while ( 0 <= (regV = worklist.nextSetBit(0)) ) {
             worklist.clear(regV);
 
-            if (useList[regV].size() == 0
+            if (ssaMeth.getUseListForRegister(regV).size() == 0
                     || isCircularNoSideEffect(regV, null)) {
 
                 SsaInsn insnS = ssaMeth.getDefinitionForRegister(regV);
 
                 // This insn has already been deleted.
-                if (deletedInsns.contains(insnS)) {
+                if (insnS == null || deletedInsns.contains(insnS)) {
                     continue;
                 }
 
+                // Delete this insn from all usage lists.
+                ssaMeth.onInsnRemoved(insnS);
+
                 RegisterSpecList sources = insnS.getSources();
 
                 int sz = sources.size();
                 for (int i = 0; i < sz; i++) {
-                    // Delete this insn from all usage lists.
                     RegisterSpec source = sources.get(i);
-                    useList[source.getReg()].remove(insnS);
 
                     if (!hasSideEffect(
                             ssaMeth.getDefinitionForRegister(
@@ -139,7 +135,7 @@ public class DeadCodeRemover {
             return true;
         }
 
-        for (SsaInsn use : useList[regV]) {
+        for (SsaInsn use : ssaMeth.getUseListForRegister(regV)) {
             if (hasSideEffect(use)) {
                 return false;
             }
@@ -152,7 +148,7 @@ public class DeadCodeRemover {
         // This register is only used in operations that have no side effect.
         set.set(regV);
 
-        for (SsaInsn use : useList[regV]) {
+        for (SsaInsn use : ssaMeth.getUseListForRegister(regV)) {
             RegisterSpec result = use.getResult();
 
             if (result == null
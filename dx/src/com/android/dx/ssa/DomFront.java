@@ -40,6 +40,33 @@ public class DomFront {
 
     private final DomInfo[] domInfos;
 
+    /**
+     * Algorithm used to compute the immediate dominators.
+     */
+    public enum Algorithm {
+        /** {@link Dominators}; the default */
+        LENGAUER_TARJAN,
+        /** {@link IterativeDominators} */
+        ITERATIVE,
+        /**
+         * both of the above, failing if their results don't agree; for
+         * validating the iterative implementation
+         */
+        CHECKED
+    }
+
+    /**
+     * {@code non-null;} algorithm used by {@link #run}, for instances
+     * used on the current thread
+     */
+    private static final ThreadLocal<Algorithm> algorithm =
+        new ThreadLocal<Algorithm>() {
+            @Override
+            protected Algorithm initialValue() {
+                return Algorithm.LENGAUER_TARJAN;
+            }
+        };
+
     /**
      * Dominance-frontier information for a single basic block.
      */
@@ -71,6 +98,36 @@ public class DomFront {
         }
     }
 
+    /**
+     * Sets the algorithm used to compute immediate dominators for all
+     * instances subsequently run on the current thread.
+     *
+     * @param newAlgorithm {@code non-null;} the algorithm to use
+     */
+    public static void setAlgorithm(Algorithm newAlgorithm) {
+        if (newAlgorithm == null) {
+            throw new NullPointerException("newAlgorithm == null");
+        }
+
+        algorithm.set(newAlgorithm);
+    }
+
+    /**
+     * @return {@code non-null;} the algorithm used to compute immediate
+     * dominators
+     */
+    public static Algorithm getAlgorithm() {
+        return algorithm.get();
+    }
+
+    /**
+     * Puts the setting for the current thread back to its default, so
+     * that nothing is left behind on a thread that is reused.
+     */
+    public static void clearSettings() {
+        algorithm.remove();
+    }
+
     /**
      * Calculates the dominance frontier information for the method.
      *
@@ -87,7 +144,7 @@ public class DomFront {
             }
         }
 
-        Dominators methDom = Dominators.make(meth, domInfos, false);
+        calcDominators();
 
         if (DEBUG) {
             for (int i = 0; i < szNodes; i++) {
@@ -120,6 +177,44 @@ public class DomFront {
         return domInfos;
     }
 
+    /**
+     * Fills in the immediate dominator of each block, using the
+     * configured {@link Algorithm}.
+     */
+    private void calcDominators() {
+        switch (algorithm.get()) {
+            case LENGAUER_TARJAN: {
+                Dominators.make(meth, domInfos, false);
+                break;
+            }
+            case ITERATIVE: {
+                IterativeDominators.make(meth, domInfos, false);
+                break;
+            }
+            case CHECKED: {
+                int szNodes = nodes.size();
+                DomInfo[] checkInfos = new DomInfo[szNodes];
+
+                for (int i = 0; i < szNodes; i++) {
+                    checkInfos[i] = new DomInfo();
+                }
+
+                Dominators.make(meth, domInfos, false);
+                IterativeDominators.make(meth, checkInfos, false);
+
+                for (int i = 0; i < szNodes; i++) {
+                    if (domInfos[i].idom != checkInfos[i].idom) {
+                        throw new RuntimeException("idom mismatch for block "
+                                + nodes.get(i).getRopLabelString()
+                                + ": " + domInfos[i].idom + " vs. "
+                                + checkInfos[i].idom);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
     private void debugPrintDomChildren() {
         int szNodes = nodes.size();
 
@@ -151,6 +246,11 @@ public class DomFront {
     private void buildDomTree() {
         int szNodes = nodes.size();
 
+        // Throw away any tree left from an earlier run.
+        for (int i = 0; i < szNodes; i++) {
+            nodes.get(i).clearDomChildren();
+        }
+
         for (int i = 0; i < szNodes; i++) {
             DomInfo info = domInfos[i];
 
@@ -16,7 +16,6 @@
 
 package com.android.dx.ssa;
 
-import com.android.dx.rop.code.Exceptions;
 import com.android.dx.rop.code.FillArrayDataInsn;
 import com.android.dx.rop.code.Insn;
 import com.android.dx.rop.code.PlainCstInsn;
@@ -26,17 +25,10 @@ import com.android.dx.rop.code.RegisterSpec;
 import com.android.dx.rop.code.RegisterSpecList;
 import com.android.dx.rop.code.Rop;
 import com.android.dx.rop.code.Rops;
-import com.android.dx.rop.code.ThrowingCstInsn;
-import com.android.dx.rop.code.ThrowingInsn;
 import com.android.dx.rop.cst.Constant;
 import com.android.dx.rop.cst.CstLiteralBits;
-import com.android.dx.rop.cst.CstMethodRef;
-import com.android.dx.rop.cst.CstNat;
-import com.android.dx.rop.cst.CstType;
-import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.rop.cst.Zeroes;
-import com.android.dx.rop.type.StdTypeList;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeBearer;
 
@@ -48,8 +40,17 @@ import java.util.List;
 /**
  * Simple intraprocedural escape analysis. Finds new arrays that don't escape
  * the method they are created in and replaces the array values with registers.
+ *
+ * Only small arrays of single-width primitives are replaced, and only when
+ * every use of the array is a load, store or length taken directly from the
+ * defining register with an index known to be in bounds. The replaced
+ * allocation and accesses therefore can't throw, so dropping them (and the
+ * exception edges leaving them) doesn't change what the method does.
  */
 public class EscapeAnalysis {
+    /** largest array that will be replaced with registers */
+    private static final int MAX_REPLACEABLE_ARRAY_LENGTH = 16;
+
     /**
      * Struct used to generate and maintain escape analysis results.
      */
@@ -204,9 +205,10 @@ public class EscapeAnalysis {
      * replaces them with equivalent registers.
      *
      * @param ssaMethod {@code non-null;} method to process
+     * @return {@code >= 0;} the number of arrays replaced
      */
-    public static void process(SsaMethod ssaMethod) {
-        new EscapeAnalysis(ssaMethod).run();
+    public static int process(SsaMethod ssaMethod) {
+        return new EscapeAnalysis(ssaMethod).run();
     }
 
     /**
@@ -265,7 +267,6 @@ public class EscapeAnalysis {
                 break;
             // New array
             case RegOps.NEW_ARRAY:
-            case RegOps.FILLED_NEW_ARRAY:
                 prevSource = prevSsaInsn.getSources().get(0);
                 if (prevSource.getTypeBearer().isConstant()) {
                     // New fixed array
@@ -278,6 +279,15 @@ public class EscapeAnalysis {
                                                EscapeState.GLOBAL);
                 }
                 break;
+            // New filled array
+            case RegOps.FILLED_NEW_ARRAY:
+                /*
+                 * The sources are the elements, not the length, so
+                 * track the array but don't try to replace it.
+                 */
+                escSet = new EscapeSet(result.getReg(), regCount,
+                                           EscapeState.NONE);
+                break;
             // Loading a static object
             case RegOps.GET_STATIC:
                 escSet = new EscapeSet(result.getReg(), regCount,
@@ -473,25 +483,53 @@ public class EscapeAnalysis {
 
     /**
      * Performs scalar replacement on all eligible arrays.
+     *
+     * @return {@code >= 0;} the number of arrays replaced
      */
-    private void scalarReplacement() {
+    private int scalarReplacement() {
+        ArrayList<SsaInsn> arrayDefs = new ArrayList<SsaInsn>();
+        ArrayList<ArrayList<SsaInsn>> arrayUses =
+            new ArrayList<ArrayList<SsaInsn>>();
+
         // Iterate through lattice, looking for non-escaping replaceable arrays
         for (EscapeSet escSet : latticeValues) {
-            if (!escSet.replaceableArray || escSet.escape != EscapeState.NONE) {
+            if (!escSet.replaceableArray || escSet.escape != EscapeState.NONE
+                    || escSet.regSet.cardinality() != 1) {
                 continue;
             }
 
-            // Get the instructions for the definition and move of the array
             int e = escSet.regSet.nextSetBit(0);
             SsaInsn def = ssaMeth.getDefinitionForRegister(e);
+
+            if (canReplaceArray(def, getArrayLength(def))) {
+                arrayDefs.add(def);
+                arrayUses.add(new ArrayList<SsaInsn>(
+                        ssaMeth.getUseListForRegister(e)));
+            }
+        }
+
+        int replaced = arrayDefs.size();
+        if (replaced == 0) {
+            return 0;
+        }
+
+        /*
+         * The new registers are assigned more than once until the method
+         * is converted back to SSA form, so stop tracking definitions.
+         */
+        ssaMeth.onInsnsChanged();
+
+        HashSet<SsaInsn> deletedInsns = new HashSet<SsaInsn>();
+
+        for (int i = 0; i < replaced; i++) {
+            // Get the instructions for the definition and move of the array
+            SsaInsn def = arrayDefs.get(i);
             SsaInsn prev = getInsnForMove(def);
+            int length = getArrayLength(def);
 
             // Create a map for the new registers that will be created
-            TypeBearer lengthReg = prev.getSources().get(0).getTypeBearer();
-            int length = ((CstLiteralBits) lengthReg).getIntBits();
             ArrayList<RegisterSpec> newRegs =
                 new ArrayList<RegisterSpec>(length);
-            HashSet<SsaInsn> deletedInsns = new HashSet<SsaInsn>();
 
             // Replace the definition of the array with registers
             replaceDef(def, prev, length, newRegs);
@@ -501,23 +539,123 @@ public class EscapeAnalysis {
             deletedInsns.add(def);
 
             // Go through all uses of the array
-            List<SsaInsn> useList = ssaMeth.getUseListForRegister(e);
-            for (SsaInsn use : useList) {
+            for (SsaInsn use : arrayUses.get(i)) {
                 // Replace the use with scalars and then mark it for deletion
                 replaceUse(use, prev, newRegs, deletedInsns);
                 deletedInsns.add(use);
             }
+        }
 
-            // Delete all marked instructions
-            ssaMeth.deleteInsns(deletedInsns);
-            ssaMeth.onInsnsChanged();
+        // Delete all marked instructions
+        ssaMeth.deleteInsns(deletedInsns);
+        ssaMeth.onInsnsChanged();
 
-            // Convert the method back to SSA form
-            SsaConverter.updateSsaMethod(ssaMeth, regCount);
+        // Convert the method back to SSA form
+        SsaConverter.updateSsaMethod(ssaMeth, regCount);
+
+        // Propagate and remove extra moves added by scalar replacement
+        movePropagate();
+
+        return replaced;
+    }
 
-            // Propagate and remove extra moves added by scalar replacement
-            movePropagate();
+    /**
+     * Gets the length of a new array with a constant size.
+     *
+     * @param def {@code non-null;} move result instruction for array
+     * @return the length of the array
+     */
+    private int getArrayLength(SsaInsn def) {
+        SsaInsn prev = getInsnForMove(def);
+        TypeBearer lengthReg = prev.getSources().get(0).getTypeBearer();
+        return ((CstLiteralBits) lengthReg).getIntBits();
+    }
+
+    /**
+     * Checks whether a non-escaping array can be replaced with registers
+     * without changing the behavior of the method. Every use must be one
+     * that {@link #replaceUse} turns into plain register operations, with
+     * the array in the array operand and a constant index that is in
+     * bounds, so that none of the replaced instructions could have thrown.
+     *
+     * @param def {@code non-null;} move result instruction for array
+     * @param length length of the new array
+     * @return true if the array can be replaced
+     */
+    private boolean canReplaceArray(SsaInsn def, int length) {
+        RegisterSpec array = def.getResult();
+        Type componentType = array.getType().getComponentType();
+
+        if (length < 0 || length > MAX_REPLACEABLE_ARRAY_LENGTH
+                || !componentType.isPrimitive()
+                || componentType.isCategory2()) {
+            return false;
+        }
+
+        // Replacing the array would lose the local variable's value.
+        if (Optimizer.getPreserveLocals() && ssaMeth.isRegALocal(array)) {
+            return false;
         }
+
+        int reg = array.getReg();
+
+        for (SsaInsn use : ssaMeth.getUseListForRegister(reg)) {
+            Rop useOpcode = use.getOpcode();
+
+            if (useOpcode == null) {
+                // The array flows into a phi
+                return false;
+            }
+
+            RegisterSpecList sources = use.getSources();
+
+            switch (useOpcode.getOpcode()) {
+                case RegOps.AGET:
+                    if (!isIndexInBounds(sources.get(1), length)) {
+                        return false;
+                    }
+                    break;
+                case RegOps.APUT:
+                    if (sources.get(0).getReg() == reg
+                            || sources.get(1).getReg() != reg
+                            || !isIndexInBounds(sources.get(2), length)) {
+                        return false;
+                    }
+                    break;
+                case RegOps.FILL_ARRAY_DATA:
+                    FillArrayDataInsn fill =
+                        (FillArrayDataInsn) use.getOriginalRopInsn();
+                    if (fill.getInitValues().size() > length) {
+                        return false;
+                    }
+                    break;
+                case RegOps.ARRAY_LENGTH:
+                case RegOps.MARK_LOCAL:
+                    break;
+                default:
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks whether an array index is a constant in the bounds of an array.
+     *
+     * @param index {@code non-null;} the index register
+     * @param length length of the array
+     * @return true if the index is known to be in bounds
+     */
+    private static boolean isIndexInBounds(RegisterSpec index, int length) {
+        TypeBearer indexType = index.getTypeBearer();
+
+        if (!(indexType instanceof CstLiteralBits)) {
+            return false;
+        }
+
+        int value = ((CstLiteralBits) indexType).getIntBits();
+        return value >= 0 && value < length;
     }
 
     /**
@@ -550,8 +688,7 @@ public class EscapeAnalysis {
 
     /**
      * Replaces the use for a scalar replaceable array. Gets and puts become
-     * move instructions, and array lengths and fills are handled. Can also
-     * identify ArrayIndexOutOfBounds exceptions and throw them if detected.
+     * move instructions, and array lengths and fills are handled.
      *
      * @param use {@code non-null;} move result instruction for array
      * @param prev {@code non-null;} instruction for instantiating new array
@@ -564,7 +701,6 @@ public class EscapeAnalysis {
                                 ArrayList<RegisterSpec> newRegs,
                                 HashSet<SsaInsn> deletedInsns) {
         int index;
-        int length = newRegs.size();
         SsaInsn next;
         RegisterSpecList sources;
         RegisterSpec source, result;
@@ -572,21 +708,19 @@ public class EscapeAnalysis {
 
         switch (use.getOpcode().getOpcode()) {
             case RegOps.AGET:
-                // Replace array gets with moves
+                /*
+                 * Replace array gets with moves. Puts aren't necessarily
+                 * visited in program order, so the element's value isn't
+                 * known here; the move's source is given its simple type.
+                 */
                 next = getMoveForInsn(use);
                 sources = use.getSources();
                 indexReg = ((CstLiteralBits) sources.get(1).getTypeBearer());
                 index = indexReg.getIntBits();
-                if (index < length) {
-                    source = newRegs.get(index);
-                    result = source.withReg(next.getResult().getReg());
-                    insertPlainInsnBefore(next, RegisterSpecList.make(source),
-                                              result, RegOps.MOVE, null);
-                } else {
-                    // Throw an exception if the index is out of bounds
-                    insertExceptionThrow(next, sources.get(1), deletedInsns);
-                    deletedInsns.add(next.getBlock().getInsns().get(2));
-                }
+                source = newRegs.get(index).withSimpleType();
+                result = source.withReg(next.getResult().getReg());
+                insertPlainInsnBefore(next, RegisterSpecList.make(source),
+                                          result, RegOps.MOVE, null);
                 deletedInsns.add(next);
                 break;
             case RegOps.APUT:
@@ -594,17 +728,10 @@ public class EscapeAnalysis {
                 sources = use.getSources();
                 indexReg = ((CstLiteralBits) sources.get(2).getTypeBearer());
                 index = indexReg.getIntBits();
-                if (index < length) {
-                    source = sources.get(0);
-                    result = source.withReg(newRegs.get(index).getReg());
-                    insertPlainInsnBefore(use, RegisterSpecList.make(source),
-                                              result, RegOps.MOVE, null);
-                    // Update the newReg entry to mark value as unknown now
-                    newRegs.set(index, result.withSimpleType());
-                } else {
-                    // Throw an exception if the index is out of bounds
-                    insertExceptionThrow(use, sources.get(2), deletedInsns);
-                }
+                source = sources.get(0);
+                result = source.withReg(newRegs.get(index).getReg());
+                insertPlainInsnBefore(use, RegisterSpecList.make(source),
+                                          result, RegOps.MOVE, null);
                 break;
             case RegOps.ARRAY_LENGTH:
                 // Replace array lengths with const instructions
@@ -624,14 +751,12 @@ public class EscapeAnalysis {
                 Insn ropUse = use.getOriginalRopInsn();
                 FillArrayDataInsn fill = (FillArrayDataInsn) ropUse;
                 ArrayList<Constant> constList = fill.getInitValues();
-                for (int i = 0; i < length; i++) {
+                for (int i = 0; i < constList.size(); i++) {
                     RegisterSpec newFill =
                         RegisterSpec.make(newRegs.get(i).getReg(),
                                               (TypeBearer) constList.get(i));
                     insertPlainInsnBefore(use, RegisterSpecList.EMPTY, newFill,
                                               RegOps.CONST, constList.get(i));
-                    // Update the newRegs to hold the new const value
-                    newRegs.set(i, newFill);
                 }
                 break;
             default:
@@ -652,7 +777,6 @@ public class EscapeAnalysis {
                 continue;
             }
 
-            final ArrayList<SsaInsn>[] useList = ssaMeth.getUseListCopy();
             final RegisterSpec source = insn.getSources().get(0);
             final RegisterSpec result = insn.getResult();
 
@@ -679,16 +803,19 @@ public class EscapeAnalysis {
             };
 
             // Modify all uses of the move to use the source of the move instead
-            for (SsaInsn use : useList[result.getReg()]) {
-                use.mapSourceRegisters(mapper);
+            List<SsaInsn> uses = ssaMeth.getUseListForRegister(result.getReg());
+            while (!uses.isEmpty()) {
+                uses.get(0).mapSourceRegisters(mapper);
             }
         }
     }
 
     /**
      * Runs escape analysis and scalar replacement of arrays.
+     *
+     * @return {@code >= 0;} the number of arrays replaced
      */
-    private void run() {
+    private int run() {
         ssaMeth.forEachBlockDepthFirstDom(new SsaBasicBlock.Visitor() {
             public void visitBlock (SsaBasicBlock block,
                     SsaBasicBlock unused) {
@@ -720,55 +847,7 @@ public class EscapeAnalysis {
         }
 
         // Perform scalar replacement for arrays
-        scalarReplacement();
-    }
-
-    /**
-     * Replaces instructions that trigger an ArrayIndexOutofBounds exception
-     * with an actual throw of the exception.
-     *
-     * @param insn {@code non-null;} instruction causing the exception
-     * @param index {@code non-null;} index value that is out of bounds
-     * @param deletedInsns {@code non-null;} set of instructions marked for
-     * deletion
-     */
-    private void insertExceptionThrow(SsaInsn insn, RegisterSpec index,
-                                          HashSet<SsaInsn> deletedInsns) {
-        // Create a new ArrayIndexOutOfBoundsException
-        CstType exception =
-            new CstType(Exceptions.TYPE_ArrayIndexOutOfBoundsException);
-        insertThrowingInsnBefore(insn, RegisterSpecList.EMPTY, null,
-                                     RegOps.NEW_INSTANCE, exception);
-
-        // Add a successor block with a move result pseudo for the exception
-        SsaBasicBlock currBlock = insn.getBlock();
-        SsaBasicBlock newBlock =
-            currBlock.insertNewSuccessor(currBlock.getPrimarySuccessor());
-        SsaInsn newInsn = newBlock.getInsns().get(0);
-        RegisterSpec newReg =
-            RegisterSpec.make(ssaMeth.makeNewSsaReg(), exception);
-        insertPlainInsnBefore(newInsn, RegisterSpecList.EMPTY, newReg,
-                                  RegOps.MOVE_RESULT_PSEUDO, null);
-
-        // Add another successor block to initialize the exception
-        SsaBasicBlock newBlock2 =
-            newBlock.insertNewSuccessor(newBlock.getPrimarySuccessor());
-        SsaInsn newInsn2 = newBlock2.getInsns().get(0);
-        CstNat newNat = new CstNat(new CstUtf8("<init>"), new CstUtf8("(I)V"));
-        CstMethodRef newRef = new CstMethodRef(exception, newNat);
-        insertThrowingInsnBefore(newInsn2, RegisterSpecList.make(newReg, index),
-                                     null, RegOps.INVOKE_DIRECT, newRef);
-        deletedInsns.add(newInsn2);
-
-        // Add another successor block to throw the new exception
-        SsaBasicBlock newBlock3 =
-            newBlock2.insertNewSuccessor(newBlock2.getPrimarySuccessor());
-        SsaInsn newInsn3 = newBlock3.getInsns().get(0);
-        insertThrowingInsnBefore(newInsn3, RegisterSpecList.make(newReg), null,
-                                     RegOps.THROW, null);
-        newBlock3.replaceSuccessor(newBlock3.getPrimarySuccessorIndex(),
-                                       ssaMeth.getExitBlock().getIndex());
-        deletedInsns.add(newInsn3);
+        return scalarReplacement();
     }
 
     /**
@@ -808,36 +887,4 @@ public class EscapeAnalysis {
         insns.add(insns.lastIndexOf(insn), newInsn);
         ssaMeth.onInsnAdded(newInsn);
     }
-
-    /**
-     * Inserts a new ThrowingInsn before the given instruction.
-     * TODO: move this somewhere more appropriate
-     *
-     * @param insn {@code non-null;} instruction to insert before
-     * @param newSources {@code non-null;} sources of new instruction
-     * @param newResult {@code non-null;} result of new instruction
-     * @param newOpcode opcode of new instruction
-     * @param cst {@code null-ok;} constant for new instruction, if any
-     */
-    private void insertThrowingInsnBefore(SsaInsn insn,
-        RegisterSpecList newSources, RegisterSpec newResult, int newOpcode,
-        Constant cst) {
-
-        Insn origRopInsn = insn.getOriginalRopInsn();
-        Rop newRop = Rops.ropFor(newOpcode, newResult, newSources, cst);
-        Insn newRopInsn;
-        if (cst == null) {
-            newRopInsn = new ThrowingInsn(newRop,
-                origRopInsn.getPosition(), newSources, StdTypeList.EMPTY);
-        } else {
-            newRopInsn = new ThrowingCstInsn(newRop,
-                origRopInsn.getPosition(), newSources, StdTypeList.EMPTY, cst);
-        }
-
-        NormalSsaInsn newInsn = new NormalSsaInsn(newRopInsn, insn.getBlock());
-        List<SsaInsn> insns = insn.getBlock().getInsns();
-
-        insns.add(insns.lastIndexOf(insn), newInsn);
-        ssaMeth.onInsnAdded(newInsn);
-    }
 }
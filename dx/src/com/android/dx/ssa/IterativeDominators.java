@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * This class computes dominator and post-dominator information using the
+ * iterative method.
+ *
+ * See A Simple, Fast Dominance Algorithm
+ * K. Cooper, T. Harvey & K. Kennedy, Rice University TR-06-33870.
+ *
+ * The algorithm is O(n^2) in the worst case, but on the reducible,
+ * shallow control flow graphs produced from real bytecode it converges
+ * in two or three passes. Everything is kept in {@code int} arrays
+ * indexed by postorder number, so unlike {@link Dominators} no per-block
+ * objects are allocated, and the block predecessor / successor sets are
+ * walked in place rather than copied.
+ */
+public final class IterativeDominators {
+    /** postdom is true if we want post dominators */
+    private final boolean postdom;
+
+    /** {@code non-null;} method being processed */
+    private final SsaMethod meth;
+
+    /** {@code non-null;} method's basic blocks */
+    private final ArrayList<SsaBasicBlock> blocks;
+
+    /** {@code non-null;} the raw dominator info */
+    private final DomFront.DomInfo[] domInfos;
+
+    /**
+     * {@code non-null;} postorder number of each block, indexed by
+     * block index; {@code -1} for blocks unreachable from the root
+     */
+    private final int[] postorderNumber;
+
+    /**
+     * {@code non-null;} block index of each reached block, indexed by
+     * postorder number
+     */
+    private final int[] postorder;
+
+    /**
+     * {@code non-null;} immediate dominator of each reached block, both
+     * sides given as postorder numbers; {@code -1} if not yet known
+     */
+    private final int[] doms;
+
+    /** count of blocks reached from the root */
+    private int reachedCount;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param meth {@code non-null;} method to process
+     * @param domInfos {@code non-null;} the raw dominator info
+     * @param postdom true for postdom information, false for normal dom info
+     */
+    private IterativeDominators(SsaMethod meth, DomFront.DomInfo[] domInfos,
+            boolean postdom) {
+        int szBlocks;
+
+        this.meth = meth;
+        this.domInfos = domInfos;
+        this.postdom = postdom;
+        this.blocks = meth.getBlocks();
+
+        szBlocks = blocks.size();
+        this.postorderNumber = new int[szBlocks];
+        this.postorder = new int[szBlocks];
+        this.doms = new int[szBlocks];
+    }
+
+    /**
+     * Constructs a fully-initialized instance. (This method exists so as
+     * to avoid calling a large amount of code in the constructor.)
+     *
+     * @param meth {@code non-null;} method to process
+     * @param domInfos {@code non-null;} the raw dominator info
+     * @param postdom true for postdom information, false for normal dom info
+     */
+    public static IterativeDominators make(SsaMethod meth,
+            DomFront.DomInfo[] domInfos, boolean postdom) {
+        IterativeDominators result
+                = new IterativeDominators(meth, domInfos, postdom);
+
+        result.run();
+        return result;
+    }
+
+    private BitSet getSuccs(SsaBasicBlock block) {
+        if (postdom) {
+            return block.getPredecessors();
+        } else {
+            return block.getSuccessors();
+        }
+    }
+
+    private BitSet getPreds(SsaBasicBlock block) {
+        if (postdom) {
+            return block.getSuccessors();
+        } else {
+            return block.getPredecessors();
+        }
+    }
+
+    /**
+     * Performs dominator/post-dominator calculation for the control
+     * flow graph.
+     */
+    private void run() {
+        SsaBasicBlock root = postdom
+                ? meth.getExitBlock() : meth.getEntryBlock();
+
+        if (root == null) {
+            return;
+        }
+
+        numberPostorder(root.getIndex());
+
+        int rootNum = reachedCount - 1;
+
+        for (int i = 0; i < rootNum; i++) {
+            doms[i] = -1;
+        }
+        doms[rootNum] = rootNum;
+
+        /*
+         * Visit every block but the root in reverse postorder until
+         * nothing changes. Each block's new idom is the common
+         * dominator of all of its already-processed predecessors.
+         */
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int b = rootNum - 1; b >= 0; b--) {
+                BitSet preds = getPreds(blocks.get(postorder[b]));
+                int newIdom = -1;
+
+                for (int i = preds.nextSetBit(0); i >= 0;
+                     i = preds.nextSetBit(i + 1)) {
+                    int p = postorderNumber[i];
+
+                    // Skip unreachable and not-yet-processed predecessors.
+                    if (p < 0 || doms[p] < 0) {
+                        continue;
+                    }
+
+                    newIdom = (newIdom < 0) ? p : intersect(p, newIdom);
+                }
+
+                if (doms[b] != newIdom) {
+                    doms[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int b = 0; b < reachedCount; b++) {
+            domInfos[postorder[b]].idom = postorder[doms[b]];
+        }
+    }
+
+    /**
+     * Walks up the partially built dominator tree from two blocks until
+     * the walks meet. Postorder numbers increase towards the root.
+     *
+     * @param b1 postorder number of one block
+     * @param b2 postorder number of another block
+     * @return postorder number of their nearest common dominator
+     */
+    private int intersect(int b1, int b2) {
+        while (b1 != b2) {
+            while (b1 < b2) {
+                b1 = doms[b1];
+            }
+            while (b2 < b1) {
+                b2 = doms[b2];
+            }
+        }
+
+        return b1;
+    }
+
+    /**
+     * Numbers every block reachable from the root in postorder, using an
+     * explicit stack so that deep control flow graphs don't overflow the
+     * Java stack. The root ends up with the highest number.
+     *
+     * @param rootIndex block index of the root
+     */
+    private void numberPostorder(int rootIndex) {
+        int szBlocks = blocks.size();
+
+        /*
+         * stack holds block indices; nextSucc holds, per stack slot, the
+         * successor index to resume scanning at.
+         */
+        int[] stack = new int[szBlocks];
+        int[] nextSucc = new int[szBlocks];
+        int sp;
+
+        for (int i = 0; i < szBlocks; i++) {
+            postorderNumber[i] = -1;
+        }
+
+        // -2 marks a block as on the stack but not yet numbered.
+        postorderNumber[rootIndex] = -2;
+        stack[0] = rootIndex;
+        nextSucc[0] = 0;
+        sp = 1;
+
+        while (sp > 0) {
+            int cur = stack[sp - 1];
+            BitSet succs = getSuccs(blocks.get(cur));
+            int succ = succs.nextSetBit(nextSucc[sp - 1]);
+
+            while (succ >= 0 && postorderNumber[succ] != -1) {
+                succ = succs.nextSetBit(succ + 1);
+            }
+
+            if (succ >= 0) {
+                nextSucc[sp - 1] = succ + 1;
+                postorderNumber[succ] = -2;
+                stack[sp] = succ;
+                nextSucc[sp] = 0;
+                sp++;
+            } else {
+                sp--;
+                postorderNumber[cur] = reachedCount;
+                postorder[reachedCount] = cur;
+                reachedCount++;
+            }
+        }
+    }
+}
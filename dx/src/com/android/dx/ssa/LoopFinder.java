@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Finds the natural loops of a method. A back edge is an edge whose
+ * target dominates its source; the target is a loop header, and the
+ * loop is the header plus every block that reaches a back edge to it
+ * without passing through the header. Loops sharing a header are merged.
+ * Irreducible cycles, which have no such header, aren't reported.
+ */
+public final class LoopFinder {
+    /** {@code non-null;} method being processed */
+    private final SsaMethod ssaMeth;
+
+    /** {@code non-null;} method's blocks */
+    private final ArrayList<SsaBasicBlock> blocks;
+
+    /**
+     * {@code non-null;} preorder number of each block in the dom tree,
+     * indexed by block index; {@code -1} for unreachable blocks
+     */
+    private final int[] domPre;
+
+    /**
+     * {@code non-null;} highest preorder number in the dom subtree
+     * rooted at each block, indexed by block index
+     */
+    private final int[] domLast;
+
+    /**
+     * Finds the loops of a method. The method's dom tree is rebuilt in
+     * the process.
+     *
+     * @param ssaMethod {@code non-null;} method to process
+     * @return {@code non-null;} the loops, smallest first, so that inner
+     * loops come before the loops enclosing them
+     */
+    public static ArrayList<Loop> findLoops(SsaMethod ssaMethod) {
+        return new LoopFinder(ssaMethod).run();
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param ssaMethod {@code non-null;} method to process
+     */
+    private LoopFinder(SsaMethod ssaMethod) {
+        this.ssaMeth = ssaMethod;
+        this.blocks = ssaMethod.getBlocks();
+        this.domPre = new int[blocks.size()];
+        this.domLast = new int[blocks.size()];
+    }
+
+    /**
+     * Finds the loops.
+     *
+     * @return {@code non-null;} the loops, smallest first
+     */
+    private ArrayList<Loop> run() {
+        new DomFront(ssaMeth).run();
+        numberDomTree();
+
+        int szBlocks = blocks.size();
+        Loop[] byHeader = new Loop[szBlocks];
+        ArrayList<Loop> result = new ArrayList<Loop>();
+
+        for (int i = 0; i < szBlocks; i++) {
+            if (domPre[i] < 0) {
+                continue;
+            }
+
+            BitSet succs = blocks.get(i).getSuccessors();
+
+            for (int j = succs.nextSetBit(0); j >= 0;
+                 j = succs.nextSetBit(j + 1)) {
+                if (!dominates(j, i)) {
+                    continue;
+                }
+
+                Loop loop = byHeader[j];
+
+                if (loop == null) {
+                    loop = new Loop(blocks.get(j), szBlocks);
+                    byHeader[j] = loop;
+                    result.add(loop);
+                }
+
+                addBody(loop, i);
+            }
+        }
+
+        Collections.sort(result, new Comparator<Loop>() {
+            public int compare(Loop a, Loop b) {
+                return a.body.cardinality() - b.body.cardinality();
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Numbers the dom tree in preorder, recording for each block the
+     * range of numbers its subtree covers. Uses an explicit stack so
+     * that deep trees don't overflow the Java stack.
+     */
+    private void numberDomTree() {
+        int szBlocks = blocks.size();
+        int[] stack = new int[szBlocks];
+        int[] nextChild = new int[szBlocks];
+        int sp = 0;
+        int count = 0;
+
+        for (int i = 0; i < szBlocks; i++) {
+            domPre[i] = -1;
+        }
+
+        int root = ssaMeth.getEntryBlockIndex();
+
+        domPre[root] = count++;
+        stack[sp++] = root;
+
+        while (sp > 0) {
+            int cur = stack[sp - 1];
+            ArrayList<SsaBasicBlock> children =
+                blocks.get(cur).getDomChildren();
+
+            if (nextChild[sp - 1] < children.size()) {
+                int child = children.get(nextChild[sp - 1]++).getIndex();
+
+                // The entry block is recorded as its own dom child.
+                if (domPre[child] >= 0) {
+                    continue;
+                }
+
+                domPre[child] = count++;
+                nextChild[sp] = 0;
+                stack[sp++] = child;
+            } else {
+                domLast[cur] = count - 1;
+                sp--;
+            }
+        }
+    }
+
+    /**
+     * Returns whether one block dominates another. Every block dominates
+     * itself.
+     *
+     * @param a index of the possible dominator
+     * @param b index of the possibly dominated block
+     * @return true if {@code a} dominates {@code b}
+     */
+    private boolean dominates(int a, int b) {
+        return domPre[a] >= 0 && domPre[b] >= domPre[a]
+                && domPre[b] <= domLast[a];
+    }
+
+    /**
+     * Adds to a loop the blocks that reach the source of one of its back
+     * edges without going through its header.
+     *
+     * @param loop {@code non-null;} the loop
+     * @param tail index of the source of the back edge
+     */
+    private void addBody(Loop loop, int tail) {
+        BitSet body = loop.body;
+        ArrayList<Integer> work = new ArrayList<Integer>();
+
+        if (!body.get(tail)) {
+            body.set(tail);
+            work.add(tail);
+        }
+
+        while (!work.isEmpty()) {
+            int cur = work.remove(work.size() - 1);
+            BitSet preds = blocks.get(cur).getPredecessors();
+
+            for (int i = preds.nextSetBit(0); i >= 0;
+                 i = preds.nextSetBit(i + 1)) {
+                // Unreachable blocks can't be part of a loop.
+                if (!body.get(i) && domPre[i] >= 0) {
+                    body.set(i);
+                    work.add(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * A natural loop.
+     */
+    public static final class Loop {
+        /** {@code non-null;} the loop header */
+        private final SsaBasicBlock header;
+
+        /** {@code non-null;} indices of the blocks in the loop */
+        private final BitSet body;
+
+        /**
+         * Constructs an instance containing just its header.
+         *
+         * @param header {@code non-null;} the loop header
+         * @param szBlocks number of blocks in the method
+         */
+        private Loop(SsaBasicBlock header, int szBlocks) {
+            this.header = header;
+            this.body = new BitSet(szBlocks);
+            body.set(header.getIndex());
+        }
+
+        /**
+         * @return {@code non-null;} the loop header, which dominates
+         * every block in the loop
+         */
+        public SsaBasicBlock getHeader() {
+            return header;
+        }
+
+        /**
+         * Returns whether a block is in this loop.
+         *
+         * @param block {@code non-null;} the block
+         * @return true if the block is in the loop
+         */
+        public boolean contains(SsaBasicBlock block) {
+            return body.get(block.getIndex());
+        }
+
+        /**
+         * Gets the indices of the blocks in this loop. The set is live,
+         * so blocks added to the method on the loop's edges can be
+         * added to it.
+         *
+         * @return {@code non-null;} the block indices
+         */
+        public BitSet getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.Rops;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Loop-invariant code motion. Moves computations whose sources don't
+ * change within a loop into a preheader, a block that runs once just
+ * before the loop is entered.
+ *
+ * Moved are:
+ * <ul>
+ * <li>Non-throwing arithmetic, logic, comparison and conversion insns
+ * (see {@link ValueNumberer}) whose sources are defined outside the
+ * loop or are themselves moved, along with the constants they use.
+ * These have no side effects, so running them even when the loop
+ * wouldn't have is harmless.</li>
+ * <li>A throwing insn whose result only depends on its sources, such as
+ * {@code array-length} or {@code const-class}, when it ends the loop
+ * header, has no handlers, and its sources are defined outside the
+ * loop. The header runs on every entry to the loop and this is its
+ * first insn that can have an effect, so in the preheader the insn
+ * throws exactly when the original would first have thrown.</li>
+ * </ul>
+ * Loops are processed innermost first, so code can move out of several
+ * levels of nesting. Loops entered from more than one block are left
+ * alone.
+ */
+public class LoopInvariantHoister {
+    /** method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /** method's blocks */
+    private final ArrayList<SsaBasicBlock> blocks;
+
+    /** number of insns moved, not counting constants */
+    private int hoistedCount;
+
+    /**
+     * Processes a method.
+     *
+     * @param ssaMethod {@code non-null;} method to process
+     * @return {@code >= 0;} number of insns moved out of loops
+     */
+    public static int process(SsaMethod ssaMethod) {
+        return new LoopInvariantHoister(ssaMethod).run();
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param ssaMethod {@code non-null;} method to process
+     */
+    private LoopInvariantHoister(SsaMethod ssaMethod) {
+        this.ssaMeth = ssaMethod;
+        this.blocks = ssaMethod.getBlocks();
+    }
+
+    /**
+     * Processes every loop, innermost first.
+     *
+     * @return {@code >= 0;} number of insns moved out of loops
+     */
+    private int run() {
+        ArrayList<LoopFinder.Loop> loops = LoopFinder.findLoops(ssaMeth);
+        int sz = loops.size();
+
+        for (int i = 0; i < sz; i++) {
+            processLoop(loops.get(i), loops.subList(i + 1, sz));
+        }
+
+        return hoistedCount;
+    }
+
+    /**
+     * Moves what can be moved out of one loop.
+     *
+     * @param loop {@code non-null;} the loop
+     * @param outerLoops {@code non-null;} loops processed later, which
+     * must learn of any blocks added inside them
+     */
+    private void processLoop(LoopFinder.Loop loop,
+            List<LoopFinder.Loop> outerLoops) {
+        SsaBasicBlock header = loop.getHeader();
+        BitSet body = loop.getBody();
+        BitSet preds = header.getPredecessors();
+        SsaBasicBlock entry = null;
+
+        for (int i = preds.nextSetBit(0); i >= 0;
+             i = preds.nextSetBit(i + 1)) {
+            if (!body.get(i)) {
+                if (entry != null) {
+                    // More than one way in, so no single preheader.
+                    return;
+                }
+
+                entry = blocks.get(i);
+            }
+        }
+
+        if (entry == null) {
+            return;
+        }
+
+        HashSet<SsaInsn> invariant = new HashSet<SsaInsn>();
+        SsaInsn throwing = findHoistableThrow(header, body);
+
+        if (throwing != null) {
+            // Its result becomes available to the insns moved after it.
+            invariant.add(header.getPrimarySuccessor().getInsns().get(0));
+        }
+
+        ArrayList<SsaInsn> moved = findInvariants(body, invariant);
+
+        if (throwing == null && moved.isEmpty()) {
+            return;
+        }
+
+        SsaBasicBlock preheader = makePreheader(entry, header, outerLoops);
+
+        if (throwing != null) {
+            preheader = hoistThrow(throwing, preheader, header, outerLoops);
+            hoistedCount++;
+        }
+
+        for (SsaInsn insn : moved) {
+            moveToEnd(insn, preheader);
+        }
+    }
+
+    /**
+     * Finds the insn ending a loop header, if it's a throwing insn that
+     * can be moved to the preheader.
+     *
+     * @param header {@code non-null;} the loop header
+     * @param body {@code non-null;} the blocks of the loop
+     * @return {@code null-ok;} the insn, if it can be moved
+     */
+    private SsaInsn findHoistableThrow(SsaBasicBlock header, BitSet body) {
+        ArrayList<SsaInsn> insns = header.getInsns();
+        SsaInsn insn = insns.get(insns.size() - 1);
+
+        if (!ValueNumberer.isPureThrowing(insn)
+                || insn.getOriginalRopInsn().getCatches().size() != 0
+                || header.getSuccessors().cardinality() != 1
+                || !areSourcesOutside(insn, body)) {
+            return null;
+        }
+
+        SsaBasicBlock next = header.getPrimarySuccessor();
+        SsaInsn move = next.getInsns().get(0);
+
+        if (move.getOpcode() == null
+                || move.getOpcode().getOpcode() != RegOps.MOVE_RESULT_PSEUDO
+                || isPreservedLocal(move)) {
+            return null;
+        }
+
+        return insn;
+    }
+
+    /**
+     * Finds the non-throwing insns of a loop that compute the same value
+     * on every iteration and are worth moving, in an order that puts
+     * definitions before uses.
+     *
+     * @param body {@code non-null;} the blocks of the loop
+     * @param invariant {@code non-null;} insns already known to be
+     * invariant; updated in place
+     * @return {@code non-null;} the insns to move
+     */
+    private ArrayList<SsaInsn> findInvariants(BitSet body,
+            HashSet<SsaInsn> invariant) {
+        ArrayList<SsaInsn> order = new ArrayList<SsaInsn>();
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (int i = body.nextSetBit(0); i >= 0;
+                 i = body.nextSetBit(i + 1)) {
+                for (SsaInsn insn : blocks.get(i).getInsns()) {
+                    if (!invariant.contains(insn) && isCandidate(insn)
+                            && areSourcesInvariant(insn, body, invariant)) {
+                        invariant.add(insn);
+                        order.add(insn);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        /*
+         * Constants are only worth moving along with a computation that
+         * uses them; the const collector deals with the rest.
+         */
+        HashSet<SsaInsn> moved = new HashSet<SsaInsn>();
+
+        for (SsaInsn insn : order) {
+            if (!isConst(insn)) {
+                moved.add(insn);
+                hoistedCount++;
+            }
+        }
+
+        ArrayList<SsaInsn> result = new ArrayList<SsaInsn>();
+
+        for (SsaInsn insn : order) {
+            if (moved.contains(insn) || isUsedByAny(insn, moved)) {
+                result.add(insn);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether an insn is a constant.
+     *
+     * @param insn {@code non-null;} the insn
+     * @return true if it's a {@code const}
+     */
+    private static boolean isConst(SsaInsn insn) {
+        return insn.getOpcode().getOpcode() == RegOps.CONST;
+    }
+
+    /**
+     * Returns whether an insn's result is used by any of a set of insns.
+     *
+     * @param insn {@code non-null;} the insn
+     * @param users {@code non-null;} the possible users
+     * @return true if one of {@code users} uses the result
+     */
+    private boolean isUsedByAny(SsaInsn insn, HashSet<SsaInsn> users) {
+        for (SsaInsn use
+                : ssaMeth.getUseListForRegister(insn.getResult().getReg())) {
+            if (users.contains(use)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether an insn may be moved if its sources are invariant.
+     *
+     * @param insn {@code non-null;} the insn
+     * @return true if the insn is a candidate
+     */
+    private boolean isCandidate(SsaInsn insn) {
+        Rop opcode = insn.getOpcode();
+
+        if (opcode == null || insn.canThrow() || insn.getResult() == null
+                || isPreservedLocal(insn)) {
+            return false;
+        }
+
+        return ValueNumberer.isPure(opcode)
+                || opcode.getOpcode() == RegOps.CONST;
+    }
+
+    /**
+     * Returns whether moving an insn's result would lose track of a local
+     * variable.
+     *
+     * @param insn {@code non-null;} the insn
+     * @return true if the result is a local being preserved
+     */
+    private boolean isPreservedLocal(SsaInsn insn) {
+        return Optimizer.getPreserveLocals()
+                && ssaMeth.isRegALocal(insn.getResult());
+    }
+
+    /**
+     * Returns whether all of an insn's sources are defined outside a loop
+     * or by insns known to be invariant.
+     *
+     * @param insn {@code non-null;} the insn
+     * @param body {@code non-null;} the blocks of the loop
+     * @param invariant {@code non-null;} the invariant insns
+     * @return true if the insn's sources are invariant
+     */
+    private boolean areSourcesInvariant(SsaInsn insn, BitSet body,
+            HashSet<SsaInsn> invariant) {
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+
+        for (int i = 0; i < sz; i++) {
+            SsaInsn def =
+                ssaMeth.getDefinitionForRegister(sources.get(i).getReg());
+
+            if (def == null || (body.get(def.getBlock().getIndex())
+                    && !invariant.contains(def))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns whether all of an insn's sources are defined outside a loop.
+     *
+     * @param insn {@code non-null;} the insn
+     * @param body {@code non-null;} the blocks of the loop
+     * @return true if the sources are defined outside the loop
+     */
+    private boolean areSourcesOutside(SsaInsn insn, BitSet body) {
+        return areSourcesInvariant(insn, body, new HashSet<SsaInsn>());
+    }
+
+    /**
+     * Gets a block that runs just before a loop is entered, ending with a
+     * goto to the loop header. The block the loop is entered from is
+     * used if it ends with a goto, as it will after edge splitting unless
+     * its last insn has no sources or result.
+     *
+     * @param entry {@code non-null;} the block the loop is entered from
+     * @param header {@code non-null;} the loop header
+     * @param outerLoops {@code non-null;} loops that may contain the
+     * new block
+     * @return {@code non-null;} the preheader
+     */
+    private SsaBasicBlock makePreheader(SsaBasicBlock entry,
+            SsaBasicBlock header, List<LoopFinder.Loop> outerLoops) {
+        ArrayList<SsaInsn> insns = entry.getInsns();
+        Rop last = insns.get(insns.size() - 1).getOpcode();
+
+        if (entry.getSuccessors().cardinality() == 1
+                && last.getOpcode() == RegOps.GOTO) {
+            return entry;
+        }
+
+        return insertOnEdge(entry, header, outerLoops);
+    }
+
+    /**
+     * Inserts a new goto block on an edge, keeping the phis of the edge's
+     * target and the loops containing the target up to date.
+     *
+     * @param from {@code non-null;} source of the edge
+     * @param to {@code non-null;} target of the edge
+     * @param outerLoops {@code non-null;} loops that may contain the
+     * new block
+     * @return {@code non-null;} the new block
+     */
+    private SsaBasicBlock insertOnEdge(SsaBasicBlock from, SsaBasicBlock to,
+            List<LoopFinder.Loop> outerLoops) {
+        SsaBasicBlock result = from.insertNewSuccessor(to);
+
+        for (SsaInsn insn : to.getPhiInsns()) {
+            ((PhiInsn) insn).replacePredecessor(from.getIndex(), result);
+        }
+
+        for (LoopFinder.Loop outer : outerLoops) {
+            if (outer.contains(to) && outer.getHeader() != to) {
+                outer.getBody().set(result.getIndex());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Moves a throwing insn from the end of a loop header to the end of
+     * the preheader, along with its move-result-pseudo. A new block is
+     * added after the preheader for the move-result-pseudo.
+     *
+     * @param insn {@code non-null;} the throwing insn
+     * @param preheader {@code non-null;} the preheader
+     * @param header {@code non-null;} the loop header
+     * @param outerLoops {@code non-null;} loops that may contain the
+     * new block
+     * @return {@code non-null;} the new block, which now leads to the
+     * header and is where other moved insns go
+     */
+    private SsaBasicBlock hoistThrow(SsaInsn insn, SsaBasicBlock preheader,
+            SsaBasicBlock header, List<LoopFinder.Loop> outerLoops) {
+        SsaBasicBlock next = header.getPrimarySuccessor();
+        SsaInsn move = next.getInsns().get(0);
+        Insn ropInsn = insn.toRopInsn();
+        Insn ropMove = move.toRopInsn();
+        SsaBasicBlock result = insertOnEdge(preheader, header, outerLoops);
+
+        // Take both out of the loop before putting them back in.
+        header.replaceLastInsn(new PlainInsn(Rops.GOTO,
+                ropInsn.getPosition(), null, RegisterSpecList.EMPTY));
+        next.getInsns().remove(0);
+        ssaMeth.onInsnRemoved(move);
+
+        preheader.replaceLastInsn(ropInsn);
+        result.addInsnToHead(ropMove);
+
+        return result;
+    }
+
+    /**
+     * Moves a non-throwing insn to the end of a block, just before its
+     * final goto.
+     *
+     * @param insn {@code non-null;} the insn
+     * @param block {@code non-null;} the block to move it to
+     */
+    private void moveToEnd(SsaInsn insn, SsaBasicBlock block) {
+        Insn ropInsn = insn.toRopInsn();
+        ArrayList<SsaInsn> insns = block.getInsns();
+
+        insn.getBlock().getInsns().remove(insn);
+        ssaMeth.onInsnRemoved(insn);
+
+        SsaInsn newInsn = SsaInsn.makeFromRop(ropInsn, block);
+
+        insns.add(insns.size() - 1, newInsn);
+        ssaMeth.onInsnAdded(newInsn);
+    }
+}
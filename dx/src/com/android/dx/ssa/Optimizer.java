@@ -18,24 +18,108 @@ package com.android.dx.ssa;
 
 import com.android.dx.rop.code.RopMethod;
 import com.android.dx.rop.code.TranslationAdvice;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.ssa.back.LivenessAnalyzer;
 import com.android.dx.ssa.back.SsaToRop;
 
 import java.util.EnumSet;
+import java.util.Map;
 
 /**
  * Runs a method through the SSA form conversion, any optimization algorithms,
  * and returns it to rop form.
  */
 public class Optimizer {
-    private static boolean preserveLocals = true;
+    /*
+     * The settings are kept per thread, so that classes can be
+     * translated on several threads at once, each with settings of
+     * its own.
+     */
+
+    private static final ThreadLocal<Boolean> preserveLocals =
+        new ThreadLocal<Boolean>() {
+            @Override
+            protected Boolean initialValue() {
+                return true;
+            }
+        };
+
+    private static final ThreadLocal<TranslationAdvice> advice =
+        new ThreadLocal<TranslationAdvice>();
+
+    /**
+     * whether to run {@link OptionalStep#ESCAPE_ANALYSIS}, which is left
+     * off unless asked for
+     */
+    private static final ThreadLocal<Boolean> escapeAnalysis =
+        new ThreadLocal<Boolean>() {
+            @Override
+            protected Boolean initialValue() {
+                return false;
+            }
+        };
+
+    /**
+     * whether to run {@link OptionalStep#VALUE_NUMBERING}, which is left
+     * off unless asked for
+     */
+    private static final ThreadLocal<Boolean> valueNumbering =
+        new ThreadLocal<Boolean>() {
+            @Override
+            protected Boolean initialValue() {
+                return false;
+            }
+        };
 
-    private static TranslationAdvice advice;
+    /**
+     * whether to run {@link OptionalStep#LOOP_INVARIANT_MOTION}, which
+     * is left off unless asked for
+     */
+    private static final ThreadLocal<Boolean> loopInvariantMotion =
+        new ThreadLocal<Boolean>() {
+            @Override
+            protected Boolean initialValue() {
+                return false;
+            }
+        };
+
+    /**
+     * {@code null-ok;} static final fields whose values are known
+     * across classes, for {@link SCCP} to fold reads of, or
+     * {@code null} not to fold any
+     */
+    private static final ThreadLocal<Map<CstFieldRef, TypedConstant>>
+        constantFields = new ThreadLocal<Map<CstFieldRef, TypedConstant>>();
+
+    /**
+     * {@code null-ok;} where to add the time spent in each step, or
+     * {@code null} not to time the steps
+     */
+    private static final ThreadLocal<StepTimer> stepTimer =
+        new ThreadLocal<StepTimer>();
+
+    /*
+     * The running counts are totals for all threads, and are only
+     * updated while holding the lock on this class.
+     */
+
+    /** running count of arrays replaced with registers */
+    private static int replacedArrayCount = 0;
+
+    /** running count of redundant computations removed */
+    private static int redundantInsnCount = 0;
+
+    /** running count of insns moved out of loops */
+    private static int hoistedInsnCount = 0;
+
+    /** running count of static field reads folded into constants */
+    private static int foldedFieldReadCount = 0;
 
     /** optional optimizer steps */
     public enum OptionalStep {
         MOVE_PARAM_COMBINER, SCCP, LITERAL_UPGRADE, CONST_COLLECTOR,
-            ESCAPE_ANALYSIS
+            ESCAPE_ANALYSIS, VALUE_NUMBERING, LOOP_INVARIANT_MOTION
     }
 
     /**
@@ -43,14 +127,153 @@ public class Optimizer {
      * at code size/register size cost
      */
     public static boolean getPreserveLocals() {
-        return preserveLocals;
+        return preserveLocals.get();
     }
 
     /**
      * @return {@code non-null;} translation advice
      */
     public static TranslationAdvice getAdvice() {
-        return advice;
+        return advice.get();
+    }
+
+    /**
+     * Sets whether escape analysis and scalar replacement of arrays
+     * should run as part of optimization on the current thread.
+     *
+     * @param enable true to run escape analysis
+     */
+    public static void setEscapeAnalysis(boolean enable) {
+        escapeAnalysis.set(enable);
+    }
+
+    /**
+     * @return true if escape analysis runs as part of optimization
+     */
+    public static boolean getEscapeAnalysis() {
+        return escapeAnalysis.get();
+    }
+
+    /**
+     * Sets whether value numbering should remove redundant computations
+     * as part of optimization on the current thread.
+     *
+     * @param enable true to run value numbering
+     */
+    public static void setValueNumbering(boolean enable) {
+        valueNumbering.set(enable);
+    }
+
+    /**
+     * @return true if value numbering runs as part of optimization
+     */
+    public static boolean getValueNumbering() {
+        return valueNumbering.get();
+    }
+
+    /**
+     * Sets whether loop-invariant insns should be hoisted out of loops
+     * as part of optimization on the current thread.
+     *
+     * @param enable true to run loop-invariant code motion
+     */
+    public static void setLoopInvariantMotion(boolean enable) {
+        loopInvariantMotion.set(enable);
+    }
+
+    /**
+     * @return true if loop-invariant code motion runs as part of
+     * optimization
+     */
+    public static boolean getLoopInvariantMotion() {
+        return loopInvariantMotion.get();
+    }
+
+    /**
+     * Sets the static final fields whose values are known across
+     * classes, so that reads of them are folded into constants by
+     * optimization on the current thread.
+     *
+     * @param fields {@code null-ok;} the values, keyed by field, or
+     * {@code null} not to fold any reads
+     */
+    public static void setConstantFields(
+            Map<CstFieldRef, TypedConstant> fields) {
+        constantFields.set(fields);
+    }
+
+    /**
+     * @return {@code null-ok;} the static final fields whose values are
+     * known across classes, if any
+     */
+    public static Map<CstFieldRef, TypedConstant> getConstantFields() {
+        return constantFields.get();
+    }
+
+    /**
+     * Sets where to add the time spent in each step of methods
+     * optimized on the current thread.
+     *
+     * @param timer {@code null-ok;} the timer, or {@code null} not to
+     * time the steps
+     */
+    public static void setStepTimer(StepTimer timer) {
+        stepTimer.set(timer);
+    }
+
+    /**
+     * @return {@code null-ok;} where the time spent in each step is
+     * added, if anywhere
+     */
+    public static StepTimer getStepTimer() {
+        return stepTimer.get();
+    }
+
+    /**
+     * Puts all the settings for the current thread back to their
+     * defaults, so that nothing, in particular no map of constant
+     * fields, is left behind on a thread that is reused.
+     */
+    public static void clearSettings() {
+        preserveLocals.remove();
+        advice.remove();
+        escapeAnalysis.remove();
+        valueNumbering.remove();
+        loopInvariantMotion.remove();
+        constantFields.remove();
+        stepTimer.remove();
+    }
+
+    /**
+     * @return {@code >= 0;} the number of arrays replaced with registers
+     * in the methods optimized so far
+     */
+    public static int getReplacedArrayCount() {
+        return replacedArrayCount;
+    }
+
+    /**
+     * @return {@code >= 0;} the number of redundant computations removed
+     * by value numbering in the methods optimized so far
+     */
+    public static int getRedundantInsnCount() {
+        return redundantInsnCount;
+    }
+
+    /**
+     * @return {@code >= 0;} the number of insns moved out of loops in the
+     * methods optimized so far
+     */
+    public static int getHoistedInsnCount() {
+        return hoistedInsnCount;
+    }
+
+    /**
+     * @return {@code >= 0;} the number of static field reads folded into
+     * constants in the methods optimized so far
+     */
+    public static int getFoldedFieldReadCount() {
+        return foldedFieldReadCount;
     }
 
     /**
@@ -93,20 +316,31 @@ public class Optimizer {
             TranslationAdvice inAdvice, EnumSet<OptionalStep> steps) {
         SsaMethod ssaMeth = null;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        preserveLocals.set(inPreserveLocals);
+        advice.set(inAdvice);
+
+        StepCounts counts = new StepCounts();
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
-        runSsaFormSteps(ssaMeth, steps);
+        ssaMeth = toSsa(rmeth, paramWidth, isStatic);
+        runSsaFormSteps(ssaMeth, steps, counts);
 
-        RopMethod resultMeth = SsaToRop.convertToRopMethod(ssaMeth, false);
+        RopMethod resultMeth = toRop(ssaMeth, false);
 
         if (resultMeth.getBlocks().getRegCount()
-                > advice.getMaxOptimalRegisterCount()) {
+                > inAdvice.getMaxOptimalRegisterCount()) {
             // Try to see if we can squeeze it under the register count bar
             resultMeth = optimizeMinimizeRegisters(rmeth, paramWidth, isStatic,
-                    steps);
+                    steps, counts);
         }
+
+        // Only count what was done to the version that was kept.
+        synchronized (Optimizer.class) {
+            replacedArrayCount += counts.replacedArrays;
+            redundantInsnCount += counts.redundantInsns;
+            hoistedInsnCount += counts.hoistedInsns;
+            foldedFieldReadCount += counts.foldedFieldReads;
+        }
+
         return resultMeth;
     }
 
@@ -123,79 +357,199 @@ public class Optimizer {
      * parameters
      * @param isStatic true if this method has no 'this' pointer argument.
      * @param steps set of optional optimization steps to run
+     * @param counts {@code non-null;} where to leave what the steps did
      * @return optimized method
      */
     private static RopMethod optimizeMinimizeRegisters(RopMethod rmeth,
             int paramWidth, boolean isStatic,
-            EnumSet<OptionalStep> steps) {
+            EnumSet<OptionalStep> steps, StepCounts counts) {
         SsaMethod ssaMeth;
         RopMethod resultMeth;
 
-        ssaMeth = SsaConverter.convertToSsaMethod(
-                rmeth, paramWidth, isStatic);
+        ssaMeth = toSsa(rmeth, paramWidth, isStatic);
 
         EnumSet<OptionalStep> newSteps = steps.clone();
 
         /*
-         * CONST_COLLECTOR trades insns for registers, which is not an
-         * appropriate strategy here.
+         * CONST_COLLECTOR, VALUE_NUMBERING and LOOP_INVARIANT_MOTION trade
+         * insns for registers, which is not an appropriate strategy here.
          */
         newSteps.remove(OptionalStep.CONST_COLLECTOR);
+        newSteps.remove(OptionalStep.VALUE_NUMBERING);
+        newSteps.remove(OptionalStep.LOOP_INVARIANT_MOTION);
 
-        runSsaFormSteps(ssaMeth, newSteps);
+        runSsaFormSteps(ssaMeth, newSteps, counts);
 
-        resultMeth = SsaToRop.convertToRopMethod(ssaMeth, true);
+        resultMeth = toRop(ssaMeth, true);
         return resultMeth;
     }
 
+    /**
+     * Runs the SSA-form optimization steps, leaving what they did in
+     * the given counts.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param steps {@code non-null;} set of optional optimization steps to run
+     * @param counts {@code non-null;} where to leave what the steps did
+     */
     private static void runSsaFormSteps(SsaMethod ssaMeth,
-            EnumSet<OptionalStep> steps) {
+            EnumSet<OptionalStep> steps, StepCounts counts) {
+        StepTimer timer = stepTimer.get();
         boolean needsDeadCodeRemover = true;
+        long start;
+
+        counts.replacedArrays = 0;
+        counts.redundantInsns = 0;
+        counts.hoistedInsns = 0;
+        counts.foldedFieldReads = 0;
 
         if (steps.contains(OptionalStep.MOVE_PARAM_COMBINER)) {
+            start = StepTimer.start();
             MoveParamCombiner.process(ssaMeth);
+            endStep(timer, StepTimer.Step.MOVE_PARAM_COMBINER, start);
         }
 
         if (steps.contains(OptionalStep.SCCP)) {
-            SCCP.process(ssaMeth);
+            start = StepTimer.start();
+            counts.foldedFieldReads = SCCP.process(ssaMeth);
+            endStep(timer, StepTimer.Step.SCCP, start);
         }
 
         if (steps.contains(OptionalStep.LITERAL_UPGRADE)) {
+            start = StepTimer.start();
             LiteralOpUpgrader.process(ssaMeth);
-            DeadCodeRemover.process(ssaMeth);
+            endStep(timer, StepTimer.Step.LITERAL_UPGRADE, start);
+            removeDeadCode(ssaMeth, timer);
             needsDeadCodeRemover = false;
         }
 
         /*
          * ESCAPE_ANALYSIS impacts debuggability, so left off by default
          */
-        steps.remove(OptionalStep.ESCAPE_ANALYSIS);
-        if (steps.contains(OptionalStep.ESCAPE_ANALYSIS)) {
-            EscapeAnalysis.process(ssaMeth);
-            DeadCodeRemover.process(ssaMeth);
+        if (escapeAnalysis.get()
+                && steps.contains(OptionalStep.ESCAPE_ANALYSIS)) {
+            start = StepTimer.start();
+            counts.replacedArrays = EscapeAnalysis.process(ssaMeth);
+            endStep(timer, StepTimer.Step.ESCAPE_ANALYSIS, start);
+            removeDeadCode(ssaMeth, timer);
+            needsDeadCodeRemover = false;
+        }
+
+        /*
+         * VALUE_NUMBERING changes the code of nearly every method, so
+         * it is left off by default, too
+         */
+        if (valueNumbering.get()
+                && steps.contains(OptionalStep.VALUE_NUMBERING)) {
+            start = StepTimer.start();
+            counts.redundantInsns = ValueNumberer.process(ssaMeth);
+            endStep(timer, StepTimer.Step.VALUE_NUMBERING, start);
+            removeDeadCode(ssaMeth, timer);
+            needsDeadCodeRemover = false;
+        }
+
+        /*
+         * LOOP_INVARIANT_MOTION trades registers for insns in every
+         * loop, so it is left off by default as well
+         */
+        if (loopInvariantMotion.get()
+                && steps.contains(OptionalStep.LOOP_INVARIANT_MOTION)) {
+            start = StepTimer.start();
+            counts.hoistedInsns = LoopInvariantHoister.process(ssaMeth);
+            endStep(timer, StepTimer.Step.LOOP_INVARIANT_MOTION, start);
+            removeDeadCode(ssaMeth, timer);
             needsDeadCodeRemover = false;
         }
 
         if (steps.contains(OptionalStep.CONST_COLLECTOR)) {
+            start = StepTimer.start();
             ConstCollector.process(ssaMeth);
-            DeadCodeRemover.process(ssaMeth);
+            endStep(timer, StepTimer.Step.CONST_COLLECTOR, start);
+            removeDeadCode(ssaMeth, timer);
             needsDeadCodeRemover = false;
         }
 
         // dead code remover must be run before phi type resolver
         if (needsDeadCodeRemover) {
-            DeadCodeRemover.process(ssaMeth);
+            removeDeadCode(ssaMeth, timer);
         }
 
+        start = StepTimer.start();
         PhiTypeResolver.process(ssaMeth);
+        endStep(timer, StepTimer.Step.PHI_TYPES, start);
+    }
+
+    /**
+     * Converts a method to SSA form, timing the conversion if there is
+     * a {@link StepTimer} for the current thread.
+     *
+     * @param rmeth {@code non-null;} method to process
+     * @param paramWidth the total width, in register-units, of this
+     * method's parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @return {@code non-null;} the method in SSA form
+     */
+    private static SsaMethod toSsa(RopMethod rmeth, int paramWidth,
+            boolean isStatic) {
+        long start = StepTimer.start();
+        SsaMethod result =
+            SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+
+        endStep(stepTimer.get(), StepTimer.Step.TO_SSA, start);
+        return result;
+    }
+
+    /**
+     * Converts a method back to rop form, timing the conversion if there
+     * is a {@link StepTimer} for the current thread.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param minimizeRegisters whether to try hard to use few registers
+     * @return {@code non-null;} the method in rop form
+     */
+    private static RopMethod toRop(SsaMethod ssaMeth,
+            boolean minimizeRegisters) {
+        long start = StepTimer.start();
+        RopMethod result =
+            SsaToRop.convertToRopMethod(ssaMeth, minimizeRegisters);
+
+        endStep(stepTimer.get(), StepTimer.Step.TO_ROP, start);
+        return result;
+    }
+
+    /**
+     * Runs the dead code remover, timing it if there is a timer.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param timer {@code null-ok;} where to add the time spent
+     */
+    private static void removeDeadCode(SsaMethod ssaMeth, StepTimer timer) {
+        long start = StepTimer.start();
+
+        DeadCodeRemover.process(ssaMeth);
+        endStep(timer, StepTimer.Step.DEAD_CODE, start);
+    }
+
+    /**
+     * Adds a run of a step to the given timer, if there is one.
+     *
+     * @param timer {@code null-ok;} where to add the time spent
+     * @param step {@code non-null;} the step that was run
+     * @param start the time the step was started
+     */
+    private static void endStep(StepTimer timer, StepTimer.Step step,
+            long start) {
+        if (timer != null) {
+            timer.end(step, start);
+        }
     }
 
     public static SsaMethod debugEdgeSplit(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        preserveLocals.set(inPreserveLocals);
+        advice.set(inAdvice);
 
         return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic);
     }
@@ -204,8 +558,8 @@ public class Optimizer {
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        preserveLocals.set(inPreserveLocals);
+        advice.set(inAdvice);
 
         return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic);
     }
@@ -214,10 +568,10 @@ public class Optimizer {
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        preserveLocals.set(inPreserveLocals);
+        advice.set(inAdvice);
 
-        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        return toSsa(rmeth, paramWidth, isStatic);
     }
 
     public static SsaMethod debugDeadCodeRemover(RopMethod rmeth,
@@ -226,11 +580,11 @@ public class Optimizer {
 
         SsaMethod ssaMeth;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        preserveLocals.set(inPreserveLocals);
+        advice.set(inAdvice);
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
-        DeadCodeRemover.process(ssaMeth);
+        ssaMeth = toSsa(rmeth, paramWidth, isStatic);
+        removeDeadCode(ssaMeth, stepTimer.get());
 
         return ssaMeth;
     }
@@ -241,15 +595,34 @@ public class Optimizer {
 
         SsaMethod ssaMeth;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        preserveLocals.set(inPreserveLocals);
+        advice.set(inAdvice);
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = toSsa(rmeth, paramWidth, isStatic);
 
-        runSsaFormSteps(ssaMeth, steps);
+        runSsaFormSteps(ssaMeth, steps, new StepCounts());
 
+        long start = StepTimer.start();
         LivenessAnalyzer.constructInterferenceGraph(ssaMeth);
+        endStep(stepTimer.get(), StepTimer.Step.LIVENESS, start);
 
         return ssaMeth;
     }
+
+    /**
+     * What one run of the SSA-form optimization steps did.
+     */
+    private static class StepCounts {
+        /** arrays replaced with registers */
+        public int replacedArrays;
+
+        /** redundant computations removed */
+        public int redundantInsns;
+
+        /** insns moved out of loops */
+        public int hoistedInsns;
+
+        /** static field reads folded into constants */
+        public int foldedFieldReads;
+    }
 }
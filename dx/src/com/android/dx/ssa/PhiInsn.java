@@ -133,6 +133,24 @@ public final class PhiInsn extends SsaInsn {
         sources = null;
     }
 
+    /**
+     * Changes the predecessor block associated with operands, for when a
+     * new block is inserted on the edge they flow along.
+     *
+     * @param oldIndex index of the old predecessor block
+     * @param newPred {@code non-null;} the new predecessor block
+     */
+    public void replacePredecessor(int oldIndex, SsaBasicBlock newPred) {
+        for (int i = operands.size() - 1; i >= 0; i--) {
+            Operand o = operands.get(i);
+
+            if (o.blockIndex == oldIndex) {
+                operands.set(i, new Operand(o.regSpec, newPred.getIndex(),
+                        newPred.getRopLabel()));
+            }
+        }
+    }
+
     /**
      * Gets the index of the pred block associated with the RegisterSpec
      * at the particular getSources() index.
@@ -18,18 +18,25 @@ package com.android.dx.ssa;
 
 import com.android.dx.rop.code.CstInsn;
 import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.PlainCstInsn;
+import com.android.dx.rop.code.PlainInsn;
 import com.android.dx.rop.code.RegOps;
 import com.android.dx.rop.code.RegisterSpecList;
 import com.android.dx.rop.code.Rop;
 import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.code.ThrowingCstInsn;
 import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstFieldRef;
 import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstString;
 import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.rop.type.TypeBearer;
 import com.android.dx.rop.type.Type;
 
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Map;
 
 /**
  * A small variant of Wegman and Zadeck's Sparse Conditional Constant
@@ -60,6 +67,11 @@ public class SCCP {
      * possible.
      */
     private ArrayList<SsaInsn> varyingWorklist;
+    /**
+     * Static final fields with values known across classes, or null if
+     * reads of them aren't to be folded
+     */
+    private Map<CstFieldRef, TypedConstant> constantFields;
 
     private SCCP(SsaMethod ssaMeth) {
         this.ssaMeth = ssaMeth;
@@ -70,6 +82,7 @@ public class SCCP {
         this.executableBlocks = new BitSet(ssaMeth.getBlocks().size());
         this.ssaWorklist = new ArrayList<SsaInsn>();
         this.varyingWorklist = new ArrayList<SsaInsn>();
+        this.constantFields = Optimizer.getConstantFields();
         for (int i = 0; i < this.regCount; i++) {
             latticeValues[i] = TOP;
             latticeConstants[i] = null;
@@ -79,9 +92,10 @@ public class SCCP {
     /**
      * Performs sparse conditional constant propagation on a method.
      * @param ssaMethod Method to process
+     * @return number of static field reads folded into constants
      */
-    public static void process (SsaMethod ssaMethod) {
-        new SCCP(ssaMethod).run();
+    public static int process (SsaMethod ssaMethod) {
+        return new SCCP(ssaMethod).run();
     }
 
     /**
@@ -348,6 +362,13 @@ public class SCCP {
                 resultConstant = cstInsn.getConstant();
                 break;
             }
+            case RegOps.MOVE_RESULT_PSEUDO: {
+                resultConstant = getFieldConstant(insn);
+                if (resultConstant != null) {
+                    resultValue = CONSTANT;
+                }
+                break;
+            }
             case RegOps.MOVE: {
                 if (insn.getSources().size() == 1) {
                     int sourceReg = insn.getSources().get(0).getReg();
@@ -386,7 +407,121 @@ public class SCCP {
         }
     }
 
-    private void run() {
+    /**
+     * Gets the known value of a static field read, if any.
+     *
+     * @param insn {@code move-result-pseudo} that may follow a read
+     * @return the field's value, or null if it isn't a known field read
+     */
+    private TypedConstant getFieldConstant(SsaInsn insn) {
+        if (constantFields == null) {
+            return null;
+        }
+
+        BitSet preds = insn.getBlock().getPredecessors();
+        SsaBasicBlock pred = ssaMeth.getBlocks().get(preds.nextSetBit(0));
+        CstInsn read = getFieldRead(pred);
+
+        if (read == null) {
+            return null;
+        }
+
+        return constantFields.get(read.getConstant());
+    }
+
+    /**
+     * Gets the static field read that ends a block, if any.
+     *
+     * @param block block to look at
+     * @return the read, or null if the block doesn't end with one
+     */
+    private static CstInsn getFieldRead(SsaBasicBlock block) {
+        ArrayList<SsaInsn> insns = block.getInsns();
+
+        if (insns.isEmpty()) {
+            return null;
+        }
+
+        Insn last = insns.get(insns.size() - 1).getOriginalRopInsn();
+
+        if (last == null
+                || last.getOpcode().getOpcode() != RegOps.GET_STATIC) {
+            return null;
+        }
+
+        return (CstInsn) last;
+    }
+
+    /**
+     * Replaces reads of static final fields with known values by
+     * constants. A read of a string is replaced by a
+     * {@code const-string}, which throws like the read did. Any other
+     * read becomes a non-throwing {@code const}, which can only be done
+     * where nothing catches what the read could have thrown.
+     *
+     * @return number of reads replaced
+     */
+    private int foldFieldReads() {
+        if (constantFields == null) {
+            return 0;
+        }
+
+        int count = 0;
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            if (!executableBlocks.get(block.getIndex())) {
+                continue;
+            }
+
+            CstInsn read = getFieldRead(block);
+
+            if (read == null) {
+                continue;
+            }
+
+            TypedConstant cst = constantFields.get(read.getConstant());
+            SsaBasicBlock next = block.getPrimarySuccessor();
+            ArrayList<SsaInsn> nextInsns = next.getInsns();
+            SsaInsn move = nextInsns.get(0);
+
+            if (cst == null
+                    || move.getOpcode().getOpcode()
+                        != RegOps.MOVE_RESULT_PSEUDO) {
+                continue;
+            }
+
+            if (cst instanceof CstString) {
+                block.replaceLastInsn(new ThrowingCstInsn(Rops.CONST_OBJECT,
+                        read.getPosition(), RegisterSpecList.EMPTY,
+                        read.getCatches(), cst));
+            } else if (read.getCatches().size() == 0) {
+                RegisterSpec result = move.getResult();
+                SsaInsn newMove = SsaInsn.makeFromRop(
+                        new PlainCstInsn(Rops.opConst(result),
+                                read.getPosition(), result,
+                                RegisterSpecList.EMPTY, cst), next);
+
+                block.replaceLastInsn(new PlainInsn(Rops.GOTO,
+                        read.getPosition(), null, RegisterSpecList.EMPTY));
+                nextInsns.set(0, newMove);
+                ssaMeth.onInsnRemoved(move);
+                ssaMeth.onInsnAdded(newMove);
+            } else {
+                continue;
+            }
+
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Runs the algorithm.
+     *
+     * @return number of static field reads folded into constants
+     */
+    private int run() {
         SsaBasicBlock firstBlock = ssaMeth.getEntryBlock();
         addBlockToWorklist(firstBlock);
 
@@ -430,6 +565,8 @@ public class SCCP {
         }
 
         replaceConstants();
+
+        return foldFieldReads();
     }
 
     /**
@@ -186,6 +186,14 @@ public final class SsaBasicBlock {
         domChildren.add(child);
     }
 
+    /**
+     * Removes all of this block's dom children. Used when the dom tree is
+     * reconstructed.
+     */
+    public void clearDomChildren() {
+        domChildren.clear();
+    }
+
     /**
      * Gets the dom children for this node. Don't modify this list.
      *
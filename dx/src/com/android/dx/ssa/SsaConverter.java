@@ -17,6 +17,8 @@
 package com.android.dx.ssa;
 
 import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RegisterSpecSet;
 import com.android.dx.rop.code.RopMethod;
 import com.android.dx.util.IntIterator;
 
@@ -29,6 +31,48 @@ import java.util.BitSet;
 public class SsaConverter {
     public static final boolean DEBUG = false;
 
+    /**
+     * whether phi functions are only placed in blocks where their
+     * register is live on entry (pruned SSA form), for conversions on
+     * the current thread
+     */
+    private static final ThreadLocal<Boolean> prunePhis =
+        new ThreadLocal<Boolean>() {
+            @Override
+            protected Boolean initialValue() {
+                return false;
+            }
+        };
+
+    /**
+     * Sets whether subsequent conversions on the current thread place
+     * phi functions only in
+     * blocks where their register is live on entry. Pruning doesn't
+     * change the optimized result, since the dead code remover would
+     * delete the extra phis anyway, but it keeps them from being
+     * created and processed by every step in between.
+     *
+     * @param newPrunePhis whether to prune phi placement
+     */
+    public static void setPrunePhis(boolean newPrunePhis) {
+        prunePhis.set(newPrunePhis);
+    }
+
+    /**
+     * @return whether phi placement is pruned by liveness
+     */
+    public static boolean getPrunePhis() {
+        return prunePhis.get();
+    }
+
+    /**
+     * Puts the setting for the current thread back to its default, so
+     * that nothing is left behind on a thread that is reused.
+     */
+    public static void clearSettings() {
+        prunePhis.remove();
+    }
+
     /**
      * Returns an SSA representation, edge-split and with phi
      * functions placed.
@@ -49,7 +93,7 @@ public class SsaConverter {
 
         LocalVariableInfo localInfo = LocalVariableExtractor.extract(result);
 
-        placePhiFunctions(result, localInfo, 0);
+        placePhiFunctions(result, localInfo, 0, prunePhis.get());
         new SsaRenamer(result).run();
 
         /*
@@ -70,7 +114,7 @@ public class SsaConverter {
      */
     public static void updateSsaMethod(SsaMethod ssaMeth, int threshold) {
         LocalVariableInfo localInfo = LocalVariableExtractor.extract(ssaMeth);
-        placePhiFunctions(ssaMeth, localInfo, threshold);
+        placePhiFunctions(ssaMeth, localInfo, threshold, false);
         new SsaRenamer(ssaMeth, threshold).run();
     }
 
@@ -113,7 +157,7 @@ public class SsaConverter {
 
         LocalVariableInfo localInfo = LocalVariableExtractor.extract(result);
 
-        placePhiFunctions(result, localInfo, 0);
+        placePhiFunctions(result, localInfo, 0, prunePhis.get());
         return result;
     }
 
@@ -283,9 +327,12 @@ public class SsaConverter {
      * @param localInfo {@code non-null;} local variable info, used
      * when placing phis
      * @param threshold registers below this number are ignored
+     * @param prune whether to skip placing phis for registers that are
+     * dead on entry to the block. Only valid on a method that has no
+     * phi functions yet.
      */
     private static void placePhiFunctions (SsaMethod ssaMeth,
-            LocalVariableInfo localInfo, int threshold) {
+            LocalVariableInfo localInfo, int threshold, boolean prune) {
         ArrayList<SsaBasicBlock> ssaBlocks;
         int regCount;
         int blockCount;
@@ -335,6 +382,11 @@ public class SsaConverter {
             }
         }
 
+        // Bit set of registers vs block index "live on entry"; null if n/a
+        BitSet[] liveIns = prune
+                ? computeLiveIns(ssaMeth, localInfo, defsites, threshold)
+                : null;
+
         BitSet worklist;
 
         /*
@@ -359,6 +411,20 @@ public class SsaConverter {
                     if (!phisites[reg].get(dfBlockIndex)) {
                         phisites[reg].set(dfBlockIndex);
 
+                        /*
+                         * A phi for a dead register would only be
+                         * removed again by the dead code remover. The
+                         * block is still part of the iterated dominance
+                         * frontier, so keep propagating from it.
+                         */
+                        if (liveIns != null
+                                && !liveIns[reg].get(dfBlockIndex)) {
+                            if (!defsites[reg].get(dfBlockIndex)) {
+                                worklist.set(dfBlockIndex);
+                            }
+                            continue;
+                        }
+
                         int tReg = reg + threshold;
                         RegisterSpec rs
                             = localInfo.getStarts(dfBlockIndex).get(tReg);
@@ -388,4 +454,103 @@ public class SsaConverter {
             }
         }
     }
+
+    /**
+     * Computes, for each register, the set of blocks on entry to which the
+     * register is live. A register is live on entry to a block if some
+     * path from the block's start reads it before writing it. When local
+     * variable information is being preserved, each block's starting
+     * local variables count as reads too, so that phis which carry local
+     * assignments are still placed.
+     *
+     * @param ssaMeth {@code non-null;} method to process. Must not
+     * contain phi functions yet.
+     * @param localInfo {@code non-null;} local variable info
+     * @param defsites {@code non-null;} per register, the blocks that
+     * assign to it
+     * @param threshold registers below this number are ignored
+     * @return {@code non-null;} per register, the blocks it is live into
+     */
+    private static BitSet[] computeLiveIns(SsaMethod ssaMeth,
+            LocalVariableInfo localInfo, BitSet[] defsites, int threshold) {
+        ArrayList<SsaBasicBlock> ssaBlocks = ssaMeth.getBlocks();
+        int blockCount = ssaBlocks.size();
+        int regCount = defsites.length;
+        boolean preserveLocals = Optimizer.getPreserveLocals();
+
+        BitSet[] liveIns = new BitSet[regCount];
+        for (int i = 0; i < regCount; i++) {
+            liveIns[i] = new BitSet(blockCount);
+        }
+
+        /*
+         * Seed each register's set with the blocks that read it before
+         * writing it ("upward-exposed" uses).
+         */
+        BitSet defined = new BitSet(regCount);
+        for (int bi = 0; bi < blockCount; bi++) {
+            SsaBasicBlock b = ssaBlocks.get(bi);
+
+            defined.clear();
+
+            if (preserveLocals) {
+                RegisterSpecSet starts = localInfo.getStarts(bi);
+                int maxReg = Math.min(starts.getMaxSize(),
+                        regCount + threshold);
+
+                for (int reg = threshold; reg < maxReg; reg++) {
+                    if (starts.get(reg) != null) {
+                        liveIns[reg - threshold].set(bi);
+                    }
+                }
+            }
+
+            for (SsaInsn insn : b.getInsns()) {
+                RegisterSpecList sources = insn.getSources();
+                int szSources = sources.size();
+
+                for (int i = 0; i < szSources; i++) {
+                    int reg = sources.get(i).getReg() - threshold;
+
+                    if (reg >= 0 && !defined.get(reg)) {
+                        liveIns[reg].set(bi);
+                    }
+                }
+
+                RegisterSpec rs = insn.getResult();
+
+                if (rs != null && rs.getReg() - threshold >= 0) {
+                    defined.set(rs.getReg() - threshold);
+                }
+            }
+        }
+
+        /*
+         * Propagate liveness backwards: a register live into a block is
+         * live out of each predecessor, and so into the predecessor as
+         * well unless the predecessor assigns it.
+         */
+        BitSet worklist = new BitSet(blockCount);
+        for (int reg = 0; reg < regCount; reg++) {
+            BitSet liveIn = liveIns[reg];
+            int workBlockIndex;
+
+            worklist.or(liveIn);
+
+            while (0 <= (workBlockIndex = worklist.nextSetBit(0))) {
+                worklist.clear(workBlockIndex);
+
+                BitSet preds = ssaBlocks.get(workBlockIndex).getPredecessors();
+                for (int i = preds.nextSetBit(0); i >= 0;
+                     i = preds.nextSetBit(i + 1)) {
+                    if (!liveIn.get(i) && !defsites[reg].get(i)) {
+                        liveIn.set(i);
+                        worklist.set(i);
+                    }
+                }
+            }
+        }
+
+        return liveIns;
+    }
 }
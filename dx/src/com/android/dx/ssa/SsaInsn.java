@@ -29,6 +29,15 @@ public abstract class SsaInsn implements ToHuman, Cloneable {
     /** {@code null-ok;} result register */
     private RegisterSpec result;
 
+    /**
+     * {@code null-ok;} the def-use chains that {@link #firstUseEdge}
+     * belongs to, if any
+     */
+    /*package*/ UseChains useChains;
+
+    /** first of this insn's edges in {@link #useChains}, or {@code -1} */
+    /*package*/ int firstUseEdge = -1;
+
     /**
      * Constructs an instance.
      *
@@ -60,7 +69,12 @@ public abstract class SsaInsn implements ToHuman, Cloneable {
     @Override
     public SsaInsn clone() {
         try {
-            return (SsaInsn)super.clone();
+            SsaInsn result = (SsaInsn)super.clone();
+
+            // A copy isn't on any use chains until it's added to a method.
+            result.useChains = null;
+            result.firstUseEdge = -1;
+            return result;
         } catch (CloneNotSupportedException ex) {
             throw new RuntimeException ("unexpected", ex);
         }
@@ -30,7 +30,6 @@ import com.android.dx.util.IntList;
 
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.Stack;
@@ -75,11 +74,11 @@ public final class SsaMethod {
      */
     private SsaInsn[] definitionList;
 
-    /** indexed by register: the list of all insns that use a register */
-    private ArrayList<SsaInsn>[] useList;
-
-    /** A version of useList with each List unmodifiable */
-    private List<SsaInsn>[] unmodifiableUseList;
+    /**
+     * def-use chains: for each register, the insns that use it. null
+     * until (lazily) created, and then kept up to date by the on* methods
+     */
+    private UseChains useChains;
 
     /**
      * "back-convert mode". Set during back-conversion when registers
@@ -436,18 +435,14 @@ public final class SsaMethod {
     }
 
     /**
-     * Builds useList and unmodifiableUseList.
+     * Builds useChains.
      */
     private void buildUseList() {
         if (backMode) {
             throw new RuntimeException("No use list in back mode");
         }
 
-        useList = new ArrayList[registerCount];
-
-        for (int i = 0; i < registerCount; i++) {
-            useList[i] = new ArrayList();
-        }
+        useChains = new UseChains(registerCount, registerCount * 2);
 
         forEachInsn(new SsaInsn.Visitor() {
             /** {@inheritDoc} */
@@ -471,16 +466,10 @@ public final class SsaMethod {
                 int sz = rl.size();
 
                 for (int i = 0; i < sz; i++) {
-                    useList[rl.get(i).getReg()].add(insn);
+                    useChains.add(insn, rl.get(i).getReg());
                 }
             }
         });
-
-        unmodifiableUseList = new List[registerCount];
-
-        for (int i = 0; i < registerCount; i++) {
-            unmodifiableUseList[i] = Collections.unmodifiableList(useList[i]);
-        }
     }
 
     /**
@@ -493,19 +482,13 @@ public final class SsaMethod {
      */
     /*package*/ void onSourceChanged(SsaInsn insn,
             RegisterSpec oldSource, RegisterSpec newSource) {
-        if (useList == null) return;
+        if (useChains == null) return;
 
         if (oldSource != null) {
-            int reg = oldSource.getReg();
-            useList[reg].remove(insn);
+            useChains.remove(insn, oldSource.getReg());
         }
 
-        int reg = newSource.getReg();
-        if (useList.length <= reg) {
-            useList = null;
-            return;
-        }
-        useList[reg].add(insn);
+        useChains.add(insn, newSource.getReg());
     }
 
     /**
@@ -518,7 +501,7 @@ public final class SsaMethod {
      */
     /*package*/ void onSourcesChanged(SsaInsn insn,
             RegisterSpecList oldSources) {
-        if (useList == null) return;
+        if (useChains == null) return;
 
         if (oldSources != null) {
             removeFromUseList(insn, oldSources);
@@ -528,8 +511,7 @@ public final class SsaMethod {
         int szNew = sources.size();
 
         for (int i = 0; i < szNew; i++) {
-            int reg = sources.get(i).getReg();
-            useList[reg].add(insn);
+            useChains.add(insn, sources.get(i).getReg());
         }
     }
 
@@ -549,7 +531,7 @@ public final class SsaMethod {
 
         int szNew = oldSources.size();
         for (int i = 0; i < szNew; i++) {
-            if (!useList[oldSources.get(i).getReg()].remove(insn)) {
+            if (!useChains.remove(insn, oldSources.get(i).getReg())) {
                 throw new RuntimeException("use not found");
             }
         }
@@ -568,17 +550,20 @@ public final class SsaMethod {
 
     /**
      * Removes an instruction from use and def lists. For use during
-     * instruction removal.
+     * instruction removal. Calling this more than once for the same
+     * insn is harmless, so passes may detach an insn as soon as they
+     * decide to delete it and remove it from its block later.
      *
      * @param insn {@code non-null;} insn to remove
      */
     /*package*/ void onInsnRemoved(SsaInsn insn) {
-        if (useList != null) {
-            removeFromUseList(insn, insn.getSources());
+        if (useChains != null) {
+            useChains.removeAll(insn);
         }
 
         RegisterSpec resultReg = insn.getResult();
-        if (definitionList != null && resultReg != null) {
+        if (definitionList != null && resultReg != null
+                && definitionList[resultReg.getReg()] == insn) {
             definitionList[resultReg.getReg()] = null;
         }
     }
@@ -595,8 +580,7 @@ public final class SsaMethod {
         definitionList = null;
 
         // Use list will need to be recomputed
-        useList = null;
-        unmodifiableUseList = null;
+        useChains = null;
     }
 
     /**
@@ -637,20 +621,22 @@ public final class SsaMethod {
      */
     public List<SsaInsn> getUseListForRegister(int reg) {
 
-        if (unmodifiableUseList == null) {
+        if (useChains == null) {
             buildUseList();
         }
 
-        return unmodifiableUseList[reg];
+        return useChains.getUses(reg);
     }
 
     /**
-     * Returns a modifiable copy of the register use list.
+     * Returns a modifiable copy of the register use list. Passes that
+     * edit insns should prefer {@link #getUseListForRegister}, which
+     * stays up to date as the on* methods are called.
      *
      * @return modifiable copy of the use-list, indexed by register
      */
     public ArrayList<SsaInsn>[] getUseListCopy() {
-        if (useList == null) {
+        if (useChains == null) {
             buildUseList();
         }
 
@@ -658,7 +644,7 @@ public final class SsaMethod {
                 = (ArrayList<SsaInsn>[])(new ArrayList[registerCount]);
 
         for (int i = 0; i < registerCount; i++) {
-            useListCopy[i] = (ArrayList<SsaInsn>)(new ArrayList(useList[i]));
+            useListCopy[i] = new ArrayList<SsaInsn>(useChains.getUses(i));
         }
 
         return useListCopy;
@@ -715,7 +701,21 @@ public final class SsaMethod {
     public int makeNewSsaReg() {
         int reg = registerCount++;
         spareRegisterBase = registerCount;
-        onInsnsChanged();
+
+        // The new register has no definition or uses yet.
+        if (definitionList != null && definitionList.length < registerCount) {
+            SsaInsn[] newList
+                    = new SsaInsn[Math.max(registerCount,
+                            definitionList.length * 3 / 2)];
+            System.arraycopy(definitionList, 0, newList, 0,
+                    definitionList.length);
+            definitionList = newList;
+        }
+
+        if (useChains != null) {
+            useChains.ensureRegCount(registerCount);
+        }
+
         return reg;
     }
 
@@ -867,7 +867,7 @@ public final class SsaMethod {
      */
     public void setBackMode() {
         backMode = true;
-        useList = null;
+        useChains = null;
         definitionList = null;
     }
 }
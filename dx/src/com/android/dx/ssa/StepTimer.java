@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+
+/**
+ * Running totals of the time spent in each step of translating methods
+ * through SSA form, for finding out where that time goes. The totals
+ * are kept under the lock on the instance, so that one instance can be
+ * shared by methods translated on several threads at once.
+ *
+ * @see Optimizer#setStepTimer
+ */
+public final class StepTimer {
+    /** the steps, in the order they are run in */
+    public enum Step {
+        ROPPER, TO_SSA, MOVE_PARAM_COMBINER, SCCP, LITERAL_UPGRADE,
+            ESCAPE_ANALYSIS, VALUE_NUMBERING, LOOP_INVARIANT_MOTION,
+            CONST_COLLECTOR, DEAD_CODE, PHI_TYPES, LIVENESS, TO_ROP;
+
+        /**
+         * Gets the name the step is printed with.
+         *
+         * @return {@code non-null;} the name
+         */
+        public String toHuman() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    /** {@code non-null;} how many times each step was run */
+    private final EnumMap<Step, Integer> counts;
+
+    /** {@code non-null;} total time spent in each step, in nanoseconds */
+    private final EnumMap<Step, Long> nanos;
+
+    /**
+     * Constructs an instance. All totals are initially zero.
+     */
+    public StepTimer() {
+        counts = new EnumMap<Step, Integer>(Step.class);
+        nanos = new EnumMap<Step, Long>(Step.class);
+    }
+
+    /**
+     * Gets the start time for a run of a step, to pass to {@link #end}.
+     *
+     * @return the start time
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds a run of a step to the totals.
+     *
+     * @param step {@code non-null;} the step that was run
+     * @param start the time it was started, as returned by {@link #start}
+     */
+    public void end(Step step, long start) {
+        long time = System.nanoTime() - start;
+
+        synchronized (this) {
+            Integer count = counts.get(step);
+            Long total = nanos.get(step);
+
+            counts.put(step, (count == null) ? 1 : count + 1);
+            nanos.put(step, (total == null) ? time : total + time);
+        }
+    }
+
+    /**
+     * Gets how many times a step was run.
+     *
+     * @param step {@code non-null;} the step
+     * @return {@code >= 0;} the count
+     */
+    public synchronized int getCount(Step step) {
+        Integer count = counts.get(step);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Gets the total time spent in a step.
+     *
+     * @param step {@code non-null;} the step
+     * @return {@code >= 0;} the time, in nanoseconds
+     */
+    public synchronized long getNanos(Step step) {
+        Long total = nanos.get(step);
+        return (total == null) ? 0 : total;
+    }
+
+    /**
+     * Prints the totals for the steps that were run, in the order the
+     * steps are run in.
+     *
+     * @param out {@code non-null;} where to print to
+     */
+    public synchronized void dump(PrintStream out) {
+        long all = 0;
+
+        for (long one : nanos.values()) {
+            all += one;
+        }
+
+        out.println("step timing:");
+
+        for (Step step : counts.keySet()) {
+            long one = nanos.get(step);
+
+            out.println(String.format("  %-22s %8d runs %10.1f ms %5.1f%%",
+                    step.toHuman(), counts.get(step), one / 1e6,
+                    (all == 0) ? 0.0 : (one * 100.0) / all));
+        }
+
+        out.println(String.format("  %-22s %19.1f ms", "total", all / 1e6));
+    }
+}
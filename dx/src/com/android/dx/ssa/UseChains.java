@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Def-use chains for an {@link SsaMethod}: for each SSA register, the
+ * insns that use it as a source, in the order the uses were added.
+ *
+ * <p>Each use is an edge stored in a set of parallel {@code int}
+ * arrays. An edge is linked into a doubly-linked chain for its register
+ * and a singly-linked chain for its insn, the head of which lives in
+ * the insn itself (see {@link SsaInsn#firstUseEdge}). Adding a use is
+ * O(1), and removing one is O(number of sources of the insn), so passes
+ * that edit insns can keep the chains up to date instead of throwing
+ * them away. Freed edges are recycled.</p>
+ */
+/*package*/ final class UseChains {
+    /** initial number of edge slots when no estimate is available */
+    private static final int DEFAULT_EDGE_CAPACITY = 16;
+
+    /** indexed by register: first edge of the register's chain, or -1 */
+    private int[] regFirst;
+
+    /** indexed by register: last edge of the register's chain, or -1 */
+    private int[] regLast;
+
+    /** indexed by register: number of edges in the register's chain */
+    private int[] regSize;
+
+    /**
+     * indexed by register: count of changes to the register's chain,
+     * used to keep list views and their iterators honest
+     */
+    private int[] regModCount;
+
+    /** indexed by register: cached list views, created lazily */
+    private UseList[] views;
+
+    /** indexed by edge: the used register */
+    private int[] edgeReg;
+
+    /** indexed by edge: previous edge in the register chain, or -1 */
+    private int[] edgePrev;
+
+    /**
+     * indexed by edge: next edge in the register chain, or -1; for a
+     * free edge, the next free edge
+     */
+    private int[] edgeNext;
+
+    /** indexed by edge: next edge of the same insn, or -1 */
+    private int[] edgeInsnNext;
+
+    /** indexed by edge: the using insn, or {@code null} if free */
+    private SsaInsn[] edgeInsn;
+
+    /** number of edge slots ever handed out */
+    private int edgeTop;
+
+    /** first free edge slot, or -1 */
+    private int freeEdge;
+
+    /**
+     * Constructs an instance with no uses.
+     *
+     * @param regCount {@code >= 0;} number of registers to start with
+     * @param edgeCapacity {@code >= 0;} expected number of uses
+     */
+    public UseChains(int regCount, int edgeCapacity) {
+        regFirst = new int[0];
+        regLast = new int[0];
+        regSize = new int[0];
+        regModCount = new int[0];
+        views = new UseList[0];
+        ensureRegCount(regCount);
+
+        edgeCapacity = Math.max(edgeCapacity, DEFAULT_EDGE_CAPACITY);
+        edgeReg = new int[edgeCapacity];
+        edgePrev = new int[edgeCapacity];
+        edgeNext = new int[edgeCapacity];
+        edgeInsnNext = new int[edgeCapacity];
+        edgeInsn = new SsaInsn[edgeCapacity];
+        edgeTop = 0;
+        freeEdge = -1;
+    }
+
+    /**
+     * Makes room for registers up to (but not including) the given
+     * count. Registers added this way have no uses.
+     *
+     * @param regCount {@code >= 0;} required register count
+     */
+    public void ensureRegCount(int regCount) {
+        int oldCount = regFirst.length;
+
+        if (regCount <= oldCount) {
+            return;
+        }
+
+        int newCount = Math.max(regCount, oldCount + (oldCount >> 1));
+
+        regFirst = grow(regFirst, newCount);
+        regLast = grow(regLast, newCount);
+        regSize = grow(regSize, newCount);
+        regModCount = grow(regModCount, newCount);
+
+        for (int i = oldCount; i < newCount; i++) {
+            regFirst[i] = -1;
+            regLast[i] = -1;
+        }
+
+        UseList[] newViews = new UseList[newCount];
+        System.arraycopy(views, 0, newViews, 0, oldCount);
+        views = newViews;
+    }
+
+    /**
+     * Adds a use of a register by an insn, at the end of the register's
+     * chain.
+     *
+     * @param insn {@code non-null;} the using insn
+     * @param reg {@code >= 0;} the used register
+     */
+    public void add(SsaInsn insn, int reg) {
+        ensureRegCount(reg + 1);
+
+        int e = allocEdge();
+
+        edgeReg[e] = reg;
+        edgeInsn[e] = insn;
+
+        // Append to the register chain.
+        int last = regLast[reg];
+        edgePrev[e] = last;
+        edgeNext[e] = -1;
+        if (last < 0) {
+            regFirst[reg] = e;
+        } else {
+            edgeNext[last] = e;
+        }
+        regLast[reg] = e;
+        regSize[reg]++;
+        regModCount[reg]++;
+
+        // Push onto the insn chain.
+        if (insn.useChains != this) {
+            insn.useChains = this;
+            insn.firstUseEdge = -1;
+        }
+        edgeInsnNext[e] = insn.firstUseEdge;
+        insn.firstUseEdge = e;
+    }
+
+    /**
+     * Removes one use of a register by an insn. If the insn uses the
+     * register more than once, the use nearest the front of the
+     * register's chain is removed, as {@link List#remove(Object)} would.
+     *
+     * @param insn {@code non-null;} the using insn
+     * @param reg {@code >= 0;} the used register
+     * @return true if a use was found and removed
+     */
+    public boolean remove(SsaInsn insn, int reg) {
+        if (insn.useChains != this) {
+            return false;
+        }
+
+        /*
+         * The insn chain is in reverse order of addition, so the last
+         * match found is the oldest, which is also the one nearest the
+         * front of the register chain.
+         */
+        int found = -1;
+        int foundPrev = -1;
+        for (int prev = -1, e = insn.firstUseEdge; e >= 0;
+                prev = e, e = edgeInsnNext[e]) {
+            if (edgeReg[e] == reg) {
+                found = e;
+                foundPrev = prev;
+            }
+        }
+
+        if (found < 0) {
+            return false;
+        }
+
+        if (foundPrev < 0) {
+            insn.firstUseEdge = edgeInsnNext[found];
+        } else {
+            edgeInsnNext[foundPrev] = edgeInsnNext[found];
+        }
+
+        unlinkFromRegister(found);
+        freeEdge(found);
+        return true;
+    }
+
+    /**
+     * Removes all uses by an insn.
+     *
+     * @param insn {@code non-null;} the insn
+     */
+    public void removeAll(SsaInsn insn) {
+        if (insn.useChains != this) {
+            return;
+        }
+
+        int e = insn.firstUseEdge;
+        while (e >= 0) {
+            int next = edgeInsnNext[e];
+            unlinkFromRegister(e);
+            freeEdge(e);
+            e = next;
+        }
+
+        insn.firstUseEdge = -1;
+    }
+
+    /**
+     * Gets the number of uses of a register.
+     *
+     * @param reg {@code >= 0;} the register
+     * @return {@code >= 0;} the number of uses
+     */
+    public int size(int reg) {
+        return (reg < regSize.length) ? regSize[reg] : 0;
+    }
+
+    /**
+     * Gets an unmodifiable, live list view of the uses of a register.
+     *
+     * @param reg {@code >= 0;} the register
+     * @return {@code non-null;} the uses
+     */
+    public List<SsaInsn> getUses(int reg) {
+        ensureRegCount(reg + 1);
+
+        UseList view = views[reg];
+        if (view == null) {
+            view = new UseList(reg);
+            views[reg] = view;
+        }
+
+        return view;
+    }
+
+    /**
+     * Unlinks an edge from its register chain.
+     *
+     * @param e {@code >= 0;} the edge
+     */
+    private void unlinkFromRegister(int e) {
+        int reg = edgeReg[e];
+        int prev = edgePrev[e];
+        int next = edgeNext[e];
+
+        if (prev < 0) {
+            regFirst[reg] = next;
+        } else {
+            edgeNext[prev] = next;
+        }
+
+        if (next < 0) {
+            regLast[reg] = prev;
+        } else {
+            edgePrev[next] = prev;
+        }
+
+        regSize[reg]--;
+        regModCount[reg]++;
+    }
+
+    /**
+     * Gets an unused edge slot, growing the edge arrays if needed.
+     *
+     * @return {@code >= 0;} the edge
+     */
+    private int allocEdge() {
+        if (freeEdge >= 0) {
+            int e = freeEdge;
+            freeEdge = edgeNext[e];
+            return e;
+        }
+
+        if (edgeTop == edgeReg.length) {
+            int newCapacity = edgeTop * 2;
+
+            edgeReg = grow(edgeReg, newCapacity);
+            edgePrev = grow(edgePrev, newCapacity);
+            edgeNext = grow(edgeNext, newCapacity);
+            edgeInsnNext = grow(edgeInsnNext, newCapacity);
+
+            SsaInsn[] newInsns = new SsaInsn[newCapacity];
+            System.arraycopy(edgeInsn, 0, newInsns, 0, edgeTop);
+            edgeInsn = newInsns;
+        }
+
+        return edgeTop++;
+    }
+
+    /**
+     * Returns an edge slot to the free list.
+     *
+     * @param e {@code >= 0;} the edge
+     */
+    private void freeEdge(int e) {
+        edgeInsn[e] = null;
+        edgeNext[e] = freeEdge;
+        freeEdge = e;
+    }
+
+    /**
+     * Copies an array into a larger one.
+     *
+     * @param array {@code non-null;} the original array
+     * @param newLength {@code >= array.length;} the new length
+     * @return {@code non-null;} the new array
+     */
+    private static int[] grow(int[] array, int newLength) {
+        int[] result = new int[newLength];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * Live view of the uses of one register. Positional access remembers
+     * the last edge visited, so walking the list forwards or backwards
+     * by index is linear overall.
+     */
+    private final class UseList extends AbstractList<SsaInsn> {
+        /** the register whose uses are viewed */
+        private final int reg;
+
+        /** index of the cached edge, or -1 if none */
+        private int cursorIndex;
+
+        /** the cached edge */
+        private int cursorEdge;
+
+        /** the register's mod count when the cursor was cached */
+        private int cursorModCount;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param reg {@code >= 0;} the register
+         */
+        UseList(int reg) {
+            this.reg = reg;
+            this.cursorIndex = -1;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int size() {
+            return regSize[reg];
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public SsaInsn get(int index) {
+            int size = regSize[reg];
+
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index " + index
+                        + ", size " + size);
+            }
+
+            // Start from whichever of head, tail or cursor is nearest.
+            int at = 0;
+            int e = regFirst[reg];
+
+            if (size - 1 - index < index) {
+                at = size - 1;
+                e = regLast[reg];
+            }
+
+            if (cursorIndex >= 0 && cursorModCount == regModCount[reg]
+                    && Math.abs(cursorIndex - index) < Math.abs(at - index)) {
+                at = cursorIndex;
+                e = cursorEdge;
+            }
+
+            while (at < index) {
+                e = edgeNext[e];
+                at++;
+            }
+            while (at > index) {
+                e = edgePrev[e];
+                at--;
+            }
+
+            cursorIndex = index;
+            cursorEdge = e;
+            cursorModCount = regModCount[reg];
+
+            return edgeInsn[e];
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Iterator<SsaInsn> iterator() {
+            return new Iterator<SsaInsn>() {
+                private int next = regFirst[reg];
+                private final int expectedModCount = regModCount[reg];
+
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                public SsaInsn next() {
+                    if (regModCount[reg] != expectedModCount) {
+                        throw new ConcurrentModificationException();
+                    }
+
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+
+                    SsaInsn result = edgeInsn[next];
+                    next = edgeNext[next];
+                    return result;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
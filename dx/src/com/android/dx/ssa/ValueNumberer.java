@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.cst.Constant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Dominator-based value numbering. Finds computations that repeat one
+ * made in a dominating position (same operation, constant and source
+ * registers), points the uses of the repeated result at the original
+ * one, and deletes the repeat.
+ *
+ * Two kinds of insn are considered:
+ * <ul>
+ * <li>Non-throwing arithmetic, logic, comparison and conversion insns,
+ * whose results depend only on their sources.</li>
+ * <li>Throwing insns whose result, once computed without throwing,
+ * is the same every time: {@code array-length}, object constants
+ * ({@code const-string}, {@code const-class}), {@code check-cast},
+ * {@code instance-of}, and integer division and remainder. A repeat
+ * dominated by an earlier one that completed can't throw, so deleting
+ * it, and the exception edges leaving it, is safe.</li>
+ * </ul>
+ * Field and array reads, invokes and anything else that may see memory
+ * change are left alone, as is anything whose result is a local
+ * variable when locals are being preserved.
+ */
+public class ValueNumberer {
+    /** method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /** available values, from the dominators of the current block */
+    private final HashMap<ValueKey, RegisterSpec> available;
+
+    /** keys added to {@link #available}, in order, so scopes can be undone */
+    private final ArrayList<ValueKey> scopeLog;
+
+    /** insns found to be redundant, to be deleted at the end */
+    private final HashSet<SsaInsn> deletedInsns;
+
+    /** number of redundant computations found */
+    private int redundantCount;
+
+    /**
+     * Processes a method.
+     *
+     * @param ssaMethod {@code non-null;} method to process
+     * @return {@code >= 0;} number of redundant computations removed
+     */
+    public static int process(SsaMethod ssaMethod) {
+        return new ValueNumberer(ssaMethod).run();
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param ssaMethod {@code non-null;} method to process
+     */
+    private ValueNumberer(SsaMethod ssaMethod) {
+        this.ssaMeth = ssaMethod;
+        this.available = new HashMap<ValueKey, RegisterSpec>();
+        this.scopeLog = new ArrayList<ValueKey>();
+        this.deletedInsns = new HashSet<SsaInsn>();
+    }
+
+    /**
+     * Runs value numbering over the whole method.
+     *
+     * @return {@code >= 0;} number of redundant computations removed
+     */
+    private int run() {
+        // Earlier passes may have changed the CFG, so rebuild the dom tree.
+        new DomFront(ssaMeth).run();
+
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        int szBlocks = blocks.size();
+
+        /*
+         * Walk the dom tree depth first with an explicit stack. Each block
+         * is pushed as its index, and popped a second time as the
+         * complement of its index to close its scope.
+         */
+        int[] scopeStart = new int[szBlocks];
+        BitSet visited = new BitSet(szBlocks);
+        int[] stack = new int[szBlocks * 2];
+        int sp = 0;
+
+        stack[sp++] = ssaMeth.getEntryBlockIndex();
+
+        while (sp > 0) {
+            int entry = stack[--sp];
+
+            if (entry < 0) {
+                // Leaving the subtree: forget the values it made available.
+                int start = scopeStart[~entry];
+                for (int i = scopeLog.size() - 1; i >= start; i--) {
+                    available.remove(scopeLog.remove(i));
+                }
+                continue;
+            }
+
+            if (visited.get(entry)) {
+                continue;
+            }
+            visited.set(entry);
+
+            SsaBasicBlock block = blocks.get(entry);
+
+            scopeStart[entry] = scopeLog.size();
+            stack[sp++] = ~entry;
+
+            processBlock(block);
+
+            ArrayList<SsaBasicBlock> children = block.getDomChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack[sp++] = children.get(i).getIndex();
+            }
+        }
+
+        if (redundantCount > 0) {
+            ssaMeth.deleteInsns(deletedInsns);
+        }
+
+        return redundantCount;
+    }
+
+    /**
+     * Looks for redundant computations in one block, in order.
+     *
+     * @param block {@code non-null;} block to process
+     */
+    private void processBlock(SsaBasicBlock block) {
+        ArrayList<SsaInsn> insns = block.getInsns();
+        int sz = insns.size();
+
+        for (int i = 0; i < sz; i++) {
+            SsaInsn insn = insns.get(i);
+            Rop opcode = insn.getOpcode();
+
+            if (opcode == null) {
+                // Phis aren't numbered.
+                continue;
+            }
+
+            if (opcode.getOpcode() == RegOps.MOVE_RESULT_PSEUDO) {
+                processMoveResultPseudo(block, insn);
+            } else if (!insn.canThrow() && isPure(opcode)) {
+                processValue(insn, insn, makeKey(insn));
+            }
+        }
+    }
+
+    /**
+     * Handles a move-result-pseudo, which holds the result of the throwing
+     * insn that ends its block's only predecessor. The throwing insn is the
+     * computation that's numbered, but its value only becomes available
+     * here, where it is known to have completed.
+     *
+     * @param block {@code non-null;} block starting with {@code move}
+     * @param move {@code non-null;} the move-result-pseudo
+     */
+    private void processMoveResultPseudo(SsaBasicBlock block, SsaInsn move) {
+        BitSet preds = block.getPredecessors();
+
+        if (preds.cardinality() != 1) {
+            return;
+        }
+
+        ArrayList<SsaInsn> predInsns =
+            ssaMeth.getBlocks().get(preds.nextSetBit(0)).getInsns();
+        SsaInsn insn = predInsns.get(predInsns.size() - 1);
+
+        if (isPureThrowing(insn)) {
+            processValue(insn, move, makeKey(insn));
+        }
+    }
+
+    /**
+     * Either makes a computation's value available to the blocks it
+     * dominates or, if the same value is already available, replaces
+     * the computation with it.
+     *
+     * @param insn {@code non-null;} the computing insn
+     * @param def {@code non-null;} the insn holding the result;
+     * {@code insn} itself, or its move-result-pseudo
+     * @param key {@code non-null;} the computation
+     */
+    private void processValue(SsaInsn insn, SsaInsn def, ValueKey key) {
+        final RegisterSpec result = def.getResult();
+
+        if (result == null) {
+            return;
+        }
+
+        final RegisterSpec leader = available.get(key);
+
+        if (leader == null) {
+            available.put(key, result);
+            scopeLog.add(key);
+            return;
+        }
+
+        // Removing the def would lose the local variable.
+        if (Optimizer.getPreserveLocals() && ssaMeth.isRegALocal(result)) {
+            return;
+        }
+
+        RegisterMapper mapper = new RegisterMapper() {
+            @Override
+            public int getNewRegisterCount() {
+                return ssaMeth.getRegCount();
+            }
+
+            @Override
+            public RegisterSpec map(RegisterSpec registerSpec) {
+                if (registerSpec.getReg() == result.getReg()) {
+                    return leader.withLocalItem(registerSpec.getLocalItem());
+                }
+
+                return registerSpec;
+            }
+        };
+
+        // Mapping a use takes it off the use list, so walk a snapshot.
+        ArrayList<SsaInsn> uses = new ArrayList<SsaInsn>(
+                ssaMeth.getUseListForRegister(result.getReg()));
+
+        for (SsaInsn use : uses) {
+            use.mapSourceRegisters(mapper);
+        }
+
+        deletedInsns.add(insn);
+        deletedInsns.add(def);
+        redundantCount++;
+    }
+
+    /**
+     * Returns whether a non-throwing opcode computes a value from its
+     * sources (and constant, if any) alone.
+     *
+     * @param opcode {@code non-null;} the opcode
+     * @return true if the opcode is pure
+     */
+    /*package*/ static boolean isPure(Rop opcode) {
+        if (opcode.getBranchingness() != Rop.BRANCH_NONE) {
+            return false;
+        }
+
+        switch (opcode.getOpcode()) {
+            case RegOps.ADD:
+            case RegOps.SUB:
+            case RegOps.MUL:
+            case RegOps.DIV:
+            case RegOps.REM:
+            case RegOps.NEG:
+            case RegOps.AND:
+            case RegOps.OR:
+            case RegOps.XOR:
+            case RegOps.SHL:
+            case RegOps.SHR:
+            case RegOps.USHR:
+            case RegOps.NOT:
+            case RegOps.CMPL:
+            case RegOps.CMPG:
+            case RegOps.CONV:
+            case RegOps.TO_BYTE:
+            case RegOps.TO_CHAR:
+            case RegOps.TO_SHORT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether an insn is a throwing insn whose result doesn't
+     * change once it has been computed without throwing.
+     *
+     * @param insn {@code non-null;} the insn
+     * @return true if the insn can be numbered
+     */
+    /*package*/ static boolean isPureThrowing(SsaInsn insn) {
+        Rop opcode = insn.getOpcode();
+
+        if (opcode == null || !insn.canThrow()) {
+            return false;
+        }
+
+        switch (opcode.getOpcode()) {
+            case RegOps.ARRAY_LENGTH:
+            case RegOps.CONST:
+            case RegOps.CHECK_CAST:
+            case RegOps.INSTANCE_OF:
+            case RegOps.DIV:
+            case RegOps.REM:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Makes the key for a computation.
+     *
+     * @param insn {@code non-null;} the computing insn
+     * @return {@code non-null;} the key
+     */
+    private static ValueKey makeKey(SsaInsn insn) {
+        Insn ropInsn = insn.getOriginalRopInsn();
+        Rop opcode = ropInsn.getOpcode();
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+        int[] regs = new int[sz];
+
+        for (int i = 0; i < sz; i++) {
+            regs[i] = sources.get(i).getReg();
+        }
+
+        // a + b and b + a have the same value.
+        if (sz == 2 && opcode.isCommutative() && regs[0] > regs[1]) {
+            int tmp = regs[0];
+            regs[0] = regs[1];
+            regs[1] = tmp;
+        }
+
+        Constant cst = (ropInsn instanceof CstInsn)
+                ? ((CstInsn) ropInsn).getConstant() : null;
+
+        return new ValueKey(opcode, cst, regs);
+    }
+
+    /**
+     * A computation: an opcode applied to a constant and source registers.
+     */
+    private static final class ValueKey {
+        /** {@code non-null;} the opcode, which includes the result type */
+        private final Rop opcode;
+
+        /** {@code null-ok;} the constant operand, if any */
+        private final Constant cst;
+
+        /** {@code non-null;} the source registers */
+        private final int[] regs;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param opcode {@code non-null;} the opcode
+         * @param cst {@code null-ok;} the constant operand, if any
+         * @param regs {@code non-null;} the source registers
+         */
+        ValueKey(Rop opcode, Constant cst, int[] regs) {
+            this.opcode = opcode;
+            this.cst = cst;
+            this.regs = regs;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ValueKey)) {
+                return false;
+            }
+
+            ValueKey key = (ValueKey) other;
+
+            return opcode.equals(key.opcode)
+                    && ((cst == null) ? (key.cst == null)
+                            : cst.equals(key.cst))
+                    && Arrays.equals(regs, key.regs);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            int h = opcode.hashCode();
+
+            if (cst != null) {
+                h = h * 31 + cst.hashCode();
+            }
+
+            return h * 31 + Arrays.hashCode(regs);
+        }
+    }
+}
@@ -92,7 +92,9 @@ package com.android.dx.ssa;
  * <li> {@code Phi} instructions are {link SsaConverter#placePhiFunctions}
  * placed in a semi-pruned fashion, which requires computation of {@link
  * Dominators dominance graph} and each node's {@link DomFront
- * dominance-frontier set}.
+ * dominance-frontier set}. If {@link SsaConverter#setPrunePhis} is set,
+ * placement is fully pruned: phis are only placed where the register is
+ * live on entry to the block.
  * <li> Finally, source and result registers for all instructions are {@link
  * SsaRenamer renamed} such that each assignment is given a unique register
  * number (register categories or widths, significant in Rop form, do not
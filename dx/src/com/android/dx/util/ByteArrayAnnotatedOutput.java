@@ -62,6 +62,25 @@ public final class ByteArrayAnnotatedOutput
      */
     private int hexCols;
 
+    /**
+     * {@code null-ok;} where annotations are written as soon as what
+     * they refer to has been written, or {@code null} if they are kept
+     * until {@link #writeAnnotationsTo}
+     */
+    private TwoColumnOutput annotationOut;
+
+    /** {@code >= 0;} how far the data has been dumped */
+    private int dumpedAt;
+
+    /** {@code >= 0;} index of the next annotation to dump */
+    private int nextAnnotation;
+
+    /**
+     * {@code >= 0;} if annotations are written as they go, the end of
+     * the last one written
+     */
+    private int writtenEnd;
+
     /**
      * Constructs an instance with a fixed maximum size. Note that the
      * given array is the only one that will be used to store data. In
@@ -102,6 +121,10 @@ public final class ByteArrayAnnotatedOutput
         this.annotations = null;
         this.annotationWidth = 0;
         this.hexCols = 0;
+        this.annotationOut = null;
+        this.dumpedAt = 0;
+        this.nextAnnotation = 0;
+        this.writtenEnd = 0;
     }
 
     /**
@@ -371,6 +394,7 @@ public final class ByteArrayAnnotatedOutput
 
         endAnnotation();
         annotations.add(new Annotation(cursor, msg));
+        writeFinishedAnnotations();
     }
 
     /** {@inheritDoc} */
@@ -382,7 +406,8 @@ public final class ByteArrayAnnotatedOutput
         endAnnotation();
 
         int asz = annotations.size();
-        int lastEnd = (asz == 0) ? 0 : annotations.get(asz - 1).getEnd();
+        int lastEnd = (asz == 0) ? writtenEnd :
+            annotations.get(asz - 1).getEnd();
         int startAt;
 
         if (lastEnd <= cursor) {
@@ -392,6 +417,7 @@ public final class ByteArrayAnnotatedOutput
         }
 
         annotations.add(new Annotation(startAt, startAt + amt, msg));
+        writeFinishedAnnotations();
     }
 
     /** {@inheritDoc} */
@@ -444,6 +470,35 @@ public final class ByteArrayAnnotatedOutput
         this.verbose = verbose;
     }
 
+    /**
+     * Indicates that this instance should write annotations to the
+     * given writer as soon as what they refer to has been written,
+     * instead of keeping them until {@link #writeAnnotationsTo}. Only
+     * the annotations that are still open, or that refer to data yet
+     * to be written, are kept. What gets written to the writer is the
+     * same as what {@link #writeAnnotationsTo} would write, as long as
+     * the bytes annotated don't change once written. This method may
+     * be called only once per instance, and only before any data has
+     * been written to it.
+     *
+     * @param annotationWidth {@code >= 40;} the desired maximum annotation width
+     * @param verbose whether or not to indicate verbose annotations
+     * @param out {@code non-null;} where to write annotations to
+     */
+    public void enableAnnotations(int annotationWidth, boolean verbose,
+            Writer out) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+
+        enableAnnotations(annotationWidth, verbose);
+
+        int width2 = getAnnotationWidth();
+        int width1 = annotationWidth - width2 - 1;
+
+        annotationOut = new TwoColumnOutput(out, width1, width2, "|");
+    }
+
     /**
      * Finishes up annotation processing. This closes off any open
      * annotations and removes annotations that don't refer to written
@@ -469,58 +524,141 @@ public final class ByteArrayAnnotatedOutput
                 }
             }
         }
+
+        if (annotationOut != null) {
+            writeFinishedAnnotations();
+
+            try {
+                writeRemainingAnnotations(annotationOut);
+            } catch (IOException ex) {
+                throw new RuntimeException("trouble writing annotations",
+                        ex);
+            }
+        }
     }
 
     /**
      * Writes the annotated content of this instance to the given writer.
+     * This may not be called if annotations are written as they go.
      *
      * @param out {@code non-null;} where to write to
      */
     public void writeAnnotationsTo(Writer out) throws IOException {
+        if (annotationOut != null) {
+            throw new IllegalStateException("annotations already written");
+        }
+
         int width2 = getAnnotationWidth();
         int width1 = annotationWidth - width2 - 1;
 
         TwoColumnOutput twoc = new TwoColumnOutput(out, width1, width2, "|");
-        Writer left = twoc.getLeft();
-        Writer right = twoc.getRight();
-        int leftAt = 0; // left-hand byte output cursor
-        int rightAt = 0; // right-hand annotation index
-        int rightSz = annotations.size();
-
-        while ((leftAt < cursor) && (rightAt < rightSz)) {
-            Annotation a = annotations.get(rightAt);
-            int start = a.getStart();
-            int end;
-            String text;
-
-            if (leftAt < start) {
-                // This is an area with no annotation.
-                end = start;
-                start = leftAt;
-                text = "";
-            } else {
-                // This is an area with an annotation.
-                end = a.getEnd();
-                text = a.getText();
-                rightAt++;
+
+        dumpedAt = 0;
+        nextAnnotation = 0;
+
+        while (writeAnnotation(twoc, cursor)) {
+            // writeAnnotation() did all the work.
+        }
+
+        writeRemainingAnnotations(twoc);
+    }
+
+    /**
+     * Writes the annotations whose data has all been written, if
+     * annotations are written as they go, and lets go of them.
+     */
+    private void writeFinishedAnnotations() {
+        if (annotationOut == null) {
+            return;
+        }
+
+        try {
+            while (writeAnnotation(annotationOut, cursor)) {
+                // writeAnnotation() did all the work.
             }
+        } catch (IOException ex) {
+            throw new RuntimeException("trouble writing annotations", ex);
+        }
+
+        if (nextAnnotation != 0) {
+            annotations.subList(0, nextAnnotation).clear();
+            nextAnnotation = 0;
+        }
+    }
 
-            left.write(Hex.dump(data, start, end - start, start, hexCols, 6));
-            right.write(text);
-            twoc.flush();
-            leftAt = end;
+    /**
+     * Writes the next stretch of the dump, which is either the next
+     * annotation along with the data it covers, or the data up to the
+     * next annotation if there is none just yet. Nothing is written if
+     * the data up to {@code limit} has all been dumped, or if the next
+     * annotation is still open or refers to data past {@code limit}.
+     *
+     * @param twoc {@code non-null;} where to write to
+     * @param limit {@code >= 0;} how far the data can be dumped
+     * @return whether anything was written
+     */
+    private boolean writeAnnotation(TwoColumnOutput twoc, int limit)
+            throws IOException {
+        if ((dumpedAt >= limit) || (nextAnnotation == annotations.size())) {
+            return false;
         }
 
-        if (leftAt < cursor) {
+        Annotation a = annotations.get(nextAnnotation);
+        int start = a.getStart();
+        int end;
+        String text;
+
+        if (dumpedAt < start) {
+            if (start > limit) {
+                // The annotation is for data that isn't there yet.
+                return false;
+            }
+
+            // This is an area with no annotation.
+            end = start;
+            start = dumpedAt;
+            text = "";
+        } else if (a.getEnd() <= limit) {
+            // This is an area with an annotation.
+            end = a.getEnd();
+            text = a.getText();
+            writtenEnd = end;
+            nextAnnotation++;
+        } else {
+            // The annotation is open, or its data isn't all there yet.
+            return false;
+        }
+
+        twoc.getLeft().write(
+                Hex.dump(data, start, end - start, start, hexCols, 6));
+        twoc.getRight().write(text);
+        twoc.flush();
+        dumpedAt = end;
+        return true;
+    }
+
+    /**
+     * Writes what is left of the dump once there is nothing more to
+     * annotate it with: any data past the last annotation, and any
+     * annotations that cover nothing at the end.
+     *
+     * @param twoc {@code non-null;} where to write to
+     */
+    private void writeRemainingAnnotations(TwoColumnOutput twoc)
+            throws IOException {
+        if (dumpedAt < cursor) {
             // There is unannotated output at the end.
-            left.write(Hex.dump(data, leftAt, cursor - leftAt, leftAt,
-                                hexCols, 6));
+            twoc.getLeft().write(Hex.dump(data, dumpedAt, cursor - dumpedAt,
+                            dumpedAt, hexCols, 6));
+            dumpedAt = cursor;
         }
 
-        while (rightAt < rightSz) {
+        int sz = annotations.size();
+
+        while (nextAnnotation < sz) {
             // There are zero-byte annotations at the end.
-            right.write(annotations.get(rightAt).getText());
-            rightAt++;
+            twoc.getRight().write(annotations.get(nextAnnotation).getText());
+            nextAnnotation++;
         }
 
         twoc.flush();
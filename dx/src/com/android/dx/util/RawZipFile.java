@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A zip file whose entries can be copied elsewhere as they are stored,
+ * without inflating and deflating them again. Only the central
+ * directory is read up front; the entries' data is read when copied.
+ * Zip64 archives and encrypted entries aren't supported.
+ */
+public final class RawZipFile {
+    /** compression method for stored data */
+    private static final int STORED = 0;
+
+    /** compression method for deflated data */
+    private static final int DEFLATED = 8;
+
+    /** signature of the end of central directory record */
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    /** size of the end of central directory record, without comment */
+    private static final int END_SIZE = 22;
+
+    /** largest size of the comment at the end of the file */
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    /** signature of a central directory header */
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    /** size of a central directory header, without variable fields */
+    private static final int CENTRAL_SIZE = 46;
+
+    /** signature of a local file header */
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    /** size of a local file header, without variable fields */
+    private static final int LOCAL_SIZE = 30;
+
+    /** general purpose flag bit set for an encrypted entry */
+    private static final int FLAG_ENCRYPTED = 0x0001;
+
+    /** {@code non-null;} the file */
+    private final File file;
+
+    /** {@code non-null;} the open file */
+    private final RandomAccessFile raf;
+
+    /** {@code non-null;} the entries, in central directory order */
+    private final ArrayList<Entry> entries;
+
+    /**
+     * Opens a zip file and reads its central directory.
+     *
+     * @param file {@code non-null;} the file
+     * @throws IOException on i/o problem, or if the file isn't a zip
+     * file this class can read
+     */
+    public RawZipFile(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.entries = new ArrayList<Entry>();
+
+        try {
+            readCentralDirectory();
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the entries, in the order they appear in the central
+     * directory.
+     *
+     * @return {@code non-null;} the entries
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException on i/o problem
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Copies the stored data of an entry, which may be compressed.
+     *
+     * @param entry {@code non-null;} an entry of this file
+     * @param out {@code non-null;} where to copy to
+     * @throws IOException on i/o problem
+     */
+    public void copyRaw(Entry entry, OutputStream out) throws IOException {
+        byte[] header = new byte[LOCAL_SIZE];
+
+        raf.seek(entry.localOffset);
+        raf.readFully(header);
+
+        if (getInt(header, 0) != LOCAL_SIGNATURE) {
+            throw new ZipException(file + ": bad local header for " +
+                    entry.name);
+        }
+
+        long at = entry.localOffset + LOCAL_SIZE + getShort(header, 26) +
+            getShort(header, 28);
+        long left = entry.compressedSize;
+        byte[] buf = new byte[(int) Math.min(left, 65536)];
+
+        raf.seek(at);
+
+        while (left > 0) {
+            int amt = (int) Math.min(left, buf.length);
+            raf.readFully(buf, 0, amt);
+            out.write(buf, 0, amt);
+            left -= amt;
+        }
+    }
+
+    /**
+     * Reads the data of an entry, inflating it if need be.
+     *
+     * @param entry {@code non-null;} an entry of this file
+     * @return {@code non-null;} the uncompressed data
+     * @throws IOException on i/o problem
+     */
+    public byte[] read(Entry entry) throws IOException {
+        ByteArrayOutputStream raw =
+            new ByteArrayOutputStream((int) entry.compressedSize);
+
+        copyRaw(entry, raw);
+
+        if (entry.method == STORED) {
+            return raw.toByteArray();
+        } else if (entry.method != DEFLATED) {
+            throw new ZipException(file + ": " + entry.name +
+                    " has unsupported compression method " + entry.method);
+        }
+
+        Inflater inflater = new Inflater(true);
+        byte[] result = new byte[(int) entry.size];
+
+        /*
+         * A raw inflater may need an extra byte past the end of the
+         * input to notice that it's done.
+         */
+        raw.write(0);
+        inflater.setInput(raw.toByteArray());
+
+        try {
+            int at = 0;
+
+            while (at < result.length) {
+                int amt = inflater.inflate(result, at, result.length - at);
+
+                if ((amt == 0) &&
+                        (inflater.finished() || inflater.needsInput())) {
+                    throw new ZipException(file + ": " + entry.name +
+                            " is truncated");
+                }
+
+                at += amt;
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException(file + ": " + entry.name + ": " +
+                    ex.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the central directory into {@link #entries}.
+     *
+     * @throws IOException on i/o problem
+     */
+    private void readCentralDirectory() throws IOException {
+        long length = raf.length();
+        int tailSize = (int) Math.min(length, END_SIZE + MAX_COMMENT_SIZE);
+        byte[] tail = new byte[tailSize];
+
+        raf.seek(length - tailSize);
+        raf.readFully(tail);
+
+        int end = tailSize - END_SIZE;
+
+        while ((end >= 0) && (getInt(tail, end) != END_SIGNATURE)) {
+            end--;
+        }
+
+        if (end < 0) {
+            throw new ZipException(file + ": not a zip file");
+        }
+
+        int count = getShort(tail, end + 10);
+        long size = getInt(tail, end + 12) & 0xffffffffL;
+        long offset = getInt(tail, end + 16) & 0xffffffffL;
+
+        if ((count == 0xffff) || (offset == 0xffffffffL)) {
+            throw new ZipException(file + ": zip64 archives aren't " +
+                    "supported");
+        }
+
+        byte[] dir = new byte[(int) size];
+
+        raf.seek(offset);
+        raf.readFully(dir);
+
+        int at = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (getInt(dir, at) != CENTRAL_SIGNATURE) {
+                throw new ZipException(file + ": bad central directory");
+            }
+
+            int nameLength = getShort(dir, at + 28);
+            int extraLength = getShort(dir, at + 30);
+            int commentLength = getShort(dir, at + 32);
+            Entry entry = new Entry(dir, at, nameLength);
+
+            if ((entry.flags & FLAG_ENCRYPTED) != 0) {
+                throw new ZipException(file + ": " + entry.name +
+                        " is encrypted");
+            }
+
+            entries.add(entry);
+            at += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Gets a little-endian {@code short} as an unsigned value.
+     *
+     * @param bytes {@code non-null;} where to get it from
+     * @param at offset of the value
+     * @return the value
+     */
+    private static int getShort(byte[] bytes, int at) {
+        return (bytes[at] & 0xff) | ((bytes[at + 1] & 0xff) << 8);
+    }
+
+    /**
+     * Gets a little-endian {@code int}.
+     *
+     * @param bytes {@code non-null;} where to get it from
+     * @param at offset of the value
+     * @return the value
+     */
+    private static int getInt(byte[] bytes, int at) {
+        return getShort(bytes, at) | (getShort(bytes, at + 2) << 16);
+    }
+
+    /**
+     * An entry of a zip file, as described by its central directory
+     * header.
+     */
+    public static final class Entry {
+        /** {@code non-null;} the name */
+        private final String name;
+
+        /** the general purpose flags */
+        private final int flags;
+
+        /** the compression method */
+        private final int method;
+
+        /** the modification time and date, in MS-DOS form */
+        private final int dosTime;
+
+        /** the CRC-32 of the uncompressed data */
+        private final int crc;
+
+        /** the size of the data as stored */
+        private final long compressedSize;
+
+        /** the size of the uncompressed data */
+        private final long size;
+
+        /** the offset of the local file header */
+        private final long localOffset;
+
+        /**
+         * Constructs an instance from a central directory header.
+         *
+         * @param dir {@code non-null;} the central directory
+         * @param at offset of the header
+         * @param nameLength length of the name, in bytes
+         */
+        private Entry(byte[] dir, int at, int nameLength) {
+            flags = getShort(dir, at + 8);
+            method = getShort(dir, at + 10);
+            dosTime = getInt(dir, at + 12);
+            crc = getInt(dir, at + 16);
+            compressedSize = getInt(dir, at + 20) & 0xffffffffL;
+            size = getInt(dir, at + 24) & 0xffffffffL;
+            localOffset = getInt(dir, at + 42) & 0xffffffffL;
+
+            // Names are taken to be UTF-8, as java.util.zip does.
+            try {
+                name = new String(dir, at + CENTRAL_SIZE, nameLength,
+                        "UTF-8");
+            } catch (UnsupportedEncodingException ex) {
+                // This can't happen; UTF-8 is a required charset.
+                throw new RuntimeException(ex);
+            }
+        }
+
+        /**
+         * Gets the name.
+         *
+         * @return {@code non-null;} the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets whether this is a directory.
+         *
+         * @return whether this is a directory
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * Gets the general purpose flags.
+         *
+         * @return the flags
+         */
+        public int getFlags() {
+            return flags;
+        }
+
+        /**
+         * Gets the compression method.
+         *
+         * @return the method
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets the modification time and date, in MS-DOS form.
+         *
+         * @return the time and date
+         */
+        public int getDosTime() {
+            return dosTime;
+        }
+
+        /**
+         * Gets the CRC-32 of the uncompressed data.
+         *
+         * @return the CRC-32
+         */
+        public int getCrc() {
+            return crc;
+        }
+
+        /**
+         * Gets the size of the data as stored.
+         *
+         * @return {@code >= 0;} the size
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Gets the size of the uncompressed data.
+         *
+         * @return {@code >= 0;} the size
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+}
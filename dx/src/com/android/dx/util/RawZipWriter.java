@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file whose entries are given as they are to be stored:
+ * copied as they are from a {@link RawZipFile}, or already compressed,
+ * or to be compressed here. Unlike {@link java.util.zip.ZipOutputStream},
+ * this never has to inflate data just to deflate it again. Zip64
+ * archives aren't supported.
+ */
+public final class RawZipWriter {
+    /** compression method for stored data */
+    public static final int STORED = 0;
+
+    /** compression method for deflated data */
+    public static final int DEFLATED = 8;
+
+    /** signature of a local file header */
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    /** signature of a central directory header */
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    /** signature of the end of central directory record */
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    /** general purpose flag bit set if sizes follow the data */
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+
+    /** general purpose flag bit set if the name is UTF-8 */
+    private static final int FLAG_UTF8 = 0x0800;
+
+    /** largest number of entries without zip64 */
+    private static final int MAX_ENTRIES = 0xffff;
+
+    /** largest size or offset without zip64 */
+    private static final long MAX_SIZE = 0xffffffffL;
+
+    /** {@code non-null;} where to write to */
+    private final OutputStream out;
+
+    /** {@code non-null;} the central directory, written at the end */
+    private final ByteArrayAnnotatedOutput central;
+
+    /** number of entries written */
+    private int count;
+
+    /** number of bytes written */
+    private long written;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param out {@code non-null;} where to write to
+     */
+    public RawZipWriter(OutputStream out) {
+        this.out = out;
+        this.central = new ByteArrayAnnotatedOutput();
+        this.count = 0;
+        this.written = 0;
+    }
+
+    /**
+     * Copies an entry from another zip file, as it is stored there.
+     *
+     * @param name {@code non-null;} name of the entry
+     * @param from {@code non-null;} the zip file to copy from
+     * @param entry {@code non-null;} the entry to copy
+     * @throws IOException on i/o problem
+     */
+    public void copy(String name, RawZipFile from, RawZipFile.Entry entry)
+            throws IOException {
+        /*
+         * The sizes and CRC are known up front, so they go in the local
+         * header, and there's no data descriptor.
+         */
+        int flags = entry.getFlags() & ~(FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+
+        writeHeaders(name, flags, entry.getMethod(), entry.getDosTime(),
+                entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+        from.copyRaw(entry, out);
+        written += entry.getCompressedSize();
+    }
+
+    /**
+     * Writes an entry whose data has already been compressed, or is
+     * to be stored as it is.
+     *
+     * @param name {@code non-null;} name of the entry
+     * @param method {@link #STORED} or {@link #DEFLATED}
+     * @param crc the CRC-32 of the uncompressed data
+     * @param size the size of the uncompressed data
+     * @param data {@code non-null;} the data as it is to be stored
+     * @throws IOException on i/o problem
+     */
+    public void write(String name, int method, int crc, long size,
+            byte[] data) throws IOException {
+        writeHeaders(name, 0, method, dosTime(System.currentTimeMillis()),
+                crc, data.length, size);
+        out.write(data);
+        written += data.length;
+    }
+
+    /**
+     * Deflates and writes an entry.
+     *
+     * @param name {@code non-null;} name of the entry
+     * @param data {@code non-null;} the uncompressed data
+     * @throws IOException on i/o problem
+     */
+    public void deflate(String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+
+        crc.update(data);
+        write(name, DEFLATED, (int) crc.getValue(), data.length,
+                deflate(data));
+    }
+
+    /**
+     * Deflates an array, without any zlib header.
+     *
+     * @param data {@code non-null;} the uncompressed data
+     * @return {@code non-null;} the deflated data
+     */
+    public static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream result =
+            new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] buf = new byte[65536];
+
+        deflater.setInput(data);
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            int amt = deflater.deflate(buf);
+            result.write(buf, 0, amt);
+        }
+
+        deflater.end();
+        return result.toByteArray();
+    }
+
+    /**
+     * Writes the central directory and the end of central directory
+     * record, and flushes the output. This doesn't close it.
+     *
+     * @throws IOException on i/o problem
+     */
+    public void finish() throws IOException {
+        int size = central.getCursor();
+
+        if (count > MAX_ENTRIES) {
+            throw new ZipException("too many entries for a zip file " +
+                    "without zip64");
+        }
+
+        checkSize(written + size);
+
+        out.write(central.getArray(), 0, size);
+
+        ByteArrayAnnotatedOutput end = new ByteArrayAnnotatedOutput();
+
+        end.writeInt(END_SIGNATURE);
+        end.writeShort(0);
+        end.writeShort(0);
+        end.writeShort(count);
+        end.writeShort(count);
+        end.writeInt(size);
+        end.writeInt((int) written);
+        end.writeShort(0);
+
+        out.write(end.getArray(), 0, end.getCursor());
+        out.flush();
+    }
+
+    /**
+     * Writes the local file header for an entry, and adds its central
+     * directory header to {@link #central}.
+     *
+     * @param name {@code non-null;} name of the entry
+     * @param flags the general purpose flags, less the UTF-8 bit
+     * @param method the compression method
+     * @param dosTime the modification time and date, in MS-DOS form
+     * @param crc the CRC-32 of the uncompressed data
+     * @param compressedSize the size of the data as stored
+     * @param size the size of the uncompressed data
+     * @throws IOException on i/o problem
+     */
+    private void writeHeaders(String name, int flags, int method,
+            int dosTime, int crc, long compressedSize, long size)
+            throws IOException {
+        byte[] nameBytes = getBytes(name);
+        long offset = written;
+
+        if (nameBytes.length != name.length()) {
+            // It isn't ASCII.
+            flags |= FLAG_UTF8;
+        }
+
+        checkSize(compressedSize);
+        checkSize(size);
+        checkSize(offset);
+
+        int version = (method == STORED) ? 10 : 20;
+        ByteArrayAnnotatedOutput local = new ByteArrayAnnotatedOutput();
+
+        local.writeInt(LOCAL_SIGNATURE);
+        local.writeShort(version);
+        local.writeShort(flags);
+        local.writeShort(method);
+        local.writeInt(dosTime);
+        local.writeInt(crc);
+        local.writeInt((int) compressedSize);
+        local.writeInt((int) size);
+        local.writeShort(nameBytes.length);
+        local.writeShort(0);
+        local.write(nameBytes);
+
+        central.writeInt(CENTRAL_SIGNATURE);
+        central.writeShort(version);
+        central.writeShort(version);
+        central.writeShort(flags);
+        central.writeShort(method);
+        central.writeInt(dosTime);
+        central.writeInt(crc);
+        central.writeInt((int) compressedSize);
+        central.writeInt((int) size);
+        central.writeShort(nameBytes.length);
+        central.writeShort(0);
+        central.writeShort(0);
+        central.writeShort(0);
+        central.writeShort(0);
+        central.writeInt(0);
+        central.writeInt((int) offset);
+        central.write(nameBytes);
+
+        out.write(local.getArray(), 0, local.getCursor());
+        written += local.getCursor();
+        count++;
+    }
+
+    /**
+     * Checks that a size or offset fits in a zip file without zip64.
+     *
+     * @param size the size or offset
+     * @throws ZipException if it doesn't fit
+     */
+    private static void checkSize(long size) throws ZipException {
+        if (size > MAX_SIZE) {
+            throw new ZipException("too large for a zip file without zip64");
+        }
+    }
+
+    /**
+     * Gets the UTF-8 bytes of a name.
+     *
+     * @param name {@code non-null;} the name
+     * @return {@code non-null;} its bytes
+     */
+    private static byte[] getBytes(String name) {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            // This can't happen; UTF-8 is a required charset.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Converts a time to MS-DOS form, as stored in zip files.
+     *
+     * @param time the time, in milliseconds since the epoch
+     * @return the time and date, in MS-DOS form
+     */
+    private static int dosTime(long time) {
+        Calendar cal = Calendar.getInstance();
+
+        cal.setTimeInMillis(time);
+
+        int year = cal.get(Calendar.YEAR);
+
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return ((year - 1980) << 25)
+            | ((cal.get(Calendar.MONTH) + 1) << 21)
+            | (cal.get(Calendar.DAY_OF_MONTH) << 16)
+            | (cal.get(Calendar.HOUR_OF_DAY) << 11)
+            | (cal.get(Calendar.MINUTE) << 5)
+            | (cal.get(Calendar.SECOND) >> 1);
+    }
+}
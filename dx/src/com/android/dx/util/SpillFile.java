@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Temporary file that blocks of bytes are appended to, so that they
+ * needn't be kept on the heap until they are read back. The file is
+ * only created once something is written to it, and is deleted when
+ * the instance is closed, so every instance must be closed once done
+ * with. {@link IOException}s are translated to
+ * {@link RuntimeException}s of some sort.
+ *
+ * <p>All the methods lock the instance, so that it can be used from
+ * several threads at once.</p>
+ */
+public final class SpillFile {
+    /** {@code null-ok;} the file, once something has been written */
+    private File file;
+
+    /** {@code null-ok;} the open file, once something has been written */
+    private RandomAccessFile data;
+
+    /** {@code >= 0;} number of bytes written so far */
+    private long size;
+
+    /** whether the instance has been closed */
+    private boolean closed;
+
+    /**
+     * Constructs an instance. It is initially empty.
+     */
+    public SpillFile() {
+        this.file = null;
+        this.data = null;
+        this.size = 0;
+        this.closed = false;
+    }
+
+    /**
+     * Appends a block of bytes.
+     *
+     * @param bytes {@code non-null;} the bytes
+     * @return {@code >= 0;} the offset to read them back from
+     */
+    public synchronized long write(byte[] bytes) {
+        if (closed) {
+            throw new IllegalStateException("closed");
+        }
+
+        long offset = size;
+
+        try {
+            if (data == null) {
+                file = File.createTempFile("dx-", ".spill");
+                data = new RandomAccessFile(file, "rw");
+            }
+
+            data.seek(offset);
+            data.write(bytes);
+        } catch (IOException ex) {
+            throw new RuntimeException("trouble writing spill file", ex);
+        }
+
+        size += bytes.length;
+        return offset;
+    }
+
+    /**
+     * Reads back a block of bytes that was written.
+     *
+     * @param offset {@code >= 0;} the offset the bytes were written at
+     * @param length {@code >= 0;} the number of bytes
+     * @return {@code non-null;} the bytes
+     */
+    public synchronized byte[] read(long offset, int length) {
+        if (closed) {
+            throw new IllegalStateException("closed");
+        }
+
+        if ((offset < 0) || (length < 0) || ((offset + length) > size)) {
+            throw new IllegalArgumentException("bogus range");
+        }
+
+        byte[] result = new byte[length];
+
+        if (length == 0) {
+            return result;
+        }
+
+        try {
+            data.seek(offset);
+            data.readFully(result);
+        } catch (IOException ex) {
+            throw new RuntimeException("trouble reading spill file", ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     *
+     * @return {@code >= 0;} the size
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Closes and deletes the file. Nothing can be written or read
+     * afterwards. Closing an instance more than once is harmless.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (data == null) {
+            return;
+        }
+
+        try {
+            data.close();
+        } catch (IOException ex) {
+            // There's nothing left to read, so it doesn't matter.
+        }
+
+        file.delete();
+        data = null;
+        file = null;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.io.PrintStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Table of interned instances, which only refers to them weakly. An
+ * instance that is used nowhere else is dropped from the table once it
+ * has been garbage collected, so that a process which translates many
+ * sets of classes one after another doesn't keep every instance it
+ * ever interned. Since an instance is only dropped once nothing can
+ * refer to it any longer, there is still never more than one instance
+ * in use for each key. Instances held by static fields, such as the
+ * well-known types, are never dropped.
+ *
+ * <p>All the methods lock the table, so that it can be used from
+ * several threads at once.</p>
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the interned instances
+ */
+public final class WeakInternTable<K, V> {
+    /** {@code non-null;} all the tables constructed, for statistics */
+    private static final ArrayList<WeakInternTable<?, ?>> allTables =
+        new ArrayList<WeakInternTable<?, ?>>();
+
+    /** {@code non-null;} name of the table, for statistics */
+    private final String name;
+
+    /** {@code non-null;} the entries, keyed the same as their instances */
+    private final HashMap<K, Entry<K, V>> entries;
+
+    /** {@code non-null;} where the entries go once they are cleared */
+    private final ReferenceQueue<V> cleared;
+
+    /** number of instances dropped so far */
+    private long evictedCount;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param name {@code non-null;} name of the table, for statistics
+     * @param initialCapacity {@code >= 0;} initial capacity of the table
+     */
+    public WeakInternTable(String name, int initialCapacity) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+
+        this.name = name;
+        this.entries = new HashMap<K, Entry<K, V>>(initialCapacity);
+        this.cleared = new ReferenceQueue<V>();
+        this.evictedCount = 0;
+
+        synchronized (allTables) {
+            allTables.add(this);
+        }
+    }
+
+    /**
+     * Gets the interned instance for the given key.
+     *
+     * @param key {@code non-null;} the key; it may be any object that
+     * is equal to the key the instance was interned with
+     * @return {@code null-ok;} the instance, or {@code null} if there
+     * is none
+     */
+    public synchronized V get(Object key) {
+        Entry<K, V> entry = entries.get(key);
+
+        return (entry == null) ? null : entry.get();
+    }
+
+    /**
+     * Interns the given instance, unless there already is one for the
+     * given key.
+     *
+     * @param key {@code non-null;} the key, which must not change
+     * @param value {@code non-null;} the instance
+     * @return {@code non-null;} the interned instance, which is
+     * {@code value} unless there already was one
+     */
+    public synchronized V intern(K key, V value) {
+        expungeCleared();
+
+        Entry<K, V> entry = entries.get(key);
+
+        if (entry != null) {
+            V already = entry.get();
+
+            if (already != null) {
+                return already;
+            }
+
+            // The entry has been cleared but not yet expunged.
+            evictedCount++;
+        }
+
+        entries.put(key, new Entry<K, V>(key, value, cleared));
+        return value;
+    }
+
+    /**
+     * Gets the number of instances in the table.
+     *
+     * @return {@code >= 0;} the number of instances
+     */
+    public synchronized int size() {
+        expungeCleared();
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of instances dropped from the table so far, since
+     * they were garbage collected.
+     *
+     * @return {@code >= 0;} the number of instances dropped
+     */
+    public synchronized long getEvictedCount() {
+        expungeCleared();
+        return evictedCount;
+    }
+
+    /**
+     * Prints the sizes of all the tables, and how many instances have
+     * been dropped from each.
+     *
+     * @param out {@code non-null;} where to print to
+     */
+    public static void dumpStatistics(PrintStream out) {
+        synchronized (allTables) {
+            out.println("Intern tables:");
+
+            for (WeakInternTable<?, ?> table : allTables) {
+                out.println("  " + table.name + ": " + table.size() +
+                        " interned, " + table.getEvictedCount() +
+                        " evicted");
+            }
+        }
+    }
+
+    /**
+     * Removes the entries whose instances have been garbage collected.
+     */
+    private void expungeCleared() {
+        for (;;) {
+            @SuppressWarnings("unchecked")
+            Entry<K, V> entry = (Entry<K, V>) cleared.poll();
+
+            if (entry == null) {
+                break;
+            }
+
+            /*
+             * The entry may already have been replaced, in which case
+             * it was counted then.
+             */
+            if (entries.get(entry.key) == entry) {
+                entries.remove(entry.key);
+                evictedCount++;
+            }
+        }
+    }
+
+    /**
+     * Entry of the table, which refers to its instance weakly and to
+     * its key strongly, so that the entry can be found again to remove
+     * it once the instance is gone.
+     */
+    private static class Entry<K, V> extends WeakReference<V> {
+        /** {@code non-null;} the key */
+        public final K key;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param key {@code non-null;} the key
+         * @param value {@code non-null;} the instance
+         * @param queue {@code non-null;} where to go once cleared
+         */
+        public Entry(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
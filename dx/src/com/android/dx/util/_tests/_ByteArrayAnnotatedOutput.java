@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.ByteArrayAnnotatedOutput;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Test the class {@code com.android.dx.util.ByteArrayAnnotatedOutput}.
+ */
+public class _ByteArrayAnnotatedOutput
+        extends TestCase {
+    /**
+     * Writes some data with all sorts of annotations: open ones,
+     * ones for a given amount of data, including data not yet written,
+     * empty ones, and data with no annotation at all.
+     *
+     * @param out {@code non-null;} where to write to
+     */
+    private static void writeSome(ByteArrayAnnotatedOutput out) {
+        out.annotate("header");
+        out.writeInt(0x12345678);
+        out.writeShort(0xabcd);
+        out.annotate(0, "empty");
+        out.annotate(4, "four");
+        out.annotate(2, "two, ahead");
+        out.writeInt(0x01020304);
+        out.writeShort(0x0506);
+        out.endAnnotation();
+        out.writeZeroes(7);
+        out.annotate("rest");
+
+        for (int i = 0; i < 50; i++) {
+            out.writeByte(i);
+        }
+
+        out.annotate(2, "two");
+        out.writeShort(0x1111);
+        out.endAnnotation();
+        out.writeLong(0x123456789abcdefL);
+        out.annotate(0, "trailing");
+        out.annotate(0, "more trailing");
+        out.annotate(8, "past the end");
+        out.finishAnnotating();
+    }
+
+    public void test_streamedSameAsKept() throws IOException {
+        ByteArrayAnnotatedOutput kept = new ByteArrayAnnotatedOutput();
+        StringWriter keptText = new StringWriter();
+
+        kept.enableAnnotations(60, false);
+        writeSome(kept);
+        kept.writeAnnotationsTo(keptText);
+
+        ByteArrayAnnotatedOutput streamed = new ByteArrayAnnotatedOutput();
+        StringWriter streamedText = new StringWriter();
+
+        streamed.enableAnnotations(60, false, streamedText);
+        writeSome(streamed);
+
+        assertTrue(keptText.toString().indexOf("two, ahead") >= 0);
+        assertTrue(keptText.toString().indexOf("more trailing") >= 0);
+        assertEquals(keptText.toString(), streamedText.toString());
+    }
+
+    public void test_streamedAsItGoes() {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+        StringWriter text = new StringWriter();
+
+        out.enableAnnotations(60, false, text);
+        out.annotate(2, "first");
+        assertEquals("", text.toString());
+
+        out.writeShort(0);
+        out.annotate(2, "second");
+        assertTrue(text.toString().indexOf("first") >= 0);
+        assertTrue(text.toString().indexOf("second") < 0);
+    }
+
+    public void test_streamedNotWrittenTwice() throws IOException {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+
+        out.enableAnnotations(60, false, new StringWriter());
+        out.finishAnnotating();
+
+        try {
+            out.writeAnnotationsTo(new StringWriter());
+            fail("writeAnnotationsTo() after streaming");
+        } catch (IllegalStateException ex) {
+            // This is expected.
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.WeakInternTable;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the class {@code com.android.dx.util.WeakInternTable}.
+ */
+public class _WeakInternTable
+        extends TestCase {
+    public void test_intern() {
+        WeakInternTable<String, String> table =
+            new WeakInternTable<String, String>("test", 10);
+        String one = new String("one");
+        String other = new String("one");
+
+        assertNull(table.get("one"));
+        assertSame(one, table.intern("one", one));
+        assertSame(one, table.intern("one", other));
+        assertSame(one, table.get("one"));
+        assertEquals(1, table.size());
+        assertEquals(0, table.getEvictedCount());
+    }
+
+    public void test_evict() throws InterruptedException {
+        WeakInternTable<Integer, Object> table =
+            new WeakInternTable<Integer, Object>("test", 10);
+        Object kept = new Object();
+
+        table.intern(0, kept);
+
+        for (int i = 1; i <= 100; i++) {
+            table.intern(i, new Object());
+        }
+
+        for (int i = 0; (i < 100) && (table.size() != 1); i++) {
+            System.gc();
+            // Let the collector's thread queue the cleared entries.
+            Thread.sleep(50);
+        }
+
+        assertEquals(1, table.size());
+        assertEquals(100, table.getEvictedCount());
+        assertSame(kept, table.get(0));
+
+        Object again = new Object();
+        assertSame(again, table.intern(1, again));
+        assertSame(again, table.get(1));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    public static int nestedLoops(int[][] arr) {
+        int sum = 0;
+        for (int i = 0; i < arr.length; i++) {
+            for (int j = 0; j < arr[i].length; j++) {
+                if (arr[i][j] < 0) {
+                    continue;
+                }
+                sum += arr[i][j];
+                if (sum > 1000) {
+                    break;
+                }
+            }
+        }
+        return sum;
+    }
+
+    public static int switchAndTry(Object o, int x) {
+        int result = 0;
+        try {
+            switch (x) {
+                case 0: result = o.hashCode(); break;
+                case 1: result = o.toString().length(); // fall through
+                case 2: result += 2; break;
+                case 10: return -1;
+                default: result = x * 3;
+            }
+        } catch (NullPointerException ex) {
+            result = -2;
+        } finally {
+            result++;
+        }
+        return result;
+    }
+
+    public static int whileWithEarlyExits(int[] arr, int key) {
+        int lo = 0;
+        int hi = arr.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (arr[mid] < key) {
+                lo = mid + 1;
+            } else if (arr[mid] > key) {
+                hi = mid - 1;
+            } else {
+                do {
+                    mid--;
+                } while (mid >= 0 && arr[mid] == key);
+                return mid + 1;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    public static void infinite(Object lock) {
+        synchronized (lock) {
+            for (;;) {
+                if (lock.hashCode() == 0) {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    /*
+     * Each temporary here is assigned on both sides of the branch but
+     * only read inside one of them, so none of them needs a phi at the
+     * join point. Only "result" does.
+     */
+    public static int test(int x, int y) {
+        int result;
+        if (x > y) {
+            int a = x * 2;
+            int b = a + y;
+            result = b - x;
+        } else {
+            int c = y * 3;
+            int d = c - x;
+            result = d + y;
+        }
+        return result;
+    }
+
+    public static int loop(int[] arr) {
+        int sum = 0;
+        for (int i = 0; i < arr.length; i++) {
+            int t = arr[i];
+            if (t < 0) {
+                continue;
+            }
+            sum += t;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    private static int[] sink;
+
+    // Replaced: stores, loads and length with constant indices.
+    public static int sum(int x, int y) {
+        int[] a = new int[3];
+        a[0] = x;
+        a[1] = y;
+        return a[0] + a[1] + a[2] + a.length;
+    }
+
+    // Replaced: the elements become loop-carried registers.
+    public static int fib(int n) {
+        int[] f = new int[2];
+        f[1] = 1;
+        for (int i = 0; i < n; i++) {
+            int t = f[0] + f[1];
+            f[0] = f[1];
+            f[1] = t;
+        }
+        return f[0];
+    }
+
+    // Replaced: initialized with fill-array-data.
+    public static int filled(boolean b) {
+        int[] a = { 10, 20, 30 };
+        if (b) {
+            a[2] = 5;
+        }
+        return a[0] + a[2];
+    }
+
+    // Replaced: a narrow component type.
+    public static byte narrow(byte b) {
+        byte[] a = new byte[1];
+        a[0] = b;
+        return a[0];
+    }
+
+    // Kept: the index is out of bounds, so the store must throw.
+    public static int outOfBounds(int x) {
+        int[] a = new int[2];
+        try {
+            a[2] = x;
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            return -1;
+        }
+        return a[0];
+    }
+
+    // Kept: the index isn't constant.
+    public static int variableIndex(int i) {
+        int[] a = new int[4];
+        a[i] = 1;
+        return a[0];
+    }
+
+    // Kept: the array escapes.
+    public static int escapes(int x) {
+        int[] a = new int[1];
+        a[0] = x;
+        sink = a;
+        return a[0];
+    }
+
+    // Kept: the component type is wide.
+    public static long wide(long x) {
+        long[] a = new long[1];
+        a[0] = x;
+        return a[0];
+    }
+}
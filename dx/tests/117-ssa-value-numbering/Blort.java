@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    private static int field;
+
+    // One mul: the operands are in the other order.
+    public static int arith(int a, int b) {
+        return (a * b) + (b * a);
+    }
+
+    // One array-length.
+    public static int length(int[] a) {
+        return a.length + a.length;
+    }
+
+    // One const-class.
+    public static boolean klass() {
+        Object x = Blort.class;
+        Object y = Blort.class;
+        return x == y;
+    }
+
+    // One div-int: the second can't throw once the first hasn't.
+    public static int div(int a, int b) {
+        int q = a / b;
+        return q + a / b;
+    }
+
+    // Two muls: the first doesn't dominate the second.
+    public static int notDominated(boolean c, int a, int b) {
+        int x = 0;
+        if (c) {
+            x = a * b;
+        }
+        return x + a * b;
+    }
+
+    // Two array-lengths: the first may not have completed.
+    public static int caught(int[] a) {
+        int n;
+        try {
+            n = a.length;
+        } catch (NullPointerException ex) {
+            n = -1;
+        }
+        return n + a.length;
+    }
+
+    // Two field reads: memory isn't numbered.
+    public static int fieldRead() {
+        return field + field;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    private int value;
+
+    private int getValue() {
+        return value;
+    }
+
+    private static int twice(int x) {
+        return x + x;
+    }
+
+    private static int first(int[] arr) {
+        return arr[0];
+    }
+
+    private static synchronized int locked(int x) {
+        return x;
+    }
+
+    private static int big(int x) {
+        int y = x * 3 + 1;
+        y ^= y >>> 7;
+        y += x * 5;
+        y ^= y << 3;
+        y -= x / 7;
+        y ^= y >> 11;
+        return y;
+    }
+
+    // Inlined: the receiver is this.
+    public int useGetter() {
+        return getValue() + 1;
+    }
+
+    // Not inlined: the receiver may be null.
+    public static int otherGetter(Blort other) {
+        return other.getValue();
+    }
+
+    // Inlined, inside a try block.
+    public static int useTwice(int a) {
+        try {
+            return twice(a) / a;
+        } catch (ArithmeticException ex) {
+            return -1;
+        }
+    }
+
+    // Inlined: the handler catches what the callee throws.
+    public static int caught(int[] arr) {
+        try {
+            return first(arr);
+        } catch (NullPointerException ex) {
+            return -1;
+        }
+    }
+
+    // Not inlined: synchronized.
+    public static int useLocked(int x) {
+        return locked(x);
+    }
+
+    // Only inlined with a higher threshold.
+    public static int useBig(int x) {
+        return big(x);
+    }
+
+    // Not inlined: recursive.
+    public static int fact(int n) {
+        return (n <= 1) ? 1 : n * fact(n - 1);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    private static int field;
+
+    // The mul of the arguments moves out; the one using a[i] can't.
+    public static int scale(int[] a, int x, int y) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * (x * y);
+        }
+        return sum;
+    }
+
+    // The shift and the sub move out of both loops.
+    public static int nested(int n, int x, int y) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                sum += j ^ ((x << 3) - y);
+            }
+        }
+        return sum;
+    }
+
+    // The loop may not run at all, and a may be null.
+    public static int length(int[] a, int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += a.length;
+        }
+        return sum;
+    }
+
+    // Division by zero may throw, and not every pass reaches it.
+    public static int guarded(int n, int x, int y) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            if ((i & 1) != 0) {
+                sum += x / y;
+            }
+        }
+        return sum;
+    }
+
+    // Field reads may see the field change.
+    public static int fieldRead(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += field * 2;
+        }
+        return sum;
+    }
+}
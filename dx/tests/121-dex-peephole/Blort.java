@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    // The else branch returns directly instead of jumping to the return.
+    public static int choose(boolean c, int a) {
+        int r;
+        if (c) {
+            r = a;
+        } else {
+            r = -a;
+        }
+        return r;
+    }
+
+    // Without optimization, the copies move values back and forth.
+    public static int copy(int x) {
+        int y = x;
+        x = y;
+        return x;
+    }
+
+    // Each case returns directly.
+    public static int pick(int x) {
+        switch (x) {
+            case 1: return 5;
+            case 2: return 7;
+        }
+        return x;
+    }
+}
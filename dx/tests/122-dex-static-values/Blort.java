@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    // These all become static values.
+    static int count = 42;
+    static boolean flag = true;
+    static byte small = -3;
+    static long big = 1234567890123L;
+    static double ratio = 0.5;
+    static String name = "blort";
+    static Object nothing = null;
+
+    // Arrays stay in the initializer, which stops the moving of stores.
+    static final int[] TABLE = { 1, 2, 3, 4, 5, 6, 7, 8 };
+    static int after = 7;
+
+    // Only the leading constant elements are filled in from a table.
+    static int[] partial = { 1, 2, 3, zap(), 5 };
+
+    static int zap() {
+        return after;
+    }
+}
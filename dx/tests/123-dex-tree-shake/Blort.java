@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+public class Blort {
+    static int unusedField;
+    static int usedField = 3;
+
+    public static void main(String[] args) {
+        Shape s = new Square(usedField);
+        System.out.println(s.area());
+        new Runnable() {
+            public void run() {
+                helper();
+            }
+        }.run();
+    }
+
+    static void helper() {
+    }
+
+    static void unused() {
+        new Circle();
+    }
+}
+
+abstract class Shape {
+    public abstract int area();
+
+    public int perimeter() {
+        return 0;
+    }
+}
+
+class Square extends Shape {
+    private final int side;
+    private int unused;
+
+    public Square(int side) {
+        this.side = side;
+    }
+
+    public int area() {
+        return side * side;
+    }
+
+    public int perimeter() {
+        return 4 * side;
+    }
+
+    public String toString() {
+        return "square";
+    }
+
+    static class Inner {
+    }
+}
+
+class Circle extends Shape {
+    public int area() {
+        return 3;
+    }
+
+    public int radius() {
+        return 1;
+    }
+}
+
+@interface Keep {
+}
+
+class Reflected {
+    @Keep
+    public void keptByAnnotation() {
+    }
+
+    public void dropped() {
+    }
+}
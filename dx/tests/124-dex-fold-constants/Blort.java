@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+public class Blort {
+    public static int attribute() {
+        return Zorch.ATTRIBUTE;
+    }
+
+    public static int count() {
+        return Zorch.COUNT + 1;
+    }
+
+    public static String name() {
+        return Zorch.NAME;
+    }
+
+    public static long big() {
+        return Zorch.BIG;
+    }
+
+    public static boolean flag() {
+        return Zorch.FLAG;
+    }
+
+    public static int late() {
+        return Zorch.LATE;
+    }
+
+    public static int notFinal() {
+        return Zorch.notFinal;
+    }
+
+    public static int caught() {
+        try {
+            return Zorch.COUNT;
+        } catch (RuntimeException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * An older version of Zorch, which Blort is compiled against, in which
+ * ATTRIBUTE wasn't yet a compile-time constant.
+ */
+public class Zorch {
+    public static final int ATTRIBUTE = Integer.parseInt("17");
+    public static final int COUNT;
+    public static final String NAME;
+    public static final long BIG;
+    public static final boolean FLAG;
+    public static final int LATE;
+    public static int notFinal = 3;
+
+    static {
+        COUNT = 10;
+        NAME = "zorch";
+        BIG = 1L << 40;
+        FLAG = true;
+        System.out.println("initializing");
+        LATE = 5;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    public static void main(String[] args) {
+        new Delta().run();
+        Alpha.run();
+    }
+}
+
+class Alpha {
+    static void run() {
+        System.out.println("alpha");
+    }
+
+    static void later() {
+        System.out.println("later");
+    }
+}
+
+class Beta {
+    void unused() {
+        System.out.println("beta");
+    }
+}
+
+class Gamma {
+    void run() {
+        System.out.println("gamma");
+    }
+}
+
+class Delta extends Gamma {
+    void run() {
+        System.out.println("delta");
+    }
+}
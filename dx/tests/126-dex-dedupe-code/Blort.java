@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    public static void main(String[] args) {
+        System.out.println(new Alpha().one() + new Beta().one());
+    }
+}
+
+class Alpha {
+    public int one() {
+        return 1;
+    }
+
+    public void nothing() {
+        // This space intentionally left blank.
+    }
+
+    public int two() {
+        return 2;
+    }
+
+    public int four() {
+        return one() + 3;
+    }
+
+    public int five() {
+        return one() + 3;
+    }
+}
+
+class Beta {
+    public int one() {
+        return 1;
+    }
+
+    public void nothing() {
+        // This space intentionally left blank.
+    }
+
+    public int three() {
+        return 3;
+    }
+
+    public int four() {
+        return one() + 3;
+    }
+}
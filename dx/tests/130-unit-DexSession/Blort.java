@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+class Blort {
+    private static final String[] NAMES = { "alpha", "beta", "gamma" };
+
+    private int count;
+
+    public String name(int i) {
+        try {
+            return NAMES[i];
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            return "none";
+        }
+    }
+
+    public int count(int n) {
+        int x = 0;
+
+        for (int i = 0; i < n; i++) {
+            int y = x;
+            if ((i & 1) == 0) {
+                count++;
+            }
+            x = y;
+        }
+
+        return count + x;
+    }
+}
+
+class Zorch extends Blort {
+    @Deprecated
+    public String name(int i) {
+        return "zorch" + super.name(i);
+    }
+
+    public long sum(long[] values) {
+        long result = 0;
+
+        for (long v : values) {
+            result += v;
+        }
+
+        return result;
+    }
+}
+
+interface Fizmo {
+    void fizmo(String s);
+}
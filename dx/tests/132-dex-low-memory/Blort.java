@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+public class Blort {
+    private static final int[] PRIMES = { 2, 3, 5, 7, 11, 13 };
+
+    public static int classify(int x) {
+        switch (x) {
+            case 1: return 10;
+            case 2: return 20;
+            case 3: return 30;
+            case 100: return 40;
+            case 1000: return 50;
+            default: return -1;
+        }
+    }
+
+    public static long sum(long[] values, double scale) {
+        long total = 0;
+        double weight = scale;
+
+        for (int i = 0; i < values.length; i++) {
+            long value = values[i];
+            total += (long) (value * weight);
+            weight *= 0.5;
+        }
+
+        return total;
+    }
+
+    public static String parse(String s) {
+        try {
+            return "number " + Integer.parseInt(s);
+        } catch (NumberFormatException ex) {
+            return "not a number";
+        } catch (RuntimeException ex) {
+            return "trouble";
+        } finally {
+            PRIMES[0] = 2;
+        }
+    }
+
+    public static synchronized Object make(int n) {
+        Object result;
+
+        if (n < 0) {
+            result = new char[] { 'a', 'b', 'c' };
+        } else if (n == 0) {
+            result = new String[n];
+        } else {
+            result = new int[n][n];
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package blort;
+
+public class Blort {
+    public interface Frotz {
+        int frotz(int x);
+    }
+
+    public static int zorch1(int[] arr) {
+        int sum = 0;
+
+        for (int i = 0; i < arr.length; i++) {
+            sum += arr[i] * 3;
+        }
+
+        return sum;
+    }
+
+    public static String zorch2(Object o) {
+        try {
+            return o.toString();
+        } catch (RuntimeException ex) {
+            return "trouble";
+        }
+    }
+
+    public int blort(Frotz f, int x) {
+        switch (x) {
+            case 0: return f.frotz(1);
+            case 1: return f.frotz(x + 2);
+            default: return zorch1(new int[] { x, x });
+        }
+    }
+
+    public native void fizmo();
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Methods of different classes, and of one class, with the same code,
+ * which dx shares when asked to. The VM rewrites field accesses and
+ * invokes in place as it verifies and optimizes each class, so the
+ * classes must still verify and run once their code is shared.
+ */
+public class Main {
+    public static void main(String[] args) {
+        Alpha alpha = new Alpha(1);
+        Beta beta = new Beta(2);
+
+        System.out.println("Alpha: " + alpha.get() + " " + alpha.again() +
+                " " + alpha.twice() + " " + alpha.twiceAgain());
+        System.out.println("Beta: " + beta.get() + " " + beta.again() +
+                " " + beta.twice());
+
+        alpha.nothing();
+        beta.nothing();
+        System.out.println("Constant: " + Alpha.seven() + " " +
+                Beta.seven());
+    }
+}
+
+class Alpha {
+    private int value;
+
+    public Alpha(int value) {
+        this.value = value;
+    }
+
+    public int get() {
+        return value;
+    }
+
+    public int again() {
+        return value;
+    }
+
+    public int twice() {
+        return get() + get();
+    }
+
+    public int twiceAgain() {
+        return get() + get();
+    }
+
+    public void nothing() {
+        // This space intentionally left blank.
+    }
+
+    public static int seven() {
+        return 7;
+    }
+}
+
+class Beta {
+    private int value;
+
+    public Beta(int value) {
+        this.value = value;
+    }
+
+    public int get() {
+        return value;
+    }
+
+    public int again() {
+        return value;
+    }
+
+    public int twice() {
+        return get() + get();
+    }
+
+    public void nothing() {
+        // This space intentionally left blank.
+    }
+
+    public static int seven() {
+        return 7;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Each test body comes in two versions: 0, with an invariant
+ * computation inside the loop, as written, and 1, with the computation
+ * moved out of the loop by hand. Once dx has moved the invariants out,
+ * the two versions should take about the same time.
+ *
+ * <ul>
+ * <li>A: product of arguments, times each array element</li>
+ * <li>B: shift and subtract of arguments, in a nested loop</li>
+ * <li>C: array length, as the loop bound</li>
+ * <li>D: longer expression of arguments, added each time</li>
+ * </ul>
+ */
+public class Main {
+    static public final int BODIES = 4;
+    static public final int VERSIONS = 2;
+
+    /** how much slower the version as written may be */
+    static public final double MAX_RATIO = 1.2;
+
+    static public final int ARRAY_SIZE = 100;
+    static public final int NESTED_SIZE = 10;
+
+    static private int[] array = new int[ARRAY_SIZE];
+
+    /** results of the runs, so that they aren't thrown away */
+    static public int sink;
+
+    static public void main(String[] args) throws Exception {
+        boolean timing = (args.length >= 1) && args[0].equals("--timing");
+
+        for (int i = 0; i < ARRAY_SIZE; i++) {
+            array[i] = i;
+        }
+
+        checkResults();
+
+        int iters = 100;
+        double probeSec;
+
+        for (;;) {
+            long t0 = System.nanoTime();
+            runAllTests(iters, false);
+            long t1 = System.nanoTime();
+
+            probeSec = (t1 - t0) / 1000000000.0;
+            if (probeSec > 0.25) {
+                break;
+            }
+
+            iters *= 2;
+        }
+
+        // Attempt to arrange for the real test to take 10 seconds.
+        iters = (int) ((iters / probeSec) * 10);
+
+        if (timing) {
+            System.out.println("iters = " + iters);
+        }
+
+        run(timing, iters);
+    }
+
+    /**
+     * Makes sure that both versions of each body compute the same
+     * thing, so that only the timings can differ.
+     */
+    static public void checkResults() {
+        if ((sumA0(3, 5) != sumA1(3, 5))
+                || (sumB0(3, 5) != sumB1(3, 5))
+                || (sumC0() != sumC1())
+                || (sumD0(3, 5, 7) != sumD1(3, 5, 7))) {
+            throw new AssertionError("versions differ");
+        }
+    }
+
+    static public void printTimings(double[][] timings) {
+        System.out.println();
+        System.out.println("(usec)      0        1    ratio");
+        System.out.println("      -------- -------- --------");
+
+        for (int i = 0; i < BODIES; i++) {
+            System.out.printf("%4c: %8.3g %8.3g %8.3g\n",
+                    (char) (i + 'A'), timings[i][0], timings[i][1],
+                    timings[i][0] / timings[i][1]);
+        }
+    }
+
+    static public void run(boolean timing, int iters) {
+        double[][] timings = null; // assign to avoid apparent javac bug
+
+        // Try up to 5 times to get good times.
+        for (int i = 0; i < 5; i++) {
+            double[][] newTimings = runAllTests(iters, timing || (i == 0));
+
+            if (timings == null) {
+                timings = newTimings;
+            } else {
+                combineTimings(timings, newTimings, i);
+            }
+
+            if (checkTimes(timings, timing)) {
+                break;
+            }
+        }
+
+        System.out.println("Done with runs.");
+
+        boolean goodTimes = checkTimes(timings, true);
+
+        if (! goodTimes) {
+            timing = true;
+        }
+
+        if (timing) {
+            printTimings(timings);
+        } else {
+            System.out.println("\nAll times are within the expected ranges.");
+        }
+    }
+
+    static public void combineTimings(double[][] target, double[][] newTimes,
+            int oldWeight) {
+        for (int i = 0; i < target.length; i++) {
+            for (int j = 0; j < target[i].length; j++) {
+                target[i][j] =
+                    ((target[i][j] * oldWeight) + newTimes[i][j])
+                    / (oldWeight + 1);
+            }
+        }
+    }
+
+    static public boolean checkTimes(double[][] timings, boolean print) {
+        boolean good = true;
+
+        for (int x = 0; x < BODIES; x++) {
+            double ratio = timings[x][0] / timings[x][1];
+            if (ratio > MAX_RATIO) {
+                if (print) {
+                    System.out.printf("%c0 is too slow: %.3g vs. %.3g\n",
+                            (char) (x + 'A'), ratio, MAX_RATIO);
+                }
+                good = false;
+            }
+        }
+
+        return good;
+    }
+
+    static public double[][] runAllTests(int iters, boolean print) {
+        // diters is used to get usec, not nanosec; hence the extra 1000.
+        double diters = (double) iters * 1000;
+
+        double[][] timings = new double[BODIES][VERSIONS];
+        long t0, t1, t2;
+
+        // Body A
+
+        if (print) {
+            System.out.println("Running A...");
+        }
+
+        t0 = System.nanoTime();
+        testA0(iters);
+        t1 = System.nanoTime();
+        testA1(iters);
+        t2 = System.nanoTime();
+
+        timings[0][0] = (t1 - t0) / diters;
+        timings[0][1] = (t2 - t1) / diters;
+
+        // Body B
+
+        if (print) {
+            System.out.println("Running B...");
+        }
+
+        t0 = System.nanoTime();
+        testB0(iters);
+        t1 = System.nanoTime();
+        testB1(iters);
+        t2 = System.nanoTime();
+
+        timings[1][0] = (t1 - t0) / diters;
+        timings[1][1] = (t2 - t1) / diters;
+
+        // Body C
+
+        if (print) {
+            System.out.println("Running C...");
+        }
+
+        t0 = System.nanoTime();
+        testC0(iters);
+        t1 = System.nanoTime();
+        testC1(iters);
+        t2 = System.nanoTime();
+
+        timings[2][0] = (t1 - t0) / diters;
+        timings[2][1] = (t2 - t1) / diters;
+
+        // Body D
+
+        if (print) {
+            System.out.println("Running D...");
+        }
+
+        t0 = System.nanoTime();
+        testD0(iters);
+        t1 = System.nanoTime();
+        testD1(iters);
+        t2 = System.nanoTime();
+
+        timings[3][0] = (t1 - t0) / diters;
+        timings[3][1] = (t2 - t1) / diters;
+
+        return timings;
+    }
+
+    // The tests themselves, each running its body iters times.
+
+    static public void testA0(int iters) {
+        for (int i = 0; i < iters; i++) {
+            sink += sumA0(i, 5);
+        }
+    }
+
+    static public void testA1(int iters) {
+        for (int i = 0; i < iters; i++) {
+            sink += sumA1(i, 5);
+        }
+    }
+
+    static public void testB0(int iters) {
+        for (int i = 0; i < iters; i++) {
+            sink += sumB0(i, 5);
+        }
+    }
+
+    static public void testB1(int iters) {
+        for (int i = 0; i < iters; i++) {
+            sink += sumB1(i, 5);
+        }
+    }
+
+    static public void testC0(int iters) {
+        for (int i = 0; i < iters; i++) {
+            sink += sumC0();
+        }
+    }
+
+    static public void testC1(int iters) {
+        for (int i = 0; i < iters; i++) {
+            sink += sumC1();
+        }
+    }
+
+    static public void testD0(int iters) {
+        for (int i = 0; i < iters; i++) {
+            sink += sumD0(i, 5, 7);
+        }
+    }
+
+    static public void testD1(int iters) {
+        for (int i = 0; i < iters; i++) {
+            sink += sumD1(i, 5, 7);
+        }
+    }
+
+    // The bodies, as written and with their invariants moved by hand.
+
+    static public int sumA0(int x, int y) {
+        int[] a = array;
+        int sum = 0;
+        for (int i = 0; i < ARRAY_SIZE; i++) {
+            sum += a[i] * (x * y);
+        }
+        return sum;
+    }
+
+    static public int sumA1(int x, int y) {
+        int[] a = array;
+        int sum = 0;
+        int xy = x * y;
+        for (int i = 0; i < ARRAY_SIZE; i++) {
+            sum += a[i] * xy;
+        }
+        return sum;
+    }
+
+    static public int sumB0(int x, int y) {
+        int sum = 0;
+        for (int i = 0; i < NESTED_SIZE; i++) {
+            for (int j = 0; j < NESTED_SIZE; j++) {
+                sum += j ^ ((x << 3) - y);
+            }
+        }
+        return sum;
+    }
+
+    static public int sumB1(int x, int y) {
+        int sum = 0;
+        int mask = (x << 3) - y;
+        for (int i = 0; i < NESTED_SIZE; i++) {
+            for (int j = 0; j < NESTED_SIZE; j++) {
+                sum += j ^ mask;
+            }
+        }
+        return sum;
+    }
+
+    static public int sumC0() {
+        int[] a = array;
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i];
+        }
+        return sum;
+    }
+
+    static public int sumC1() {
+        int[] a = array;
+        int sum = 0;
+        int length = a.length;
+        for (int i = 0; i < length; i++) {
+            sum += a[i];
+        }
+        return sum;
+    }
+
+    static public int sumD0(int x, int y, int z) {
+        int sum = 0;
+        for (int i = 0; i < ARRAY_SIZE; i++) {
+            sum += i + (((x * y + z) ^ (x - z)) << 2);
+        }
+        return sum;
+    }
+
+    static public int sumD1(int x, int y, int z) {
+        int sum = 0;
+        int k = ((x * y + z) ^ (x - z)) << 2;
+        for (int i = 0; i < ARRAY_SIZE; i++) {
+            sum += i + k;
+        }
+        return sum;
+    }
+}